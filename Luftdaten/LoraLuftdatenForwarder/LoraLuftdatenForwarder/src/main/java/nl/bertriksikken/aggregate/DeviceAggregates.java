@@ -0,0 +1,274 @@
+package nl.bertriksikken.aggregate;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The rolling aggregates of one device, in a single fixed-size int array guarded by a sequence lock.
+ *
+ * <pre>
+ * [0]                       sequence number, odd while the writer is changing the array
+ * 12 x 5 minute buckets     the 1 h window
+ * 24 x 1 hour buckets       the 24 h window
+ * 28 x 6 hour buckets       the 7 d window
+ * 3 x 8 hour digests        the PM2.5 t-digests of the last 24 h
+ *
+ * bucket (6 ints): bucket number, count, sum of PM2.5 and of PM10 (float bits), min and max of PM2.5 and of PM10
+ * digest (51 ints): period number, number of centroids, number of buffered values, 20 x (mean, weight), 8 values
+ * </pre>
+ *
+ * A minimum and maximum share one int, as two unsigned 16-bit numbers of tenths (0 to 6553.5), the resolution of the
+ * sensors. This keeps a device at about 2 kB.
+ *
+ * A bucket or digest holds the period given by its number, a slot with an older number is stale and reset when the
+ * writer gets there. There must be a single writer. Readers never block the writer: they retry when the sequence
+ * number was odd or changed while they read, so they always see the state between two writes.
+ */
+final class DeviceAggregates {
+
+    static final int FIELDS = 2;
+    static final int FIELD_PM2_5 = 0;
+    static final int FIELD_PM10 = 1;
+
+    static final long MINUTE_BUCKET_MS = 300_000L;
+    static final int MINUTE_BUCKETS = 12;
+    static final long HOUR_BUCKET_MS = 3_600_000L;
+    static final int HOUR_BUCKETS = 24;
+    static final long QUARTER_BUCKET_MS = 6 * 3_600_000L;
+    static final int QUARTER_BUCKETS = 28;
+    static final long DIGEST_PERIOD_MS = 8 * 3_600_000L;
+    static final int DIGESTS = 3;
+    static final int CENTROIDS = 20;
+    static final int BUFFER = 8;
+
+    static final int BUCKET_INTS = 2 + 2 * FIELDS;
+    static final int DIGEST_INTS = 3 + 2 * CENTROIDS + BUFFER;
+    private static final int SEQ = 0;
+    private static final int MINUTE_RING = 1;
+    private static final int HOUR_RING = MINUTE_RING + MINUTE_BUCKETS * BUCKET_INTS;
+    private static final int QUARTER_RING = HOUR_RING + HOUR_BUCKETS * BUCKET_INTS;
+    private static final int DIGEST_RING = QUARTER_RING + QUARTER_BUCKETS * BUCKET_INTS;
+    static final int SIZE = DIGEST_RING + DIGESTS * DIGEST_INTS;
+
+    // the packed minimum and maximum of a field without values: the minimum above the maximum
+    private static final int EMPTY_RANGE = 0xFFFF;
+    private static final int MAX_TENTHS = 0xFFFF;
+
+    private final AtomicIntegerArray data = new AtomicIntegerArray(SIZE);
+
+    DeviceAggregates() {
+        // all bucket and period numbers 0: stale
+    }
+
+    /**
+     * Adds a reading, must only be called by the single writer of this device.
+     *
+     * @param time the time of the reading (ms since epoch)
+     * @param pm2_5 the PM2.5 value
+     * @param pm10 the PM10 value
+     */
+    void add(long time, float pm2_5, float pm10) {
+        int seq = data.get(SEQ);
+        data.set(SEQ, seq + 1);
+        addToBucket(MINUTE_RING, MINUTE_BUCKETS, (int) Math.floorDiv(time, MINUTE_BUCKET_MS), pm2_5, pm10);
+        addToBucket(HOUR_RING, HOUR_BUCKETS, (int) Math.floorDiv(time, HOUR_BUCKET_MS), pm2_5, pm10);
+        addToBucket(QUARTER_RING, QUARTER_BUCKETS, (int) Math.floorDiv(time, QUARTER_BUCKET_MS), pm2_5, pm10);
+        if (!Float.isNaN(pm2_5)) {
+            addToDigest((int) Math.floorDiv(time, DIGEST_PERIOD_MS), pm2_5);
+        }
+        data.lazySet(SEQ, seq + 2);
+    }
+
+    private void addToBucket(int ring, int length, int number, float pm2_5, float pm10) {
+        int base = ring + Math.floorMod(number, length) * BUCKET_INTS;
+        int current = data.get(base);
+        if (number < current) {
+            // too late for the ring
+            return;
+        }
+        if (number > current) {
+            data.lazySet(base, number);
+            data.lazySet(base + 1, 0);
+            for (int f = 0; f < FIELDS; f++) {
+                data.lazySet(base + 2 + f, Float.floatToRawIntBits(0.0f));
+                data.lazySet(base + 2 + FIELDS + f, EMPTY_RANGE);
+            }
+        }
+        data.lazySet(base + 1, data.get(base + 1) + 1);
+        addToField(base, FIELD_PM2_5, pm2_5);
+        addToField(base, FIELD_PM10, pm10);
+    }
+
+    private void addToField(int base, int field, float value) {
+        if (Float.isNaN(value)) {
+            return;
+        }
+        int sum = base + 2 + field;
+        data.lazySet(sum, Float.floatToRawIntBits(getFloat(sum) + value));
+        int range = base + 2 + FIELDS + field;
+        int packed = data.get(range);
+        int tenths = (int) Math.max(0, Math.min(MAX_TENTHS, Math.round(value * 10.0)));
+        int min = Math.min(packed & 0xFFFF, tenths);
+        int max = Math.max(packed >>> 16, tenths);
+        data.lazySet(range, (max << 16) | min);
+    }
+
+    private void addToDigest(int number, float value) {
+        int base = DIGEST_RING + Math.floorMod(number, DIGESTS) * DIGEST_INTS;
+        int current = data.get(base);
+        if (number < current) {
+            return;
+        }
+        if (number > current) {
+            data.lazySet(base, number);
+            data.lazySet(base + 1, 0);
+            data.lazySet(base + 2, 0);
+        }
+        int centroids = data.get(base + 1);
+        int buffered = data.get(base + 2);
+        data.lazySet(base + 3 + 2 * CENTROIDS + buffered, Float.floatToRawIntBits(value));
+        buffered++;
+        if (buffered == BUFFER) {
+            // merge the buffer into the centroids
+            float[] means = new float[CENTROIDS + BUFFER];
+            int[] weights = new int[CENTROIDS + BUFFER];
+            int n = readDigest(base, centroids, buffered, means, weights, 0);
+            n = TDigest.compress(means, weights, n, CENTROIDS);
+            for (int i = 0; i < n; i++) {
+                data.lazySet(base + 3 + 2 * i, Float.floatToRawIntBits(means[i]));
+                data.lazySet(base + 4 + 2 * i, weights[i]);
+            }
+            centroids = n;
+            buffered = 0;
+        }
+        data.lazySet(base + 1, centroids);
+        data.lazySet(base + 2, buffered);
+    }
+
+    // copies the centroids and buffered values of a digest, returns the new number of entries
+    private int readDigest(int base, int centroids, int buffered, float[] means, int[] weights, int n) {
+        for (int i = 0; i < centroids; i++) {
+            means[n] = getFloat(base + 3 + 2 * i);
+            weights[n] = data.get(base + 4 + 2 * i);
+            n++;
+        }
+        for (int i = 0; i < buffered; i++) {
+            means[n] = getFloat(base + 3 + 2 * CENTROIDS + i);
+            weights[n] = 1;
+            n++;
+        }
+        return n;
+    }
+
+    private float getFloat(int offset) {
+        return Float.intBitsToFloat(data.get(offset));
+    }
+
+    /**
+     * Reads the aggregates of a window, consistent with a single point in the sequence of writes.
+     *
+     * @param window the window
+     * @param now the current time (ms since epoch)
+     * @return the aggregates
+     */
+    WindowStats read(EWindow window, long now) {
+        int ring;
+        int length;
+        int buckets;
+        long bucketMs;
+        switch (window) {
+        case HOUR:
+            ring = MINUTE_RING;
+            length = MINUTE_BUCKETS;
+            buckets = MINUTE_BUCKETS;
+            bucketMs = MINUTE_BUCKET_MS;
+            break;
+        case DAY:
+            ring = HOUR_RING;
+            length = HOUR_BUCKETS;
+            buckets = HOUR_BUCKETS;
+            bucketMs = HOUR_BUCKET_MS;
+            break;
+        case WEEK:
+        default:
+            ring = QUARTER_RING;
+            length = QUARTER_BUCKETS;
+            buckets = QUARTER_BUCKETS;
+            bucketMs = QUARTER_BUCKET_MS;
+            break;
+        }
+        int last = (int) Math.floorDiv(now, bucketMs);
+        double[] sums = new double[FIELDS];
+        float[] mins = new float[FIELDS];
+        float[] maxs = new float[FIELDS];
+        while (true) {
+            int seq = data.get(SEQ);
+            if ((seq & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            long count = 0;
+            for (int f = 0; f < FIELDS; f++) {
+                sums[f] = 0.0;
+                mins[f] = Float.POSITIVE_INFINITY;
+                maxs[f] = Float.NEGATIVE_INFINITY;
+            }
+            for (int number = last - buckets + 1; number <= last; number++) {
+                int base = ring + Math.floorMod(number, length) * BUCKET_INTS;
+                if (data.get(base) != number) {
+                    continue;
+                }
+                count += data.get(base + 1);
+                for (int f = 0; f < FIELDS; f++) {
+                    sums[f] += getFloat(base + 2 + f);
+                    int packed = data.get(base + 2 + FIELDS + f);
+                    if ((packed & 0xFFFF) <= (packed >>> 16)) {
+                        mins[f] = Math.min(mins[f], (packed & 0xFFFF) / 10.0f);
+                        maxs[f] = Math.max(maxs[f], (packed >>> 16) / 10.0f);
+                    }
+                }
+            }
+            if (data.get(SEQ) == seq) {
+                return new WindowStats(window, count, sums, mins, maxs);
+            }
+        }
+    }
+
+    /**
+     * Estimates a percentile of PM2.5 over the digests of the last 24 h, consistent with a single point in the
+     * sequence of writes.
+     *
+     * @param q the quantile, 0..1
+     * @param now the current time (ms since epoch)
+     * @return the estimate, NaN if there were no values
+     */
+    double percentile(double q, long now) {
+        int last = (int) Math.floorDiv(now, DIGEST_PERIOD_MS);
+        float[] means = new float[DIGESTS * (CENTROIDS + BUFFER)];
+        int[] weights = new int[means.length];
+        int n;
+        while (true) {
+            int seq = data.get(SEQ);
+            if ((seq & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            n = 0;
+            for (int number = last - DIGESTS + 1; number <= last; number++) {
+                int base = DIGEST_RING + Math.floorMod(number, DIGESTS) * DIGEST_INTS;
+                if (data.get(base) != number) {
+                    continue;
+                }
+                // the counts can be torn, clamp them until the sequence number is checked
+                int centroids = Math.min(Math.max(data.get(base + 1), 0), CENTROIDS);
+                int buffered = Math.min(Math.max(data.get(base + 2), 0), BUFFER);
+                n = readDigest(base, centroids, buffered, means, weights, n);
+            }
+            if (data.get(SEQ) == seq) {
+                break;
+            }
+        }
+        TDigest.sort(means, weights, n);
+        return TDigest.quantile(means, weights, n, q);
+    }
+
+}
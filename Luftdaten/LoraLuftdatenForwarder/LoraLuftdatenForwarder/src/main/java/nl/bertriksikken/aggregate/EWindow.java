@@ -0,0 +1,35 @@
+package nl.bertriksikken.aggregate;
+
+/**
+ * A rolling window of the aggregates.
+ */
+public enum EWindow {
+
+	HOUR("1h"),
+	DAY("24h"),
+	WEEK("7d");
+
+	private final String id;
+
+	EWindow(String id) {
+		this.id = id;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @param id the id, e.g. "24h"
+	 * @return the window, null if unknown
+	 */
+	public static EWindow fromId(String id) {
+		for (EWindow window : values()) {
+			if (window.id.equals(id)) {
+				return window;
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,117 @@
+package nl.bertriksikken.aggregate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory rolling aggregates of PM2.5 and PM10 per device: count, mean, minimum and maximum over the last hour,
+ * 24 hours and 7 days, and percentiles of PM2.5 over the last 24 hours from a t-digest.
+ *
+ * Windows move per bucket: the 1 h window consists of 5-minute buckets, the 24 h window of 1-hour buckets and the 7 d
+ * window of 6-hour buckets, the current bucket included. The percentiles cover the current 8-hour period and the 2
+ * before it. Minimums and maximums have a resolution of 0.1.
+ *
+ * Every device takes a fixed {@value #DEVICE_BYTES} bytes (a {@value DeviceAggregates#SIZE} int array, see
+ * {@link DeviceAggregates}), about 23 MB for 10 000 devices. New devices beyond the maximum are not tracked.
+ *
+ * Readings of one device must be added from one thread at a time, e.g. a sink worker. Reads do not lock and can run
+ * on any thread, they return a consistent view of all buckets of a window.
+ */
+public final class RollingAggregator {
+
+    /**
+     * The approximate heap size per device.
+     */
+    public static final int DEVICE_BYTES = 4 * DeviceAggregates.SIZE + 100;
+
+    private final int maxDevices;
+    private final Map<String, DeviceAggregates> devices = new ConcurrentHashMap<>();
+    private final LongAdder addCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param maxDevices the maximum number of devices
+     */
+    public RollingAggregator(int maxDevices) {
+        this.maxDevices = maxDevices;
+    }
+
+    /**
+     * Adds a reading. Readings of one device must not be added concurrently.
+     *
+     * @param deviceId the device id
+     * @param time the time of the reading (ms since epoch)
+     * @param pm2_5 the PM2.5 value
+     * @param pm10 the PM10 value
+     * @return false if the reading was not added, because it lacks a PM value or the device limit was reached
+     */
+    public boolean add(String deviceId, long time, double pm2_5, double pm10) {
+        if (Double.isNaN(pm2_5) || Double.isNaN(pm10)) {
+            return false;
+        }
+        DeviceAggregates device = devices.get(deviceId);
+        if (device == null) {
+            if (devices.size() >= maxDevices) {
+                rejectedCount.increment();
+                return false;
+            }
+            device = devices.computeIfAbsent(deviceId, id -> new DeviceAggregates());
+        }
+        device.add(time, (float) pm2_5, (float) pm10);
+        addCount.increment();
+        return true;
+    }
+
+    /**
+     * @param deviceId the device id
+     * @param window the window
+     * @param now the current time (ms since epoch)
+     * @return the aggregates over the window, null if the device is unknown
+     */
+    public WindowStats getStats(String deviceId, EWindow window, long now) {
+        DeviceAggregates device = devices.get(deviceId);
+        return (device != null) ? device.read(window, now) : null;
+    }
+
+    /**
+     * @param deviceId the device id
+     * @param q the quantile, 0..1, e.g. 0.95 for the 95th percentile
+     * @param now the current time (ms since epoch)
+     * @return the estimated PM2.5 quantile over the last 24 hours, NaN if unknown
+     */
+    public double getPm2_5Percentile(String deviceId, double q, long now) {
+        DeviceAggregates device = devices.get(deviceId);
+        return (device != null) ? device.percentile(q, now) : Double.NaN;
+    }
+
+    /**
+     * @return the ids of the tracked devices, sorted
+     */
+    public List<String> getDeviceIds() {
+        List<String> ids = new ArrayList<>(devices.keySet());
+        Collections.sort(ids);
+        return ids;
+    }
+
+    public int getDeviceCount() {
+        return devices.size();
+    }
+
+    public long getAddCount() {
+        return addCount.sum();
+    }
+
+    /**
+     * @return the number of readings of devices beyond the maximum
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+}
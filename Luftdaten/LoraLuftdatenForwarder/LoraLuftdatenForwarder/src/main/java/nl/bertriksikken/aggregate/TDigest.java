@@ -0,0 +1,136 @@
+package nl.bertriksikken.aggregate;
+
+import java.util.Arrays;
+
+/**
+ * The operations of a merging t-digest, on centroids in primitive arrays: a mean and a weight per centroid.
+ *
+ * Centroids are merged while they span at most one unit of the scale function k(q) = compression / (2 pi) *
+ * asin(2q - 1). That keeps the centroids near the tails small, so extreme percentiles stay accurate, and bounds the
+ * number of centroids to about the compression.
+ */
+final class TDigest {
+
+    private TDigest() {
+        // static helpers
+    }
+
+    /**
+     * Sorts centroids by mean and merges them until at most a given number is left.
+     *
+     * @param means the means, sorted and merged in place
+     * @param weights the weights, sorted and merged in place
+     * @param n the number of centroids
+     * @param capacity the maximum number of centroids after merging
+     * @return the number of centroids after merging
+     */
+    static int compress(float[] means, int[] weights, int n, int capacity) {
+        sort(means, weights, n);
+        long total = 0;
+        for (int i = 0; i < n; i++) {
+            total += weights[i];
+        }
+        float[] sortedMeans = Arrays.copyOf(means, n);
+        int[] sortedWeights = Arrays.copyOf(weights, n);
+        // the scale function gives between compression / 2 and compression centroids
+        double compression = 2.0 * capacity;
+        int count = merge(sortedMeans, sortedWeights, n, total, compression, means, weights);
+        while (count > capacity) {
+            compression /= 2;
+            count = merge(sortedMeans, sortedWeights, n, total, compression, means, weights);
+        }
+        return count;
+    }
+
+    // one pass over sorted centroids, merging neighbours while they stay within one unit of the scale function
+    private static int merge(float[] inMeans, int[] inWeights, int n, long total, double compression,
+            float[] outMeans, int[] outWeights) {
+        if (n == 0) {
+            return 0;
+        }
+        int count = 0;
+        double mean = inMeans[0];
+        long weight = inWeights[0];
+        long before = 0;
+        double limit = total * limit((double) before / total, compression);
+        for (int i = 1; i < n; i++) {
+            if (before + weight + inWeights[i] <= limit) {
+                weight += inWeights[i];
+                mean += (inMeans[i] - mean) * inWeights[i] / weight;
+            } else {
+                outMeans[count] = (float) mean;
+                outWeights[count] = (int) weight;
+                count++;
+                before += weight;
+                limit = total * limit((double) before / total, compression);
+                mean = inMeans[i];
+                weight = inWeights[i];
+            }
+        }
+        outMeans[count] = (float) mean;
+        outWeights[count] = (int) weight;
+        return count + 1;
+    }
+
+    // the quantile one unit of k(q) = compression / (2 pi) * asin(2q - 1) further
+    private static double limit(double q, double compression) {
+        double k = compression / (2 * Math.PI) * Math.asin(2 * q - 1) + 1;
+        if (k >= compression / 4) {
+            return 1.0;
+        }
+        return (Math.sin(2 * Math.PI * k / compression) + 1) / 2;
+    }
+
+    /**
+     * Estimates a quantile, interpolating between the centres of the centroids.
+     *
+     * @param means the means, sorted
+     * @param weights the weights
+     * @param n the number of centroids
+     * @param q the quantile, 0..1
+     * @return the estimate, NaN if there are no centroids
+     */
+    static double quantile(float[] means, int[] weights, int n, double q) {
+        if (n == 0) {
+            return Double.NaN;
+        }
+        long total = 0;
+        for (int i = 0; i < n; i++) {
+            total += weights[i];
+        }
+        double target = q * total;
+        double centre = weights[0] / 2.0;
+        if (target <= centre) {
+            return means[0];
+        }
+        for (int i = 1; i < n; i++) {
+            double next = centre + (weights[i - 1] + weights[i]) / 2.0;
+            if (target < next) {
+                return means[i - 1] + (target - centre) / (next - centre) * (means[i] - means[i - 1]);
+            }
+            centre = next;
+        }
+        return means[n - 1];
+    }
+
+    /**
+     * Sorts centroids by mean.
+     */
+    static void sort(float[] means, int[] weights, int n) {
+        // sort keys: the mean as an ordered int in the high half, the index in the low half
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            int bits = Float.floatToIntBits(means[i]);
+            keys[i] = ((long) (bits ^ ((bits >> 31) & 0x7FFFFFFF)) << 32) | i;
+        }
+        Arrays.sort(keys);
+        float[] copyMeans = Arrays.copyOf(means, n);
+        int[] copyWeights = Arrays.copyOf(weights, n);
+        for (int i = 0; i < n; i++) {
+            int index = (int) keys[i];
+            means[i] = copyMeans[index];
+            weights[i] = copyWeights[index];
+        }
+    }
+
+}
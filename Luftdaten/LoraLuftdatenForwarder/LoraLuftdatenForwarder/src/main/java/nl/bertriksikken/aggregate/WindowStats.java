@@ -0,0 +1,60 @@
+package nl.bertriksikken.aggregate;
+
+/**
+ * Immutable aggregates of one device over a rolling window. The means, minimums and maximums are NaN if the window
+ * has no readings.
+ */
+public final class WindowStats {
+
+    private final EWindow window;
+    private final long count;
+    private final double[] means = new double[DeviceAggregates.FIELDS];
+    private final double[] mins = new double[DeviceAggregates.FIELDS];
+    private final double[] maxs = new double[DeviceAggregates.FIELDS];
+
+    WindowStats(EWindow window, long count, double[] sums, float[] mins, float[] maxs) {
+        this.window = window;
+        this.count = count;
+        for (int f = 0; f < DeviceAggregates.FIELDS; f++) {
+            this.means[f] = (count > 0) ? sums[f] / count : Double.NaN;
+            this.mins[f] = (count > 0) ? mins[f] : Double.NaN;
+            this.maxs[f] = (count > 0) ? maxs[f] : Double.NaN;
+        }
+    }
+
+    public EWindow getWindow() {
+        return window;
+    }
+
+    /**
+     * @return the number of readings in the window
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public double getPm2_5Mean() {
+        return means[DeviceAggregates.FIELD_PM2_5];
+    }
+
+    public double getPm2_5Min() {
+        return mins[DeviceAggregates.FIELD_PM2_5];
+    }
+
+    public double getPm2_5Max() {
+        return maxs[DeviceAggregates.FIELD_PM2_5];
+    }
+
+    public double getPm10Mean() {
+        return means[DeviceAggregates.FIELD_PM10];
+    }
+
+    public double getPm10Min() {
+        return mins[DeviceAggregates.FIELD_PM10];
+    }
+
+    public double getPm10Max() {
+        return maxs[DeviceAggregates.FIELD_PM10];
+    }
+
+}
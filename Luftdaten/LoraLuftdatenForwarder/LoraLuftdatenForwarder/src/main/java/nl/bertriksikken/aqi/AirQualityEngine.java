@@ -0,0 +1,146 @@
+package nl.bertriksikken.aqi;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Streaming calculation of the air quality index per sensor, from a ring of 12 hourly buckets.
+ *
+ * Every reading is added to the bucket of its hour (UTC) and the index is recalculated from the bucket means: the CAQI
+ * from the most recent hour, the NowCast and US AQI from the last 12 hours. That is a fixed amount of work per
+ * reading, independent of the number of stored readings. Readings older than the ring are ignored.
+ *
+ * Readings must be added from a single thread, e.g. a pipeline stage. The index of a sensor is published as an
+ * immutable {@link AirQualityIndex}, which can be read from any thread.
+ */
+public final class AirQualityEngine {
+
+    static final int HOURS = 12;
+    static final long HOUR_MS = 3_600_000L;
+
+    private final int maxSensors;
+    private final Map<String, SensorHours> sensors = new ConcurrentHashMap<>();
+    private final LongAdder updateCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param maxSensors the maximum number of sensors
+     */
+    public AirQualityEngine(int maxSensors) {
+        this.maxSensors = maxSensors;
+    }
+
+    /**
+     * Adds a reading and recalculates the index of the sensor, must only be called from a single thread.
+     *
+     * @param sensorId the sensor id
+     * @param time the time of the reading (ms since epoch)
+     * @param pm2_5 the PM2.5 value, NaN if absent
+     * @param pm10 the PM10 value, NaN if absent
+     * @return the index after this reading, null if the sensor is beyond the maximum
+     */
+    public AirQualityIndex update(String sensorId, long time, double pm2_5, double pm10) {
+        SensorHours hours = sensors.get(sensorId);
+        if (hours == null) {
+            if (sensors.size() >= maxSensors) {
+                rejectedCount.increment();
+                return null;
+            }
+            hours = new SensorHours();
+            sensors.put(sensorId, hours);
+        }
+        updateCount.increment();
+        return hours.add(Math.floorDiv(time, HOUR_MS), pm2_5, pm10);
+    }
+
+    /**
+     * @param sensorId the sensor id
+     * @param now the current time (ms since epoch)
+     * @return the current index, null if the sensor is unknown or had no reading in the last three hours
+     */
+    public AirQualityIndex get(String sensorId, long now) {
+        SensorHours hours = sensors.get(sensorId);
+        AirQualityIndex index = (hours != null) ? hours.current : null;
+        if ((index == null) || (index.getHour() / HOUR_MS < Math.floorDiv(now, HOUR_MS) - 2)) {
+            return null;
+        }
+        return index;
+    }
+
+    public int getSensorCount() {
+        return sensors.size();
+    }
+
+    public long getUpdateCount() {
+        return updateCount.sum();
+    }
+
+    /**
+     * @return the number of readings of sensors beyond the maximum
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * The hourly buckets of one sensor, only accessed by the writer except for the published index.
+     */
+    private static final class SensorHours {
+
+        private final long[] numbers = new long[HOURS];
+        private final double[] pm2_5Sums = new double[HOURS];
+        private final int[] pm2_5Counts = new int[HOURS];
+        private final double[] pm10Sums = new double[HOURS];
+        private final int[] pm10Counts = new int[HOURS];
+        private final double[] pm2_5Means = new double[HOURS];
+        private final double[] pm10Means = new double[HOURS];
+        private long latest = Long.MIN_VALUE;
+
+        private volatile AirQualityIndex current;
+
+        SensorHours() {
+            Arrays.fill(numbers, Long.MIN_VALUE);
+        }
+
+        AirQualityIndex add(long hour, double pm2_5, double pm10) {
+            if ((current != null) && (hour <= latest - HOURS)) {
+                // older than the ring
+                return current;
+            }
+            int slot = (int) Math.floorMod(hour, (long) HOURS);
+            if (numbers[slot] != hour) {
+                numbers[slot] = hour;
+                pm2_5Sums[slot] = 0.0;
+                pm2_5Counts[slot] = 0;
+                pm10Sums[slot] = 0.0;
+                pm10Counts[slot] = 0;
+            }
+            if (!Double.isNaN(pm2_5)) {
+                pm2_5Sums[slot] += pm2_5;
+                pm2_5Counts[slot]++;
+            }
+            if (!Double.isNaN(pm10)) {
+                pm10Sums[slot] += pm10;
+                pm10Counts[slot]++;
+            }
+            latest = Math.max(latest, hour);
+
+            // the hourly means, most recent first
+            for (int i = 0; i < HOURS; i++) {
+                int s = (int) Math.floorMod(latest - i, (long) HOURS);
+                boolean present = (numbers[s] == latest - i);
+                pm2_5Means[i] = (present && (pm2_5Counts[s] > 0)) ? pm2_5Sums[s] / pm2_5Counts[s] : Double.NaN;
+                pm10Means[i] = (present && (pm10Counts[s] > 0)) ? pm10Sums[s] / pm10Counts[s] : Double.NaN;
+            }
+            current = new AirQualityIndex(latest * HOUR_MS, pm2_5Means[0], pm10Means[0],
+                    AqiCalculator.nowCast(pm2_5Means), AqiCalculator.nowCast(pm10Means));
+            return current;
+        }
+
+    }
+
+}
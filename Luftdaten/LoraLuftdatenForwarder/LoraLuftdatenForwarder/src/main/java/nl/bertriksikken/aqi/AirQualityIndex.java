@@ -0,0 +1,91 @@
+package nl.bertriksikken.aqi;
+
+import java.util.Locale;
+
+/**
+ * Immutable air quality index of one sensor, as of the most recent hour with a reading.
+ */
+public final class AirQualityIndex {
+
+    /**
+     * The value of an index that could not be calculated.
+     */
+    public static final int UNAVAILABLE = -1;
+
+    private final long hour;
+    private final double pm2_5;
+    private final double pm10;
+    private final int caqi;
+    private final double nowCastPm2_5;
+    private final double nowCastPm10;
+    private final int aqi;
+
+    /**
+     * Constructor.
+     *
+     * @param hour the start of the hour (ms since epoch)
+     * @param pm2_5 the PM2.5 mean of the hour so far
+     * @param pm10 the PM10 mean of the hour so far
+     * @param nowCastPm2_5 the NowCast of PM2.5, NaN if there are too few recent hours
+     * @param nowCastPm10 the NowCast of PM10, NaN if there are too few recent hours
+     */
+    AirQualityIndex(long hour, double pm2_5, double pm10, double nowCastPm2_5, double nowCastPm10) {
+        this.hour = hour;
+        this.pm2_5 = pm2_5;
+        this.pm10 = pm10;
+        this.caqi = round(AqiCalculator.caqi(pm2_5, pm10));
+        this.nowCastPm2_5 = nowCastPm2_5;
+        this.nowCastPm10 = nowCastPm10;
+        this.aqi = Math.max(round(AqiCalculator.usAqiPm2_5(nowCastPm2_5)),
+                round(AqiCalculator.usAqiPm10(nowCastPm10)));
+    }
+
+    private static int round(double index) {
+        return Double.isNaN(index) ? UNAVAILABLE : (int) Math.round(index);
+    }
+
+    /**
+     * @return the start of the hour (ms since epoch)
+     */
+    public long getHour() {
+        return hour;
+    }
+
+    public double getPm2_5() {
+        return pm2_5;
+    }
+
+    public double getPm10() {
+        return pm10;
+    }
+
+    /**
+     * @return the European CAQI of the hour so far, {@link #UNAVAILABLE} if there are no PM values
+     */
+    public int getCaqi() {
+        return caqi;
+    }
+
+    public double getNowCastPm2_5() {
+        return nowCastPm2_5;
+    }
+
+    public double getNowCastPm10() {
+        return nowCastPm10;
+    }
+
+    /**
+     * @return the US AQI, the highest of PM2.5 and PM10 from their NowCast, {@link #UNAVAILABLE} if there are too
+     *         few recent hours
+     */
+    public int getAqi() {
+        return aqi;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "{hour=%d,CAQI=%d,AQI=%d,NowCast PM2.5=%.1f,NowCast PM10=%.1f}", hour, caqi,
+                aqi, nowCastPm2_5, nowCastPm10);
+    }
+
+}
@@ -0,0 +1,144 @@
+package nl.bertriksikken.aqi;
+
+/**
+ * The index formulas for particulate matter: the European CAQI and the US AQI with the NowCast.
+ *
+ * <pre>
+ * CAQI (CITEAIR, hourly grid)     0    25    50    75    100
+ *     PM2.5 (ug/m3, 1 h mean)      0    15    30    55    110
+ *     PM10 (ug/m3, 1 h mean)       0    25    50    90    180
+ *
+ * US AQI (EPA, 2024 breakpoints)  0-50      51-100      101-150      151-200       201-300       301-500
+ *     PM2.5 (ug/m3, 0.1)          0.0-9.0   9.1-35.4    35.5-55.4    55.5-125.4    125.5-225.4   225.5-325.4
+ *     PM10 (ug/m3, 1)             0-54      55-154      155-254      255-354       355-424       425-604
+ * </pre>
+ *
+ * Both indices interpolate linearly within a band. Above the highest breakpoint, the highest band is extended.
+ */
+public final class AqiCalculator {
+
+    private static final double[] CAQI_INDEX = {0, 25, 50, 75, 100};
+    private static final double[] CAQI_PM2_5 = {0, 15, 30, 55, 110};
+    private static final double[] CAQI_PM10 = {0, 25, 50, 90, 180};
+
+    // per band: low and high concentration, low and high index
+    private static final double[][] AQI_PM2_5 = {
+        {0.0, 9.0, 0, 50}, {9.1, 35.4, 51, 100}, {35.5, 55.4, 101, 150}, {55.5, 125.4, 151, 200},
+        {125.5, 225.4, 201, 300}, {225.5, 325.4, 301, 500}};
+    private static final double[][] AQI_PM10 = {
+        {0, 54, 0, 50}, {55, 154, 51, 100}, {155, 254, 101, 150}, {255, 354, 151, 200},
+        {355, 424, 201, 300}, {425, 604, 301, 500}};
+
+    // concentrations are truncated before the lookup, this keeps e.g. 9.0 from becoming 8.9
+    private static final double EPSILON = 1E-9;
+
+    private AqiCalculator() {
+        // static helpers
+    }
+
+    /**
+     * Calculates the CAQI from hourly means, the highest of the sub-indices of PM2.5 and PM10.
+     *
+     * @param pm2_5 the PM2.5 mean of an hour, NaN if absent
+     * @param pm10 the PM10 mean of an hour, NaN if absent
+     * @return the CAQI, NaN if both are absent
+     */
+    public static double caqi(double pm2_5, double pm10) {
+        double pm2_5Index = grid(CAQI_PM2_5, pm2_5);
+        double pm10Index = grid(CAQI_PM10, pm10);
+        if (Double.isNaN(pm2_5Index)) {
+            return pm10Index;
+        }
+        if (Double.isNaN(pm10Index)) {
+            return pm2_5Index;
+        }
+        return Math.max(pm2_5Index, pm10Index);
+    }
+
+    private static double grid(double[] concentrations, double value) {
+        if (Double.isNaN(value) || (value < 0)) {
+            return Double.NaN;
+        }
+        int band = 1;
+        while ((band < concentrations.length - 1) && (value > concentrations[band])) {
+            band++;
+        }
+        return CAQI_INDEX[band - 1] + (value - concentrations[band - 1])
+                * (CAQI_INDEX[band] - CAQI_INDEX[band - 1]) / (concentrations[band] - concentrations[band - 1]);
+    }
+
+    /**
+     * Calculates the NowCast concentration from up to 12 hourly means.
+     *
+     * The weight factor is the minimum divided by the maximum of the available hours, at least 0.5. Every hour back
+     * is weighed by another factor, missing hours are left out. At least two of the three most recent hours must be
+     * present.
+     *
+     * @param hourly the hourly means, most recent first, NaN for a missing hour
+     * @return the NowCast, NaN if there are too few recent hours
+     */
+    public static double nowCast(double[] hourly) {
+        int recent = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < hourly.length; i++) {
+            if (!Double.isNaN(hourly[i])) {
+                if (i < 3) {
+                    recent++;
+                }
+                min = Math.min(min, hourly[i]);
+                max = Math.max(max, hourly[i]);
+            }
+        }
+        if (recent < 2) {
+            return Double.NaN;
+        }
+        double factor = (max > 0) ? Math.max(min / max, 0.5) : 1.0;
+        double weight = 1.0;
+        double sum = 0.0;
+        double weights = 0.0;
+        for (double value : hourly) {
+            if (!Double.isNaN(value)) {
+                sum += weight * value;
+                weights += weight;
+            }
+            weight *= factor;
+        }
+        return sum / weights;
+    }
+
+    /**
+     * Calculates the US AQI of PM2.5, after truncating the concentration to 0.1 ug/m3.
+     *
+     * @param pm2_5 the concentration, usually a NowCast
+     * @return the index, NaN if the concentration is absent
+     */
+    public static double usAqiPm2_5(double pm2_5) {
+        return usAqi(AQI_PM2_5, Math.floor(pm2_5 * 10 + EPSILON) / 10);
+    }
+
+    /**
+     * Calculates the US AQI of PM10, after truncating the concentration to 1 ug/m3.
+     *
+     * @param pm10 the concentration, usually a NowCast
+     * @return the index, NaN if the concentration is absent
+     */
+    public static double usAqiPm10(double pm10) {
+        return usAqi(AQI_PM10, Math.floor(pm10 + EPSILON));
+    }
+
+    private static double usAqi(double[][] bands, double value) {
+        if (Double.isNaN(value) || (value < 0)) {
+            return Double.NaN;
+        }
+        double[] band = bands[bands.length - 1];
+        for (double[] candidate : bands) {
+            if (value <= candidate[1]) {
+                band = candidate;
+                break;
+            }
+        }
+        return band[2] + (value - band[0]) * (band[3] - band[2]) / (band[1] - band[0]);
+    }
+
+}
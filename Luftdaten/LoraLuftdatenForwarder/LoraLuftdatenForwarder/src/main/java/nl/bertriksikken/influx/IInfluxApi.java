@@ -0,0 +1,25 @@
+package nl.bertriksikken.influx;
+
+import okhttp3.RequestBody;
+import retrofit2.Call;
+import retrofit2.http.Body;
+import retrofit2.http.POST;
+import retrofit2.http.Query;
+
+/**
+ * HTTP write API of InfluxDB (1.x).
+ */
+public interface IInfluxApi {
+
+    /**
+     * Writes points in line protocol.
+     *
+     * @param database  the database
+     * @param precision the precision of the timestamps, e.g. "ms"
+     * @param body      the points, in line protocol
+     * @return task to execute the web method
+     */
+    @POST("/write")
+    Call<String> write(@Query("db") String database, @Query("precision") String precision, @Body RequestBody body);
+
+}
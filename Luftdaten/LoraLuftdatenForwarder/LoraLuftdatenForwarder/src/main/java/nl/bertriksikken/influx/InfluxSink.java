@@ -0,0 +1,147 @@
+package nl.bertriksikken.influx;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.bertriksikken.aqi.AirQualityIndex;
+import nl.bertriksikken.loraforwarder.sink.ISink;
+import nl.bertriksikken.loraforwarder.sink.SensorReading;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+import retrofit2.converter.scalars.ScalarsConverterFactory;
+
+/**
+ * Sink that writes readings to InfluxDB, as one point per reading in line protocol:
+ *
+ * <pre>
+ * particulates,sensor=TTN-0004A30B001F1234 pm1=1.2,pm2_5=3.4,pm10=5.6,temperature=21.5 1575367200000
+ * </pre>
+ *
+ * Absent values are left out. The air quality index of the sensor, if calculated, is added as the fields caqi and
+ * aqi. The timestamp is the time of reception, in milliseconds. A batch is written as one
+ * request with one line per reading.
+ */
+public final class InfluxSink implements ISink {
+
+    private static final Logger LOG = LoggerFactory.getLogger(InfluxSink.class);
+    private static final MediaType TEXT = MediaType.parse("text/plain; charset=utf-8");
+    private static final String MEASUREMENT = "particulates";
+
+    private final IInfluxApi restClient;
+    private final String database;
+
+    /**
+     * Constructor.
+     *
+     * @param restClient the REST client
+     * @param database   the database to write to
+     */
+    public InfluxSink(IInfluxApi restClient, String database) {
+        this.restClient = restClient;
+        this.database = database;
+    }
+
+    /**
+     * Creates a new REST client.
+     *
+     * @param url     the URL of the server, e.g. "http://localhost:8086"
+     * @param timeout the timeout
+     * @return a new REST client.
+     */
+    public static IInfluxApi newRestClient(String url, Duration timeout) {
+        LOG.info("Creating new REST client for '{}' with timeout {}", url, timeout);
+        OkHttpClient client = new OkHttpClient().newBuilder().callTimeout(timeout).build();
+        Retrofit retrofit = new Retrofit.Builder().baseUrl(url).addConverterFactory(ScalarsConverterFactory.create())
+                .client(client).build();
+        return retrofit.create(IInfluxApi.class);
+    }
+
+    @Override
+    public String getName() {
+        return "influx";
+    }
+
+    @Override
+    public void write(SensorReading reading) throws IOException {
+        send(toLine(reading));
+    }
+
+    @Override
+    public void writeBatch(List<SensorReading> readings) throws IOException {
+        StringBuilder sb = new StringBuilder(160 * readings.size());
+        for (SensorReading reading : readings) {
+            appendLine(sb, reading);
+            sb.append('\n');
+        }
+        send(sb.toString());
+    }
+
+    private void send(String lines) throws IOException {
+        RequestBody body = RequestBody.create(TEXT, lines);
+        Response<String> response = restClient.write(database, "ms", body).execute();
+        if (!response.isSuccessful()) {
+            throw new IOException("Write failed: " + response.code() + " " + response.message());
+        }
+    }
+
+    /**
+     * Formats a reading in line protocol.
+     *
+     * @param reading the reading
+     * @return the line, without line terminator
+     */
+    static String toLine(SensorReading reading) {
+        StringBuilder sb = new StringBuilder(160);
+        appendLine(sb, reading);
+        return sb.toString();
+    }
+
+    private static void appendLine(StringBuilder sb, SensorReading reading) {
+        sb.append(MEASUREMENT).append(",sensor=");
+        escapeTag(sb, reading.getSensorId());
+        char separator = ' ';
+        separator = appendField(sb, separator, "pm1", reading.getPm1());
+        separator = appendField(sb, separator, "pm2_5", reading.getPm2_5());
+        separator = appendField(sb, separator, "pm10", reading.getPm10());
+        separator = appendField(sb, separator, "temperature", reading.getTemp());
+        separator = appendField(sb, separator, "humidity", reading.getRh());
+        separator = appendField(sb, separator, "pressure", reading.getPressure());
+        AirQualityIndex airQuality = reading.getAirQuality();
+        if (airQuality != null) {
+            separator = appendIndex(sb, separator, "caqi", airQuality.getCaqi());
+            appendIndex(sb, separator, "aqi", airQuality.getAqi());
+        }
+        sb.append(' ').append(reading.getReceivedAt().toEpochMilli());
+    }
+
+    private static char appendIndex(StringBuilder sb, char separator, String name, int index) {
+        return appendField(sb, separator, name, (index != AirQualityIndex.UNAVAILABLE) ? index : Double.NaN);
+    }
+
+    // appends a field unless it is absent, returns the separator for the next field
+    private static char appendField(StringBuilder sb, char separator, String name, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return separator;
+        }
+        sb.append(separator).append(name).append('=').append(value);
+        return ',';
+    }
+
+    private static void escapeTag(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c == ',') || (c == '=') || (c == ' ')) {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+    }
+
+}
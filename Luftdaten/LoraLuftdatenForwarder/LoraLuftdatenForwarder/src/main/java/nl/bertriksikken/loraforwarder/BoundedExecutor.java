@@ -0,0 +1,125 @@
+package nl.bertriksikken.loraforwarder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Single worker thread executor with a bounded queue and a configurable policy for when that queue is full.
+ *
+ * This keeps memory use flat when the workers cannot keep up, e.g. when the upload server is slow.
+ */
+public final class BoundedExecutor implements Executor {
+
+    private final ThreadPoolExecutor executor;
+    private final LongAdder dropCount = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the maximum number of queued tasks
+     * @param policy   what to do with a new task when the queue is full
+     */
+    public BoundedExecutor(int capacity, EOverflowPolicy policy) {
+        this(capacity, policy, Executors.defaultThreadFactory());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the maximum number of queued tasks
+     * @param policy   what to do with a new task when the queue is full
+     * @param name     the name of the worker thread
+     */
+    public BoundedExecutor(int capacity, EOverflowPolicy policy, String name) {
+        this(capacity, policy, runnable -> new Thread(runnable, name));
+    }
+
+    private BoundedExecutor(int capacity, EOverflowPolicy policy, ThreadFactory threadFactory) {
+        executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(capacity),
+                threadFactory, createHandler(policy));
+    }
+
+    private RejectedExecutionHandler createHandler(EOverflowPolicy policy) {
+        switch (policy) {
+        case BLOCK:
+            return (runnable, pool) -> {
+                if (pool.isShutdown()) {
+                    throw new RejectedExecutionException("Executor is shut down");
+                }
+                try {
+                    pool.getQueue().put(runnable);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException("Interrupted while waiting for queue space", e);
+                }
+            };
+        case DROP_OLDEST:
+            return (runnable, pool) -> {
+                if (pool.isShutdown()) {
+                    throw new RejectedExecutionException("Executor is shut down");
+                }
+                BlockingQueue<Runnable> queue = pool.getQueue();
+                while (!queue.offer(runnable)) {
+                    if (queue.poll() != null) {
+                        dropCount.increment();
+                    }
+                }
+            };
+        case DROP_NEWEST:
+        default:
+            return (runnable, pool) -> {
+                if (pool.isShutdown()) {
+                    throw new RejectedExecutionException("Executor is shut down");
+                }
+                dropCount.increment();
+            };
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        executor.execute(command);
+    }
+
+    /**
+     * @return the number of tasks currently waiting in the queue
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return the total number of tasks dropped because the queue was full
+     */
+    public long getDropCount() {
+        return dropCount.sum();
+    }
+
+    /**
+     * Stops accepting new tasks, already queued tasks are still executed.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Waits for the queued tasks to finish after a shutdown.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout
+     * @return true if all tasks finished
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+}
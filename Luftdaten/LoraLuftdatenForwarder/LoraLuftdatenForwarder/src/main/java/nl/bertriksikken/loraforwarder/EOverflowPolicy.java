@@ -0,0 +1,33 @@
+package nl.bertriksikken.loraforwarder;
+
+/**
+ * What to do with new work when the ingest queue is full.
+ */
+public enum EOverflowPolicy {
+
+	/** block the producer (the MQTT thread) until there is room, the broker holds back unacknowledged messages */
+	BLOCK("block"),
+	/** discard the oldest queued item to make room */
+	DROP_OLDEST("drop_oldest"),
+	/** discard the new item */
+	DROP_NEWEST("drop_newest");
+
+	private final String id;
+
+	EOverflowPolicy(String id) {
+		this.id = id;
+	}
+
+	String getId() {
+		return id;
+	}
+
+	static EOverflowPolicy fromId(String id) {
+		for (EOverflowPolicy policy : values()) {
+			if (policy.id.equals(id)) {
+				return policy;
+			}
+		}
+		return null;
+	}
+}
@@ -1,25 +1,48 @@
 package nl.bertriksikken.loraforwarder;
 
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import nl.bertriksikken.loraforwarder.sps30.Sps30RawDecoder;
+
+/**
+ * The supported payload encodings, each with its decoder.
+ *
+ * A new payload layout only needs a new entry here, the decoder registry picks it up by its id.
+ */
 public enum EPayloadEncoding {
 
-	RUDZL("rudzl");
-	
+	/** values from the TTN payload_fields, as produced by a rudzl style payload formatter */
+	RUDZL("rudzl", uplink -> true),
+	/** values decoded from payload_raw, as sent by the example1_bmesps sketch */
+	SPS30_RAW("sps30raw", Sps30RawDecoder::decode);
+
+	private static final Map<String, EPayloadEncoding> BY_ID = new HashMap<>();
+
+	static {
+		for (EPayloadEncoding encoding : values()) {
+			BY_ID.put(encoding.id, encoding);
+		}
+	}
+
 	private final String id;
+	private final IPayloadDecoder decoder;
 
-	EPayloadEncoding(String id) {
+	EPayloadEncoding(String id, IPayloadDecoder decoder) {
 		this.id = id;
+		this.decoder = decoder;
 	}
-	
+
 	String getId() {
 		return id;
 	}
-	
+
+	IPayloadDecoder getDecoder() {
+		return decoder;
+	}
+
 	static EPayloadEncoding fromId(String id) {
-		for (EPayloadEncoding encoding : values()) {
-			if (encoding.id.equals(id)) {
-				return encoding;
-			}
-		}
-		return null;
+		return BY_ID.get(id.trim().toLowerCase(Locale.ROOT));
 	}
 }
@@ -0,0 +1,145 @@
+package nl.bertriksikken.loraforwarder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Suppresses duplicate uplinks, e.g. redelivered after an MQTT reconnect or received through overlapping
+ * subscriptions, based on the hardware serial and the frame counter.
+ *
+ * Per device, a bitset over the last N frame counters (a sliding window, like the IPsec anti-replay window) records
+ * which frames were seen, so the memory per device is fixed and a check takes constant time. A frame counter that
+ * jumps back by more than the window size, or back to one of the first few counters, means that the device was reset
+ * and restarts the window. The latter also catches a reset where the first frames were lost, at the cost of letting
+ * through a very late duplicate of one of the first frames of a device.
+ *
+ * This class is not thread-safe, it is meant to be used from the decode stage only.
+ */
+public final class FrameDeduplicator {
+
+    // counters below this, at less than half of the highest counter, are the first frames after a reset
+    static final int RESET_COUNTER = 8;
+
+    private final int window;
+    private final Map<String, Window> devices = new HashMap<>();
+    private final LongAdder suppressedCount = new LongAdder();
+    private final LongAdder resetCount = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param window the number of frame counters to remember per device, rounded up to a multiple of 64
+     */
+    public FrameDeduplicator(int window) {
+        this.window = Math.max(1, (window + 63) / 64) * 64;
+    }
+
+    /**
+     * Checks a frame and remembers it.
+     *
+     * @param hardwareSerial the hardware serial of the device
+     * @param counter        the frame counter (32 bits, unsigned), negative if unknown
+     * @return false if the frame is a duplicate
+     */
+    public boolean accept(String hardwareSerial, long counter) {
+        if (counter < 0) {
+            // nothing to go on
+            return true;
+        }
+        Window state = devices.get(hardwareSerial);
+        if (state == null) {
+            state = new Window(window);
+            devices.put(hardwareSerial, state);
+            state.restart(counter);
+            return true;
+        }
+        long delta = counter - state.highest;
+        if (delta > 0) {
+            state.advance(counter);
+            return true;
+        }
+        if ((delta <= -window) || ((counter < RESET_COUNTER) && (2 * counter < state.highest))) {
+            resetCount.increment();
+            state.restart(counter);
+            return true;
+        }
+        if (state.testAndSet(counter)) {
+            suppressedCount.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of duplicate frames suppressed
+     */
+    public long getSuppressedCount() {
+        return suppressedCount.sum();
+    }
+
+    /**
+     * @return the number of frame counter resets detected
+     */
+    public long getResetCount() {
+        return resetCount.sum();
+    }
+
+    /**
+     * @return the number of devices tracked
+     */
+    public int getDeviceCount() {
+        return devices.size();
+    }
+
+    /**
+     * Bitset over the frame counters (highest - window, highest], bit (counter mod window) per frame.
+     */
+    private static final class Window {
+
+        private final long[] bits;
+        private long highest;
+
+        Window(int size) {
+            bits = new long[size / 64];
+        }
+
+        void restart(long counter) {
+            for (int i = 0; i < bits.length; i++) {
+                bits[i] = 0;
+            }
+            highest = counter;
+            testAndSet(counter);
+        }
+
+        // slides the window up to the counter, clearing the bits of the frames skipped over
+        void advance(long counter) {
+            long size = 64L * bits.length;
+            if (counter - highest >= size) {
+                restart(counter);
+                return;
+            }
+            for (long c = highest + 1; c < counter; c++) {
+                clear(c, size);
+            }
+            clear(counter, size);
+            highest = counter;
+            testAndSet(counter);
+        }
+
+        private void clear(long counter, long size) {
+            int bit = (int) (counter % size);
+            bits[bit >>> 6] &= ~(1L << bit);
+        }
+
+        // sets the bit of the counter, returns true if it was already set
+        boolean testAndSet(long counter) {
+            int bit = (int) (counter % (64L * bits.length));
+            long mask = 1L << bit;
+            boolean seen = (bits[bit >>> 6] & mask) != 0;
+            bits[bit >>> 6] |= mask;
+            return seen;
+        }
+    }
+
+}
@@ -1,48 +1,350 @@
-package nl.bertriksikken.loraforwarder;
-
-import java.time.Duration;
-
-/**
- * Configuration interface for the application.
- */
-public interface ILoraForwarderConfig {
-
-    /**
-     * @return the URL of the MQTT server
-     */
-    String getMqttUrl();
-
-    String getMqttAppId();
-
-    String getMqttAppKey();
-
-    /**
-     * @return the payload encoding, e.g. "rudzl"
-     */
-    String getEncoding();
-
-    /**
-     * @return the URL of the luftdaten.info API
-     */
-    String getLuftdatenUrl();
-
-    /**
-     * @return timeout (ms) for accessing the luftdaten.info API
-     */
-    Duration getLuftdatenTimeout();
-
-    /**
-     * @return the storage directory for the data files
-     */
-    String getStorageDir();
-
-    /**
-     * @return the extension to add to datafile
-     */
-    String getExtension();
-
-    /**
-     * @return the 1 or 0
-     */
-    int getDebug();
-}
+package nl.bertriksikken.loraforwarder;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Configuration interface for the application.
+ */
+public interface ILoraForwarderConfig {
+
+    /**
+     * @return the URL of the MQTT server
+     */
+    String getMqttUrl();
+
+    String getMqttAppId();
+
+    String getMqttAppKey();
+
+    /**
+     * @return the MQTT topics to subscribe to
+     */
+    List<String> getMqttTopics();
+
+    /**
+     * @return the number of MQTT clients to spread the topics over, capped at the number of topics
+     */
+    int getMqttClients();
+
+    /**
+     * @return the base client id for a durable MQTT session, empty for a random id and a clean session
+     */
+    String getMqttClientId();
+
+    /**
+     * @return the directory for the MQTT client state, empty to keep it in memory
+     */
+    String getMqttPersistenceDir();
+
+    /**
+     * @return the maximum delay between MQTT reconnect attempts
+     */
+    Duration getMqttReconnectMaxDelay();
+
+    /**
+     * @return the payload encoding, e.g. "rudzl" or "sps30raw"
+     */
+    String getEncoding();
+
+    /**
+     * @return map of LoRaWAN port to payload encoding
+     */
+    Map<String, String> getDecoderPorts();
+
+    /**
+     * @return map of TTN device id pattern to payload encoding, in order of precedence
+     */
+    Map<String, String> getDecoderDevices();
+
+    /**
+     * @return the maximum valid PM value (ug/m3)
+     */
+    double getFilterPmMax();
+
+    /**
+     * @return the number of recent readings per sensor for the spike filter, 0 if disabled
+     */
+    int getFilterHampelWindow();
+
+    /**
+     * @return the spike threshold, in scaled median absolute deviations
+     */
+    double getFilterHampelThreshold();
+
+    /**
+     * @return the minimum deviation from the median to count as a spike (ug/m3)
+     */
+    double getFilterHampelMinDelta();
+
+    /**
+     * @return map of field id to linear unit scaling, e.g. "pressure" to "0.01*x"
+     */
+    Map<String, String> getTransformScale();
+
+    /**
+     * @return the hygroscopicity kappa of the humidity correction of PM values, 0 if disabled
+     */
+    double getTransformHumidityKappa();
+
+    /**
+     * @return the relative humidity (percent) at which the humidity correction is capped
+     */
+    double getTransformHumidityMaxRh();
+
+    /**
+     * @return map of "sensor id/field id" to linear calibration, e.g. "TTN-0004A30B001F1234/pm2_5" to "0.82*x+1.1"
+     */
+    Map<String, String> getTransformCalibration();
+
+    /**
+     * @return the number of recent frame counters per device to check for duplicates, 0 to disable
+     */
+    int getDedupWindow();
+
+    /**
+     * @return the number of message slots in the pipeline
+     */
+    int getIngestQueueSize();
+
+    /**
+     * @return the number of decode threads in the pipeline
+     */
+    int getIngestDecoders();
+
+    /**
+     * @return the number of upload lanes
+     */
+    int getIngestLanes();
+
+    /**
+     * @return the policy when the pipeline is full, e.g. "block"
+     */
+    String getIngestPolicy();
+
+    /**
+     * @return the URL of the luftdaten.info API
+     */
+    String getLuftdatenUrl();
+
+    /**
+     * @return timeout (ms) for accessing the luftdaten.info API
+     */
+    Duration getLuftdatenTimeout();
+
+    /**
+     * @return the maximum number of concurrent luftdaten.info API requests
+     */
+    int getLuftdatenMaxInFlight();
+
+    /**
+     * @return the maximum rate (requests per second) of luftdaten.info API requests, 0 for no limit
+     */
+    double getLuftdatenRate();
+
+    /**
+     * @return the maximum burst of luftdaten.info API requests
+     */
+    int getLuftdatenBurst();
+
+    /**
+     * @return the number of consecutive luftdaten.info API failures that opens the circuit
+     */
+    int getLuftdatenBreakerFailures();
+
+    /**
+     * @return the time to defer luftdaten.info uploads while the circuit is open, before probing again
+     */
+    Duration getLuftdatenBreakerOpenTime();
+
+    /**
+     * @return the directory of the outbox for failed uploads, empty if disabled
+     */
+    String getOutboxDir();
+
+    /**
+     * @return the maximum size (bytes) of the outbox
+     */
+    long getOutboxMaxSize();
+
+    /**
+     * @return the maximum delay between retries of the outbox
+     */
+    Duration getOutboxRetryMaxDelay();
+
+    /**
+     * @return the number of concurrent retries of the outbox
+     */
+    int getOutboxBatch();
+
+    /**
+     * @return the number of readings queued per sink worker
+     */
+    int getSinkQueueSize();
+
+    /**
+     * @return the number of worker threads per sink
+     */
+    int getSinkWorkers();
+
+    /**
+     * @return the policy when a sink queue is full, e.g. "drop_oldest"
+     */
+    String getSinkPolicy();
+
+    /**
+     * @return the timeout of the REST sinks
+     */
+    Duration getSinkTimeout();
+
+    /**
+     * @return the maximum number of readings per batch, for sinks that write batches (1 to disable batching)
+     */
+    int getSinkBatchSize();
+
+    /**
+     * @return the maximum time a reading waits for its batch to fill up
+     */
+    Duration getSinkBatchLinger();
+
+    /**
+     * @return the URL of the openSenseMap API, empty if disabled
+     */
+    String getOpenSenseMapUrl();
+
+    /**
+     * @return the senseBox id per TTN hardware serial
+     */
+    Map<String, String> getOpenSenseMapBoxes();
+
+    /**
+     * @return the URL of the InfluxDB server, empty if disabled
+     */
+    String getInfluxUrl();
+
+    /**
+     * @return the InfluxDB database
+     */
+    String getInfluxDatabase();
+
+    /**
+     * @return the storage directory for the data files
+     */
+    String getStorageDir();
+
+    /**
+     * @return the extension to add to datafile
+     */
+    String getExtension();
+
+    /**
+     * @return the maximum number of data files kept open
+     */
+    int getStorageMaxOpen();
+
+    /**
+     * @return the interval for flushing the data files
+     */
+    Duration getStorageFlushInterval();
+
+    /**
+     * @return whether to sync the data files to disk at every flush
+     */
+    boolean getStorageFsync();
+
+    /**
+     * @return the number of days to keep the data files, 0 to keep them forever
+     */
+    int getStorageRetention();
+
+    /**
+     * @return the directory of the binary time-series store, empty if disabled
+     */
+    String getStoreDir();
+
+    /**
+     * @return the maximum number of readings per store segment file
+     */
+    int getStoreSegmentRecords();
+
+    /**
+     * @return the directory for the sealed blocks and rollups of the store, empty if compaction is disabled
+     */
+    String getArchiveDir();
+
+    /**
+     * @return the interval for sealing finished days and applying retention
+     */
+    Duration getCompactionInterval();
+
+    /**
+     * @return the number of days to keep raw store segments, 0 to keep them forever
+     */
+    int getRetentionRaw();
+
+    /**
+     * @return the number of days to keep sealed blocks (at least as long as the raw segments), 0 to keep them forever
+     */
+    int getRetentionBlocks();
+
+    /**
+     * @return the number of days to keep hourly rollups, 0 to keep them forever
+     */
+    int getRetentionHourly();
+
+    /**
+     * @return the number of days to keep daily rollups, 0 to keep them forever
+     */
+    int getRetentionDaily();
+
+    /**
+     * @return the maximum number of devices with rolling aggregates, 0 if disabled
+     */
+    int getAggregateMaxDevices();
+
+    /**
+     * @return the maximum number of sensors with an air quality index, 0 if disabled
+     */
+    int getAqiMaxSensors();
+
+    /**
+     * @return the TCP port of the HTTP query API, 0 if disabled
+     */
+    int getQueryPort();
+
+    /**
+     * @return the address the HTTP query API listens on
+     */
+    String getQueryAddress();
+
+    /**
+     * @return the maximum range of a query for readings without buckets
+     */
+    Duration getQueryMaxRange();
+
+    /**
+     * @return the maximum number of buckets of a downsampled query
+     */
+    int getQueryMaxBuckets();
+
+    /**
+     * @return the maximum total size of the cached query responses (bytes)
+     */
+    long getQueryCacheBytes();
+
+    /**
+     * @return the time to keep a cached query response
+     */
+    Duration getQueryCacheTtl();
+
+    /**
+     * @return the 1 or 0
+     */
+    int getDebug();
+
+    /**
+     * @return the interval (seconds) for logging statistics, 0 to disable
+     */
+    int getStatsInterval();
+}
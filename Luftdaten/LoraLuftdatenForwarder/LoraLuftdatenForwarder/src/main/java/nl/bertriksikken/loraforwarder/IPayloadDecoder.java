@@ -0,0 +1,18 @@
+package nl.bertriksikken.loraforwarder;
+
+import nl.bertriksikken.ttn.dto.TtnUplink;
+
+/**
+ * Decoder for the measurement values in an uplink.
+ */
+public interface IPayloadDecoder {
+
+    /**
+     * Decodes the measurement values of an uplink.
+     *
+     * @param uplink the uplink as decoded from JSON, the measurement values are set in this object
+     * @return false if the uplink could not be decoded
+     */
+    boolean decode(TtnUplink uplink);
+
+}
@@ -1,91 +1,509 @@
-package nl.bertriksikken.loraforwarder;
-
-import java.time.Duration;
-
-/**
- * Configuration class. // updated for SPS30  paulvha / November 2019
- */
-public final class LoraForwarderConfig extends BaseConfig implements ILoraForwarderConfig {
-
-    private enum EConfigItem {
-        MQTT_URL("mqtt.url", "tcp://eu.thethings.network", "URL of the MQTT server"),
-        MQTT_APP_ID("mqtt.appid", "paulvha_app_a", "TTN application id"),
-        MQTT_APP_KEY("mqtt.appkey", "ttn-account-v2.VEpepcjuuR8lATZ666sCkdRPRKFt7aLxMhv0qOlhFHk",
-                "TTN application access key"),
-
-        ENCODING("encoding", "rudzl", "The payload encoding"),
-
-        LUFTDATEN_URL("luftdaten.url", "https://api.luftdaten.info", "luftdaten server URL (empty to disable)"),
-        LUFTDATEN_TIMEOUT_MS("luftdaten.timeout", "10000", "luftdaten API timeout (milliseconds)"),
-
-        STORAGE_DIR("storage.dir","/tmp/","storage directory for local data files (empty to disable)"),
-        FILE_EXT("file.ext","YYMMdd","Format date extension for local data file"),
-
-        ENABLE_DBG ("enable.dbg", "0", "1 will enable data flow messages, 0 will show program log only");
-
-
-        private final String key, value, comment;
-
-        private EConfigItem(String key, String defValue, String comment) {
-            this.key = key;
-            this.value = defValue;
-            this.comment = comment;
-        }
-    }
-
-    /**
-     * Constructor.
-     */
-    public LoraForwarderConfig() {
-        for (EConfigItem e : EConfigItem.values()) {
-            add(e.key, e.value, e.comment);
-        }
-    }
-
-    @Override
-    public String getStorageDir() {
-        return get(EConfigItem.STORAGE_DIR.key);
-    }
-
-    @Override
-    public int getDebug() {
-        //return get(EConfigItem.STORAGE_DIR.key);
-        return (Integer.parseInt(get(EConfigItem.ENABLE_DBG.key)));
-    }
-
-    @Override
-    public String getExtension() {
-        return get(EConfigItem.FILE_EXT.key);
-    }
-
-    @Override
-    public String getMqttUrl() {
-        return get(EConfigItem.MQTT_URL.key);
-    }
-
-    @Override
-    public String getMqttAppId() {
-        return get(EConfigItem.MQTT_APP_ID.key);
-    }
-
-    @Override
-    public String getMqttAppKey() {
-        return get(EConfigItem.MQTT_APP_KEY.key);
-    }
-
-    @Override
-    public String getLuftdatenUrl() {
-        return get(EConfigItem.LUFTDATEN_URL.key).trim();
-    }
-
-    @Override
-    public String getEncoding() {
-        return get(EConfigItem.ENCODING.key).trim();
-    }
-
-    @Override
-    public Duration getLuftdatenTimeout() {
-        return Duration.ofMillis(Integer.parseInt(get(EConfigItem.LUFTDATEN_TIMEOUT_MS.key)));
-    }
-
-}
+package nl.bertriksikken.loraforwarder;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Configuration class. // updated for SPS30  paulvha / November 2019
+ */
+public final class LoraForwarderConfig extends BaseConfig implements ILoraForwarderConfig {
+
+    private enum EConfigItem {
+        MQTT_URL("mqtt.url", "tcp://eu.thethings.network", "URL of the MQTT server"),
+        MQTT_APP_ID("mqtt.appid", "paulvha_app_a", "TTN application id"),
+        MQTT_APP_KEY("mqtt.appkey", "ttn-account-v2.VEpepcjuuR8lATZ666sCkdRPRKFt7aLxMhv0qOlhFHk",
+                "TTN application access key"),
+        MQTT_TOPICS("mqtt.topics", "+/devices/+/up",
+                "comma separated MQTT topics, e.g. one per application (<appid>/devices/+/up)"),
+        MQTT_CLIENTS("mqtt.clients", "1",
+                "number of MQTT clients to spread the topics over (at most one per topic, add topics to scale out)"),
+        MQTT_CLIENT_ID("mqtt.clientid", "",
+                "client id for a durable MQTT session, unique per instance (empty for a random id, clean session)"),
+        MQTT_PERSISTENCE_DIR("mqtt.persistence.dir", "",
+                "absolute directory for the MQTT client state of a durable session (empty to keep it in memory)"),
+        MQTT_RECONNECT_MAX_DELAY_MS("mqtt.reconnect.maxdelay", "5000",
+                "maximum delay between MQTT reconnect attempts (milliseconds)"),
+
+        ENCODING("encoding", "rudzl", "The payload encoding: rudzl (TTN payload fields) or sps30raw (raw payload)"),
+        DECODER_PORTS("decoder.ports", "", "payload encoding per LoRaWAN port, e.g. 1:rudzl,2:sps30raw"),
+        DECODER_DEVICES("decoder.devices", "",
+                "payload encoding per TTN device id (regular expression), e.g. ttgo_.*:sps30raw"),
+
+        FILTER_PM_MAX("filter.pm.max", "1000", "maximum valid PM value (ug/m3), readings above it are dropped"),
+        FILTER_HAMPEL_WINDOW("filter.hampel.window", "9",
+                "number of recent readings per sensor for the PM2.5/PM10 spike filter (0 to disable)"),
+        FILTER_HAMPEL_THRESHOLD("filter.hampel.threshold", "3",
+                "spike threshold, in scaled median absolute deviations from the median of the recent readings"),
+        FILTER_HAMPEL_MIN_DELTA("filter.hampel.mindelta", "10",
+                "minimum deviation from the median of the recent readings to count as a spike (ug/m3)"),
+        TRANSFORM_SCALE("transform.scale", "",
+                "unit scaling per field for all sensors, e.g. pressure:0.01*x,temp:x-273.15 (empty for none)"),
+        TRANSFORM_HUMIDITY_KAPPA("transform.humidity.kappa", "0",
+                "hygroscopicity kappa of the humidity growth-factor correction of PM values, e.g. 0.4 (0 to disable)"),
+        TRANSFORM_HUMIDITY_MAX_RH("transform.humidity.maxrh", "95",
+                "relative humidity (percent) at which the humidity correction is capped"),
+        TRANSFORM_CALIBRATION("transform.calibration", "",
+                "linear calibration per sensor and field, e.g. TTN-0004A30B001F1234/pm2_5:0.82*x+1.1 (empty for none)"),
+
+        DEDUP_WINDOW("dedup.window", "64",
+                "number of recent frame counters per device to check for duplicate uplinks (0 to disable)"),
+
+        INGEST_QUEUE_SIZE("ingest.queue.size", "1000", "number of message slots in the pipeline (rounded up to a power of two)"),
+        INGEST_DECODERS("ingest.decoders", "2", "number of threads decoding messages in the pipeline"),
+        INGEST_LANES("ingest.lanes", "4",
+                "number of upload lanes, messages of one sensor always use the same lane (their posts may still overlap)"),
+        INGEST_POLICY("ingest.policy", "block", "when the pipeline is full: block, drop_oldest or drop_newest"),
+
+        LUFTDATEN_URL("luftdaten.url", "https://api.luftdaten.info", "luftdaten server URL (empty to disable)"),
+        LUFTDATEN_TIMEOUT_MS("luftdaten.timeout", "10000", "luftdaten API timeout (milliseconds)"),
+        LUFTDATEN_MAX_INFLIGHT("luftdaten.maxinflight", "8",
+                "maximum number of concurrent luftdaten API requests, the actual limit adapts to the server"),
+        LUFTDATEN_RATE("luftdaten.rate", "20", "maximum luftdaten API request rate (per second, 0 for no limit)"),
+        LUFTDATEN_BURST("luftdaten.burst", "20", "maximum burst of luftdaten API requests above the rate"),
+        LUFTDATEN_BREAKER_FAILURES("luftdaten.breaker.failures", "5",
+                "number of consecutive luftdaten API failures that opens the circuit"),
+        LUFTDATEN_BREAKER_OPEN_MS("luftdaten.breaker.opentime", "30000",
+                "time to defer luftdaten uploads when the circuit is open, before probing (milliseconds)"),
+
+        OUTBOX_DIR("outbox.dir", "", "directory for failed luftdaten uploads to retry (empty to disable)"),
+        OUTBOX_MAX_SIZE_MB("outbox.maxsize", "64", "maximum size of the outbox (megabytes), oldest uploads are dropped"),
+        OUTBOX_RETRY_MAX_DELAY_MS("outbox.retry.maxdelay", "300000",
+                "maximum delay between retries while luftdaten keeps failing (milliseconds)"),
+        OUTBOX_BATCH("outbox.batch", "2", "number of concurrent retries, taken from luftdaten.maxinflight"),
+
+        SINK_QUEUE_SIZE("sink.queue.size", "1000", "number of readings queued per sink worker"),
+        SINK_WORKERS("sink.workers", "2", "number of worker threads per sink, readings of one sensor use the same worker"),
+        SINK_POLICY("sink.policy", "drop_oldest",
+                "when a sink queue is full: drop_oldest, drop_newest or block (a slow sink then holds up the others)"),
+        SINK_TIMEOUT_MS("sink.timeout", "10000", "timeout of the REST sinks (milliseconds)"),
+        SINK_BATCH_SIZE("sink.batch.size", "500", "maximum number of readings per batch, for sinks that write batches"),
+        SINK_BATCH_LINGER_MS("sink.batch.linger", "1000",
+                "maximum time a reading waits for its batch to fill up (milliseconds)"),
+
+        STORAGE_DIR("storage.dir","/tmp/","storage directory for local data files (empty to disable)"),
+        FILE_EXT("file.ext","YYMMdd","Format date extension for local data file"),
+        STORAGE_MAX_OPEN("storage.maxopen", "64", "maximum number of local data files kept open"),
+        STORAGE_FLUSH_MS("storage.flush", "1000", "interval for flushing local data files (milliseconds)"),
+        STORAGE_FSYNC("storage.fsync", "false", "whether to sync local data files to disk at every flush"),
+        STORAGE_RETENTION_DAYS("storage.retention", "0", "days to keep local data files (0 to keep forever)"),
+        STORE_DIR("store.dir", "", "directory of the binary time-series store (empty to disable)"),
+        STORE_SEGMENT_RECORDS("store.segment.records", "4096",
+                "maximum number of readings per store segment file, a new file is also started every day (UTC)"),
+        ARCHIVE_DIR("archive.dir", "",
+                "directory for the sealed blocks and rollups of the store (empty to disable compaction and retention)"),
+        COMPACTION_INTERVAL_MS("compaction.interval", "3600000",
+                "interval for sealing finished days and applying retention (milliseconds)"),
+        RETENTION_RAW_DAYS("retention.raw", "7", "days to keep raw store segments, once sealed (0 to keep forever)"),
+        RETENTION_BLOCKS_DAYS("retention.blocks", "90",
+                "days to keep sealed blocks, at least as long as the raw segments (0 to keep forever)"),
+        RETENTION_HOURLY_DAYS("retention.hourly", "730", "days to keep hourly rollups (0 to keep forever)"),
+        RETENTION_DAILY_DAYS("retention.daily", "0", "days to keep daily rollups (0 to keep forever)"),
+        AGGREGATE_MAX_DEVICES("aggregate.maxdevices", "10000",
+                "maximum number of devices with in-memory rolling aggregates, about 2.3 kB each (0 to disable)"),
+        AQI_MAX_SENSORS("aqi.maxsensors", "10000",
+                "maximum number of sensors with a streaming CAQI and US AQI (NowCast), about 1 kB each (0 to disable)"),
+        QUERY_PORT("query.port", "0", "TCP port of the HTTP query API on the store (0 to disable)"),
+        QUERY_ADDRESS("query.address", "127.0.0.1",
+                "address the query API listens on, it has no authentication (0.0.0.0 for all interfaces)"),
+        QUERY_MAX_RANGE_DAYS("query.maxrange", "31", "maximum range of a query for readings without buckets (days)"),
+        QUERY_MAX_BUCKETS("query.maxbuckets", "10000", "maximum number of buckets of a downsampled query"),
+        QUERY_CACHE_BYTES("query.cache.bytes", "4194304", "maximum total size of the cached query responses (bytes)"),
+        QUERY_CACHE_TTL_MS("query.cache.ttl", "30000", "time to keep a cached query response (milliseconds)"),
+
+        OPENSENSEMAP_URL("opensensemap.url", "", "openSenseMap server URL, e.g. https://api.opensensemap.org (empty to disable)"),
+        OPENSENSEMAP_BOXES("opensensemap.boxes", "",
+                "senseBox id per TTN hardware serial, e.g. 0004A30B001F1234:5a0c2cc89fd3c200111118f0"),
+
+        INFLUX_URL("influx.url", "", "InfluxDB server URL, e.g. http://localhost:8086 (empty to disable)"),
+        INFLUX_DATABASE("influx.database", "luftdaten", "InfluxDB database"),
+
+        ENABLE_DBG ("enable.dbg", "0", "1 will enable data flow messages, 0 will show program log only"),
+        STATS_INTERVAL("stats.interval", "300", "interval (seconds) for logging statistics, 0 to disable");
+
+
+        private final String key, value, comment;
+
+        private EConfigItem(String key, String defValue, String comment) {
+            this.key = key;
+            this.value = defValue;
+            this.comment = comment;
+        }
+    }
+
+    /**
+     * Constructor.
+     */
+    public LoraForwarderConfig() {
+        for (EConfigItem e : EConfigItem.values()) {
+            add(e.key, e.value, e.comment);
+        }
+    }
+
+    @Override
+    public String getStorageDir() {
+        return get(EConfigItem.STORAGE_DIR.key);
+    }
+
+    @Override
+    public int getDebug() {
+        //return get(EConfigItem.STORAGE_DIR.key);
+        return (Integer.parseInt(get(EConfigItem.ENABLE_DBG.key)));
+    }
+
+    @Override
+    public String getExtension() {
+        return get(EConfigItem.FILE_EXT.key);
+    }
+
+    @Override
+    public int getStorageMaxOpen() {
+        return Integer.parseInt(get(EConfigItem.STORAGE_MAX_OPEN.key).trim());
+    }
+
+    @Override
+    public Duration getStorageFlushInterval() {
+        return Duration.ofMillis(Long.parseLong(get(EConfigItem.STORAGE_FLUSH_MS.key).trim()));
+    }
+
+    @Override
+    public boolean getStorageFsync() {
+        return Boolean.parseBoolean(get(EConfigItem.STORAGE_FSYNC.key).trim());
+    }
+
+    @Override
+    public int getStorageRetention() {
+        return Integer.parseInt(get(EConfigItem.STORAGE_RETENTION_DAYS.key).trim());
+    }
+
+    @Override
+    public String getStoreDir() {
+        return get(EConfigItem.STORE_DIR.key).trim();
+    }
+
+    @Override
+    public int getStoreSegmentRecords() {
+        return Integer.parseInt(get(EConfigItem.STORE_SEGMENT_RECORDS.key).trim());
+    }
+
+    @Override
+    public String getArchiveDir() {
+        return get(EConfigItem.ARCHIVE_DIR.key).trim();
+    }
+
+    @Override
+    public Duration getCompactionInterval() {
+        return Duration.ofMillis(Long.parseLong(get(EConfigItem.COMPACTION_INTERVAL_MS.key).trim()));
+    }
+
+    @Override
+    public int getRetentionRaw() {
+        return Integer.parseInt(get(EConfigItem.RETENTION_RAW_DAYS.key).trim());
+    }
+
+    @Override
+    public int getRetentionBlocks() {
+        return Integer.parseInt(get(EConfigItem.RETENTION_BLOCKS_DAYS.key).trim());
+    }
+
+    @Override
+    public int getRetentionHourly() {
+        return Integer.parseInt(get(EConfigItem.RETENTION_HOURLY_DAYS.key).trim());
+    }
+
+    @Override
+    public int getRetentionDaily() {
+        return Integer.parseInt(get(EConfigItem.RETENTION_DAILY_DAYS.key).trim());
+    }
+
+    @Override
+    public int getAggregateMaxDevices() {
+        return Integer.parseInt(get(EConfigItem.AGGREGATE_MAX_DEVICES.key).trim());
+    }
+
+    @Override
+    public int getAqiMaxSensors() {
+        return Integer.parseInt(get(EConfigItem.AQI_MAX_SENSORS.key).trim());
+    }
+
+    @Override
+    public int getQueryPort() {
+        return Integer.parseInt(get(EConfigItem.QUERY_PORT.key).trim());
+    }
+
+    @Override
+    public String getQueryAddress() {
+        return get(EConfigItem.QUERY_ADDRESS.key).trim();
+    }
+
+    @Override
+    public Duration getQueryMaxRange() {
+        return Duration.ofDays(Long.parseLong(get(EConfigItem.QUERY_MAX_RANGE_DAYS.key).trim()));
+    }
+
+    @Override
+    public int getQueryMaxBuckets() {
+        return Integer.parseInt(get(EConfigItem.QUERY_MAX_BUCKETS.key).trim());
+    }
+
+    @Override
+    public long getQueryCacheBytes() {
+        return Long.parseLong(get(EConfigItem.QUERY_CACHE_BYTES.key).trim());
+    }
+
+    @Override
+    public Duration getQueryCacheTtl() {
+        return Duration.ofMillis(Long.parseLong(get(EConfigItem.QUERY_CACHE_TTL_MS.key).trim()));
+    }
+
+    @Override
+    public String getMqttUrl() {
+        return get(EConfigItem.MQTT_URL.key);
+    }
+
+    @Override
+    public String getMqttAppId() {
+        return get(EConfigItem.MQTT_APP_ID.key);
+    }
+
+    @Override
+    public String getMqttAppKey() {
+        return get(EConfigItem.MQTT_APP_KEY.key);
+    }
+
+    @Override
+    public List<String> getMqttTopics() {
+        List<String> topics = new ArrayList<>();
+        for (String topic : get(EConfigItem.MQTT_TOPICS.key).split(",")) {
+            if (!topic.trim().isEmpty()) {
+                topics.add(topic.trim());
+            }
+        }
+        return topics;
+    }
+
+    @Override
+    public int getMqttClients() {
+        return Integer.parseInt(get(EConfigItem.MQTT_CLIENTS.key).trim());
+    }
+
+    @Override
+    public String getMqttClientId() {
+        return get(EConfigItem.MQTT_CLIENT_ID.key).trim();
+    }
+
+    @Override
+    public String getMqttPersistenceDir() {
+        return get(EConfigItem.MQTT_PERSISTENCE_DIR.key).trim();
+    }
+
+    @Override
+    public Duration getMqttReconnectMaxDelay() {
+        return Duration.ofMillis(Integer.parseInt(get(EConfigItem.MQTT_RECONNECT_MAX_DELAY_MS.key).trim()));
+    }
+
+    @Override
+    public int getStatsInterval() {
+        return Integer.parseInt(get(EConfigItem.STATS_INTERVAL.key).trim());
+    }
+
+    @Override
+    public String getLuftdatenUrl() {
+        return get(EConfigItem.LUFTDATEN_URL.key).trim();
+    }
+
+    @Override
+    public String getEncoding() {
+        return get(EConfigItem.ENCODING.key).trim();
+    }
+
+    @Override
+    public Map<String, String> getDecoderPorts() {
+        return parseMapping(get(EConfigItem.DECODER_PORTS.key));
+    }
+
+    @Override
+    public Map<String, String> getDecoderDevices() {
+        return parseMapping(get(EConfigItem.DECODER_DEVICES.key));
+    }
+
+    // parses "key:value,key:value", keeping the order
+    private Map<String, String> parseMapping(String value) {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (String item : value.split(",")) {
+            int index = item.lastIndexOf(':');
+            if (index > 0) {
+                map.put(item.substring(0, index).trim(), item.substring(index + 1).trim());
+            }
+        }
+        return map;
+    }
+
+    @Override
+    public double getFilterPmMax() {
+        return Double.parseDouble(get(EConfigItem.FILTER_PM_MAX.key).trim());
+    }
+
+    @Override
+    public int getFilterHampelWindow() {
+        return Integer.parseInt(get(EConfigItem.FILTER_HAMPEL_WINDOW.key).trim());
+    }
+
+    @Override
+    public double getFilterHampelThreshold() {
+        return Double.parseDouble(get(EConfigItem.FILTER_HAMPEL_THRESHOLD.key).trim());
+    }
+
+    @Override
+    public double getFilterHampelMinDelta() {
+        return Double.parseDouble(get(EConfigItem.FILTER_HAMPEL_MIN_DELTA.key).trim());
+    }
+
+    @Override
+    public Map<String, String> getTransformScale() {
+        return parseMapping(get(EConfigItem.TRANSFORM_SCALE.key));
+    }
+
+    @Override
+    public double getTransformHumidityKappa() {
+        return Double.parseDouble(get(EConfigItem.TRANSFORM_HUMIDITY_KAPPA.key).trim());
+    }
+
+    @Override
+    public double getTransformHumidityMaxRh() {
+        return Double.parseDouble(get(EConfigItem.TRANSFORM_HUMIDITY_MAX_RH.key).trim());
+    }
+
+    @Override
+    public Map<String, String> getTransformCalibration() {
+        return parseMapping(get(EConfigItem.TRANSFORM_CALIBRATION.key));
+    }
+
+    @Override
+    public int getDedupWindow() {
+        return Integer.parseInt(get(EConfigItem.DEDUP_WINDOW.key).trim());
+    }
+
+    @Override
+    public int getIngestQueueSize() {
+        return Integer.parseInt(get(EConfigItem.INGEST_QUEUE_SIZE.key).trim());
+    }
+
+    @Override
+    public int getIngestDecoders() {
+        return Integer.parseInt(get(EConfigItem.INGEST_DECODERS.key).trim());
+    }
+
+    @Override
+    public int getIngestLanes() {
+        return Integer.parseInt(get(EConfigItem.INGEST_LANES.key).trim());
+    }
+
+    @Override
+    public String getIngestPolicy() {
+        return get(EConfigItem.INGEST_POLICY.key).trim();
+    }
+
+    @Override
+    public Duration getLuftdatenTimeout() {
+        return Duration.ofMillis(Integer.parseInt(get(EConfigItem.LUFTDATEN_TIMEOUT_MS.key)));
+    }
+
+    @Override
+    public int getLuftdatenMaxInFlight() {
+        return Integer.parseInt(get(EConfigItem.LUFTDATEN_MAX_INFLIGHT.key).trim());
+    }
+
+    @Override
+    public double getLuftdatenRate() {
+        return Double.parseDouble(get(EConfigItem.LUFTDATEN_RATE.key).trim());
+    }
+
+    @Override
+    public int getLuftdatenBurst() {
+        return Integer.parseInt(get(EConfigItem.LUFTDATEN_BURST.key).trim());
+    }
+
+    @Override
+    public int getLuftdatenBreakerFailures() {
+        return Integer.parseInt(get(EConfigItem.LUFTDATEN_BREAKER_FAILURES.key).trim());
+    }
+
+    @Override
+    public Duration getLuftdatenBreakerOpenTime() {
+        return Duration.ofMillis(Long.parseLong(get(EConfigItem.LUFTDATEN_BREAKER_OPEN_MS.key).trim()));
+    }
+
+    @Override
+    public int getSinkQueueSize() {
+        return Integer.parseInt(get(EConfigItem.SINK_QUEUE_SIZE.key).trim());
+    }
+
+    @Override
+    public int getSinkWorkers() {
+        return Integer.parseInt(get(EConfigItem.SINK_WORKERS.key).trim());
+    }
+
+    @Override
+    public String getSinkPolicy() {
+        return get(EConfigItem.SINK_POLICY.key).trim();
+    }
+
+    @Override
+    public Duration getSinkTimeout() {
+        return Duration.ofMillis(Integer.parseInt(get(EConfigItem.SINK_TIMEOUT_MS.key).trim()));
+    }
+
+    @Override
+    public int getSinkBatchSize() {
+        return Integer.parseInt(get(EConfigItem.SINK_BATCH_SIZE.key).trim());
+    }
+
+    @Override
+    public Duration getSinkBatchLinger() {
+        return Duration.ofMillis(Long.parseLong(get(EConfigItem.SINK_BATCH_LINGER_MS.key).trim()));
+    }
+
+    @Override
+    public String getOpenSenseMapUrl() {
+        return get(EConfigItem.OPENSENSEMAP_URL.key).trim();
+    }
+
+    @Override
+    public Map<String, String> getOpenSenseMapBoxes() {
+        return parseMapping(get(EConfigItem.OPENSENSEMAP_BOXES.key));
+    }
+
+    @Override
+    public String getInfluxUrl() {
+        return get(EConfigItem.INFLUX_URL.key).trim();
+    }
+
+    @Override
+    public String getInfluxDatabase() {
+        return get(EConfigItem.INFLUX_DATABASE.key).trim();
+    }
+
+    @Override
+    public String getOutboxDir() {
+        return get(EConfigItem.OUTBOX_DIR.key).trim();
+    }
+
+    @Override
+    public long getOutboxMaxSize() {
+        return Long.parseLong(get(EConfigItem.OUTBOX_MAX_SIZE_MB.key).trim()) * 1024 * 1024;
+    }
+
+    @Override
+    public Duration getOutboxRetryMaxDelay() {
+        return Duration.ofMillis(Long.parseLong(get(EConfigItem.OUTBOX_RETRY_MAX_DELAY_MS.key).trim()));
+    }
+
+    @Override
+    public int getOutboxBatch() {
+        return Integer.parseInt(get(EConfigItem.OUTBOX_BATCH.key).trim());
+    }
+
+}
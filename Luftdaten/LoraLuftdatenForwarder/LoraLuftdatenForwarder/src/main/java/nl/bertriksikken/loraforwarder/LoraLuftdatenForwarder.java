@@ -4,35 +4,57 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
 import java.time.*;
-import java.time.format.DateTimeFormatter;
 import java.nio.charset.StandardCharsets;
-import java.io.IOException;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.ExecutorService;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-
-import nl.bertriksikken.loraforwarder.rudzl.dto.RudzlMessage;
+import nl.bertriksikken.aggregate.RollingAggregator;
+import nl.bertriksikken.aqi.AirQualityEngine;
+import nl.bertriksikken.aqi.AirQualityIndex;
+import nl.bertriksikken.influx.InfluxSink;
+import nl.bertriksikken.loraforwarder.filter.EFilterReason;
+import nl.bertriksikken.loraforwarder.filter.ReadingFilter;
+import nl.bertriksikken.loraforwarder.pipeline.SensorEvent;
+import nl.bertriksikken.loraforwarder.pipeline.SensorPipeline;
+import nl.bertriksikken.loraforwarder.sink.AggregateSink;
+import nl.bertriksikken.loraforwarder.sink.BatchingSink;
+import nl.bertriksikken.loraforwarder.sink.CsvFileSink;
+import nl.bertriksikken.loraforwarder.sink.EFlushReason;
+import nl.bertriksikken.loraforwarder.sink.ISink;
+import nl.bertriksikken.loraforwarder.sink.SensorReading;
+import nl.bertriksikken.loraforwarder.sink.SinkRunner;
+import nl.bertriksikken.loraforwarder.sink.StoreSink;
+import nl.bertriksikken.loraforwarder.transform.TransformStage;
+import nl.bertriksikken.luftdaten.AdaptiveLimiter;
+import nl.bertriksikken.luftdaten.CircuitBreaker;
+import nl.bertriksikken.luftdaten.EUploadResult;
 import nl.bertriksikken.luftdaten.ILuftdatenApi;
+import nl.bertriksikken.luftdaten.LuftdatenBody;
+import nl.bertriksikken.luftdaten.LuftdatenBodyWriter;
+import nl.bertriksikken.luftdaten.LuftdatenOutbox;
 import nl.bertriksikken.luftdaten.LuftdatenUploader;
-import nl.bertriksikken.luftdaten.dto.LuftdatenItem;
-import nl.bertriksikken.luftdaten.dto.LuftdatenMessage;
-import nl.bertriksikken.pm.SensorBme;
-import nl.bertriksikken.pm.SensorMessage;
-import nl.bertriksikken.pm.SensorSps;
+import nl.bertriksikken.luftdaten.TokenBucket;
+import nl.bertriksikken.opensensemap.OpenSenseMapSink;
+import nl.bertriksikken.query.QueryServer;
+import nl.bertriksikken.storage.BlockArchive;
+import nl.bertriksikken.storage.Compactor;
+import nl.bertriksikken.storage.RollupArchive;
+import nl.bertriksikken.storage.TimeSeriesStore;
 import nl.bertriksikken.ttn.MqttListener;
-import nl.bertriksikken.ttn.dto.TtnUplinkMessage;
+import nl.bertriksikken.ttn.dto.TtnUplink;
+import nl.bertriksikken.ttn.dto.TtnUplinkDecoder;
 
 /**
  * updated for SPS30 / paulvha / November 2019
@@ -42,14 +64,32 @@ public final class LoraLuftdatenForwarder {
     private static final Logger LOG = LoggerFactory.getLogger(LoraLuftdatenForwarder.class);
     private static final String CONFIG_FILE = "loraluftdatenforwarder.properties";
     private static final String SOFTWARE_VERSION = "SPS30_November_2019-1.0.1";
-    private static String StorageDir;       // hold the place for the local data files
-    private static String FileDateExt;      // hold the date extension for the datafile.
+    private static final long STOP_TIMEOUT_SEC = 10;
     private static int DebugDataflow;
 
     private final MqttListener mqttListener;
     private final LuftdatenUploader uploader;
-    private final ExecutorService executor;
-    private final EPayloadEncoding encoding;
+    private final LuftdatenOutbox outbox;
+    private final LuftdatenBodyWriter bodyWriter = new LuftdatenBodyWriter(SOFTWARE_VERSION);
+    private final SensorPipeline pipeline;
+    private final List<SinkRunner> sinks = new ArrayList<>();
+    private final RollingAggregator aggregator;
+    // only updated from the persist stage
+    private final AirQualityEngine airQuality;
+    private final QueryServer queryServer;
+    private final Compactor compactor;
+    private final Duration compactionInterval;
+    private final ScheduledExecutorService statsExecutor;
+    private final PayloadDecoderRegistry decoders;
+    // only accessed from the validate stage, apart from their counters
+    private final FrameDeduplicator deduplicator;
+    private final ReadingFilter filter;
+    private final TransformStage transforms;
+    private final TtnUplinkDecoder decoder = new TtnUplinkDecoder();
+    // shared by the decode stage threads
+    private final Map<String, String> sensorIds = new ConcurrentHashMap<>();
+    private final int statsInterval;
+    private List<Long> lastMessageCounts;
 
     public static void main(String[] args) throws IOException, MqttException {
         ILoraForwarderConfig config = readConfig(new File(CONFIG_FILE));
@@ -61,16 +101,7 @@ public final class LoraLuftdatenForwarder {
     // called from main (above)
     private LoraLuftdatenForwarder(ILoraForwarderConfig config) {
         ILuftdatenApi restClient = LuftdatenUploader.newRestClient(config.getLuftdatenUrl(),
-                config.getLuftdatenTimeout());
-
-        // Folder for local data file
-        StorageDir = config.getStorageDir();
-        if(StorageDir == null || StorageDir.isEmpty()){
-            LOG.warn("No Storage directory defined. No data will be saved locally");
-        }
-        else {
-            LOG.info("Data files will be saved to {}", StorageDir);
-        }
+                config.getLuftdatenTimeout(), config.getLuftdatenMaxInFlight());
 
         // enable dataflow message
         DebugDataflow = config.getDebug();
@@ -78,155 +109,321 @@ public final class LoraLuftdatenForwarder {
             LOG.info("Dataflow debug information disabled");
         }
 
-        // get extension for data file
-        FileDateExt = config.getExtension();
+        // other destinations besides luftdaten, each sink gets its own queues and workers
+        EOverflowPolicy sinkPolicy = EOverflowPolicy.fromId(config.getSinkPolicy());
+        if (sinkPolicy == null) {
+            throw new IllegalArgumentException("Unknown sink policy: " + config.getSinkPolicy());
+        }
+        String storageDir = config.getStorageDir();
+        if (storageDir == null || storageDir.isEmpty()) {
+            LOG.warn("No Storage directory defined. No data will be saved locally");
+        } else {
+            LOG.info("Data files will be saved to {}", storageDir);
+            addSink(new CsvFileSink(storageDir, config.getExtension(), config.getStorageMaxOpen(),
+                    config.getStorageFlushInterval(), config.getStorageFsync(), config.getStorageRetention()), config,
+                    sinkPolicy);
+        }
+        if (config.getAggregateMaxDevices() > 0) {
+            aggregator = new RollingAggregator(config.getAggregateMaxDevices());
+            addSink(new AggregateSink(aggregator), config, sinkPolicy);
+        } else {
+            aggregator = null;
+        }
+        airQuality = (config.getAqiMaxSensors() > 0) ? new AirQualityEngine(config.getAqiMaxSensors()) : null;
+        if (!config.getStoreDir().isEmpty()) {
+            LOG.info("Data will be stored in {}", config.getStoreDir());
+            TimeSeriesStore store = new TimeSeriesStore(new File(config.getStoreDir()),
+                    config.getStoreSegmentRecords());
+            addSink(new StoreSink(store, config.getStorageFlushInterval()), config, sinkPolicy);
+            BlockArchive archive = null;
+            RollupArchive rollups = null;
+            if (config.getArchiveDir().isEmpty()) {
+                LOG.warn("No archive directory defined. The store will not be compacted");
+                compactor = null;
+            } else {
+                archive = new BlockArchive(new File(config.getArchiveDir()));
+                rollups = new RollupArchive(new File(config.getArchiveDir()));
+                compactor = new Compactor(store, archive, rollups, config.getRetentionRaw(),
+                        config.getRetentionBlocks(), config.getRetentionHourly(), config.getRetentionDaily());
+            }
+            queryServer = (config.getQueryPort() > 0) ? new QueryServer(store, archive, rollups, aggregator,
+                    airQuality, config.getQueryAddress(), config.getQueryPort(), config.getQueryMaxRange(),
+                    config.getQueryMaxBuckets(), config.getQueryCacheBytes(), config.getQueryCacheTtl()) : null;
+        } else {
+            if (config.getQueryPort() > 0) {
+                LOG.warn("No store directory defined. The query API is disabled");
+            }
+            queryServer = null;
+            compactor = null;
+        }
+        if (!config.getOpenSenseMapUrl().isEmpty()) {
+            addSink(new OpenSenseMapSink(
+                    OpenSenseMapSink.newRestClient(config.getOpenSenseMapUrl(), config.getSinkTimeout()),
+                    config.getOpenSenseMapBoxes(), SOFTWARE_VERSION), config, sinkPolicy);
+        }
+        if (!config.getInfluxUrl().isEmpty()) {
+            ISink influx = new InfluxSink(InfluxSink.newRestClient(config.getInfluxUrl(), config.getSinkTimeout()),
+                    config.getInfluxDatabase());
+            if (config.getSinkBatchSize() > 1) {
+                influx = new BatchingSink(influx, config.getSinkBatchSize(), config.getSinkBatchLinger());
+            }
+            addSink(influx, config, sinkPolicy);
+        }
 
-        uploader = new LuftdatenUploader(restClient);
-        executor = Executors.newSingleThreadExecutor();
-        encoding = EPayloadEncoding.fromId(config.getEncoding());
+        // start at half the maximum concurrency, the limiter finds the capacity of the server from there
+        int maxInFlight = config.getLuftdatenMaxInFlight();
+        TokenBucket bucket = (config.getLuftdatenRate() > 0)
+                ? new TokenBucket(config.getLuftdatenRate(), config.getLuftdatenBurst()) : null;
+        AdaptiveLimiter limiter = new AdaptiveLimiter(Math.max(1, maxInFlight / 2), maxInFlight, bucket);
+        CircuitBreaker breaker = new CircuitBreaker("luftdaten", config.getLuftdatenBreakerFailures(),
+                config.getLuftdatenBreakerOpenTime());
+        uploader = new LuftdatenUploader(restClient, breaker, limiter, config.getLuftdatenTimeout());
+        if (config.getOutboxDir().isEmpty()) {
+            LOG.info("No outbox directory defined. Failed uploads will not be retried");
+            outbox = null;
+        } else {
+            outbox = new LuftdatenOutbox(new File(config.getOutboxDir()), config.getOutboxMaxSize(),
+                    config.getOutboxRetryMaxDelay().toMillis(), config.getOutboxBatch(),
+                    (sensorId, pin, body) -> uploader.uploadMeasurement(sensorId, pin, body, DebugDataflow));
+        }
+        EOverflowPolicy policy = EOverflowPolicy.fromId(config.getIngestPolicy());
+        if (policy == null) {
+            throw new IllegalArgumentException("Unknown ingest policy: " + config.getIngestPolicy());
+        }
+        pipeline = new SensorPipeline(config.getIngestQueueSize(), config.getIngestDecoders(), config.getIngestLanes(),
+                policy,
+                this::decodeEvent, this::validateEvent, this::uploadEvent, this::publishToSinks);
+        decoders = new PayloadDecoderRegistry(config.getEncoding(), config.getDecoderPorts(),
+                config.getDecoderDevices());
+        deduplicator = (config.getDedupWindow() > 0) ? new FrameDeduplicator(config.getDedupWindow()) : null;
+        filter = new ReadingFilter(config.getFilterPmMax(), config.getFilterHampelWindow(),
+                config.getFilterHampelThreshold(), config.getFilterHampelMinDelta());
+        TransformStage transformStage = new TransformStage(config.getTransformScale(),
+                config.getTransformHumidityKappa(), config.getTransformHumidityMaxRh(),
+                config.getTransformCalibration());
+        transforms = transformStage.isEmpty() ? null : transformStage;
         // start listener and return with message from TTN.  Call the messageReceived below to handle.
         mqttListener = new MqttListener(this::messageReceived, config.getMqttUrl(), config.getMqttAppId(),
-                config.getMqttAppKey());
+                config.getMqttAppKey(), config.getMqttTopics(), config.getMqttClients(), config.getMqttClientId(),
+                config.getMqttPersistenceDir(), config.getMqttReconnectMaxDelay());
+        lastMessageCounts = mqttListener.getMessageCounts();
+
+        compactionInterval = config.getCompactionInterval();
+        statsExecutor = Executors.newSingleThreadScheduledExecutor();
+        statsInterval = config.getStatsInterval();
 
         LOG.info("Luftdaten forwarder version {}", SOFTWARE_VERSION);
-        LOG.info("Created new Luftdaten forwarder for encoding {}", encoding);
+        LOG.info("Created new Luftdaten forwarder for encoding {}, per port {}, per device {}", config.getEncoding(),
+                config.getDecoderPorts(), config.getDecoderDevices());
+    }
+
+    private void addSink(ISink sink, ILoraForwarderConfig config, EOverflowPolicy policy) {
+        sinks.add(new SinkRunner(sink, config.getSinkWorkers(), config.getSinkQueueSize(), policy));
     }
 
     // package-private to allow testing
-    void messageReceived(Instant instant, String topic, String message) {
-        if (DebugDataflow == 1) LOG.info("Received: '{}'", message);
+    void messageReceived(Instant instant, String topic, byte[] payload) {
+        // hand over to the pipeline, a stopped pipeline throws so the message is not acknowledged
+        if (!pipeline.publish(instant, payload)) {
+            LOG.warn("Pipeline full, dropped message on topic '{}'", topic);
+        }
+    }
+
+    // pipeline stage: extract the data from the received TTN message
+    private boolean decodeEvent(SensorEvent event) {
+        if (DebugDataflow == 1) {
+            LOG.info("Received: '{}'", new String(event.getPayload(), 0, event.getLength(), StandardCharsets.US_ASCII));
+        }
 
         // decode JSON
-        ObjectMapper mapper = new ObjectMapper();
-        TtnUplinkMessage uplink;
+        TtnUplink uplink = event.getUplink();
         try {
-            uplink = mapper.readValue(message, TtnUplinkMessage.class);
+            if (!decoder.decode(event.getPayload(), event.getLength(), uplink)) {
+                LOG.warn("No hardware serial in message");
+                return false;
+            }
         } catch (IOException e) {
-            LOG.warn("Could not parse JSON: '{}'", message);
-            return;
+            LOG.warn("Could not parse JSON: '{}'",
+                    new String(event.getPayload(), 0, event.getLength(), StandardCharsets.US_ASCII));
+            return false;
         }
 
         // set the luftdaten devicename to TTN-hardware serial HARDCODED
-        String sensorId = String.format(Locale.ROOT, "TTN-%s", uplink.getHardwareSerial());
-
-        SensorMessage sensorMessage = decodeTtnMessage(instant, sensorId, uplink);
+        String sensorId = sensorIds.computeIfAbsent(uplink.getHardwareSerial(), serial -> "TTN-" + serial);
+        event.setSensorId(sensorId);
 
-        // schedule upload & save
-        if (sensorMessage != null) {
-            executor.execute(() -> handleMessageTask(sensorId, sensorMessage));
-            executor.execute(() -> saveToFile(sensorId, sensorMessage));
+        if (!decoders.decode(uplink)) {
+            LOG.warn("Could not decode payload of {} on port {}", sensorId, uplink.getPort());
+            return false;
         }
+        return true;
     }
 
-    // extract the data from the received TTN message
-    private SensorMessage decodeTtnMessage(Instant instant, String sensorId, TtnUplinkMessage uplinkMessage) {
-        switch (encoding) {
-        case RUDZL:
-            RudzlMessage message = new RudzlMessage(uplinkMessage.getPayloadFields());
-            SensorSps sps = new SensorSps(sensorId, message.getPM10(), message.getPM2_5(), message.getPM1());
-            SensorMessage sensorMessage = new SensorMessage(sps);
-            SensorBme bme = new SensorBme(message.getT(), message.getRH(), message.getP());
-            sensorMessage.setBme(bme);
-            return sensorMessage;
-        default:
-            return null;
+    // pipeline stage: correct and check the decoded data before it is uploaded or saved
+    private boolean validateEvent(SensorEvent event) {
+        TtnUplink uplink = event.getUplink();
+
+        // drop replayed or duplicated deliveries, before any upload or file I/O, this needs the messages in order
+        if ((deduplicator != null) && !deduplicator.accept(uplink.getHardwareSerial(), uplink.getCounter())) {
+            if (DebugDataflow == 1) {
+                LOG.info("Duplicate frame {} from {}", uplink.getCounter(), uplink.getHardwareSerial());
+            }
+            return false;
         }
-    }
 
-    private void handleMessageTask(String sensorId, SensorMessage sensorMessage) {
-        // forward to luftdaten, in an exception safe manner (order of data seems to be important)
-        try {
-            LuftdatenMessage spsMessage = new LuftdatenMessage(SOFTWARE_VERSION);
-            spsMessage.addItem(new LuftdatenItem("P0", sensorMessage.getSps().getPm1()));
-            spsMessage.addItem(new LuftdatenItem("P1", sensorMessage.getSps().getPm10()));
-            spsMessage.addItem(new LuftdatenItem("P2", sensorMessage.getSps().getPm2_5()));
-
-            uploader.uploadMeasurement(sensorId, LuftdatenUploader.PIN_SPS, spsMessage, DebugDataflow);
-
-            if (sensorMessage.getBme().isPresent()) {
-                SensorBme bme = sensorMessage.getBme().get();
-                LuftdatenMessage bmeMessage = new LuftdatenMessage(SOFTWARE_VERSION);
-                bmeMessage.addItem(new LuftdatenItem("temperature", bme.getTemp()));
-                bmeMessage.addItem(new LuftdatenItem("humidity", bme.getRh()));
-                bmeMessage.addItem(new LuftdatenItem("pressure", 100.0 * bme.getPressure()));
-                uploader.uploadMeasurement(sensorId, LuftdatenUploader.PIN_BME, bmeMessage, DebugDataflow);
+        EFilterReason reason = validate(filter, transforms, event.getSensorId(), uplink);
+        if (reason != null) {
+            if (DebugDataflow == 1) {
+                LOG.info("Dropped reading from {}: {}, {}", event.getSensorId(), reason.getId(), uplink);
             }
-        } catch (Exception e) {
-            LOG.trace("Caught exception", e);
-            LOG.warn("Caught exception: {}", e.getMessage());
+            return false;
         }
+        return true;
     }
 
-    /**
-     * Save data to local files.
-     *
-     * @param sensor_id : hardware ID  (name on Luftdaten)
-     * @param sensorMessage : filled Sensormessage
-     */
-    public final void saveToFile(String sensorId,  SensorMessage sensorMessage) {
-
-        // if NO directory provided, no save will be done
-        if(StorageDir == null || StorageDir.isEmpty())return;
-
-        // create date information
-        ZoneId zid = ZoneId.of("Europe/Paris");
-
-        // create an LocalDateTime object using now(zoneId)
-        LocalDateTime lt = LocalDateTime.now(zid);
-
-        // create unique extension for file as defined in configuration file
-        DateTimeFormatter file_format = DateTimeFormatter.ofPattern(FileDateExt);
-        String file_ext = lt.format(file_format);
-
-        // create timestamp for data
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy:MM:dd:hh:mm");
-        String formattedDateTime = lt.format(formatter);
+    // package-private to allow testing: the transforms go first, so the filter checks the values in the units and
+    // calibration they are uploaded and stored with
+    static EFilterReason validate(ReadingFilter filter, TransformStage transforms, String sensorId,
+            TtnUplink uplink) {
+        if (transforms != null) {
+            transforms.apply(sensorId, uplink);
+        }
+        return filter.filter(sensorId, uplink);
+    }
 
-        // check whether file exists already
-        File tempFile = new File(StorageDir + sensorId  + "-" +  file_ext);
-        boolean exists = tempFile.exists();
+    // pipeline stage: forward to luftdaten, SPS and BME data are posted concurrently without waiting for the result,
+    // so posts of the same sensor may complete out of order, failed uploads go to the outbox
+    private boolean uploadEvent(SensorEvent event) {
+        String sensorId = event.getSensorId();
+        TtnUplink uplink = event.getUplink();
 
-        //System.out.println("time is: " + formattedDateTime);
+        // order of data seems to be important: P0, P1, P2
+        upload(sensorId, LuftdatenUploader.PIN_SPS,
+                bodyWriter.writeSps(uplink.getPm1(), uplink.getPm10(), uplink.getPm2_5()));
 
-        // open for append (boolean = true)
-        try (FileOutputStream fos = new FileOutputStream((StorageDir + sensorId  + "-" +  file_ext), true)) {
+        if (uplink.hasBme()) {
+            upload(sensorId, LuftdatenUploader.PIN_BME,
+                    bodyWriter.writeBme(uplink.getTemp(), uplink.getRh(), 100.0 * uplink.getPressure()));
+        }
+        return true;
+    }
 
-            try (Writer writer = new OutputStreamWriter(fos, StandardCharsets.US_ASCII)) {
+    // the body goes back to the pool when the upload is done, after a copy went to the outbox if it failed
+    private void upload(String sensorId, String pin, LuftdatenBody body) {
+        uploader.uploadMeasurement(sensorId, pin, body, DebugDataflow).thenAccept(result -> {
+            // a rejected measurement would be rejected again, so only failed and deferred uploads are retried
+            if ((result != EUploadResult.ACCEPTED) && (result != EUploadResult.REJECTED) && (outbox != null)) {
+                outbox.add(sensorId, pin, body);
+            }
+            bodyWriter.release(body);
+        });
+    }
 
-                // if new file write header first
-                if (! exists) {
-                    writer.append("yyyy:MM:dd:hh:mm,P0,P2,P1,Temp,Hum,Pressure\n");
-                }
+    // pipeline stage: update the air quality index and hand a copy of the reading to every sink, each sink has its
+    // own queues and workers
+    private boolean publishToSinks(SensorEvent event) {
+        TtnUplink uplink = event.getUplink();
+        AirQualityIndex index = null;
+        if (airQuality != null) {
+            index = airQuality.update(event.getSensorId(), event.getReceivedAt().toEpochMilli(), uplink.getPm2_5(),
+                    uplink.getPm10());
+        }
+        if (!sinks.isEmpty()) {
+            SensorReading reading = SensorReading.of(event.getSensorId(), event.getReceivedAt(), uplink, index);
+            for (SinkRunner sink : sinks) {
+                sink.submit(reading);
+            }
+        }
+        return true;
+    }
 
-                // add time stamp
-                writer.append(formattedDateTime);
-
-                // add SDS30 data
-                writer.append("," + sensorMessage.getSps().getPm1());
-                writer.append("," + sensorMessage.getSps().getPm2_5());
-                writer.append("," + sensorMessage.getSps().getPm10());
-
-                // add BME data (if available)
-                if (sensorMessage.getBme().isPresent()) {
-                    SensorBme bme = sensorMessage.getBme().get();
-                    writer.append("," + bme.getTemp());
-                    writer.append("," + bme.getRh());
-                    writer.append("," + bme.getPressure());
-                    writer.append("\n");
-                }
-                else {
-                    writer.append(",0,0,0\n");
+    /**
+     * Logs the statistics of the sub-modules, in an exception safe manner.
+     */
+    private void logStatistics() {
+        try {
+            List<Long> counts = mqttListener.getMessageCounts();
+            for (int i = 0; i < counts.size(); i++) {
+                long delta = counts.get(i) - lastMessageCounts.get(i);
+                LOG.info("MQTT client {}: {} messages total, {} msg/s", i, counts.get(i),
+                        String.format(Locale.ROOT, "%.2f", (double) delta / statsInterval));
+            }
+            lastMessageCounts = counts;
+            LOG.info("MQTT reconnects: {}, last took {} ms, {} messages recovered", mqttListener.getReconnectCount(),
+                    mqttListener.getLastReconnectLatency(), mqttListener.getRecoveredCount());
+            for (PayloadDecoderRegistry.Entry entry : decoders.getEntries()) {
+                LOG.info("Decoder {}: {} decoded, {} failed, {} us/decode", entry.getName(), entry.getCount(),
+                        entry.getFailures(), entry.getTotalNanos() / Math.max(1, entry.getCount()) / 1000);
+            }
+            if (deduplicator != null) {
+                LOG.info("Dedup: {} duplicates suppressed, {} counter resets, {} devices",
+                        deduplicator.getSuppressedCount(), deduplicator.getResetCount(),
+                        deduplicator.getDeviceCount());
+            }
+            StringBuilder rejected = new StringBuilder();
+            for (EFilterReason reason : EFilterReason.values()) {
+                rejected.append(", ").append(filter.getRejectedCount(reason)).append(' ').append(reason.getId());
+            }
+            LOG.info("Filter: {} passed{}", filter.getPassedCount(), rejected);
+            if (transforms != null) {
+                LOG.info("Transforms: {} applied, {} humidity corrected, {} calibrated",
+                        transforms.getTransformedCount(), transforms.getCorrectedCount(),
+                        transforms.getCalibratedCount());
+            }
+            AdaptiveLimiter limiter = uploader.getLimiter();
+            LOG.info("Luftdaten: {} in flight, {} succeeded, {} failed, {} rejected", limiter.getInFlight(),
+                    uploader.getSuccessCount(), uploader.getFailureCount(), uploader.getRejectedCount());
+            LOG.info("Luftdaten limiter: limit {}, rtt {} ms (min {} ms), {} rejected", limiter.getLimit(),
+                    String.format(Locale.ROOT, "%.1f", limiter.getRtt()),
+                    String.format(Locale.ROOT, "%.1f", limiter.getMinRtt()), limiter.getRejectedCount());
+            CircuitBreaker breaker = uploader.getBreaker();
+            LOG.info("Luftdaten circuit: {}, opened {} times, {} transitions, open for {} s in total, {} rejected",
+                    breaker.getState(), breaker.getOpenCount(), breaker.getTransitionCount(),
+                    breaker.getOpenMillis() / 1000, breaker.getRejectedCount());
+            if (outbox != null) {
+                LOG.info("Outbox: {} pending, {} added, {} delivered, {} requeued, {} dropped, last drain {} in {} ms",
+                        outbox.getPending(), outbox.getAddedCount(), outbox.getDeliveredCount(),
+                        outbox.getRequeuedCount(), outbox.getDroppedCount(), outbox.getLastDrainCount(),
+                        outbox.getLastDrainMillis());
+            }
+            for (SinkRunner sink : sinks) {
+                LOG.info("Sink {}: {} written, {} failed, {} dropped, {} queued", sink.getName(),
+                        sink.getWrittenCount(), sink.getFailedCount(), sink.getDropCount(), sink.getQueueDepth());
+                if (sink.getSink() instanceof BatchingSink) {
+                    BatchingSink batching = (BatchingSink) sink.getSink();
+                    long batches = batching.getBatchCount();
+                    LOG.info("Sink {} batches: {} written ({} by size, {} by linger, {} at stop), "
+                            + "mean size {}, max size {}, {} readings failed, {} buffered", sink.getName(), batches,
+                            batching.getFlushCount(EFlushReason.SIZE), batching.getFlushCount(EFlushReason.LINGER),
+                            batching.getFlushCount(EFlushReason.STOP),
+                            String.format(Locale.ROOT, "%.1f",
+                                    (batches > 0) ? (double) batching.getReadingCount() / batches : 0.0),
+                            batching.getMaxBatchSize(), batching.getFailedCount(), batching.getBuffered());
                 }
-
-             } catch (Exception e) {
-                LOG.trace("Caught exception in data creation", e);
-                LOG.warn("Caught exception: {}", e.getMessage());
             }
-
-            fos.close();
+            if (aggregator != null) {
+                LOG.info("Aggregates: {} devices, {} readings, {} rejected", aggregator.getDeviceCount(),
+                        aggregator.getAddCount(), aggregator.getRejectedCount());
+            }
+            if (airQuality != null) {
+                LOG.info("Air quality: {} sensors, {} readings, {} rejected", airQuality.getSensorCount(),
+                        airQuality.getUpdateCount(), airQuality.getRejectedCount());
+            }
+            if (queryServer != null) {
+                LOG.info("Query API: {} requests, {} errors, cache {} hits, {} misses, {} bytes",
+                        queryServer.getRequestCount(), queryServer.getErrorCount(), queryServer.getCacheHitCount(),
+                        queryServer.getCacheMissCount(), queryServer.getCacheBytes());
+            }
+            if (compactor != null) {
+                LOG.info("Compaction: {} runs, last took {} ms, {} days sealed ({} readings), {} files deleted",
+                        compactor.getRunCount(), compactor.getLastRunMillis(), compactor.getSealedCount(),
+                        compactor.getSealedRecordCount(), compactor.getPurgedCount());
+            }
+            LOG.info("Pipeline: {} slots in use, lanes {}, {} dropped, {} skipped", pipeline.getRingOccupancy(),
+                    pipeline.getLaneOccupancy(), pipeline.getDropCount(), pipeline.getSkipCount());
         } catch (Exception e) {
-                LOG.trace("Caught exception in file handling", e);
-                LOG.warn("Caught exception: {}", e.getMessage());
+            LOG.trace("Caught exception", e);
+            LOG.warn("Caught exception: {}", e.getMessage());
         }
     }
 
@@ -234,13 +431,30 @@ public final class LoraLuftdatenForwarder {
      * Starts the application.
      *
      * @throws MqttException in case of a problem starting MQTT client
+     * @throws IOException in case of a problem opening the outbox, a sink or the query API
      */
-    private void start() throws MqttException {
+    private void start() throws MqttException, IOException {
         LOG.info("Starting LoraLuftdatenForwarder application");
 
         // start sub-modules
         uploader.start();
+        for (SinkRunner sink : sinks) {
+            sink.start();
+        }
+        if (outbox != null) {
+            outbox.start();
+        }
+        if (queryServer != null) {
+            queryServer.start();
+        }
+        if (compactor != null) {
+            compactor.start(compactionInterval);
+        }
+        pipeline.start();
         mqttListener.start();
+        if (statsInterval > 0) {
+            statsExecutor.scheduleAtFixedRate(this::logStatistics, statsInterval, statsInterval, TimeUnit.SECONDS);
+        }
 
         LOG.info("Started LoraLuftdatenForwarder application");
     }
@@ -253,9 +467,22 @@ public final class LoraLuftdatenForwarder {
     private void stop() {
         LOG.info("Stopping LoraLuftdatenForwarder application");
 
+        statsExecutor.shutdown();
+        if (compactor != null) {
+            compactor.stop();
+        }
+        if (queryServer != null) {
+            queryServer.stop();
+        }
         mqttListener.stop();
-        executor.shutdown();
-        uploader.stop();
+        pipeline.stop(STOP_TIMEOUT_SEC, TimeUnit.SECONDS);
+        for (SinkRunner sink : sinks) {
+            sink.stop(STOP_TIMEOUT_SEC, TimeUnit.SECONDS);
+        }
+        uploader.stop(Duration.ofSeconds(STOP_TIMEOUT_SEC));
+        if (outbox != null) {
+            outbox.stop();
+        }
 
         LOG.info("Stopped LoraLuftdatenForwarder application");
     }
@@ -0,0 +1,153 @@
+package nl.bertriksikken.loraforwarder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import nl.bertriksikken.ttn.dto.TtnUplink;
+
+/**
+ * Selects the payload decoder for an uplink, by device id pattern, by LoRaWAN port or else the default one.
+ *
+ * Device patterns are compiled once and the result of matching is cached per device, ports are looked up in an array,
+ * so selection is O(1) on the hot path. Keeps counters of decode time and failures per decoder.
+ *
+ * This class is thread-safe.
+ */
+public final class PayloadDecoderRegistry {
+
+    private static final int NUM_PORTS = 256;
+
+    private final Map<EPayloadEncoding, Entry> entries = new EnumMap<>(EPayloadEncoding.class);
+    private final Entry defaultEntry;
+    private final Entry[] portEntries = new Entry[NUM_PORTS];
+    private final Map<Pattern, Entry> deviceEntries = new LinkedHashMap<>();
+    // empty if no device pattern matches
+    private final Map<String, Optional<Entry>> deviceCache = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param defaultEncoding the encoding for uplinks without a specific mapping
+     * @param portEncodings   map of port number to encoding id
+     * @param deviceEncodings map of device id regular expression to encoding id, first match wins
+     */
+    public PayloadDecoderRegistry(String defaultEncoding, Map<String, String> portEncodings,
+            Map<String, String> deviceEncodings) {
+        defaultEntry = getEntry(defaultEncoding);
+        for (Map.Entry<String, String> e : portEncodings.entrySet()) {
+            int port = Integer.parseInt(e.getKey().trim());
+            if ((port < 0) || (port >= NUM_PORTS)) {
+                throw new IllegalArgumentException("Invalid port: " + port);
+            }
+            portEntries[port] = getEntry(e.getValue());
+        }
+        for (Map.Entry<String, String> e : deviceEncodings.entrySet()) {
+            deviceEntries.put(Pattern.compile(e.getKey().trim()), getEntry(e.getValue()));
+        }
+    }
+
+    private Entry getEntry(String id) {
+        EPayloadEncoding encoding = EPayloadEncoding.fromId(id);
+        if (encoding == null) {
+            throw new IllegalArgumentException("Unknown payload encoding: " + id);
+        }
+        return entries.computeIfAbsent(encoding, Entry::new);
+    }
+
+    /**
+     * Decodes the measurement values of an uplink with the decoder that applies to it.
+     *
+     * @param uplink the uplink
+     * @return false if the uplink could not be decoded
+     */
+    public boolean decode(TtnUplink uplink) {
+        Entry entry = select(uplink);
+        long start = System.nanoTime();
+        boolean ok = entry.encoding.getDecoder().decode(uplink);
+        entry.nanos.add(System.nanoTime() - start);
+        entry.count.increment();
+        if (!ok) {
+            entry.failures.increment();
+        }
+        return ok;
+    }
+
+    // package-private to allow testing
+    EPayloadEncoding getEncoding(TtnUplink uplink) {
+        return select(uplink).encoding;
+    }
+
+    private Entry select(TtnUplink uplink) {
+        if (!deviceEntries.isEmpty() && (uplink.getDevId() != null)) {
+            Optional<Entry> entry = deviceCache.computeIfAbsent(uplink.getDevId(), this::matchDevice);
+            if (entry.isPresent()) {
+                return entry.get();
+            }
+        }
+        int port = uplink.getPort();
+        if ((port >= 0) && (port < NUM_PORTS) && (portEntries[port] != null)) {
+            return portEntries[port];
+        }
+        return defaultEntry;
+    }
+
+    // a pattern may map to the default encoding, which still takes precedence over the port
+    private Optional<Entry> matchDevice(String devId) {
+        for (Map.Entry<Pattern, Entry> e : deviceEntries.entrySet()) {
+            if (e.getKey().matcher(devId).matches()) {
+                return Optional.of(e.getValue());
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @return the statistics of all decoders in use
+     */
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(new ArrayList<>(entries.values()));
+    }
+
+    /**
+     * Decoder with its statistics.
+     */
+    public static final class Entry {
+
+        private final EPayloadEncoding encoding;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        private Entry(EPayloadEncoding encoding) {
+            this.encoding = encoding;
+        }
+
+        public String getName() {
+            return encoding.getId();
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        /**
+         * @return the total time spent decoding (nanoseconds)
+         */
+        public long getTotalNanos() {
+            return nanos.sum();
+        }
+    }
+
+}
@@ -0,0 +1,31 @@
+package nl.bertriksikken.loraforwarder.filter;
+
+/**
+ * Why the {@link ReadingFilter} rejected a reading, or some of its values.
+ */
+public enum EFilterReason {
+
+	/** a PM value is missing, the reading is dropped */
+	MISSING_PM("missing_pm"),
+	/** a PM value is negative or above the maximum, the reading is dropped */
+	PM_RANGE("pm_range"),
+	/** PM2.5 or PM10 is a spike compared to the recent readings of the sensor, the reading is dropped */
+	PM_SPIKE("pm_spike"),
+	/** the temperature is missing or out of range, the BME280 values are dropped */
+	INVALID_TEMP("invalid_temp"),
+	/** the humidity is missing or out of range, the BME280 values are dropped */
+	INVALID_RH("invalid_rh"),
+	/** the pressure is missing or out of range, the BME280 values are dropped */
+	INVALID_PRESSURE("invalid_pressure");
+
+	private final String id;
+
+	EFilterReason(String id) {
+		this.id = id;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+}
@@ -0,0 +1,68 @@
+package nl.bertriksikken.loraforwarder.filter;
+
+import java.util.Arrays;
+
+/**
+ * Sliding Hampel filter on one value of one sensor, in a fixed ring of the most recent values.
+ *
+ * A value is a spike if it deviates from the median of the window by more than a threshold times the scaled median
+ * absolute deviation (MAD), and by more than a minimum. The minimum keeps a flat signal, with a MAD of 0, from
+ * turning every small change into a spike. Spikes are kept in the window, so a lasting change of level is accepted
+ * once it makes up half of the window.
+ *
+ * Not thread-safe.
+ */
+final class HampelFilter {
+
+    // scales the MAD to the standard deviation of a normal distribution
+    private static final double MAD_SCALE = 1.4826;
+
+    private final float[] window;
+    private int count;
+    private int next;
+
+    /**
+     * Constructor.
+     *
+     * @param size the number of recent values to compare with
+     */
+    HampelFilter(int size) {
+        this.window = new float[size];
+    }
+
+    /**
+     * Checks a value against the window, then adds it to the window.
+     *
+     * @param value the value
+     * @param threshold the threshold, in scaled MADs
+     * @param minDelta the minimum deviation from the median of a spike
+     * @param scratch an array of at least the window size, for sorting
+     * @return true if the value is a spike, always false until the window is full
+     */
+    boolean isSpike(float value, double threshold, double minDelta, float[] scratch) {
+        boolean spike = false;
+        if (count == window.length) {
+            double median = median(window, count, scratch);
+            for (int i = 0; i < count; i++) {
+                scratch[i] = Math.abs(window[i] - (float) median);
+            }
+            double mad = median(scratch, count, scratch);
+            spike = Math.abs(value - median) > Math.max(threshold * MAD_SCALE * mad, minDelta);
+        } else {
+            count++;
+        }
+        window[next] = value;
+        next = (next + 1) % window.length;
+        return spike;
+    }
+
+    // the median of the first n values, sorts a copy in scratch (which may be the same array as values)
+    private static double median(float[] values, int n, float[] scratch) {
+        if (values != scratch) {
+            System.arraycopy(values, 0, scratch, 0, n);
+        }
+        Arrays.sort(scratch, 0, n);
+        return ((n % 2) == 1) ? scratch[n / 2] : (scratch[n / 2 - 1] + scratch[n / 2]) / 2.0;
+    }
+
+}
@@ -0,0 +1,127 @@
+package nl.bertriksikken.loraforwarder.filter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import nl.bertriksikken.pm.SensorBme;
+import nl.bertriksikken.ttn.dto.TtnUplink;
+
+/**
+ * Checks decoded readings before anything is uploaded or stored.
+ *
+ * <ul>
+ * <li>readings with a missing, negative or too high PM value are dropped;
+ * <li>readings where PM2.5 or PM10 is a spike for a per-sensor Hampel filter are dropped;
+ * <li>BME280 values are dropped as a set (the reading is kept) if one of them is missing or out of range, see
+ * {@link SensorBme}.
+ * </ul>
+ *
+ * The range checks run first, so garbage never enters the Hampel windows. Every sensor takes a fixed amount of memory
+ * for its windows. Counts the rejections per reason.
+ *
+ * Not thread-safe apart from the counters, it is meant for a single pipeline stage.
+ */
+public final class ReadingFilter {
+
+    private final double maxPm;
+    private final int window;
+    private final double threshold;
+    private final double minDelta;
+    private final Map<String, HampelFilter[]> filters = new HashMap<>();
+    private final float[] scratch;
+    private final LongAdder[] rejectedCounts = new LongAdder[EFilterReason.values().length];
+    private final LongAdder passedCount = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param maxPm the maximum valid PM value (ug/m3)
+     * @param window the number of recent readings per sensor for the Hampel filter, 0 to disable it
+     * @param threshold the spike threshold, in scaled median absolute deviations
+     * @param minDelta the minimum deviation from the median of a spike (ug/m3)
+     */
+    public ReadingFilter(double maxPm, int window, double threshold, double minDelta) {
+        this.maxPm = maxPm;
+        this.window = window;
+        this.threshold = threshold;
+        this.minDelta = minDelta;
+        this.scratch = new float[window];
+        for (int i = 0; i < rejectedCounts.length; i++) {
+            rejectedCounts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Checks an uplink, dropping invalid BME280 values from it.
+     *
+     * @param sensorId the sensor id
+     * @param uplink the decoded uplink
+     * @return null if the reading passed, else the reason to drop it
+     */
+    public EFilterReason filter(String sensorId, TtnUplink uplink) {
+        double pm1 = uplink.getPm1();
+        double pm2_5 = uplink.getPm2_5();
+        double pm10 = uplink.getPm10();
+        if (Double.isNaN(pm1) || Double.isNaN(pm2_5) || Double.isNaN(pm10)) {
+            return reject(EFilterReason.MISSING_PM);
+        }
+        if (!isValidPm(pm1) || !isValidPm(pm2_5) || !isValidPm(pm10)) {
+            return reject(EFilterReason.PM_RANGE);
+        }
+
+        if (uplink.hasBme()) {
+            boolean valid = check(SensorBme.isValidTemp(uplink.getTemp()), EFilterReason.INVALID_TEMP);
+            valid &= check(SensorBme.isValidRh(uplink.getRh()), EFilterReason.INVALID_RH);
+            valid &= check(SensorBme.isValidPressure(uplink.getPressure()), EFilterReason.INVALID_PRESSURE);
+            if (!valid) {
+                uplink.setValues(uplink.getSpsId(), pm10, pm2_5, pm1, Double.NaN, Double.NaN, Double.NaN);
+            }
+        }
+
+        if (window > 0) {
+            HampelFilter[] sensor = filters.computeIfAbsent(sensorId,
+                    id -> new HampelFilter[] {new HampelFilter(window), new HampelFilter(window)});
+            // both windows take the value, also if the other one finds a spike
+            boolean spike = sensor[0].isSpike((float) pm2_5, threshold, minDelta, scratch);
+            spike |= sensor[1].isSpike((float) pm10, threshold, minDelta, scratch);
+            if (spike) {
+                return reject(EFilterReason.PM_SPIKE);
+            }
+        }
+        passedCount.increment();
+        return null;
+    }
+
+    private boolean isValidPm(double value) {
+        return (value >= 0) && (value <= maxPm);
+    }
+
+    private boolean check(boolean valid, EFilterReason reason) {
+        if (!valid) {
+            rejectedCounts[reason.ordinal()].increment();
+        }
+        return valid;
+    }
+
+    private EFilterReason reject(EFilterReason reason) {
+        rejectedCounts[reason.ordinal()].increment();
+        return reason;
+    }
+
+    /**
+     * @param reason the reason
+     * @return the number of dropped readings (or sets of BME280 values) for the reason
+     */
+    public long getRejectedCount(EFilterReason reason) {
+        return rejectedCounts[reason.ordinal()].sum();
+    }
+
+    /**
+     * @return the number of readings that passed
+     */
+    public long getPassedCount() {
+        return passedCount.sum();
+    }
+
+}
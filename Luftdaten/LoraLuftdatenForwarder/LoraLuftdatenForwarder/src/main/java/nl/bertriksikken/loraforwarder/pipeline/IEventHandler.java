@@ -0,0 +1,19 @@
+package nl.bertriksikken.loraforwarder.pipeline;
+
+/**
+ * Handler for one stage of the sensor pipeline.
+ */
+public interface IEventHandler {
+
+    /**
+     * Handles an event.
+     *
+     * The event is owned by the pipeline and re-used, so it must not be referenced after this method returns.
+     *
+     * @param event the event
+     * @return false if the event should not be passed on to the next stages
+     * @throws Exception in case of a problem, the event is not passed on
+     */
+    boolean onEvent(SensorEvent event) throws Exception;
+
+}
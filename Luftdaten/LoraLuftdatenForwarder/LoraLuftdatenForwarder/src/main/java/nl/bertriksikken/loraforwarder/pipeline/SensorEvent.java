@@ -0,0 +1,67 @@
+package nl.bertriksikken.loraforwarder.pipeline;
+
+import java.time.Instant;
+
+import nl.bertriksikken.ttn.dto.TtnUplink;
+
+/**
+ * One pre-allocated slot of the sensor pipeline, re-used for every message that passes through it.
+ */
+public final class SensorEvent {
+
+    private static final int INITIAL_PAYLOAD_SIZE = 2048;
+
+    private final TtnUplink uplink = new TtnUplink();
+    private byte[] payload = new byte[INITIAL_PAYLOAD_SIZE];
+    private int length;
+    private Instant receivedAt;
+    private String sensorId;
+
+    // set by the pipeline itself
+    boolean valid;
+    int lane;
+
+    // copies the message into this slot, the buffer only grows for unusually large messages
+    void set(Instant instant, byte[] data) {
+        if (data.length > payload.length) {
+            payload = new byte[data.length];
+        }
+        System.arraycopy(data, 0, payload, 0, data.length);
+        length = data.length;
+        receivedAt = instant;
+        sensorId = null;
+        valid = false;
+        lane = -1;
+    }
+
+    /**
+     * @return the internal buffer with the raw MQTT message, valid up to {@link #getLength()}
+     */
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public Instant getReceivedAt() {
+        return receivedAt;
+    }
+
+    /**
+     * @return the decoded uplink
+     */
+    public TtnUplink getUplink() {
+        return uplink;
+    }
+
+    public String getSensorId() {
+        return sensorId;
+    }
+
+    public void setSensorId(String sensorId) {
+        this.sensorId = sensorId;
+    }
+
+}
@@ -0,0 +1,367 @@
+package nl.bertriksikken.loraforwarder.pipeline;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.bertriksikken.loraforwarder.EOverflowPolicy;
+
+/**
+ * Staged processing pipeline on a pre-allocated ring of {@link SensorEvent}s, in the style of the LMAX disruptor.
+ *
+ * <pre>
+ * MQTT --&gt; decode (0 .. m-1) --&gt; validate --+--&gt; upload (lane 0 .. n-1)
+ *                                            +--&gt; persist
+ * </pre>
+ *
+ * Every stage runs on its own thread and keeps its own sequence in the ring, so the pipeline itself allocates no work
+ * items or closures per message. The handlers may still allocate, e.g. the persist handler hands a reading to every
+ * sink.
+ *
+ * Decoding, the expensive part, is spread over several threads by sequence number: decoder i handles the events with
+ * sequence i modulo m. It must not depend on state of earlier messages. The validate stage then sees all events in
+ * order on a single thread, so it can keep per-sensor state such as duplicate and spike filters.
+ *
+ * The upload and persist stages only depend on the validate stage, so a slow upload never holds up persistence and
+ * vice versa. Uploads are spread over lanes by sensor id, so the posts of one sensor are started in order. They are
+ * not sent in order: a post does not wait for the previous one of the same sensor. Like the decoders, every lane
+ * passes over all events and skips the ones of other lanes, which costs a few comparisons per event.
+ *
+ * When the ring is full, the overflow policy decides: block the producer, drop the new message, or (drop oldest)
+ * let the lagging stages skip the older half of their backlog. In the last case, the new message is still dropped
+ * while the slowest stage is busy with the event that occupies the needed slot.
+ */
+public final class SensorPipeline {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SensorPipeline.class);
+    private static final long WAIT_MS = 100;
+
+    private final SensorEvent[] ring;
+    private final int mask;
+    private final EOverflowPolicy policy;
+    private final AtomicLong cursor = new AtomicLong(-1);
+    private final Object publishLock = new Object();
+    private final Object monitor = new Object();
+    private final LongAdder dropCount = new LongAdder();
+
+    private final List<Stage> decodeStages = new ArrayList<>();
+    private final Stage validateStage;
+    private final Stage persistStage;
+    private final List<Stage> uploadStages = new ArrayList<>();
+    private final List<Stage> finalStages = new ArrayList<>();
+    private final AtomicInteger[] laneOccupancy;
+
+    private volatile long skipBefore = -1;
+    private volatile boolean running;
+
+    /**
+     * Constructor.
+     *
+     * @param size     the minimum number of slots in the ring, rounded up to a power of two
+     * @param numDecoders the number of decode threads
+     * @param numLanes the number of upload lanes
+     * @param policy   what to do with a new message when the ring is full
+     * @param decoder  the decode stage handler, called concurrently for different messages
+     * @param validator the validate stage handler
+     * @param uploader the upload stage handler, called from the lane of the sensor
+     * @param persister the persist stage handler
+     */
+    public SensorPipeline(int size, int numDecoders, int numLanes, EOverflowPolicy policy, IEventHandler decoder,
+            IEventHandler validator, IEventHandler uploader, IEventHandler persister) {
+        int capacity = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+        ring = new SensorEvent[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new SensorEvent();
+        }
+        mask = capacity - 1;
+        this.policy = policy;
+
+        int decoders = Math.max(1, numDecoders);
+        for (int i = 0; i < decoders; i++) {
+            decodeStages.add(new Stage("decode-" + i, Collections.emptyList(), decoder, i));
+        }
+        validateStage = new Stage("validate", decodeStages, validator, -1);
+        List<Stage> validated = Collections.singletonList(validateStage);
+        laneOccupancy = new AtomicInteger[numLanes];
+        for (int i = 0; i < numLanes; i++) {
+            laneOccupancy[i] = new AtomicInteger();
+            uploadStages.add(new Stage("upload-" + i, validated, uploader, i));
+        }
+        persistStage = new Stage("persist", validated, persister, -1);
+        finalStages.addAll(uploadStages);
+        finalStages.add(persistStage);
+    }
+
+    /**
+     * Starts the stage threads.
+     */
+    public void start() {
+        LOG.info("Starting pipeline with {} slots, {} decoders, {} upload lanes, policy {}", ring.length,
+                decodeStages.size(), uploadStages.size(), policy);
+        running = true;
+        for (Stage stage : allStages()) {
+            stage.thread.start();
+        }
+    }
+
+    /**
+     * Stops accepting messages and waits for the stages to finish the messages already in the ring.
+     *
+     * @param timeout the maximum time to wait per stage
+     * @param unit    the unit of the timeout
+     */
+    public void stop(long timeout, TimeUnit unit) {
+        LOG.info("Stopping pipeline");
+        running = false;
+        signalAll();
+        for (Stage stage : allStages()) {
+            try {
+                stage.thread.join(unit.toMillis(timeout));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private List<Stage> allStages() {
+        List<Stage> stages = new ArrayList<>();
+        stages.addAll(decodeStages);
+        stages.add(validateStage);
+        stages.addAll(finalStages);
+        return stages;
+    }
+
+    /**
+     * Publishes a message into the pipeline, copying it into a free slot.
+     *
+     * @param instant the time of reception
+     * @param payload the raw message
+     * @return false if the message was dropped because the ring is full
+     * @throws IllegalStateException if the pipeline is stopped
+     */
+    public boolean publish(Instant instant, byte[] payload) {
+        synchronized (publishLock) {
+            if (!running) {
+                throw new IllegalStateException("Pipeline is stopped");
+            }
+            long next = cursor.get() + 1;
+            long wrapPoint = next - ring.length;
+            if ((minimumSequence() < wrapPoint) && !makeRoom(next, wrapPoint)) {
+                dropCount.increment();
+                return false;
+            }
+            ring[(int) next & mask].set(instant, payload);
+            cursor.set(next);
+        }
+        signalAll();
+        return true;
+    }
+
+    private boolean makeRoom(long next, long wrapPoint) {
+        switch (policy) {
+        case BLOCK:
+            try {
+                synchronized (monitor) {
+                    while (minimumSequence() < wrapPoint) {
+                        if (!running) {
+                            return false;
+                        }
+                        monitor.wait(WAIT_MS);
+                    }
+                }
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        case DROP_OLDEST:
+            skipBefore = Math.max(skipBefore, next - ring.length / 2);
+            signalAll();
+            return minimumSequence() >= wrapPoint;
+        case DROP_NEWEST:
+        default:
+            return false;
+        }
+    }
+
+    private long minimumSequence() {
+        long minimum = Long.MAX_VALUE;
+        for (Stage stage : finalStages) {
+            minimum = Math.min(minimum, stage.sequence.get());
+        }
+        return minimum;
+    }
+
+    private void signalAll() {
+        synchronized (monitor) {
+            monitor.notifyAll();
+        }
+    }
+
+    /**
+     * @return the number of messages dropped because the ring was full
+     */
+    public long getDropCount() {
+        return dropCount.sum();
+    }
+
+    /**
+     * @return the number of events skipped by lagging stages with the drop oldest policy
+     */
+    public long getSkipCount() {
+        long count = 0;
+        for (Stage stage : finalStages) {
+            count += stage.skipCount.sum();
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of slots in use, i.e. not yet processed by all stages
+     */
+    public long getRingOccupancy() {
+        return cursor.get() - minimumSequence();
+    }
+
+    /**
+     * @return the number of events waiting for upload, per lane
+     */
+    public List<Integer> getLaneOccupancy() {
+        List<Integer> occupancy = new ArrayList<>();
+        for (AtomicInteger lane : laneOccupancy) {
+            occupancy.add(lane.get());
+        }
+        return Collections.unmodifiableList(occupancy);
+    }
+
+    /**
+     * One stage of the pipeline, with its own thread and sequence.
+     */
+    private final class Stage implements Runnable {
+
+        private final String name;
+        private final List<Stage> upstreams;
+        private final IEventHandler handler;
+        // the decoder or upload lane index, -1 for a stage that handles every event
+        private final int lane;
+        private final AtomicLong sequence = new AtomicLong(-1);
+        private final LongAdder skipCount = new LongAdder();
+        private final Thread thread;
+        private volatile boolean done;
+
+        Stage(String name, List<Stage> upstreams, IEventHandler handler, int lane) {
+            this.name = name;
+            this.upstreams = upstreams;
+            this.handler = handler;
+            this.lane = lane;
+            this.thread = new Thread(this, "pipeline-" + name);
+        }
+
+        private long upstreamSequence() {
+            if (upstreams.isEmpty()) {
+                return cursor.get();
+            }
+            long minimum = Long.MAX_VALUE;
+            for (Stage upstream : upstreams) {
+                minimum = Math.min(minimum, upstream.sequence.get());
+            }
+            return minimum;
+        }
+
+        private boolean upstreamDone() {
+            if (upstreams.isEmpty()) {
+                return !running;
+            }
+            for (Stage upstream : upstreams) {
+                if (!upstream.done) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            long next = sequence.get() + 1;
+            try {
+                while (true) {
+                    long available = upstreamSequence();
+                    if (available < next) {
+                        if (upstreamDone() && (upstreamSequence() < next)) {
+                            break;
+                        }
+                        synchronized (monitor) {
+                            if ((upstreamSequence() < next) && !upstreamDone()) {
+                                monitor.wait(WAIT_MS);
+                            }
+                        }
+                        continue;
+                    }
+                    for (; next <= available; next++) {
+                        process(next, ring[(int) next & mask]);
+                        sequence.set(next);
+                    }
+                    signalAll();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                done = true;
+                signalAll();
+                LOG.info("Pipeline stage {} stopped", name);
+            }
+        }
+
+        private void process(long seq, SensorEvent event) {
+            if (upstreams.isEmpty()) {
+                if (seq % decodeStages.size() == lane) {
+                    event.valid = handle(event);
+                }
+                return;
+            }
+            if (!event.valid) {
+                return;
+            }
+            if (this == validateStage) {
+                event.valid = handle(event);
+                if (event.valid) {
+                    event.lane = (event.getSensorId().hashCode() & Integer.MAX_VALUE) % laneOccupancy.length;
+                    laneOccupancy[event.lane].incrementAndGet();
+                }
+                return;
+            }
+            if ((lane >= 0) && (event.lane != lane)) {
+                return;
+            }
+            if (seq < skipBefore) {
+                skipCount.increment();
+            } else {
+                handle(event);
+            }
+            if (lane >= 0) {
+                laneOccupancy[lane].decrementAndGet();
+            }
+        }
+
+        // calls the handler in an exception safe manner
+        private boolean handle(SensorEvent event) {
+            try {
+                return handler.onEvent(event);
+            } catch (Exception e) {
+                LOG.trace("Caught exception", e);
+                LOG.warn("Caught exception in pipeline stage {}: {}", name, e.getMessage());
+                return false;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,35 @@
+package nl.bertriksikken.loraforwarder.sink;
+
+import nl.bertriksikken.aggregate.RollingAggregator;
+
+/**
+ * Sink that feeds the readings to the in-memory rolling aggregates.
+ *
+ * The {@link SinkRunner} writes all readings of one sensor from the same worker, which makes it the single writer the
+ * aggregator requires per device.
+ */
+public final class AggregateSink implements ISink {
+
+    private final RollingAggregator aggregator;
+
+    /**
+     * Constructor.
+     *
+     * @param aggregator the aggregator
+     */
+    public AggregateSink(RollingAggregator aggregator) {
+        this.aggregator = aggregator;
+    }
+
+    @Override
+    public String getName() {
+        return "aggregate";
+    }
+
+    @Override
+    public void write(SensorReading reading) {
+        aggregator.add(reading.getSensorId(), reading.getReceivedAt().toEpochMilli(), reading.getPm2_5(),
+                reading.getPm10());
+    }
+
+}
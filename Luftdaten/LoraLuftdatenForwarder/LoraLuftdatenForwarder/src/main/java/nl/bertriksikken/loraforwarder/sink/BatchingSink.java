@@ -0,0 +1,179 @@
+package nl.bertriksikken.loraforwarder.sink;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Wraps a batch-capable sink, buffering readings and writing them in one batch when the batch is full or when the
+ * oldest reading has waited for the linger time.
+ *
+ * A failed batch is counted and logged here, it is not retried. Batches are written in order, one at a time.
+ */
+public final class BatchingSink implements ISink {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchingSink.class);
+
+    private final ISink sink;
+    private final int maxBatchSize;
+    private final long lingerMs;
+    private final Object sendLock = new Object();
+    private final LongAdder[] flushCounts = new LongAdder[EFlushReason.values().length];
+    private final LongAdder readingCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+    private final LongAccumulator maxSize = new LongAccumulator(Math::max, 0);
+
+    private ScheduledExecutorService executor;
+    // guarded by this
+    private List<SensorReading> batch;
+    private long batchNumber;
+
+    /**
+     * Constructor.
+     *
+     * @param sink         the sink to write the batches to
+     * @param maxBatchSize the maximum number of readings in a batch
+     * @param linger       the maximum time a reading waits for the batch to fill up
+     */
+    public BatchingSink(ISink sink, int maxBatchSize, Duration linger) {
+        this.sink = sink;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.lingerMs = linger.toMillis();
+        this.batch = new ArrayList<>(this.maxBatchSize);
+        for (int i = 0; i < flushCounts.length; i++) {
+            flushCounts[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return sink.getName();
+    }
+
+    @Override
+    public void start() throws IOException {
+        sink.start();
+        executor = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "batch-" + sink.getName()));
+    }
+
+    @Override
+    public void write(SensorReading reading) {
+        synchronized (this) {
+            batch.add(reading);
+            if (batch.size() == 1) {
+                long number = batchNumber;
+                executor.schedule(() -> flush(number, EFlushReason.LINGER), lingerMs, TimeUnit.MILLISECONDS);
+            }
+            if (batch.size() < maxBatchSize) {
+                return;
+            }
+        }
+        flush(-1, EFlushReason.SIZE);
+    }
+
+    @Override
+    public void writeBatch(List<SensorReading> readings) {
+        for (SensorReading reading : readings) {
+            write(reading);
+        }
+    }
+
+    // writes the current batch, if it is still the expected batch (-1 for any)
+    private void flush(long number, EFlushReason reason) {
+        synchronized (sendLock) {
+            List<SensorReading> readings;
+            synchronized (this) {
+                if (batch.isEmpty() || ((number >= 0) && (number != batchNumber))) {
+                    return;
+                }
+                readings = batch;
+                batch = new ArrayList<>(maxBatchSize);
+                batchNumber++;
+            }
+            send(readings, reason);
+        }
+    }
+
+    // exception safe
+    private void send(List<SensorReading> readings, EFlushReason reason) {
+        flushCounts[reason.ordinal()].increment();
+        readingCount.add(readings.size());
+        maxSize.accumulate(readings.size());
+        try {
+            sink.writeBatch(readings);
+        } catch (Exception e) {
+            failedCount.add(readings.size());
+            LOG.trace("Caught exception", e);
+            LOG.warn("Sink {} failed for batch of {}: {}", sink.getName(), readings.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the buffered readings and stops the sink.
+     */
+    @Override
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        flush(-1, EFlushReason.STOP);
+        sink.stop();
+    }
+
+    /**
+     * @param reason the flush reason
+     * @return the number of batches written for the reason
+     */
+    public long getFlushCount(EFlushReason reason) {
+        return flushCounts[reason.ordinal()].sum();
+    }
+
+    /**
+     * @return the number of batches written
+     */
+    public long getBatchCount() {
+        long count = 0;
+        for (LongAdder adder : flushCounts) {
+            count += adder.sum();
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of readings written in batches, including failed batches
+     */
+    public long getReadingCount() {
+        return readingCount.sum();
+    }
+
+    /**
+     * @return the number of readings in failed batches
+     */
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
+
+    /**
+     * @return the size of the largest batch
+     */
+    public long getMaxBatchSize() {
+        return maxSize.get();
+    }
+
+    /**
+     * @return the number of readings waiting for their batch
+     */
+    public synchronized int getBuffered() {
+        return batch.size();
+    }
+
+}
@@ -0,0 +1,309 @@
+package nl.bertriksikken.loraforwarder.sink;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sink that appends the readings to local CSV files, one per sensor and date extension.
+ *
+ * Files are kept open in a bounded LRU cache of buffered appenders, so a reading normally costs no system call at
+ * all. An appender rolls over to a new file when the date extension of the reading changes. The buffers are flushed
+ * (and optionally synced to disk) at a fixed interval, when an appender is evicted or rolls over, and at stop. Up to
+ * one flush interval of readings can be lost in a crash.
+ *
+ * With a retention configured, data files that were not written to for longer than the retention are deleted once an
+ * hour. Only files named like the ones this sink writes are considered, i.e. the storage prefix followed by
+ * "TTN-&lt;serial&gt;-&lt;date&gt;" with a hexadecimal serial and a date in the configured format. Other files sharing
+ * the directory are never deleted, even when the storage prefix is just a directory.
+ */
+public final class CsvFileSink implements ISink {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CsvFileSink.class);
+    private static final ZoneId ZONE = ZoneId.of("Europe/Paris");
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy:MM:dd:hh:mm");
+    private static final String HEADER = "yyyy:MM:dd:hh:mm,P0,P2,P1,Temp,Hum,Pressure\n";
+    private static final Pattern DATA_FILE = Pattern.compile("TTN-[0-9A-Fa-f]+-(.+)");
+
+    private final String storageDir;
+    private final DateTimeFormatter fileFormat;
+    private final int maxOpen;
+    private final long flushIntervalMs;
+    private final boolean fsync;
+    private final int retentionDays;
+    private final LongAdder openCount = new LongAdder();
+    private final LongAdder purgedCount = new LongAdder();
+
+    // guarded by this, in access order for LRU eviction
+    private final Map<String, Appender> appenders = new LinkedHashMap<>(16, 0.75f, true);
+    private final StringBuilder line = new StringBuilder(80);
+    private long cachedMinute = Long.MIN_VALUE;
+    private String cachedTimestamp;
+    private String cachedExtension;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * An open data file.
+     */
+    private static final class Appender {
+        private final String fileName;
+        private final FileOutputStream fos;
+        private final BufferedWriter writer;
+
+        Appender(String fileName) throws IOException {
+            this.fileName = fileName;
+            boolean exists = new File(fileName).length() > 0;
+            this.fos = new FileOutputStream(fileName, true);
+            this.writer = new BufferedWriter(new OutputStreamWriter(fos, StandardCharsets.US_ASCII), 8192);
+            if (!exists) {
+                writer.append(HEADER);
+            }
+        }
+
+        void flush(boolean fsync) throws IOException {
+            writer.flush();
+            if (fsync) {
+                fos.getChannel().force(false);
+            }
+        }
+
+        void close(boolean fsync) throws IOException {
+            flush(fsync);
+            writer.close();
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param storageDir the directory (prefix) for the data files
+     * @param fileDateExt the date format of the file extension, e.g. "YYMMdd"
+     * @param maxOpen the maximum number of files kept open
+     * @param flushInterval the interval for flushing the files
+     * @param fsync whether to sync the files to disk at every flush
+     * @param retentionDays the number of days to keep files after their last write, 0 to keep them forever
+     */
+    public CsvFileSink(String storageDir, String fileDateExt, int maxOpen, Duration flushInterval, boolean fsync,
+            int retentionDays) {
+        this.storageDir = storageDir;
+        this.fileFormat = DateTimeFormatter.ofPattern(fileDateExt);
+        this.maxOpen = Math.max(1, maxOpen);
+        this.flushIntervalMs = flushInterval.toMillis();
+        this.fsync = fsync;
+        this.retentionDays = retentionDays;
+    }
+
+    @Override
+    public String getName() {
+        return "file";
+    }
+
+    @Override
+    public void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "file-flush"));
+        executor.scheduleWithFixedDelay(this::flushAll, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        if (retentionDays > 0) {
+            executor.scheduleWithFixedDelay(this::purgeAll, 0, 1, TimeUnit.HOURS);
+        }
+    }
+
+    @Override
+    public synchronized void write(SensorReading reading) throws IOException {
+        // timestamp and file extension only change once per minute at most
+        updateTime(reading.getReceivedAt());
+
+        String fileName = storageDir + reading.getSensorId() + "-" + cachedExtension;
+        Appender appender = appenders.get(reading.getSensorId());
+        if ((appender != null) && !appender.fileName.equals(fileName)) {
+            // date rollover
+            appenders.remove(reading.getSensorId());
+            appender.close(fsync);
+            appender = null;
+        }
+        if (appender == null) {
+            appender = open(reading.getSensorId(), fileName);
+        }
+
+        line.setLength(0);
+        line.append(cachedTimestamp);
+
+        // add SDS30 data
+        line.append(',').append(reading.getPm1());
+        line.append(',').append(reading.getPm2_5());
+        line.append(',').append(reading.getPm10());
+
+        // add BME data (if available)
+        if (reading.hasBme()) {
+            line.append(',').append(reading.getTemp());
+            line.append(',').append(reading.getRh());
+            line.append(',').append(reading.getPressure());
+            line.append('\n');
+        } else {
+            line.append(",0,0,0\n");
+        }
+        appender.writer.append(line);
+    }
+
+    private void updateTime(Instant instant) {
+        long minute = Math.floorDiv(instant.getEpochSecond(), 60);
+        if (minute != cachedMinute) {
+            ZonedDateTime dateTime = instant.atZone(ZONE);
+            cachedTimestamp = dateTime.format(TIMESTAMP_FORMAT);
+            cachedExtension = dateTime.format(fileFormat);
+            cachedMinute = minute;
+        }
+    }
+
+    // opens a new appender, evicting the least recently used one if needed
+    private Appender open(String sensorId, String fileName) throws IOException {
+        if (appenders.size() >= maxOpen) {
+            Iterator<Appender> it = appenders.values().iterator();
+            Appender eldest = it.next();
+            it.remove();
+            eldest.close(fsync);
+        }
+        Appender appender = new Appender(fileName);
+        appenders.put(sensorId, appender);
+        openCount.increment();
+        return appender;
+    }
+
+    // runs on the flush thread, in an exception safe manner
+    private synchronized void flushAll() {
+        for (Appender appender : appenders.values()) {
+            try {
+                appender.flush(fsync);
+            } catch (IOException e) {
+                LOG.trace("Caught exception", e);
+                LOG.warn("Failed to flush {}: {}", appender.fileName, e.getMessage());
+            }
+        }
+    }
+
+    // runs on the flush thread, in an exception safe manner
+    private void purgeAll() {
+        try {
+            int count = purge(Instant.now().minus(Duration.ofDays(retentionDays)));
+            if (count > 0) {
+                LOG.info("Deleted {} data file(s) older than {} days", count, retentionDays);
+            }
+        } catch (Exception e) {
+            LOG.trace("Caught exception", e);
+            LOG.warn("Failed to delete old data files: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes the data files that were last written before a time, except the ones that are open.
+     *
+     * @param before the time
+     * @return the number of deleted files
+     */
+    int purge(Instant before) throws IOException {
+        // the storage directory is a prefix, that can include the start of the file name
+        File prefix = new File(storageDir + "x");
+        String namePrefix = prefix.getName().substring(0, prefix.getName().length() - 1);
+        File dir = prefix.getAbsoluteFile().getParentFile();
+        File[] files = dir.listFiles(
+                (d, name) -> name.startsWith(namePrefix) && isDataFile(name.substring(namePrefix.length())));
+        if (files == null) {
+            return 0;
+        }
+        Set<String> open = new HashSet<>();
+        synchronized (this) {
+            for (Appender appender : appenders.values()) {
+                open.add(new File(appender.fileName).getName());
+            }
+        }
+        int count = 0;
+        for (File file : files) {
+            if (!open.contains(file.getName()) && (file.lastModified() < before.toEpochMilli())) {
+                Files.delete(file.toPath());
+                count++;
+            }
+        }
+        purgedCount.add(count);
+        return count;
+    }
+
+    // a data file is named after the sensor id and the date extension, see write
+    private boolean isDataFile(String name) {
+        Matcher matcher = DATA_FILE.matcher(name);
+        if (!matcher.matches()) {
+            return false;
+        }
+        try {
+            fileFormat.parse(matcher.group(1));
+            return true;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Flushes and closes all files.
+     */
+    @Override
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        synchronized (this) {
+            for (Appender appender : appenders.values()) {
+                try {
+                    appender.close(fsync);
+                } catch (IOException e) {
+                    LOG.warn("Failed to close {}: {}", appender.fileName, e.getMessage());
+                }
+            }
+            appenders.clear();
+        }
+    }
+
+    /**
+     * @return the number of files opened
+     */
+    public long getOpenCount() {
+        return openCount.sum();
+    }
+
+    /**
+     * @return the number of files deleted by retention
+     */
+    public long getPurgedCount() {
+        return purgedCount.sum();
+    }
+
+    /**
+     * @return the number of files currently open
+     */
+    public synchronized int getOpenFiles() {
+        return appenders.size();
+    }
+
+}
@@ -0,0 +1,15 @@
+package nl.bertriksikken.loraforwarder.sink;
+
+/**
+ * Why a {@link BatchingSink} shipped a batch.
+ */
+public enum EFlushReason {
+
+	/** the batch reached its maximum size */
+	SIZE,
+	/** the oldest reading in the batch waited for the linger time */
+	LINGER,
+	/** the sink was stopped */
+	STOP;
+
+}
@@ -0,0 +1,56 @@
+package nl.bertriksikken.loraforwarder.sink;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Destination for sensor readings, e.g. a REST service or a local file.
+ *
+ * A sink is driven by a {@link SinkRunner}, which gives it its own queue and worker threads. Readings of one sensor
+ * are always written from the same worker thread, in order, but different sensors are written concurrently.
+ */
+public interface ISink {
+
+    /**
+     * @return a short name, for logging and metrics
+     */
+    String getName();
+
+    /**
+     * Starts the sink, before the first write.
+     *
+     * @throws IOException in case the sink could not be started
+     */
+    default void start() throws IOException {
+        // nothing to do by default
+    }
+
+    /**
+     * Writes one reading.
+     *
+     * @param reading the reading
+     * @throws Exception in case of a failure, the reading is not retried
+     */
+    void write(SensorReading reading) throws Exception;
+
+    /**
+     * Writes a batch of readings, used by a {@link BatchingSink}. Sinks that can write a batch in one request should
+     * override this.
+     *
+     * @param readings the readings, in order of reception per sensor
+     * @throws Exception in case of a failure, the batch is not retried
+     */
+    default void writeBatch(List<SensorReading> readings) throws Exception {
+        for (SensorReading reading : readings) {
+            write(reading);
+        }
+    }
+
+    /**
+     * Stops the sink, after the last write.
+     */
+    default void stop() {
+        // nothing to do by default
+    }
+
+}
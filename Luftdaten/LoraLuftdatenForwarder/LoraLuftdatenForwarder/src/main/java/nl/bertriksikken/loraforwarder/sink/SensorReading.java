@@ -0,0 +1,146 @@
+package nl.bertriksikken.loraforwarder.sink;
+
+import java.time.Instant;
+import java.util.Locale;
+
+import nl.bertriksikken.aqi.AirQualityIndex;
+import nl.bertriksikken.ttn.dto.TtnUplink;
+
+/**
+ * Immutable reading of one sensor, as handed to the sinks.
+ *
+ * The pipeline re-uses its events, so every reading is a copy that can be queued safely. One instance is shared by
+ * all sinks.
+ */
+public final class SensorReading {
+
+    private final String sensorId;
+    private final String hardwareSerial;
+    private final Instant receivedAt;
+    private final double pm10;
+    private final double pm2_5;
+    private final double pm1;
+    private final double temp;
+    private final double rh;
+    private final double pressure;
+    private final AirQualityIndex airQuality;
+
+    /**
+     * Constructor.
+     *
+     * @param sensorId       the sensor id, e.g. "TTN-0004A30B001F1234"
+     * @param hardwareSerial the TTN hardware serial
+     * @param receivedAt     the time of reception
+     * @param pm10           the PM10 value
+     * @param pm2_5          the PM2.5 value
+     * @param pm1            the PM1 value
+     * @param temp           the temperature (celcius), NaN if absent
+     * @param rh             the relative humidity (percent), NaN if absent
+     * @param pressure       the pressure (hPa), NaN if absent
+     */
+    public SensorReading(String sensorId, String hardwareSerial, Instant receivedAt, double pm10, double pm2_5,
+            double pm1, double temp, double rh, double pressure) {
+        this(sensorId, hardwareSerial, receivedAt, pm10, pm2_5, pm1, temp, rh, pressure, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param sensorId       the sensor id, e.g. "TTN-0004A30B001F1234"
+     * @param hardwareSerial the TTN hardware serial
+     * @param receivedAt     the time of reception
+     * @param pm10           the PM10 value
+     * @param pm2_5          the PM2.5 value
+     * @param pm1            the PM1 value
+     * @param temp           the temperature (celcius), NaN if absent
+     * @param rh             the relative humidity (percent), NaN if absent
+     * @param pressure       the pressure (hPa), NaN if absent
+     * @param airQuality     the air quality index of the sensor including this reading, null if not calculated
+     */
+    public SensorReading(String sensorId, String hardwareSerial, Instant receivedAt, double pm10, double pm2_5,
+            double pm1, double temp, double rh, double pressure, AirQualityIndex airQuality) {
+        this.sensorId = sensorId;
+        this.hardwareSerial = hardwareSerial;
+        this.receivedAt = receivedAt;
+        this.pm10 = pm10;
+        this.pm2_5 = pm2_5;
+        this.pm1 = pm1;
+        this.temp = temp;
+        this.rh = rh;
+        this.pressure = pressure;
+        this.airQuality = airQuality;
+    }
+
+    /**
+     * Creates a reading from a decoded uplink.
+     *
+     * @param sensorId   the sensor id
+     * @param receivedAt the time of reception
+     * @param uplink     the decoded uplink
+     * @param airQuality the air quality index of the sensor including this reading, null if not calculated
+     * @return a new reading
+     */
+    public static SensorReading of(String sensorId, Instant receivedAt, TtnUplink uplink,
+            AirQualityIndex airQuality) {
+        return new SensorReading(sensorId, uplink.getHardwareSerial(), receivedAt, uplink.getPm10(),
+                uplink.getPm2_5(), uplink.getPm1(), uplink.getTemp(), uplink.getRh(), uplink.getPressure(),
+                airQuality);
+    }
+
+    public String getSensorId() {
+        return sensorId;
+    }
+
+    public String getHardwareSerial() {
+        return hardwareSerial;
+    }
+
+    public Instant getReceivedAt() {
+        return receivedAt;
+    }
+
+    public double getPm10() {
+        return pm10;
+    }
+
+    public double getPm2_5() {
+        return pm2_5;
+    }
+
+    public double getPm1() {
+        return pm1;
+    }
+
+    public double getTemp() {
+        return temp;
+    }
+
+    public double getRh() {
+        return rh;
+    }
+
+    public double getPressure() {
+        return pressure;
+    }
+
+    /**
+     * @return the air quality index of the sensor including this reading, null if not calculated
+     */
+    public AirQualityIndex getAirQuality() {
+        return airQuality;
+    }
+
+    /**
+     * @return true if at least one of the BME280 values is present
+     */
+    public boolean hasBme() {
+        return !Double.isNaN(temp) || !Double.isNaN(rh) || !Double.isNaN(pressure);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "{sensor=%s,time=%s,PM10=%.1f,PM2.5=%.1f,PM1=%.1f,t=%.1f,rh=%.1f,p=%.1f}",
+                sensorId, receivedAt, pm10, pm2_5, pm1, temp, rh, pressure);
+    }
+
+}
@@ -0,0 +1,145 @@
+package nl.bertriksikken.loraforwarder.sink;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.bertriksikken.loraforwarder.BoundedExecutor;
+import nl.bertriksikken.loraforwarder.EOverflowPolicy;
+
+/**
+ * Runs one {@link ISink} on its own bounded queues and worker threads, isolated from the other sinks.
+ *
+ * Readings are spread over the workers by sensor id, keeping the order per sensor. Submitting never waits for the
+ * sink itself, unless the blocking overflow policy is used, and a failure of the sink is only counted and logged.
+ * Every submitted reading is queued as a small task object.
+ */
+public final class SinkRunner {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SinkRunner.class);
+
+    private final ISink sink;
+    private final BoundedExecutor[] workers;
+    private final LongAdder writtenCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param sink       the sink
+     * @param numWorkers the number of worker threads
+     * @param queueSize  the maximum number of queued readings per worker
+     * @param policy     what to do with a new reading when the queue of its worker is full
+     */
+    public SinkRunner(ISink sink, int numWorkers, int queueSize, EOverflowPolicy policy) {
+        this.sink = sink;
+        this.workers = new BoundedExecutor[Math.max(1, numWorkers)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new BoundedExecutor(queueSize, policy, "sink-" + sink.getName() + "-" + i);
+        }
+    }
+
+    /**
+     * Starts the sink.
+     *
+     * @throws IOException in case the sink could not be started
+     */
+    public void start() throws IOException {
+        LOG.info("Starting sink {} with {} worker(s)", sink.getName(), workers.length);
+        sink.start();
+    }
+
+    /**
+     * Queues a reading for the sink.
+     *
+     * @param reading the reading
+     */
+    public void submit(SensorReading reading) {
+        int index = (reading.getSensorId().hashCode() & Integer.MAX_VALUE) % workers.length;
+        try {
+            workers[index].execute(() -> write(reading));
+        } catch (RejectedExecutionException e) {
+            // stopped
+            rejectedCount.increment();
+        }
+    }
+
+    // runs on a worker, in an exception safe manner
+    private void write(SensorReading reading) {
+        try {
+            sink.write(reading);
+            writtenCount.increment();
+        } catch (Exception e) {
+            failedCount.increment();
+            LOG.trace("Caught exception", e);
+            LOG.warn("Sink {} failed for {}: {}", sink.getName(), reading.getSensorId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Stops accepting readings, waits for the queued readings to be written and stops the sink.
+     *
+     * @param timeout the maximum time to wait per worker
+     * @param unit    the unit of the timeout
+     */
+    public void stop(long timeout, TimeUnit unit) {
+        LOG.info("Stopping sink {}", sink.getName());
+        for (BoundedExecutor worker : workers) {
+            worker.shutdown();
+        }
+        try {
+            for (BoundedExecutor worker : workers) {
+                if (!worker.awaitTermination(timeout, unit)) {
+                    LOG.warn("Sink {} stopped with {} reading(s) queued", sink.getName(), worker.getQueueDepth());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sink.stop();
+    }
+
+    public String getName() {
+        return sink.getName();
+    }
+
+    public ISink getSink() {
+        return sink;
+    }
+
+    public long getWrittenCount() {
+        return writtenCount.sum();
+    }
+
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
+
+    /**
+     * @return the number of readings dropped because a queue was full, or rejected after stopping
+     */
+    public long getDropCount() {
+        long count = rejectedCount.sum();
+        for (BoundedExecutor worker : workers) {
+            count += worker.getDropCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of readings waiting in the queues
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (BoundedExecutor worker : workers) {
+            depth += worker.getQueueDepth();
+        }
+        return depth;
+    }
+
+}
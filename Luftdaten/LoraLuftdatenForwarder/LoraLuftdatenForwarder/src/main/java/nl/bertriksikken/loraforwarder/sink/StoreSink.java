@@ -0,0 +1,57 @@
+package nl.bertriksikken.loraforwarder.sink;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import nl.bertriksikken.storage.TimeSeriesStore;
+
+/**
+ * Sink that appends the readings to the binary time-series store, flushing it to disk at a fixed interval.
+ */
+public final class StoreSink implements ISink {
+
+    private final TimeSeriesStore store;
+    private final long flushIntervalMs;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * Constructor.
+     *
+     * @param store the store
+     * @param flushInterval the interval for flushing the store to disk
+     */
+    public StoreSink(TimeSeriesStore store, Duration flushInterval) {
+        this.store = store;
+        this.flushIntervalMs = flushInterval.toMillis();
+    }
+
+    @Override
+    public String getName() {
+        return "store";
+    }
+
+    @Override
+    public void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "store-flush"));
+        executor.scheduleWithFixedDelay(store::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void write(SensorReading reading) throws IOException {
+        store.append(reading.getSensorId(), reading.getReceivedAt().toEpochMilli(), reading.getPm1(),
+                reading.getPm2_5(), reading.getPm10(), reading.getTemp(), reading.getRh(), reading.getPressure());
+    }
+
+    @Override
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        store.flush();
+    }
+
+}
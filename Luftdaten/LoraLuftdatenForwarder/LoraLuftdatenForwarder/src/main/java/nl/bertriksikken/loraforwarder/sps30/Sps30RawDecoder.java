@@ -0,0 +1,56 @@
+package nl.bertriksikken.loraforwarder.sps30;
+
+import nl.bertriksikken.ttn.dto.TtnUplink;
+
+/**
+ * Decoder for the binary frame as sent by the example1_bmesps sketch, so no TTN payload formatter is needed.
+ *
+ * The frame consists of big-endian 16-bit values: SPS30 id, PM10, PM2.5, PM1 (all PM x100), followed by the
+ * optional BME280 values temperature (x100), humidity (x100) and pressure (hPa), 14 bytes in total.
+ */
+public final class Sps30RawDecoder {
+
+    private static final int SPS_LENGTH = 8;
+    private static final int BME_LENGTH = 14;
+
+    private Sps30RawDecoder() {
+        // utility class
+    }
+
+    /**
+     * Decodes the raw payload of an uplink into its measurement values.
+     *
+     * @param uplink the uplink with the raw payload, the values are set in this object
+     * @return false if the payload is too short
+     */
+    public static boolean decode(TtnUplink uplink) {
+        byte[] data = uplink.getRawPayload();
+        int length = uplink.getRawLength();
+        if (length < SPS_LENGTH) {
+            return false;
+        }
+        int spsId = getUnsigned(data, 0);
+        double pm10 = getSigned(data, 2) / 100.0;
+        double pm2_5 = getSigned(data, 4) / 100.0;
+        double pm1 = getSigned(data, 6) / 100.0;
+        double temp = Double.NaN;
+        double rh = Double.NaN;
+        double pressure = Double.NaN;
+        if (length >= BME_LENGTH) {
+            temp = getSigned(data, 8) / 100.0;
+            rh = getSigned(data, 10) / 100.0;
+            pressure = getSigned(data, 12);
+        }
+        uplink.setValues(spsId, pm10, pm2_5, pm1, temp, rh, pressure);
+        return true;
+    }
+
+    private static int getUnsigned(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
+
+    private static int getSigned(byte[] data, int offset) {
+        return (short) getUnsigned(data, offset);
+    }
+
+}
@@ -0,0 +1,38 @@
+package nl.bertriksikken.loraforwarder.transform;
+
+/**
+ * A measurement value that can be transformed.
+ */
+public enum ETransformField {
+
+	PM1("pm1"),
+	PM2_5("pm2_5"),
+	PM10("pm10"),
+	TEMP("temp"),
+	RH("rh"),
+	PRESSURE("pressure");
+
+	private final String id;
+
+	ETransformField(String id) {
+		this.id = id;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @param id the id, e.g. "pm2_5"
+	 * @return the field, null if unknown
+	 */
+	public static ETransformField fromId(String id) {
+		for (ETransformField field : values()) {
+			if (field.id.equals(id)) {
+				return field;
+			}
+		}
+		return null;
+	}
+
+}
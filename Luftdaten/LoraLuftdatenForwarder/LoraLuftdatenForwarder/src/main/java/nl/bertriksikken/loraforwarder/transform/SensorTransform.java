@@ -0,0 +1,86 @@
+package nl.bertriksikken.loraforwarder.transform;
+
+import java.util.Arrays;
+
+import nl.bertriksikken.pm.SensorBme;
+import nl.bertriksikken.ttn.dto.TtnUplink;
+
+/**
+ * The transforms of one sensor, compiled into coefficients: a linear unit scaling, the humidity growth-factor
+ * correction of the PM values, then a linear calibration.
+ *
+ * Applying it is straight-line arithmetic on the values of the uplink, without lookups or allocation. Absent (NaN)
+ * values stay absent.
+ */
+final class SensorTransform {
+
+    private static final int PM1 = ETransformField.PM1.ordinal();
+    private static final int PM2_5 = ETransformField.PM2_5.ordinal();
+    private static final int PM10 = ETransformField.PM10.ordinal();
+    private static final int TEMP = ETransformField.TEMP.ordinal();
+    private static final int RH = ETransformField.RH.ordinal();
+    private static final int PRESSURE = ETransformField.PRESSURE.ordinal();
+
+    private final double[] scaleGain;
+    private final double[] scaleOffset;
+    private final double kappa;
+    private final double maxRh;
+    private final double[] calibrationGain;
+    private final double[] calibrationOffset;
+
+    /**
+     * Constructor.
+     *
+     * @param scaleGain the gain of the unit scaling, per field
+     * @param scaleOffset the offset of the unit scaling, per field
+     * @param kappa the hygroscopicity of the particles, 0 to skip the humidity correction
+     * @param maxRh the relative humidity (percent) at which the correction is capped
+     * @param calibrationGain the gain of the calibration, per field
+     * @param calibrationOffset the offset of the calibration, per field
+     */
+    SensorTransform(double[] scaleGain, double[] scaleOffset, double kappa, double maxRh, double[] calibrationGain,
+            double[] calibrationOffset) {
+        this.scaleGain = Arrays.copyOf(scaleGain, scaleGain.length);
+        this.scaleOffset = Arrays.copyOf(scaleOffset, scaleOffset.length);
+        this.kappa = kappa;
+        this.maxRh = maxRh;
+        this.calibrationGain = Arrays.copyOf(calibrationGain, calibrationGain.length);
+        this.calibrationOffset = Arrays.copyOf(calibrationOffset, calibrationOffset.length);
+    }
+
+    /**
+     * Transforms the values of an uplink in place.
+     *
+     * @param uplink the uplink
+     * @return true if the humidity correction was applied
+     */
+    boolean apply(TtnUplink uplink) {
+        double pm1 = uplink.getPm1() * scaleGain[PM1] + scaleOffset[PM1];
+        double pm2_5 = uplink.getPm2_5() * scaleGain[PM2_5] + scaleOffset[PM2_5];
+        double pm10 = uplink.getPm10() * scaleGain[PM10] + scaleOffset[PM10];
+        double temp = uplink.getTemp() * scaleGain[TEMP] + scaleOffset[TEMP];
+        double rh = uplink.getRh() * scaleGain[RH] + scaleOffset[RH];
+        double pressure = uplink.getPressure() * scaleGain[PRESSURE] + scaleOffset[PRESSURE];
+
+        boolean corrected = false;
+        // an invalid RH is dropped by the filter afterwards, it must not correct the PM values either
+        if ((kappa > 0) && (rh > 0) && SensorBme.isValidRh(rh)) {
+            // kappa-Koehler growth factor, with the water activity taken as the relative humidity
+            double aw = Math.min(rh, maxRh) / 100.0;
+            double growth = 1.0 + (kappa / 1.65) / (1.0 / aw - 1.0);
+            pm1 /= growth;
+            pm2_5 /= growth;
+            pm10 /= growth;
+            corrected = true;
+        }
+
+        uplink.setValues(uplink.getSpsId(), pm10 * calibrationGain[PM10] + calibrationOffset[PM10],
+                pm2_5 * calibrationGain[PM2_5] + calibrationOffset[PM2_5],
+                pm1 * calibrationGain[PM1] + calibrationOffset[PM1],
+                temp * calibrationGain[TEMP] + calibrationOffset[TEMP],
+                rh * calibrationGain[RH] + calibrationOffset[RH],
+                pressure * calibrationGain[PRESSURE] + calibrationOffset[PRESSURE]);
+        return corrected;
+    }
+
+}
@@ -0,0 +1,162 @@
+package nl.bertriksikken.loraforwarder.transform;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import nl.bertriksikken.ttn.dto.TtnUplink;
+
+/**
+ * Corrects the decoded values before they are uploaded or stored, in three steps:
+ *
+ * <pre>
+ * scale        linear unit scaling per field, for all sensors      e.g. pressure:0.01*x, temp:x-273.15
+ * humidity     growth-factor correction of the PM values:          PM / (1 + (kappa / 1.65) / (100 / RH - 1))
+ * calibration  linear calibration per sensor and field             e.g. TTN-0004A30B001F1234/pm2_5:0.82*x+1.1
+ * </pre>
+ *
+ * The humidity correction undoes the growth of hygroscopic particles in moist air, which optical sensors count as
+ * larger particles. It needs a valid RH of a BME280, the RH is capped so the correction stays finite near saturation.
+ *
+ * The transforms run before the {@link nl.bertriksikken.loraforwarder.filter.ReadingFilter}, so the filter checks the
+ * corrected values.
+ *
+ * All transforms are parsed and compiled into coefficients once, in the constructor. Applying them costs one lookup of
+ * the sensor and a few multiplications, without allocation. Not thread-safe, it is meant for a single pipeline stage.
+ */
+public final class TransformStage {
+
+    private static final String NUMBER = "(\\d+(?:\\.\\d*)?(?:[eE][-+]?\\d+)?|\\.\\d+(?:[eE][-+]?\\d+)?)";
+    private static final Pattern LINEAR = Pattern.compile(
+            "(?:([-+]?)" + NUMBER + "\\s*\\*\\s*)?x(?:\\s*([-+])\\s*" + NUMBER + ")?|([-+]?)" + NUMBER);
+
+    private final SensorTransform defaultTransform;
+    private final Map<String, SensorTransform> sensorTransforms = new HashMap<>();
+    private final boolean empty;
+    private final LongAdder transformedCount = new LongAdder();
+    private final LongAdder correctedCount = new LongAdder();
+    private final LongAdder calibratedCount = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param scale map of field id to linear transform, e.g. "pressure" to "0.01*x"
+     * @param kappa the hygroscopicity kappa of the humidity correction, 0 to disable it
+     * @param maxRh the relative humidity (percent) at which the humidity correction is capped, below 100
+     * @param calibration map of "sensor id/field id" to linear transform, e.g. "TTN-0004A30B001F1234/pm2_5" to
+     *            "0.82*x+1.1"
+     * @throws IllegalArgumentException in case of an unknown field or an invalid transform
+     */
+    public TransformStage(Map<String, String> scale, double kappa, double maxRh, Map<String, String> calibration) {
+        if ((kappa < 0) || ((kappa > 0) && ((maxRh <= 0) || (maxRh >= 100)))) {
+            throw new IllegalArgumentException("Invalid humidity correction: kappa " + kappa + ", max RH " + maxRh);
+        }
+        int fields = ETransformField.values().length;
+        double[] scaleGain = identityGain();
+        double[] scaleOffset = new double[fields];
+        for (Map.Entry<String, String> e : scale.entrySet()) {
+            parseInto(field(e.getKey()), e.getValue(), scaleGain, scaleOffset);
+        }
+
+        // the calibrations, grouped per sensor
+        Map<String, double[][]> coefficients = new LinkedHashMap<>();
+        for (Map.Entry<String, String> e : calibration.entrySet()) {
+            int slash = e.getKey().lastIndexOf('/');
+            if (slash <= 0) {
+                throw new IllegalArgumentException("Expected <sensor id>/<field> for calibration: " + e.getKey());
+            }
+            double[][] sensor = coefficients.computeIfAbsent(e.getKey().substring(0, slash).trim(),
+                    id -> new double[][] {identityGain(), new double[fields]});
+            parseInto(field(e.getKey().substring(slash + 1)), e.getValue(), sensor[0], sensor[1]);
+        }
+
+        defaultTransform = new SensorTransform(scaleGain, scaleOffset, kappa, maxRh, identityGain(),
+                new double[fields]);
+        for (Map.Entry<String, double[][]> e : coefficients.entrySet()) {
+            sensorTransforms.put(e.getKey(),
+                    new SensorTransform(scaleGain, scaleOffset, kappa, maxRh, e.getValue()[0], e.getValue()[1]));
+        }
+        empty = sensorTransforms.isEmpty() && (kappa == 0) && Arrays.equals(scaleGain, identityGain())
+                && Arrays.equals(scaleOffset, new double[fields]);
+    }
+
+    private static double[] identityGain() {
+        double[] gain = new double[ETransformField.values().length];
+        Arrays.fill(gain, 1.0);
+        return gain;
+    }
+
+    private static int field(String id) {
+        ETransformField field = ETransformField.fromId(id.trim());
+        if (field == null) {
+            throw new IllegalArgumentException("Unknown field: " + id);
+        }
+        return field.ordinal();
+    }
+
+    /**
+     * Parses a linear transform: "a*x+b", "a*x", "x+b" or "a" (a gain).
+     */
+    static void parseInto(int field, String value, double[] gain, double[] offset) {
+        Matcher matcher = LINEAR.matcher(value.replace(" ", ""));
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid linear transform: " + value);
+        }
+        if (matcher.group(6) != null) {
+            gain[field] = Double.parseDouble(matcher.group(5) + matcher.group(6));
+            offset[field] = 0.0;
+        } else {
+            gain[field] = (matcher.group(2) != null) ? Double.parseDouble(matcher.group(1) + matcher.group(2)) : 1.0;
+            offset[field] = (matcher.group(4) != null) ? Double.parseDouble(matcher.group(3) + matcher.group(4)) : 0.0;
+        }
+    }
+
+    /**
+     * @return true if no transform is configured, so the stage can be left out
+     */
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * Transforms the values of an uplink in place.
+     *
+     * @param sensorId the sensor id
+     * @param uplink the decoded uplink
+     */
+    public void apply(String sensorId, TtnUplink uplink) {
+        SensorTransform transform = sensorTransforms.get(sensorId);
+        if (transform != null) {
+            calibratedCount.increment();
+        } else {
+            transform = defaultTransform;
+        }
+        if (transform.apply(uplink)) {
+            correctedCount.increment();
+        }
+        transformedCount.increment();
+    }
+
+    public long getTransformedCount() {
+        return transformedCount.sum();
+    }
+
+    /**
+     * @return the number of uplinks with a humidity correction
+     */
+    public long getCorrectedCount() {
+        return correctedCount.sum();
+    }
+
+    /**
+     * @return the number of uplinks with a sensor-specific calibration
+     */
+    public long getCalibratedCount() {
+        return calibratedCount.sum();
+    }
+
+}
@@ -0,0 +1,183 @@
+package nl.bertriksikken.luftdaten;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adaptive limit on the number of concurrent requests to a server, combined with a token bucket on the request rate.
+ *
+ * The concurrency limit follows AIMD, steered by both errors and latency:
+ * <ul>
+ * <li>a successful request with a normal round trip time increases the limit by 1/limit, so roughly by one per round
+ * trip, as long as the limit is actually used;
+ * <li>when the smoothed round trip time exceeds twice the baseline (the minimum over a recent window), the server is
+ * queueing and the limit is decreased by 10%;
+ * <li>a server error, overload response or timeout halves the limit.
+ * </ul>
+ * Decreases happen at most once per round trip, so one burst of slow responses only counts once.
+ *
+ * This class is thread-safe.
+ */
+public final class AdaptiveLimiter {
+
+    private static final double LATENCY_BACKOFF = 0.9;
+    private static final double ERROR_BACKOFF = 0.5;
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double SMOOTHING = 0.2;
+    private static final int BASELINE_SAMPLES = 500;
+
+    private final int maxLimit;
+    private final TokenBucket bucket;
+    private final LongAdder rejectedCount = new LongAdder();
+
+    // guarded by this
+    private double limit;
+    private int inFlight;
+    private long minRttNanos = Long.MAX_VALUE;
+    private long windowMinRttNanos = Long.MAX_VALUE;
+    private int windowSamples;
+    private double smoothedRttNanos;
+    private long lastDecreaseNanos;
+
+    /**
+     * Constructor.
+     *
+     * @param initialLimit the initial concurrency limit
+     * @param maxLimit     the maximum concurrency limit
+     * @param bucket       the rate limiter for the server, null for no rate limit
+     */
+    public AdaptiveLimiter(int initialLimit, int maxLimit, TokenBucket bucket) {
+        this.maxLimit = Math.max(1, maxLimit);
+        this.limit = Math.max(1, Math.min(initialLimit, this.maxLimit));
+        this.bucket = bucket;
+        // nanoTime has an arbitrary origin, so 0 would be a random point in time, not "long ago". A day back is longer
+        // than any round trip time, so the first decrease is never held back.
+        this.lastDecreaseNanos = System.nanoTime() - TimeUnit.DAYS.toNanos(1);
+    }
+
+    /**
+     * Waits for permission to send a request, i.e. a token and a free slot within the limit.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout
+     * @return false if the request was rejected because there was no permission within the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean acquire(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if ((bucket != null) && !bucket.acquire(unit.toNanos(timeout))) {
+            rejectedCount.increment();
+            return false;
+        }
+        synchronized (this) {
+            while (inFlight >= (int) limit) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    rejectedCount.increment();
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, left);
+            }
+            inFlight++;
+        }
+        return true;
+    }
+
+    /**
+     * Releases the slot of a request that got a regular response from the server.
+     *
+     * @param rttNanos the round trip time
+     */
+    public synchronized void onSuccess(long rttNanos) {
+        boolean limited = inFlight >= limit / 2;
+        inFlight--;
+        notifyAll();
+
+        // baseline, restarted from the minimum of the last window so it can follow a slower route
+        minRttNanos = Math.min(minRttNanos, rttNanos);
+        windowMinRttNanos = Math.min(windowMinRttNanos, rttNanos);
+        if (++windowSamples >= BASELINE_SAMPLES) {
+            minRttNanos = windowMinRttNanos;
+            windowMinRttNanos = Long.MAX_VALUE;
+            windowSamples = 0;
+        }
+        smoothedRttNanos = (smoothedRttNanos == 0) ? rttNanos
+                : smoothedRttNanos + SMOOTHING * (rttNanos - smoothedRttNanos);
+
+        if (smoothedRttNanos > LATENCY_TOLERANCE * minRttNanos) {
+            decrease(LATENCY_BACKOFF);
+        } else if (limited) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    /**
+     * Releases the slot of a request that failed because of overload: a server error or a timeout.
+     */
+    public synchronized void onOverload() {
+        inFlight--;
+        notifyAll();
+        decrease(ERROR_BACKOFF);
+    }
+
+    private void decrease(double factor) {
+        long now = System.nanoTime();
+        if ((now - lastDecreaseNanos) > smoothedRttNanos) {
+            limit = Math.max(1, limit * factor);
+            lastDecreaseNanos = now;
+        }
+    }
+
+    /**
+     * Waits until no more requests are in flight.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout
+     * @return true if no more requests are in flight
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (inFlight > 0) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+        return true;
+    }
+
+    /**
+     * @return the current concurrency limit
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return the smoothed round trip time (ms)
+     */
+    public synchronized double getRtt() {
+        return smoothedRttNanos / 1E6;
+    }
+
+    /**
+     * @return the baseline (minimum) round trip time (ms), 0 if unknown yet
+     */
+    public synchronized double getMinRtt() {
+        return (minRttNanos == Long.MAX_VALUE) ? 0 : minRttNanos / 1E6;
+    }
+
+    /**
+     * @return the number of requests rejected because there was no permission in time
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+}
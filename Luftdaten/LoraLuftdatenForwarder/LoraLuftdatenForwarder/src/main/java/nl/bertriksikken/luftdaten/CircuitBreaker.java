@@ -0,0 +1,176 @@
+package nl.bertriksikken.luftdaten;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Circuit breaker for a remote server, to fail fast during an outage instead of waiting for timeouts.
+ *
+ * After a number of consecutive failures, the circuit opens and requests are refused immediately. When the open time
+ * has passed, the circuit goes half-open and lets a single probe request through: success closes the circuit, failure
+ * opens it again for another period.
+ *
+ * This class is thread-safe.
+ */
+public final class CircuitBreaker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongSupplier clock;
+
+    // guarded by this
+    private ECircuitState state = ECircuitState.CLOSED;
+    private int failures;
+    private boolean probing;
+    private long openedAt;
+    private long outageStart;
+    private long totalOpenNanos;
+    private long openCount;
+    private long transitionCount;
+    private long rejectedCount;
+
+    /**
+     * Constructor.
+     *
+     * @param name             the name of the server, for logging
+     * @param failureThreshold the number of consecutive failures that opens the circuit
+     * @param openTime         the time to refuse requests before probing again
+     */
+    public CircuitBreaker(String name, int failureThreshold, Duration openTime) {
+        this(name, failureThreshold, openTime, System::nanoTime);
+    }
+
+    // constructor with a custom clock, for testing
+    CircuitBreaker(String name, int failureThreshold, Duration openTime, LongSupplier clock) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openNanos = openTime.toNanos();
+        this.clock = clock;
+    }
+
+    /**
+     * Asks permission for a request, the result of a permitted request must be reported.
+     *
+     * @return false if the request should not be made, because the circuit is open
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+        case CLOSED:
+            return true;
+        case OPEN:
+            if ((clock.getAsLong() - openedAt) < openNanos) {
+                rejectedCount++;
+                return false;
+            }
+            transition(ECircuitState.HALF_OPEN);
+            probing = true;
+            return true;
+        case HALF_OPEN:
+        default:
+            if (probing) {
+                rejectedCount++;
+                return false;
+            }
+            probing = true;
+            return true;
+        }
+    }
+
+    /**
+     * Reports a request that reached the server.
+     */
+    public synchronized void onSuccess() {
+        failures = 0;
+        if (state == ECircuitState.HALF_OPEN) {
+            probing = false;
+            transition(ECircuitState.CLOSED);
+        }
+    }
+
+    /**
+     * Reports a permitted request that was not made after all.
+     */
+    public synchronized void onCancel() {
+        probing = false;
+    }
+
+    /**
+     * Reports a request that failed because of the server, e.g. a timeout or a server error.
+     */
+    public synchronized void onFailure() {
+        switch (state) {
+        case CLOSED:
+            if (++failures >= failureThreshold) {
+                outageStart = clock.getAsLong();
+                openCount++;
+                transition(ECircuitState.OPEN);
+            }
+            break;
+        case HALF_OPEN:
+            probing = false;
+            transition(ECircuitState.OPEN);
+            break;
+        case OPEN:
+        default:
+            // late result of a request from before opening
+            break;
+        }
+    }
+
+    private void transition(ECircuitState newState) {
+        long now = clock.getAsLong();
+        LOG.info("Circuit breaker for {}: {} -> {}", name, state, newState);
+        if (newState == ECircuitState.OPEN) {
+            openedAt = now;
+        } else if (newState == ECircuitState.CLOSED) {
+            totalOpenNanos += now - outageStart;
+            LOG.info("Circuit breaker for {} was open for {} ms", name, TimeUnit.NANOSECONDS.toMillis(now - outageStart));
+        }
+        state = newState;
+        transitionCount++;
+    }
+
+    public synchronized ECircuitState getState() {
+        return state;
+    }
+
+    /**
+     * @return the number of times the circuit opened after being closed
+     */
+    public synchronized long getOpenCount() {
+        return openCount;
+    }
+
+    /**
+     * @return the total number of state transitions
+     */
+    public synchronized long getTransitionCount() {
+        return transitionCount;
+    }
+
+    /**
+     * @return the number of requests refused because the circuit was open
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * @return the total time (ms) the circuit was not closed, including the current outage
+     */
+    public synchronized long getOpenMillis() {
+        long nanos = totalOpenNanos;
+        if (state != ECircuitState.CLOSED) {
+            nanos += clock.getAsLong() - outageStart;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+}
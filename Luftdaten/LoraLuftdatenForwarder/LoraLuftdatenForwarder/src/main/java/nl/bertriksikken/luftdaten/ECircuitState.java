@@ -0,0 +1,15 @@
+package nl.bertriksikken.luftdaten;
+
+/**
+ * State of a {@link CircuitBreaker}.
+ */
+public enum ECircuitState {
+
+    /** requests pass, failures are counted */
+    CLOSED,
+    /** requests fail fast, until the open time has passed */
+    OPEN,
+    /** a single probe request passes, its result decides between closed and open */
+    HALF_OPEN;
+
+}
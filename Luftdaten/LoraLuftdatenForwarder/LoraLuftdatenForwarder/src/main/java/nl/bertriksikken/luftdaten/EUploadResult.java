@@ -0,0 +1,17 @@
+package nl.bertriksikken.luftdaten;
+
+/**
+ * Outcome of an upload to luftdaten.info.
+ */
+public enum EUploadResult {
+
+    /** the server accepted the measurement */
+    ACCEPTED,
+    /** the upload failed on the way or the server was unavailable, it may succeed later */
+    FAILED,
+    /** the upload was not attempted, because the circuit breaker was open or the limiter gave no permission */
+    DEFERRED,
+    /** the server refused the measurement itself (a client error), retrying would give the same answer */
+    REJECTED;
+
+}
@@ -1,6 +1,6 @@
 package nl.bertriksikken.luftdaten;
 
-import nl.bertriksikken.luftdaten.dto.LuftdatenMessage;
+import okhttp3.RequestBody;
 import retrofit2.Call;
 import retrofit2.http.Body;
 import retrofit2.http.Header;
@@ -16,11 +16,11 @@ public interface ILuftdatenApi {
      * 
      * @param pin     the PIN, "1" for dust data
      * @param sensor  the sensor name, e.g. "esp8266-123456"
-     * @param message the measurement message
+     * @param body    the measurement message, pre-serialized JSON, see {@link LuftdatenBodyWriter}
      * @return task to execute the web method
      */
     @POST("/v1/push-sensor-data/")
     Call<String> pushSensorData(@Header("X-Pin") String pin, @Header("X-Sensor") String sensor,
-            @Body LuftdatenMessage message);
+            @Body RequestBody body);
 
 }
@@ -0,0 +1,20 @@
+package nl.bertriksikken.luftdaten;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Interface for sending a measurement to luftdaten.info, e.g. by the {@link LuftdatenUploader}.
+ */
+public interface ILuftdatenSender {
+
+    /**
+     * Sends a measurement.
+     *
+     * @param sensorId the sensor id
+     * @param pin      the pin
+     * @param body     the measurement
+     * @return future that completes with the result
+     */
+    CompletableFuture<EUploadResult> send(String sensorId, String pin, LuftdatenBody body);
+
+}
@@ -0,0 +1,96 @@
+package nl.bertriksikken.luftdaten;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * Pre-serialized JSON body of a luftdaten upload, in a re-usable byte buffer.
+ *
+ * The content must not change while a request with this body is in flight, OkHttp may write it more than once.
+ */
+public final class LuftdatenBody extends RequestBody {
+
+    private static final MediaType JSON = MediaType.parse("application/json; charset=UTF-8");
+
+    private byte[] buffer;
+    private int length;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the initial buffer capacity
+     */
+    public LuftdatenBody(int capacity) {
+        buffer = new byte[capacity];
+    }
+
+    /**
+     * Creates a body with the given content, e.g. as read back from disk.
+     *
+     * @param data the JSON bytes
+     * @return a new body
+     */
+    public static LuftdatenBody of(byte[] data) {
+        LuftdatenBody body = new LuftdatenBody(data.length);
+        body.append(data, 0, data.length);
+        return body;
+    }
+
+    void clear() {
+        length = 0;
+    }
+
+    void append(byte b) {
+        ensureCapacity(1);
+        buffer[length++] = b;
+    }
+
+    void append(byte[] data, int offset, int count) {
+        ensureCapacity(count);
+        System.arraycopy(data, offset, buffer, length, count);
+        length += count;
+    }
+
+    private void ensureCapacity(int count) {
+        if (length + count > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, length + count));
+        }
+    }
+
+    /**
+     * @return the internal buffer, valid up to {@link #length()}
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return JSON;
+    }
+
+    @Override
+    public long contentLength() {
+        return length;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        sink.write(buffer, 0, length);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,147 @@
+package nl.bertriksikken.luftdaten;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+/**
+ * Writes the JSON body of luftdaten uploads from a template, straight into a re-usable byte buffer.
+ *
+ * The shape of the body is fixed, the same as a serialized {@link nl.bertriksikken.luftdaten.dto.LuftdatenMessage}:
+ *
+ * <pre>
+ * {"software_version":"...","sensordatavalues":[{"value_type":"P0","value":"1.23"},...]}
+ * </pre>
+ *
+ * All constant parts are encoded once, numbers are written digit by digit with two decimals (the resolution of the
+ * luftdaten database). Bodies come from a small pool and should be released after the request completed.
+ *
+ * This class is thread-safe.
+ */
+public final class LuftdatenBodyWriter {
+
+    private static final int POOL_SIZE = 64;
+    private static final int INITIAL_CAPACITY = 256;
+    private static final long MAX_FIXED = 1_000_000_000_000L;
+
+    private static final byte[] ITEMS_END = ascii("]}");
+    private static final byte[] VALUE_END = ascii("\"}");
+    private static final byte[] NAN = ascii("NaN");
+
+    private static final byte[][] SPS_ITEMS = items("P0", "P1", "P2");
+    private static final byte[][] BME_ITEMS = items("temperature", "humidity", "pressure");
+
+    private final byte[] header;
+    private final BlockingQueue<LuftdatenBody> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    /**
+     * Constructor.
+     *
+     * @param softwareVersion the software version to put in every body
+     */
+    public LuftdatenBodyWriter(String softwareVersion) {
+        String version = new String(JsonStringEncoder.getInstance().quoteAsString(softwareVersion));
+        header = ascii("{\"software_version\":\"" + version + "\",\"sensordatavalues\":[");
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // the constant part of each item up to the value, the first one without separating comma
+    private static byte[][] items(String... names) {
+        byte[][] items = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            items[i] = ascii(((i > 0) ? "," : "") + "{\"value_type\":\"" + names[i] + "\",\"value\":\"");
+        }
+        return items;
+    }
+
+    /**
+     * Writes the body of a dust measurement.
+     *
+     * @param pm1   the PM1 value, as P0
+     * @param pm10  the PM10 value, as P1
+     * @param pm2_5 the PM2.5 value, as P2
+     * @return the body, from the pool
+     */
+    public LuftdatenBody writeSps(double pm1, double pm10, double pm2_5) {
+        return write(SPS_ITEMS, pm1, pm10, pm2_5);
+    }
+
+    /**
+     * Writes the body of a temperature/humidity/pressure measurement.
+     *
+     * @param temp     the temperature (celcius)
+     * @param rh       the relative humidity (percent)
+     * @param pressure the pressure (Pa)
+     * @return the body, from the pool
+     */
+    public LuftdatenBody writeBme(double temp, double rh, double pressure) {
+        return write(BME_ITEMS, temp, rh, pressure);
+    }
+
+    private LuftdatenBody write(byte[][] items, double v0, double v1, double v2) {
+        LuftdatenBody body = pool.poll();
+        if (body == null) {
+            body = new LuftdatenBody(INITIAL_CAPACITY);
+        }
+        body.clear();
+        body.append(header, 0, header.length);
+        writeItem(body, items[0], v0);
+        writeItem(body, items[1], v1);
+        writeItem(body, items[2], v2);
+        body.append(ITEMS_END, 0, ITEMS_END.length);
+        return body;
+    }
+
+    private static void writeItem(LuftdatenBody body, byte[] item, double value) {
+        body.append(item, 0, item.length);
+        writeNumber(body, value);
+        body.append(VALUE_END, 0, VALUE_END.length);
+    }
+
+    // writes the value with up to two decimals (at least one), e.g. "12.0", "-3.25"
+    static void writeNumber(LuftdatenBody body, double value) {
+        if (Double.isNaN(value)) {
+            body.append(NAN, 0, NAN.length);
+            return;
+        }
+        if (Math.abs(value) >= MAX_FIXED) {
+            // out of range for fixed point, rare enough to allocate
+            byte[] text = ascii(Double.toString(value));
+            body.append(text, 0, text.length);
+            return;
+        }
+        long scaled = Math.round(Math.abs(value) * 100);
+        if ((value < 0) && (scaled != 0)) {
+            body.append((byte) '-');
+        }
+        writeDigits(body, scaled / 100);
+        body.append((byte) '.');
+        int fraction = (int) (scaled % 100);
+        body.append((byte) ('0' + fraction / 10));
+        if ((fraction % 10) != 0) {
+            body.append((byte) ('0' + fraction % 10));
+        }
+    }
+
+    private static void writeDigits(LuftdatenBody body, long value) {
+        if (value >= 10) {
+            writeDigits(body, value / 10);
+        }
+        body.append((byte) ('0' + value % 10));
+    }
+
+    /**
+     * Returns a body to the pool, once the request with it has completed.
+     *
+     * @param body the body
+     */
+    public void release(LuftdatenBody body) {
+        pool.offer(body);
+    }
+
+}
@@ -0,0 +1,648 @@
+package nl.bertriksikken.luftdaten;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Disk backed outbox for luftdaten uploads that failed, retried in the background.
+ *
+ * The outbox is an append-only log of segment files plus a cursor file with the position of the first message that
+ * was not delivered yet. Every record is framed with its length and a CRC, so a record torn by a crash is detected
+ * and cut off on start-up. Delivered segments are deleted, and when the log grows beyond its maximum size the oldest
+ * segment is dropped.
+ *
+ * A single thread drains the log, with a few uploads in flight at a time, so retries never take more than that from
+ * the live traffic. When a whole batch fails (the server is probably down), the same position is retried with a
+ * single probe after a jittered exponential back-off. Messages that fail in a partially successful batch are appended
+ * to the log again, a limited number of times. A probe that keeps failing is parked the same way, so a message the
+ * server never accepts cannot block the messages behind it. Only uploads that were actually sent count as attempts:
+ * one deferred by an open circuit breaker or the limiter is retried without counting. Messages the server rejects are
+ * dropped at once.
+ *
+ * Appends are flushed to the file immediately and synced to the disk on every segment roll and, by a thread of its
+ * own, at least every second, so a power loss costs at most the last second of failed uploads.
+ */
+public final class LuftdatenOutbox {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LuftdatenOutbox.class);
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CURSOR_FILE = "cursor";
+    private static final long MAX_SEGMENT_SIZE = 1024 * 1024;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final long INITIAL_RETRY_DELAY_MS = 1000;
+    private static final long IDLE_POLL_MS = 1000;
+    private static final int MAX_REQUEUES = 5;
+    private static final int MAX_PROBES = 3;
+    private static final long SYNC_INTERVAL_MS = 1000;
+
+    private final File dir;
+    private final long maxBytes;
+    private final long segmentSize;
+    private final long maxRetryDelayMs;
+    private final int batchSize;
+    private final ILuftdatenSender sender;
+    private final ScheduledExecutorService executor = Executors
+            .newSingleThreadScheduledExecutor(r -> new Thread(r, "outbox"));
+    // separate from the drain thread, which can wait for a slow server
+    private final ScheduledExecutorService syncExecutor = Executors
+            .newSingleThreadScheduledExecutor(r -> new Thread(r, "outbox-sync"));
+
+    private final LongAdder addedCount = new LongAdder();
+    private final LongAdder deliveredCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder requeuedCount = new LongAdder();
+
+    // guarded by this
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private DataOutputStream out;
+    private FileOutputStream outFile;
+    private boolean unsynced;
+    private long totalBytes;
+    private long pending;
+    private long cursorSegment;
+    private long cursorOffset;
+    private int cursorIndex;
+
+    // only accessed from the drain thread
+    private int failedAttempts;
+    private int probeAttempts;
+    private long probeSegment = -1;
+    private long probeEnd;
+    private long drainStartNanos;
+    private long drainCount;
+
+    private volatile long lastDrainMillis = -1;
+    private volatile long lastDrainCount;
+
+    /**
+     * Constructor.
+     *
+     * @param dir             the directory for the log and cursor files
+     * @param maxBytes        the maximum size of the log, the oldest messages are dropped beyond that
+     * @param maxRetryDelayMs the maximum delay between retries when the server keeps failing
+     * @param batchSize       the maximum number of retries in flight
+     * @param sender          the sender for retries
+     */
+    public LuftdatenOutbox(File dir, long maxBytes, long maxRetryDelayMs, int batchSize, ILuftdatenSender sender) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.segmentSize = Math.max(RECORD_HEADER_SIZE, Math.min(MAX_SEGMENT_SIZE, maxBytes / 4));
+        this.maxRetryDelayMs = maxRetryDelayMs;
+        this.batchSize = Math.max(1, batchSize);
+        this.sender = sender;
+    }
+
+    /**
+     * Opens the log and starts draining it.
+     *
+     * @throws IOException in case the log could not be opened
+     */
+    public void start() throws IOException {
+        LOG.info("Starting outbox in {}", dir.getAbsolutePath());
+        open();
+        LOG.info("Outbox has {} message(s) to deliver", getPending());
+        executor.execute(this::drain);
+        syncExecutor.scheduleWithFixedDelay(this::sync, SYNC_INTERVAL_MS, SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops draining and closes the log.
+     */
+    public void stop() {
+        LOG.info("Stopping outbox");
+        executor.shutdownNow();
+        syncExecutor.shutdownNow();
+        try {
+            executor.awaitTermination(3, TimeUnit.SECONDS);
+            syncExecutor.awaitTermination(3, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        close();
+    }
+
+    /**
+     * Adds a message that could not be uploaded, in an exception safe manner.
+     *
+     * @param sensorId the sensor id
+     * @param pin      the pin
+     * @param body     the measurement, copied into the log
+     */
+    public synchronized void add(String sensorId, String pin, LuftdatenBody body) {
+        try {
+            append(encode(new Entry(sensorId, pin, 0, Arrays.copyOf(body.getBuffer(), body.length()))));
+            addedCount.increment();
+        } catch (IOException e) {
+            LOG.trace("Caught exception", e);
+            LOG.warn("Could not add message for {} to outbox: {}", sensorId, e.getMessage());
+            droppedCount.increment();
+        }
+    }
+
+    /**
+     * @return the number of messages waiting for delivery
+     */
+    public synchronized long getPending() {
+        return pending;
+    }
+
+    public long getAddedCount() {
+        return addedCount.sum();
+    }
+
+    public long getDeliveredCount() {
+        return deliveredCount.sum();
+    }
+
+    /**
+     * @return the number of messages lost, because the log was full, a message failed too often or was rejected
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    public long getRequeuedCount() {
+        return requeuedCount.sum();
+    }
+
+    /**
+     * @return the time (ms) it took to drain the last backlog, from the first successful retry, -1 if none yet
+     */
+    public long getLastDrainMillis() {
+        return lastDrainMillis;
+    }
+
+    /**
+     * @return the number of messages delivered while draining the last backlog
+     */
+    public long getLastDrainCount() {
+        return lastDrainCount;
+    }
+
+    // opens the log, recovering the segments and cursor from disk
+    synchronized void open() throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create directory " + dir);
+        }
+        readCursor();
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+        for (File file : (files != null) ? files : new File[0]) {
+            String name = file.getName();
+            try {
+                long id = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                segments.put(id, new Segment(id, file));
+            } catch (NumberFormatException e) {
+                LOG.warn("Ignoring unknown file {} in outbox", file);
+            }
+        }
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            if (segment.id < cursorSegment) {
+                // already delivered, but not deleted yet
+                deleteSegment(segment);
+            } else {
+                recover(segment);
+                totalBytes += segment.size;
+            }
+        }
+        if (segments.isEmpty()) {
+            newSegment(cursorSegment);
+        }
+        if (segments.firstKey() > cursorSegment) {
+            cursorSegment = segments.firstKey();
+            cursorOffset = 0;
+        }
+        Segment first = segments.get(cursorSegment);
+        cursorIndex = countRecords(first, cursorOffset);
+        pending = -cursorIndex;
+        for (Segment segment : segments.values()) {
+            pending += segment.records;
+        }
+        openActive(segments.lastEntry().getValue());
+    }
+
+    // closes the log
+    synchronized void close() {
+        if (out != null) {
+            try {
+                closeActive();
+            } catch (IOException e) {
+                LOG.warn("Caught exception closing outbox: {}", e.getMessage());
+            }
+            out = null;
+        }
+    }
+
+    private void openActive(Segment segment) throws IOException {
+        outFile = new FileOutputStream(segment.file, true);
+        out = new DataOutputStream(new BufferedOutputStream(outFile));
+    }
+
+    // syncs the active segment to the disk before closing it
+    private void closeActive() throws IOException {
+        try {
+            out.flush();
+            outFile.getChannel().force(false);
+            unsynced = false;
+        } finally {
+            out.close();
+        }
+    }
+
+    // syncs appended records to the disk, runs periodically on the sync executor
+    synchronized void sync() {
+        if ((out == null) || !unsynced) {
+            return;
+        }
+        try {
+            outFile.getChannel().force(false);
+            unsynced = false;
+        } catch (IOException e) {
+            LOG.trace("Caught exception", e);
+            LOG.warn("Could not sync outbox: {}", e.getMessage());
+        }
+    }
+
+    private void readCursor() throws IOException {
+        File file = new File(dir, CURSOR_FILE);
+        if (file.exists()) {
+            String[] fields = new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII).trim()
+                    .split(" ");
+            try {
+                cursorSegment = Long.parseLong(fields[0]);
+                cursorOffset = Long.parseLong(fields[1]);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                LOG.warn("Invalid outbox cursor, starting from the oldest message");
+            }
+        }
+    }
+
+    private void writeCursor() throws IOException {
+        File tmp = new File(dir, CURSOR_FILE + ".tmp");
+        String line = String.format(Locale.ROOT, "%d %d%n", cursorSegment, cursorOffset);
+        Files.write(tmp.toPath(), line.getBytes(StandardCharsets.US_ASCII));
+        Files.move(tmp.toPath(), new File(dir, CURSOR_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // counts the valid records of a segment and cuts off a torn or corrupt tail
+    private void recover(Segment segment) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(segment.file, "rw")) {
+            long offset = 0;
+            int records = 0;
+            while (readRecord(raf, offset) != null) {
+                offset = raf.getFilePointer();
+                records++;
+            }
+            if (offset < raf.length()) {
+                LOG.warn("Truncating outbox segment {} from {} to {} bytes", segment.file, raf.length(), offset);
+                raf.setLength(offset);
+            }
+            segment.size = offset;
+            segment.records = records;
+        }
+    }
+
+    private int countRecords(Segment segment, long limit) throws IOException {
+        int count = 0;
+        if (limit <= 0) {
+            return count;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(segment.file, "r")) {
+            long offset = 0;
+            while ((offset < limit) && (readRecord(raf, offset) != null)) {
+                offset = raf.getFilePointer();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // reads the body of the record at the offset, null if there is no complete and valid record
+    private byte[] readRecord(RandomAccessFile raf, long offset) throws IOException {
+        if (offset + RECORD_HEADER_SIZE > raf.length()) {
+            return null;
+        }
+        raf.seek(offset);
+        int length = raf.readInt();
+        int crc = raf.readInt();
+        if ((length < 0) || (offset + RECORD_HEADER_SIZE + length > raf.length())) {
+            return null;
+        }
+        byte[] body = new byte[length];
+        raf.readFully(body);
+        return (checksum(body) == crc) ? body : null;
+    }
+
+    private static int checksum(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        return (int) crc.getValue();
+    }
+
+    private byte[] encode(Entry entry) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(bos)) {
+            dos.writeUTF(entry.sensorId);
+            dos.writeUTF(entry.pin);
+            dos.writeByte(entry.requeues);
+            dos.write(entry.json);
+        }
+        return bos.toByteArray();
+    }
+
+    private Entry decode(byte[] body) throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(body));
+        String sensorId = dis.readUTF();
+        String pin = dis.readUTF();
+        int requeues = dis.readUnsignedByte();
+        byte[] json = new byte[dis.available()];
+        dis.readFully(json);
+        return new Entry(sensorId, pin, requeues, json);
+    }
+
+    // appends a record to the active segment, dropping the oldest segment(s) when the log is full
+    private void append(byte[] body) throws IOException {
+        if (out == null) {
+            throw new IOException("Outbox is closed");
+        }
+        Segment active = segments.lastEntry().getValue();
+        if (active.size >= segmentSize) {
+            closeActive();
+            active = newSegment(active.id + 1);
+            openActive(active);
+        }
+        out.writeInt(body.length);
+        out.writeInt(checksum(body));
+        out.write(body);
+        out.flush();
+        unsynced = true;
+        active.size += RECORD_HEADER_SIZE + body.length;
+        active.records++;
+        totalBytes += RECORD_HEADER_SIZE + body.length;
+        pending++;
+        while ((totalBytes > maxBytes) && (segments.size() > 1)) {
+            dropOldest();
+        }
+    }
+
+    private Segment newSegment(long id) {
+        Segment segment = new Segment(id, new File(dir, String.format(Locale.ROOT, "%019d%s", id, SEGMENT_SUFFIX)));
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private void dropOldest() throws IOException {
+        Segment oldest = segments.firstEntry().getValue();
+        int lost = (oldest.id == cursorSegment) ? oldest.records - cursorIndex : oldest.records;
+        LOG.warn("Outbox full, dropping {} message(s)", lost);
+        droppedCount.add(lost);
+        pending -= lost;
+        deleteSegment(oldest);
+        if (cursorSegment <= oldest.id) {
+            moveCursor(segments.firstKey(), 0, 0);
+        }
+    }
+
+    private void deleteSegment(Segment segment) {
+        segments.remove(segment.id);
+        totalBytes -= segment.size;
+        if (!segment.file.delete()) {
+            LOG.warn("Could not delete outbox segment {}", segment.file);
+        }
+    }
+
+    private void moveCursor(long segment, long offset, int index) throws IOException {
+        cursorSegment = segment;
+        cursorOffset = offset;
+        cursorIndex = index;
+        writeCursor();
+    }
+
+    // reads up to max entries from the cursor, moving to the next segment when the current one is done
+    synchronized List<Entry> readBatch(int max) throws IOException {
+        List<Entry> batch = new ArrayList<>();
+        Segment segment = segments.get(cursorSegment);
+        while ((cursorOffset >= segment.size) && (segment != segments.lastEntry().getValue())) {
+            deleteSegment(segment);
+            moveCursor(segments.firstKey(), 0, 0);
+            segment = segments.get(cursorSegment);
+        }
+        if (cursorOffset >= segment.size) {
+            return batch;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(segment.file, "r")) {
+            long offset = cursorOffset;
+            while ((batch.size() < max) && (offset < segment.size)) {
+                byte[] body = readRecord(raf, offset);
+                if (body == null) {
+                    throw new IOException("Corrupt record in outbox segment " + segment.file);
+                }
+                offset = raf.getFilePointer();
+                Entry entry = decode(body);
+                entry.segment = segment.id;
+                entry.end = offset;
+                batch.add(entry);
+            }
+        }
+        return batch;
+    }
+
+    // moves the cursor past a processed batch, drops the rejected entries and appends the failed and deferred entries
+    // again, only the failed ones count as a retry
+    synchronized void ack(List<Entry> batch, List<Entry> failed, List<Entry> deferred, int rejected)
+            throws IOException {
+        Entry last = batch.get(batch.size() - 1);
+        if (last.segment != cursorSegment) {
+            // the segment was dropped in the meantime
+            return;
+        }
+        moveCursor(cursorSegment, last.end, cursorIndex + batch.size());
+        pending -= batch.size();
+        deliveredCount.add(batch.size() - failed.size() - deferred.size() - rejected);
+        droppedCount.add(rejected);
+        for (Entry entry : deferred) {
+            append(encode(entry));
+            requeuedCount.increment();
+        }
+        for (Entry entry : failed) {
+            if (entry.requeues < MAX_REQUEUES) {
+                append(encode(new Entry(entry.sensorId, entry.pin, entry.requeues + 1, entry.json)));
+                requeuedCount.increment();
+            } else {
+                LOG.warn("Giving up on message for {} after {} retries", entry.sensorId, entry.requeues);
+                droppedCount.increment();
+            }
+        }
+    }
+
+    // runs on the executor and schedules itself again
+    private void drain() {
+        long delay;
+        try {
+            delay = drainBatch();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            LOG.trace("Caught exception", e);
+            LOG.warn("Caught exception in outbox: {}", e.getMessage());
+            delay = IDLE_POLL_MS;
+        }
+        if (!executor.isShutdown()) {
+            executor.schedule(this::drain, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Sends one batch from the log.
+     *
+     * @return the delay (ms) before the next batch
+     */
+    long drainBatch() throws IOException, InterruptedException {
+        List<Entry> batch = readBatch((failedAttempts == 0) ? batchSize : 1);
+        if (batch.isEmpty()) {
+            if (drainStartNanos != 0) {
+                lastDrainMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - drainStartNanos);
+                lastDrainCount = drainCount;
+                LOG.info("Outbox drained {} message(s) in {} ms", drainCount, lastDrainMillis);
+                drainStartNanos = 0;
+                drainCount = 0;
+            }
+            return IDLE_POLL_MS;
+        }
+
+        List<CompletableFuture<EUploadResult>> results = new ArrayList<>();
+        for (Entry entry : batch) {
+            results.add(sender.send(entry.sensorId, entry.pin, LuftdatenBody.of(entry.json)));
+        }
+        List<Entry> failed = new ArrayList<>();
+        List<Entry> deferred = new ArrayList<>();
+        int rejected = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            EUploadResult result = result(results.get(i));
+            if (result == EUploadResult.FAILED) {
+                failed.add(batch.get(i));
+            } else if (result == EUploadResult.DEFERRED) {
+                deferred.add(batch.get(i));
+            } else if (result == EUploadResult.REJECTED) {
+                LOG.warn("Dropping message for {}, rejected by the server", batch.get(i).sensorId);
+                rejected++;
+            }
+        }
+        if (failed.size() + deferred.size() == batch.size()) {
+            failedAttempts++;
+            // a deferred probe was never sent, so it does not count towards parking
+            if (deferred.isEmpty() && park(batch)) {
+                // requeues or drops it, the back-off continues with the next message
+                ack(batch, failed, deferred, 0);
+            }
+            return retryDelay(failedAttempts);
+        }
+
+        failedAttempts = 0;
+        probeSegment = -1;
+        if (drainStartNanos == 0) {
+            drainStartNanos = System.nanoTime();
+        }
+        drainCount += batch.size() - failed.size() - deferred.size() - rejected;
+        ack(batch, failed, deferred, rejected);
+        return 0;
+    }
+
+    // counts the failed attempts of a probe, true if its message failed too often and should be parked
+    private boolean park(List<Entry> batch) {
+        if (batch.size() > 1) {
+            // not a probe yet
+            return false;
+        }
+        Entry entry = batch.get(0);
+        if ((entry.segment != probeSegment) || (entry.end != probeEnd)) {
+            probeSegment = entry.segment;
+            probeEnd = entry.end;
+            probeAttempts = 0;
+        }
+        probeAttempts++;
+        if (probeAttempts < MAX_PROBES) {
+            return false;
+        }
+        LOG.warn("Parking message for {} after {} failed probes", entry.sensorId, probeAttempts);
+        probeSegment = -1;
+        return true;
+    }
+
+    private EUploadResult result(CompletableFuture<EUploadResult> result) throws InterruptedException {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            return EUploadResult.FAILED;
+        }
+    }
+
+    /**
+     * Calculates the delay before the next retry: exponential in the number of failed attempts, up to the maximum,
+     * with "equal jitter" (a random value between half and the full delay) to spread the load on the server.
+     *
+     * @param attempts the number of failed attempts
+     * @return the delay (ms)
+     */
+    long retryDelay(int attempts) {
+        long delay = Math.min(maxRetryDelayMs, INITIAL_RETRY_DELAY_MS << Math.min(attempts - 1, 30));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private static final class Segment {
+        private final long id;
+        private final File file;
+        private long size;
+        private int records;
+
+        Segment(long id, File file) {
+            this.id = id;
+            this.file = file;
+        }
+    }
+
+    // one message in the log, with its position after reading
+    static final class Entry {
+        private final String sensorId;
+        private final String pin;
+        private final int requeues;
+        private final byte[] json;
+        private long segment;
+        private long end;
+
+        Entry(String sensorId, String pin, int requeues, byte[] json) {
+            this.sensorId = sensorId;
+            this.pin = pin;
+            this.requeues = requeues;
+            this.json = json;
+        }
+    }
+
+}
@@ -1,15 +1,17 @@
 package nl.bertriksikken.luftdaten;
 
-import java.io.IOException;
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-
-import nl.bertriksikken.luftdaten.dto.LuftdatenMessage;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
+import retrofit2.Call;
+import retrofit2.Callback;
 import retrofit2.Response;
 import retrofit2.Retrofit;
 import retrofit2.converter.jackson.JacksonConverterFactory;
@@ -18,6 +20,16 @@ import retrofit2.converter.scalars.ScalarsConverterFactory;
 /**
  * Uploader for luftdaten.info
  * adjusted for SPS30 / paulvha / November 2019
+ *
+ * Uploads are asynchronous: the HTTP exchange runs on the dispatcher of the HTTP client. An adaptive limiter shapes
+ * the traffic to the server: it limits the rate and the number of requests in flight, and backs off when the server
+ * slows down or returns errors. A request that does not get permission in time is not sent (reported as deferred).
+ *
+ * A circuit breaker in front of the limiter defers requests immediately while the server is down, instead of each
+ * waiting for a timeout.
+ *
+ * A client error (4xx other than 429) means the server is fine but refuses the measurement, e.g. for an unknown
+ * sensor. It is reported as rejected, so the caller does not retry it.
  */
 public final class LuftdatenUploader {
 
@@ -27,16 +39,28 @@ public final class LuftdatenUploader {
         public static final String PIN_SPS = "1";
         public static final String PIN_BME = "11";
 
-        private final ObjectMapper mapper = new ObjectMapper();
         private final ILuftdatenApi restClient;
+        private final CircuitBreaker breaker;
+        private final AdaptiveLimiter limiter;
+        private final long maxWaitMs;
+        private final LongAdder successCount = new LongAdder();
+        private final LongAdder failureCount = new LongAdder();
+        private final LongAdder rejectedCount = new LongAdder();
 
         /**
          * Constructor.
          *
          * @param restClient the REST client
+         * @param breaker the circuit breaker for the server
+         * @param limiter the limiter for requests to the server
+         * @param maxWait the maximum time to wait for permission from the limiter
          */
-        public LuftdatenUploader(ILuftdatenApi restClient) {
+        public LuftdatenUploader(ILuftdatenApi restClient, CircuitBreaker breaker, AdaptiveLimiter limiter,
+                Duration maxWait) {
                 this.restClient = restClient;
+                this.breaker = breaker;
+                this.limiter = limiter;
+                this.maxWaitMs = maxWait.toMillis();
         }
 
         /**
@@ -44,12 +68,17 @@ public final class LuftdatenUploader {
          *
          * @param url the URL of the server, e.g. "https://api.luftdaten.info"
          * @param timeout the timeout
+         * @param maxInFlight the maximum number of concurrent requests
          * @return a new REST client.
          */
-        public static ILuftdatenApi newRestClient(String url, Duration timeout) {
+        public static ILuftdatenApi newRestClient(String url, Duration timeout, int maxInFlight) {
             LOG.info("Creating new REST client for '{}' with timeout {}", url, timeout);
 
+            Dispatcher dispatcher = new Dispatcher();
+            dispatcher.setMaxRequests(maxInFlight);
+            dispatcher.setMaxRequestsPerHost(maxInFlight);
             OkHttpClient client = new OkHttpClient().newBuilder().callTimeout(timeout)
+                                .dispatcher(dispatcher)
                                 .build();
                 Retrofit retrofit = new Retrofit.Builder()
                                 .baseUrl(url)
@@ -61,39 +90,145 @@ public final class LuftdatenUploader {
                 return retrofit.create(ILuftdatenApi.class);
         }
 
-    public void uploadMeasurement(String sensorId, String pin, LuftdatenMessage luftdatenMessage, int DebugDataflow) {
-        try {
+        /**
+         * Uploads a measurement asynchronously.
+         *
+         * Blocks only while waiting for permission of the limiter, the HTTP exchange itself runs on the dispatcher of
+         * the HTTP client. Completes immediately as deferred while the circuit breaker is open.
+         *
+         * @param sensorId the sensor id
+         * @param pin the pin
+         * @param body the measurement, must not be modified until the future completes
+         * @param DebugDataflow 1 to log the data flow
+         * @return future that completes with the result
+         */
+        public CompletableFuture<EUploadResult> uploadMeasurement(String sensorId, String pin, LuftdatenBody body,
+                int DebugDataflow) {
+                CompletableFuture<EUploadResult> result = new CompletableFuture<>();
+                try {
+                        // only display if extended debug is enabled
+                        if (DebugDataflow == 1)  {
+                                LOG.info("Sending for {} to pin {}: '{}'", sensorId, pin, body);
+                        }
+
+                        if (!breaker.allowRequest()) {
+                                LOG.debug("Request for {} rejected by open circuit", sensorId);
+                                failureCount.increment();
+                                result.complete(EUploadResult.DEFERRED);
+                                return result;
+                        }
+                        if (!limiter.acquire(maxWaitMs, TimeUnit.MILLISECONDS)) {
+                                breaker.onCancel();
+                                LOG.warn("Request for {} rejected by limiter", sensorId);
+                                failureCount.increment();
+                                result.complete(EUploadResult.DEFERRED);
+                                return result;
+                        }
+                } catch (InterruptedException e) {
+                        breaker.onCancel();
+                        Thread.currentThread().interrupt();
+                        result.complete(EUploadResult.DEFERRED);
+                        return result;
+                }
 
-            // only display if extended debug is enabled
-            if (DebugDataflow == 1)  {
-                LOG.info("Sending for {} to pin {}: '{}'", sensorId, pin, mapper.writeValueAsString(luftdatenMessage));
-            }
+                long startNanos = System.nanoTime();
+                restClient.pushSensorData(pin, sensorId, body).enqueue(new Callback<String>() {
+                        @Override
+                        public void onResponse(Call<String> call, Response<String> response) {
+                                // too many requests and server errors mean overload, other responses tell the server
+                                // is fine
+                                boolean overload = (response.code() == 429) || (response.code() >= 500);
+                                if (overload) {
+                                        limiter.onOverload();
+                                        breaker.onFailure();
+                                } else {
+                                        limiter.onSuccess(System.nanoTime() - startNanos);
+                                        breaker.onSuccess();
+                                }
+                                // only display if extended debug is enabled
+                                if (DebugDataflow == 1)  {
+                                        if (response.isSuccessful()) {
+                                                LOG.info("Result success: {}", response.body());
+                                        } else {
+                                                LOG.warn("Request failed: {}", response.message());
+                                        }
+                                }
+                                else { // display warning anyway if not succesfull
+                                        if ( ! response.isSuccessful()) LOG.warn("Request failed: {}", response.message());
+                                }
+                                if (response.isSuccessful()) {
+                                        successCount.increment();
+                                        result.complete(EUploadResult.ACCEPTED);
+                                } else if (overload || (response.code() < 400)) {
+                                        failureCount.increment();
+                                        result.complete(EUploadResult.FAILED);
+                                } else {
+                                        LOG.debug("Measurement for {} rejected with code {}", sensorId,
+                                                        response.code());
+                                        rejectedCount.increment();
+                                        result.complete(EUploadResult.REJECTED);
+                                }
+                        }
+
+                        @Override
+                        public void onFailure(Call<String> call, Throwable t) {
+                                limiter.onOverload();
+                                breaker.onFailure();
+                                LOG.warn("Caught exception '{}'", t.getMessage());
+                                failureCount.increment();
+                                result.complete(EUploadResult.FAILED);
+                        }
+                });
+                return result;
+        }
 
-            Response<String> response = restClient.pushSensorData(pin, sensorId, luftdatenMessage).execute();
+        /**
+         * @return the limiter, for its metrics
+         */
+        public AdaptiveLimiter getLimiter() {
+                return limiter;
+        }
 
-            // only display if extended debug is enabled
-            if (DebugDataflow == 1)  {
-                if (response.isSuccessful()) {
-                        LOG.info("Result success: {}", response.body());
-                } else {
-                        LOG.warn("Request failed: {}", response.message());
-                }
-            }
-            else { // display warning anyway if not succesfull
-                if ( ! response.isSuccessful()) LOG.warn("Request failed: {}", response.message());
-            }
+        /**
+         * @return the circuit breaker, for its metrics
+         */
+        public CircuitBreaker getBreaker() {
+                return breaker;
+        }
+
+        public long getSuccessCount() {
+                return successCount.sum();
+        }
+
+        public long getFailureCount() {
+                return failureCount.sum();
+        }
 
-        } catch (IOException e) {
-                LOG.warn("Caught exception '{}'", e.getMessage());
+        /**
+         * @return the number of measurements the server refused, these are not retried
+         */
+        public long getRejectedCount() {
+                return rejectedCount.sum();
         }
-    }
 
         public void start() {
                 LOG.info("Starting Luftdaten.info uploader");
         }
 
-        public void stop() {
+        /**
+         * Stops this module, waiting a while for the requests in flight.
+         *
+         * @param timeout the maximum time to wait
+         */
+        public void stop(Duration timeout) {
                 LOG.info("Stopping Luftdaten.info uploader");
+                try {
+                        if (!limiter.awaitIdle(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                                LOG.warn("Stopped with {} requests still in flight", limiter.getInFlight());
+                        }
+                } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                }
         }
 
 }
@@ -0,0 +1,66 @@
+package nl.bertriksikken.luftdaten;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter, for the requests to one destination host.
+ *
+ * Tokens are refilled continuously at the configured rate, up to the burst size. A caller that finds the bucket empty
+ * reserves a future token (the bucket goes negative) and sleeps until it is due, so waiting callers are served in
+ * order and never all wake up at the same time.
+ *
+ * This class is thread-safe.
+ */
+public final class TokenBucket {
+
+    private final double tokensPerNano;
+    private final double burst;
+    private double tokens;
+    private long lastNanos;
+
+    /**
+     * Constructor.
+     *
+     * @param ratePerSecond the sustained rate (tokens per second)
+     * @param burst         the maximum number of tokens that can be taken at once after an idle period
+     */
+    public TokenBucket(double ratePerSecond, int burst) {
+        this.tokensPerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.lastNanos = System.nanoTime();
+    }
+
+    /**
+     * Takes a token, waiting for it if necessary.
+     *
+     * @param timeoutNanos the maximum time to wait
+     * @return false if no token becomes available within the timeout, nothing is taken in that case
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean acquire(long timeoutNanos) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - lastNanos) * tokensPerNano);
+            lastNanos = now;
+            waitNanos = (tokens >= 1) ? 0 : (long) ((1 - tokens) / tokensPerNano);
+            if (waitNanos > timeoutNanos) {
+                return false;
+            }
+            tokens -= 1;
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of tokens currently available, negative if reserved ahead
+     */
+    public synchronized double getTokens() {
+        return tokens;
+    }
+
+}
@@ -0,0 +1,27 @@
+package nl.bertriksikken.opensensemap;
+
+import okhttp3.RequestBody;
+import retrofit2.Call;
+import retrofit2.http.Body;
+import retrofit2.http.POST;
+import retrofit2.http.Path;
+import retrofit2.http.Query;
+
+/**
+ * REST API for openSenseMap.
+ */
+public interface IOpenSenseMapApi {
+
+    /**
+     * Uploads measurements of a senseBox.
+     *
+     * @param boxId     the senseBox id
+     * @param luftdaten true if the body is in luftdaten.info format
+     * @param body      the measurements
+     * @return task to execute the web method
+     */
+    @POST("/boxes/{boxId}/data")
+    Call<String> postData(@Path("boxId") String boxId, @Query("luftdaten") boolean luftdaten,
+            @Body RequestBody body);
+
+}
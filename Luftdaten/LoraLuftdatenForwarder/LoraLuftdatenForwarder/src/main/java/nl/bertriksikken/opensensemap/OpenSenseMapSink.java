@@ -0,0 +1,95 @@
+package nl.bertriksikken.opensensemap;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.bertriksikken.loraforwarder.sink.ISink;
+import nl.bertriksikken.loraforwarder.sink.SensorReading;
+import nl.bertriksikken.luftdaten.LuftdatenBody;
+import nl.bertriksikken.luftdaten.LuftdatenBodyWriter;
+import okhttp3.OkHttpClient;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+import retrofit2.converter.scalars.ScalarsConverterFactory;
+
+/**
+ * Sink that uploads readings to openSenseMap, using its luftdaten.info compatible format.
+ *
+ * Each device needs a senseBox, configured by hardware serial. Readings of other devices are skipped.
+ */
+public final class OpenSenseMapSink implements ISink {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OpenSenseMapSink.class);
+
+    private final IOpenSenseMapApi restClient;
+    private final Map<String, String> boxIds;
+    private final LuftdatenBodyWriter bodyWriter;
+
+    /**
+     * Constructor.
+     *
+     * @param restClient      the REST client
+     * @param boxIds          the senseBox id per hardware serial
+     * @param softwareVersion the software version to send
+     */
+    public OpenSenseMapSink(IOpenSenseMapApi restClient, Map<String, String> boxIds, String softwareVersion) {
+        this.restClient = restClient;
+        this.boxIds = new HashMap<>(boxIds);
+        this.bodyWriter = new LuftdatenBodyWriter(softwareVersion);
+    }
+
+    /**
+     * Creates a new REST client.
+     *
+     * @param url     the URL of the server, e.g. "https://api.opensensemap.org"
+     * @param timeout the timeout
+     * @return a new REST client.
+     */
+    public static IOpenSenseMapApi newRestClient(String url, Duration timeout) {
+        LOG.info("Creating new REST client for '{}' with timeout {}", url, timeout);
+        OkHttpClient client = new OkHttpClient().newBuilder().callTimeout(timeout).build();
+        Retrofit retrofit = new Retrofit.Builder().baseUrl(url).addConverterFactory(ScalarsConverterFactory.create())
+                .client(client).build();
+        return retrofit.create(IOpenSenseMapApi.class);
+    }
+
+    @Override
+    public String getName() {
+        return "opensensemap";
+    }
+
+    @Override
+    public void start() {
+        LOG.info("Uploading to openSenseMap for {} device(s)", boxIds.size());
+    }
+
+    @Override
+    public void write(SensorReading reading) throws IOException {
+        String boxId = boxIds.get(reading.getHardwareSerial());
+        if (boxId == null) {
+            return;
+        }
+        post(boxId, bodyWriter.writeSps(reading.getPm1(), reading.getPm10(), reading.getPm2_5()));
+        if (reading.hasBme()) {
+            post(boxId, bodyWriter.writeBme(reading.getTemp(), reading.getRh(), 100.0 * reading.getPressure()));
+        }
+    }
+
+    private void post(String boxId, LuftdatenBody body) throws IOException {
+        try {
+            Response<String> response = restClient.postData(boxId, true, body).execute();
+            if (!response.isSuccessful()) {
+                throw new IOException("Upload to box " + boxId + " failed: " + response.code() + " "
+                        + response.message());
+            }
+        } finally {
+            bodyWriter.release(body);
+        }
+    }
+
+}
@@ -35,15 +35,39 @@ public final class SensorBme {
     }
 
     public boolean hasValidTemp() {
-        return (temp != null) && (temp > -100.0) && (temp < 100.0);
+        return (temp != null) && isValidTemp(temp);
     }
 
     public boolean hasValidRh() {
-        return (rh != null) && (rh >= 0) && (rh <= 100.0);
+        return (rh != null) && isValidRh(rh);
     }
 
     public boolean hasValidPressure() {
-        return (pressure != null) && (pressure > 800.0) && (pressure < 1200.0);
+        return (pressure != null) && isValidPressure(pressure);
+    }
+
+    /**
+     * @param temp the temperature (celcius)
+     * @return true if the temperature is within the range of a BME280, false if not or NaN
+     */
+    public static boolean isValidTemp(double temp) {
+        return (temp > -100.0) && (temp < 100.0);
+    }
+
+    /**
+     * @param rh the relative humidity (percent)
+     * @return true if the humidity is within 0..100 percent, false if not or NaN
+     */
+    public static boolean isValidRh(double rh) {
+        return (rh >= 0) && (rh <= 100.0);
+    }
+
+    /**
+     * @param pressure the pressure (hPa)
+     * @return true if the pressure is plausible near ground level, false if not or NaN
+     */
+    public static boolean isValidPressure(double pressure) {
+        return (pressure > 800.0) && (pressure < 1200.0);
     }
 
     @Override
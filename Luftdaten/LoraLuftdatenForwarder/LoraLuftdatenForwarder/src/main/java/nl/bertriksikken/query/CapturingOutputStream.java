@@ -0,0 +1,55 @@
+package nl.bertriksikken.query;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Passes everything on to another stream and keeps a copy, as long as it fits in a limit. Used to cache a response
+ * while it is streamed.
+ */
+final class CapturingOutputStream extends FilterOutputStream {
+
+    private final int limit;
+    private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+    /**
+     * Constructor.
+     *
+     * @param out the stream to pass everything on to
+     * @param limit the maximum size of the copy
+     */
+    CapturingOutputStream(OutputStream out, int limit) {
+        super(out);
+        this.limit = limit;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        if ((copy != null) && (copy.size() < limit)) {
+            copy.write(b);
+        } else {
+            copy = null;
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        if ((copy != null) && (copy.size() + len <= limit)) {
+            copy.write(b, off, len);
+        } else {
+            copy = null;
+        }
+    }
+
+    /**
+     * @return the copy of everything written, null if it did not fit in the limit
+     */
+    byte[] getCopy() {
+        return (copy != null) ? copy.toByteArray() : null;
+    }
+
+}
@@ -0,0 +1,41 @@
+package nl.bertriksikken.query;
+
+import nl.bertriksikken.storage.ESeriesField;
+import nl.bertriksikken.storage.ISeriesCursor;
+
+/**
+ * Cursor over the records of one cursor followed by those of another.
+ */
+final class ChainedCursor implements ISeriesCursor {
+
+    private final ISeriesCursor second;
+    private ISeriesCursor current;
+
+    ChainedCursor(ISeriesCursor first, ISeriesCursor second) {
+        this.current = first;
+        this.second = second;
+    }
+
+    @Override
+    public boolean next() {
+        if (current.next()) {
+            return true;
+        }
+        if (current != second) {
+            current = second;
+            return current.next();
+        }
+        return false;
+    }
+
+    @Override
+    public long getTime() {
+        return current.getTime();
+    }
+
+    @Override
+    public float getField(ESeriesField field) {
+        return current.getField(field);
+    }
+
+}
@@ -0,0 +1,136 @@
+package nl.bertriksikken.query;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import nl.bertriksikken.storage.ESeriesField;
+import nl.bertriksikken.storage.ISeriesCursor;
+import nl.bertriksikken.storage.Rollup;
+
+/**
+ * Reduces the records of a cursor and/or pre-computed rollups to one row per time bucket, with the mean, minimum
+ * and/or maximum of each field.
+ *
+ * Buckets are aligned to multiples of the bucket size since the epoch, only buckets with records produce a row.
+ * Absent (NaN) values are left out of the aggregates, a field without values in a bucket aggregates to NaN.
+ */
+final class Downsampler {
+
+    private final long bucketMs;
+    private final List<ESeriesField> fields;
+    private final List<EAggregate> aggregates;
+    // per bucket start: count, sum, min, max per field
+    private final Map<Long, double[]> buckets = new TreeMap<>();
+
+    Downsampler(long bucketMs, List<ESeriesField> fields, List<EAggregate> aggregates) {
+        this.bucketMs = bucketMs;
+        this.fields = fields;
+        this.aggregates = aggregates;
+    }
+
+    /**
+     * Adds all remaining records of a cursor.
+     */
+    void addAll(ISeriesCursor cursor) {
+        long currentStart = Long.MIN_VALUE;
+        double[] current = null;
+        while (cursor.next()) {
+            long start = Math.floorDiv(cursor.getTime(), bucketMs) * bucketMs;
+            if ((current == null) || (start != currentStart)) {
+                current = bucket(start);
+                currentStart = start;
+            }
+            for (int i = 0; i < fields.size(); i++) {
+                float value = cursor.getField(fields.get(i));
+                if (!Float.isNaN(value)) {
+                    current[4 * i]++;
+                    current[4 * i + 1] += value;
+                    current[4 * i + 2] = Math.min(current[4 * i + 2], value);
+                    current[4 * i + 3] = Math.max(current[4 * i + 3], value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds pre-computed rollups, the bucket size must be a multiple of their period.
+     */
+    void addRollups(List<Rollup> rollups) {
+        for (Rollup rollup : rollups) {
+            double[] current = bucket(Math.floorDiv(rollup.getStart(), bucketMs) * bucketMs);
+            for (int i = 0; i < fields.size(); i++) {
+                ESeriesField field = fields.get(i);
+                int count = rollup.getCount(field);
+                if (count > 0) {
+                    current[4 * i] += count;
+                    current[4 * i + 1] += rollup.getSum(field);
+                    current[4 * i + 2] = Math.min(current[4 * i + 2], rollup.getMin(field));
+                    current[4 * i + 3] = Math.max(current[4 * i + 3], rollup.getMax(field));
+                }
+            }
+        }
+    }
+
+    private double[] bucket(long start) {
+        double[] bucket = buckets.get(start);
+        if (bucket == null) {
+            bucket = new double[4 * fields.size()];
+            for (int i = 0; i < fields.size(); i++) {
+                bucket[4 * i + 2] = Double.POSITIVE_INFINITY;
+                bucket[4 * i + 3] = Double.NEGATIVE_INFINITY;
+            }
+            buckets.put(start, bucket);
+        }
+        return bucket;
+    }
+
+    /**
+     * @return the number of columns per row, excluding the time
+     */
+    int getColumnCount() {
+        return fields.size() * aggregates.size();
+    }
+
+    /**
+     * @return the name of a column, e.g. "pm2_5_mean"
+     */
+    String getColumnName(int column) {
+        return fields.get(column / aggregates.size()).getId() + "_"
+                + aggregates.get(column % aggregates.size()).getId();
+    }
+
+    /**
+     * @return the rows, by bucket start time (ms since epoch)
+     */
+    Map<Long, double[]> getRows() {
+        Map<Long, double[]> rows = new TreeMap<>();
+        for (Map.Entry<Long, double[]> entry : buckets.entrySet()) {
+            double[] stats = entry.getValue();
+            double[] row = new double[getColumnCount()];
+            for (int column = 0; column < row.length; column++) {
+                int field = column / aggregates.size();
+                double count = stats[4 * field];
+                if (count == 0) {
+                    row[column] = Double.NaN;
+                    continue;
+                }
+                switch (aggregates.get(column % aggregates.size())) {
+                case MIN:
+                    row[column] = stats[4 * field + 2];
+                    break;
+                case MAX:
+                    row[column] = stats[4 * field + 3];
+                    break;
+                case MEAN:
+                default:
+                    row[column] = stats[4 * field + 1] / count;
+                    break;
+                }
+            }
+            rows.put(entry.getKey(), row);
+        }
+        return rows;
+    }
+
+}
@@ -0,0 +1,31 @@
+package nl.bertriksikken.query;
+
+/**
+ * Aggregate of the values in a downsampling bucket.
+ */
+public enum EAggregate {
+
+	MEAN("mean"),
+	MIN("min"),
+	MAX("max");
+
+	private final String id;
+
+	EAggregate(String id) {
+		this.id = id;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	static EAggregate fromId(String id) {
+		for (EAggregate aggregate : values()) {
+			if (aggregate.id.equals(id)) {
+				return aggregate;
+			}
+		}
+		return null;
+	}
+
+}
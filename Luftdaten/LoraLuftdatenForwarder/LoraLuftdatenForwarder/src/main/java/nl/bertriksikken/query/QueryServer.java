@@ -0,0 +1,610 @@
+package nl.bertriksikken.query;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import nl.bertriksikken.aggregate.EWindow;
+import nl.bertriksikken.aggregate.RollingAggregator;
+import nl.bertriksikken.aggregate.WindowStats;
+import nl.bertriksikken.aqi.AirQualityEngine;
+import nl.bertriksikken.aqi.AirQualityIndex;
+import nl.bertriksikken.storage.BlockArchive;
+import nl.bertriksikken.storage.ERollupTier;
+import nl.bertriksikken.storage.ESeriesField;
+import nl.bertriksikken.storage.ISeriesCursor;
+import nl.bertriksikken.storage.RollupArchive;
+import nl.bertriksikken.storage.TimeSeriesStore;
+
+/**
+ * Embedded HTTP server for querying the stored readings.
+ *
+ * <pre>
+ * GET /sensors                       the sensor ids, as JSON
+ * GET /sensors/&lt;id&gt;/stats           rolling aggregates of one sensor, as JSON
+ * GET /sensors/&lt;id&gt;/aqi             current air quality index of one sensor (CAQI, US AQI NowCast), as JSON
+ * GET /sensors/&lt;id&gt;/readings        readings of one sensor, with query parameters:
+ *     to=&lt;instant&gt;                   end of the range (exclusive), default now
+ *     from=&lt;instant or duration&gt;     start of the range, or its distance to the end (e.g. P7D), default P1D
+ *     fields=pm2_5,pm10              the fields, default all
+ *     bucket=&lt;duration&gt;              downsample to buckets of this size (e.g. PT1H), default none
+ *     agg=mean,min,max               the aggregates per bucket, default mean
+ *     format=json|csv                default json
+ * </pre>
+ *
+ * A query costs time in proportion to the range asked for: the segment headers of the store skip segments outside
+ * the range and a binary search finds the start inside a segment. Records older than the store are read from the
+ * sealed blocks, and downsampled queries with buckets of whole hours or days read the pre-computed rollups of sealed
+ * days instead of the records. Responses are cached for a short while, with the default end of the range rounded up
+ * to the next minute so repeated queries for recent windows hit the cache.
+ *
+ * Responses are streamed, so their size does not take memory. Readings queries are limited: a query for the records
+ * themselves to a maximum range, a downsampled query to a maximum number of buckets. Larger queries get status 400.
+ * The API has no authentication, so by default it only listens on the loopback interface.
+ */
+public final class QueryServer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QueryServer.class);
+    private static final String PREFIX = "/sensors";
+    private static final String SUFFIX = "/readings";
+    private static final String STATS_SUFFIX = "/stats";
+    private static final String AQI_SUFFIX = "/aqi";
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.95, 0.99};
+    private static final String JSON = "application/json";
+    private static final String CSV = "text/csv; charset=us-ascii";
+
+    private final TimeSeriesStore store;
+    private final BlockArchive archive;
+    private final RollupArchive rollups;
+    private final RollingAggregator aggregator;
+    private final AirQualityEngine airQuality;
+    private final String address;
+    private final int port;
+    private final long maxRangeMs;
+    private final long maxBuckets;
+    private final ResponseCache cache;
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final LongAdder requestCount = new LongAdder();
+    private final LongAdder errorCount = new LongAdder();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Constructor.
+     *
+     * @param store the store to query
+     * @param archive the archive of sealed blocks, null if none
+     * @param rollups the archive of rollups, null if none
+     * @param aggregator the rolling aggregates, null if none
+     * @param airQuality the air quality indices, null if none
+     * @param address the address to listen on, e.g. "127.0.0.1"
+     * @param port the TCP port, 0 for any free port
+     * @param maxRange the maximum range of a query for the records themselves
+     * @param maxBuckets the maximum number of buckets of a downsampled query
+     * @param cacheBytes the maximum total size of the cached responses
+     * @param cacheTtl the time to keep a cached response
+     */
+    public QueryServer(TimeSeriesStore store, BlockArchive archive, RollupArchive rollups,
+            RollingAggregator aggregator, AirQualityEngine airQuality, String address, int port, Duration maxRange,
+            int maxBuckets, long cacheBytes, Duration cacheTtl) {
+        this.store = store;
+        this.archive = archive;
+        this.rollups = rollups;
+        this.aggregator = aggregator;
+        this.airQuality = airQuality;
+        this.address = address;
+        this.port = port;
+        this.maxRangeMs = maxRange.toMillis();
+        this.maxBuckets = maxBuckets;
+        this.cache = new ResponseCache(cacheBytes, cacheTtl.toMillis(), System::currentTimeMillis);
+    }
+
+    /**
+     * Starts the server.
+     *
+     * @throws IOException in case the port could not be bound
+     */
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        server.createContext(PREFIX, this::handle);
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(2, r -> new Thread(r, "query-" + threadCount.getAndIncrement()));
+        server.setExecutor(executor);
+        server.start();
+        LOG.info("Query server listening on {} port {}", address, getPort());
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the actual TCP port
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // runs on the executor, in an exception safe manner
+    private void handle(HttpExchange exchange) {
+        requestCount.increment();
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendText(exchange, 405, "Method not allowed");
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals(PREFIX) || path.equals(PREFIX + "/")) {
+                sensorList(new ResponseStream(exchange, JSON));
+            } else if (path.startsWith(PREFIX + "/") && path.endsWith(SUFFIX)
+                    && (path.length() > PREFIX.length() + 1 + SUFFIX.length())) {
+                String sensorId = sensorId(path, SUFFIX);
+                Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+                readings(sensorId, params, Instant.now(), new ResponseStream(exchange, contentType(params)));
+            } else if ((aggregator != null) && path.startsWith(PREFIX + "/") && path.endsWith(STATS_SUFFIX)
+                    && (path.length() > PREFIX.length() + 1 + STATS_SUFFIX.length())) {
+                if (!stats(sensorId(path, STATS_SUFFIX), Instant.now(), new ResponseStream(exchange, JSON))) {
+                    sendText(exchange, 404, "Not found");
+                }
+            } else if ((airQuality != null) && path.startsWith(PREFIX + "/") && path.endsWith(AQI_SUFFIX)
+                    && (path.length() > PREFIX.length() + 1 + AQI_SUFFIX.length())) {
+                if (!airQuality(sensorId(path, AQI_SUFFIX), Instant.now(), new ResponseStream(exchange, JSON))) {
+                    sendText(exchange, 404, "Not found");
+                }
+            } else {
+                sendText(exchange, 404, "Not found");
+            }
+        } catch (IllegalArgumentException | DateTimeParseException | ArithmeticException e) {
+            // all checks are done before the first byte of the response is written
+            errorCount.increment();
+            sendText(exchange, 400, "Bad request: " + e.getMessage());
+        } catch (Exception e) {
+            // the response may be cut off half way, the client notices the missing end of the chunked body
+            errorCount.increment();
+            LOG.trace("Caught exception", e);
+            LOG.warn("Query {} failed: {}", exchange.getRequestURI(), e.getMessage());
+            sendText(exchange, 500, "Internal error");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String sensorId(String path, String suffix) {
+        String sensorId = path.substring(PREFIX.length() + 1, path.length() - suffix.length());
+        if (sensorId.contains("/") || sensorId.startsWith(".")) {
+            throw new IllegalArgumentException("invalid sensor id");
+        }
+        return sensorId;
+    }
+
+    /**
+     * Writes the rolling aggregates of a sensor.
+     *
+     * @param sensorId the sensor id
+     * @param now the current time
+     * @param out the stream for the JSON response
+     * @return false if the sensor has no aggregates, nothing was written then
+     * @throws IOException in case of a problem writing JSON
+     */
+    boolean stats(String sensorId, Instant now, OutputStream out) throws IOException {
+        List<WindowStats> windows = new ArrayList<>();
+        for (EWindow window : EWindow.values()) {
+            WindowStats stats = aggregator.getStats(sensorId, window, now.toEpochMilli());
+            if (stats == null) {
+                return false;
+            }
+            windows.add(stats);
+        }
+        try (JsonGenerator generator = jsonFactory.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField("sensor", sensorId);
+            generator.writeStringField("time", now.toString());
+            for (WindowStats stats : windows) {
+                generator.writeObjectFieldStart(stats.getWindow().getId());
+                generator.writeNumberField("count", stats.getCount());
+                generator.writeObjectFieldStart("pm2_5");
+                writeAggregates(generator, stats.getPm2_5Mean(), stats.getPm2_5Min(), stats.getPm2_5Max());
+                generator.writeEndObject();
+                generator.writeObjectFieldStart("pm10");
+                writeAggregates(generator, stats.getPm10Mean(), stats.getPm10Min(), stats.getPm10Max());
+                generator.writeEndObject();
+                generator.writeEndObject();
+            }
+            generator.writeObjectFieldStart("pm2_5_percentiles_24h");
+            for (double q : PERCENTILES) {
+                generator.writeFieldName(String.format(Locale.ROOT, "p%d", Math.round(q * 100)));
+                writeJsonNumber(generator, aggregator.getPm2_5Percentile(sensorId, q, now.toEpochMilli()));
+            }
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+        return true;
+    }
+
+    /**
+     * Writes the current air quality index of a sensor.
+     *
+     * @param sensorId the sensor id
+     * @param now the current time
+     * @param out the stream for the JSON response
+     * @return false if the sensor has no current index, nothing was written then
+     * @throws IOException in case of a problem writing JSON
+     */
+    boolean airQuality(String sensorId, Instant now, OutputStream out) throws IOException {
+        AirQualityIndex index = airQuality.get(sensorId, now.toEpochMilli());
+        if (index == null) {
+            return false;
+        }
+        try (JsonGenerator generator = jsonFactory.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField("sensor", sensorId);
+            generator.writeStringField("hour", Instant.ofEpochMilli(index.getHour()).toString());
+            generator.writeObjectFieldStart("caqi");
+            writeIndex(generator, index.getCaqi());
+            generator.writeFieldName("pm2_5");
+            writeJsonNumber(generator, index.getPm2_5());
+            generator.writeFieldName("pm10");
+            writeJsonNumber(generator, index.getPm10());
+            generator.writeEndObject();
+            generator.writeObjectFieldStart("aqi");
+            writeIndex(generator, index.getAqi());
+            generator.writeFieldName("nowcast_pm2_5");
+            writeJsonNumber(generator, index.getNowCastPm2_5());
+            generator.writeFieldName("nowcast_pm10");
+            writeJsonNumber(generator, index.getNowCastPm10());
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+        return true;
+    }
+
+    private static void writeIndex(JsonGenerator generator, int index) throws IOException {
+        generator.writeFieldName("index");
+        if (index == AirQualityIndex.UNAVAILABLE) {
+            generator.writeNull();
+        } else {
+            generator.writeNumber(index);
+        }
+    }
+
+    private static void writeAggregates(JsonGenerator generator, double mean, double min, double max)
+            throws IOException {
+        generator.writeFieldName("mean");
+        writeJsonNumber(generator, mean);
+        generator.writeFieldName("min");
+        writeJsonNumber(generator, min);
+        generator.writeFieldName("max");
+        writeJsonNumber(generator, max);
+    }
+
+    private void sensorList(OutputStream out) throws IOException {
+        try (JsonGenerator generator = jsonFactory.createGenerator(out)) {
+            generator.writeStartArray();
+            for (String sensorId : store.getSensorIds()) {
+                generator.writeString(sensorId);
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    // the content type of a readings query, an invalid format is reported by the query itself
+    private static String contentType(Map<String, String> params) {
+        return "csv".equals(params.get("format")) ? CSV : JSON;
+    }
+
+    /**
+     * Answers a readings query, from the cache if possible.
+     *
+     * @param sensorId the sensor id
+     * @param params the query parameters
+     * @param now the current time
+     * @param out the stream for the response, nothing is written to it in case of an invalid query
+     * @throws IOException in case of a problem reading the store
+     * @throws IllegalArgumentException in case of an invalid or too large query
+     */
+    void readings(String sensorId, Map<String, String> params, Instant now, OutputStream out) throws IOException {
+        long to;
+        if (params.containsKey("to")) {
+            to = Instant.parse(params.get("to")).toEpochMilli();
+        } else {
+            to = (Math.floorDiv(now.toEpochMilli(), 60_000L) + 1) * 60_000L;
+        }
+        String fromParam = params.getOrDefault("from", "P1D");
+        long from = fromParam.startsWith("P") ? Math.subtractExact(to, Duration.parse(fromParam).toMillis())
+                : Instant.parse(fromParam).toEpochMilli();
+        if (from > to) {
+            throw new IllegalArgumentException("from is after to");
+        }
+
+        List<ESeriesField> fields = new ArrayList<>();
+        if (params.containsKey("fields")) {
+            for (String id : params.get("fields").split(",")) {
+                ESeriesField field = ESeriesField.fromId(id);
+                if (field == null) {
+                    throw new IllegalArgumentException("unknown field " + id);
+                }
+                fields.add(field);
+            }
+        } else {
+            fields.addAll(Arrays.asList(ESeriesField.values()));
+        }
+        List<EAggregate> aggregates = new ArrayList<>();
+        for (String id : params.getOrDefault("agg", "mean").split(",")) {
+            EAggregate aggregate = EAggregate.fromId(id);
+            if (aggregate == null) {
+                throw new IllegalArgumentException("unknown aggregate " + id);
+            }
+            aggregates.add(aggregate);
+        }
+        long bucketMs = params.containsKey("bucket") ? Duration.parse(params.get("bucket")).toMillis() : 0;
+        if (params.containsKey("bucket") && (bucketMs <= 0)) {
+            throw new IllegalArgumentException("bucket must be positive");
+        }
+        String format = params.getOrDefault("format", "json");
+        if (!format.equals("json") && !format.equals("csv")) {
+            throw new IllegalArgumentException("unknown format " + format);
+        }
+        long range = Math.subtractExact(to, from);
+        if ((bucketMs > 0) && (range / bucketMs > maxBuckets)) {
+            throw new IllegalArgumentException("more than " + maxBuckets + " buckets, use larger buckets");
+        }
+        if ((bucketMs == 0) && (range > maxRangeMs)) {
+            throw new IllegalArgumentException("range exceeds " + Duration.ofMillis(maxRangeMs) + ", use buckets");
+        }
+
+        String key = String.format(Locale.ROOT, "%s|%d|%d|%s|%d|%s|%s", sensorId, from, to, fields, bucketMs,
+                aggregates, format);
+        ResponseCache.CachedResponse entry = cache.get(key);
+        if (entry != null) {
+            out.write(entry.getBody());
+            out.close();
+            return;
+        }
+
+        // collect the columns and rows
+        List<String> columns = new ArrayList<>();
+        Map<Long, double[]> rows;
+        ISeriesCursor cursor = null;
+        if (bucketMs > 0) {
+            Downsampler downsampler = new Downsampler(bucketMs, fields, aggregates);
+            downsample(downsampler, sensorId, from, to, bucketMs);
+            for (int i = 0; i < downsampler.getColumnCount(); i++) {
+                columns.add(downsampler.getColumnName(i));
+            }
+            rows = downsampler.getRows();
+        } else {
+            cursor = cursor(sensorId, from, to);
+            for (ESeriesField field : fields) {
+                columns.add(field.getId());
+            }
+            rows = null;
+        }
+
+        CapturingOutputStream capture = new CapturingOutputStream(out, cache.getMaxEntryBytes());
+        if (format.equals("json")) {
+            try (JsonGenerator generator = jsonFactory.createGenerator(capture)) {
+                generator.writeStartObject();
+                generator.writeStringField("sensor", sensorId);
+                generator.writeStringField("from", Instant.ofEpochMilli(from).toString());
+                generator.writeStringField("to", Instant.ofEpochMilli(to).toString());
+                generator.writeArrayFieldStart("columns");
+                generator.writeString("time");
+                for (String column : columns) {
+                    generator.writeString(column);
+                }
+                generator.writeEndArray();
+                generator.writeArrayFieldStart("rows");
+                if (rows != null) {
+                    for (Map.Entry<Long, double[]> row : rows.entrySet()) {
+                        generator.writeStartArray();
+                        generator.writeString(Instant.ofEpochMilli(row.getKey()).toString());
+                        for (double value : row.getValue()) {
+                            writeJsonNumber(generator, value);
+                        }
+                        generator.writeEndArray();
+                    }
+                } else {
+                    while (cursor.next()) {
+                        generator.writeStartArray();
+                        generator.writeString(Instant.ofEpochMilli(cursor.getTime()).toString());
+                        for (ESeriesField field : fields) {
+                            float value = cursor.getField(field);
+                            if (Float.isNaN(value)) {
+                                generator.writeNull();
+                            } else {
+                                generator.writeNumber(value);
+                            }
+                        }
+                        generator.writeEndArray();
+                    }
+                }
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+        } else {
+            Writer writer = new OutputStreamWriter(capture, StandardCharsets.US_ASCII);
+            writer.append("time");
+            for (String column : columns) {
+                writer.append(',').append(column);
+            }
+            writer.append('\n');
+            if (rows != null) {
+                for (Map.Entry<Long, double[]> row : rows.entrySet()) {
+                    writer.append(Instant.ofEpochMilli(row.getKey()).toString());
+                    for (double value : row.getValue()) {
+                        writer.append(',');
+                        if (!Double.isNaN(value)) {
+                            writer.append(Double.toString(value));
+                        }
+                    }
+                    writer.append('\n');
+                }
+            } else {
+                while (cursor.next()) {
+                    writer.append(Instant.ofEpochMilli(cursor.getTime()).toString());
+                    for (ESeriesField field : fields) {
+                        float value = cursor.getField(field);
+                        writer.append(',');
+                        if (!Float.isNaN(value)) {
+                            writer.append(Float.toString(value));
+                        }
+                    }
+                    writer.append('\n');
+                }
+            }
+            writer.close();
+        }
+        byte[] body = capture.getCopy();
+        if (body != null) {
+            cache.put(key, body);
+        }
+    }
+
+    // reads the whole rollup periods of sealed days in the range from the rollups, the rest from the records
+    private void downsample(Downsampler downsampler, String sensorId, long from, long to, long bucketMs)
+            throws IOException {
+        ERollupTier tier = null;
+        if (rollups != null) {
+            // the coarsest tier that fits in a bucket
+            for (ERollupTier candidate : ERollupTier.values()) {
+                if ((bucketMs % candidate.getMillis()) == 0) {
+                    tier = candidate;
+                }
+            }
+        }
+        if (tier != null) {
+            long period = tier.getMillis();
+            long rollupFrom = -Math.floorDiv(-from, period) * period;
+            long rollupTo = Math.min(sealedUntil(sensorId), Math.floorDiv(to, period) * period);
+            if (rollupFrom < rollupTo) {
+                downsampler.addAll(cursor(sensorId, from, rollupFrom));
+                downsampler.addRollups(rollups.query(sensorId, tier, rollupFrom, rollupTo));
+                downsampler.addAll(cursor(sensorId, rollupTo, to));
+                return;
+            }
+        }
+        downsampler.addAll(cursor(sensorId, from, to));
+    }
+
+    // reads the records from the store, and those from before the oldest record in the store from the blocks
+    private ISeriesCursor cursor(String sensorId, long from, long to) throws IOException {
+        long split = (archive != null) ? store.getMinTime(sensorId) : Long.MIN_VALUE;
+        if (from >= split) {
+            return store.query(sensorId, from, to);
+        }
+        if (to <= split) {
+            return archive.query(sensorId, from, to);
+        }
+        return new ChainedCursor(archive.query(sensorId, from, split), store.query(sensorId, split, to));
+    }
+
+    // the end of the last sealed day of a sensor, Long.MIN_VALUE if there is none
+    private long sealedUntil(String sensorId) {
+        List<LocalDate> days = (archive != null) ? archive.getDays(sensorId) : Collections.emptyList();
+        if (days.isEmpty()) {
+            return Long.MIN_VALUE;
+        }
+        return days.get(days.size() - 1).plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    }
+
+    private static void writeJsonNumber(JsonGenerator generator, double value) throws IOException {
+        if (Double.isNaN(value)) {
+            generator.writeNull();
+        } else {
+            generator.writeNumber(value);
+        }
+    }
+
+    /**
+     * Parses the raw query string of a URI.
+     *
+     * @param rawQuery the query, may be null
+     * @return the parameters
+     */
+    static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery != null) {
+            for (String pair : rawQuery.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                            URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+                }
+            }
+        }
+        return params;
+    }
+
+    private void sendText(HttpExchange exchange, int status, String text) {
+        try {
+            send(exchange, status, "text/plain; charset=utf-8", text.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            LOG.trace("Caught exception", e);
+        }
+    }
+
+    private void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    public long getRequestCount() {
+        return requestCount.sum();
+    }
+
+    public long getErrorCount() {
+        return errorCount.sum();
+    }
+
+    public long getCacheHitCount() {
+        return cache.getHitCount();
+    }
+
+    public long getCacheMissCount() {
+        return cache.getMissCount();
+    }
+
+    /**
+     * @return the total size of the cached responses
+     */
+    public long getCacheBytes() {
+        return cache.getBytes();
+    }
+
+}
@@ -0,0 +1,110 @@
+package nl.bertriksikken.query;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Small LRU cache of query responses, with a time-to-live so recent windows pick up new readings.
+ *
+ * The cache is bounded by the total size of the bodies. A single response may take at most a quarter of it, larger
+ * responses are not cached.
+ *
+ * This class is thread-safe.
+ */
+final class ResponseCache {
+
+    /**
+     * A cached response.
+     */
+    static final class CachedResponse {
+        private final byte[] body;
+        private final long expires;
+
+        CachedResponse(byte[] body, long expires) {
+            this.body = body;
+            this.expires = expires;
+        }
+
+        byte[] getBody() {
+            return body;
+        }
+    }
+
+    private final long maxBytes;
+    private final long ttlMs;
+    private final LongSupplier clock;
+    // guarded by this
+    private final Map<String, CachedResponse> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private long hitCount;
+    private long missCount;
+
+    ResponseCache(long maxBytes, long ttlMs, LongSupplier clock) {
+        this.maxBytes = maxBytes;
+        this.ttlMs = ttlMs;
+        this.clock = clock;
+    }
+
+    /**
+     * @return the maximum size of a response to cache
+     */
+    int getMaxEntryBytes() {
+        return (int) Math.min(Integer.MAX_VALUE - 8, maxBytes / 4);
+    }
+
+    /**
+     * @return the cached response, null if absent or expired
+     */
+    synchronized CachedResponse get(String key) {
+        CachedResponse entry = entries.get(key);
+        if ((entry != null) && (clock.getAsLong() >= entry.expires)) {
+            remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+        return entry;
+    }
+
+    /**
+     * Caches a response, evicting the least recently used responses to stay within the maximum size.
+     */
+    synchronized void put(String key, byte[] body) {
+        if (body.length > getMaxEntryBytes()) {
+            return;
+        }
+        remove(key);
+        entries.put(key, new CachedResponse(body, clock.getAsLong() + ttlMs));
+        totalBytes += body.length;
+        Iterator<CachedResponse> it = entries.values().iterator();
+        while (totalBytes > maxBytes) {
+            totalBytes -= it.next().body.length;
+            it.remove();
+        }
+    }
+
+    private void remove(String key) {
+        CachedResponse entry = entries.remove(key);
+        if (entry != null) {
+            totalBytes -= entry.body.length;
+        }
+    }
+
+    synchronized long getBytes() {
+        return totalBytes;
+    }
+
+    synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    synchronized long getMissCount() {
+        return missCount;
+    }
+
+}
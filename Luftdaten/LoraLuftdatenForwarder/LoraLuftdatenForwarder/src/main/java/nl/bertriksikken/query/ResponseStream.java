@@ -0,0 +1,71 @@
+package nl.bertriksikken.query;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * The body of a successful response, streamed with chunked transfer encoding.
+ *
+ * The status and headers are only sent on the first write, so the handler can still answer with an error as long as
+ * nothing was written.
+ */
+final class ResponseStream extends OutputStream {
+
+    private final HttpExchange exchange;
+    private final String contentType;
+    private OutputStream body;
+
+    /**
+     * Constructor.
+     *
+     * @param exchange the exchange
+     * @param contentType the content type of the body
+     */
+    ResponseStream(HttpExchange exchange, String contentType) {
+        this.exchange = exchange;
+        this.contentType = contentType;
+    }
+
+    /**
+     * @return true if the status and headers were sent
+     */
+    boolean isCommitted() {
+        return body != null;
+    }
+
+    private OutputStream commit() throws IOException {
+        if (body == null) {
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(200, 0);
+            body = exchange.getResponseBody();
+        }
+        return body;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        commit().write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        commit().write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (body != null) {
+            body.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (body != null) {
+            body.close();
+        }
+    }
+
+}
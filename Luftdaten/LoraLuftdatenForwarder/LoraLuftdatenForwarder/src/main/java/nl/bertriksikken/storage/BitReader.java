@@ -0,0 +1,70 @@
+package nl.bertriksikken.storage;
+
+/**
+ * Reads a stream of bits, most significant bit first, from a byte array.
+ */
+final class BitReader {
+
+    private final byte[] data;
+    private int index;
+    // the next bits, left aligned
+    private long buffer;
+    private int available;
+
+    BitReader(byte[] data, int offset) {
+        this.data = data;
+        this.index = offset;
+    }
+
+    // fills the buffer to at least 57 bits, or to the end of the data
+    private void refill() {
+        while ((available <= 56) && (index < data.length)) {
+            buffer |= (data[index++] & 0xFFL) << (56 - available);
+            available += 8;
+        }
+    }
+
+    /**
+     * Reads an unsigned value.
+     *
+     * @param bits the number of bits (0-64)
+     * @return the value
+     */
+    long read(int bits) {
+        if (bits > 56) {
+            return (read(32) << (bits - 32)) | read(bits - 32);
+        }
+        if (bits == 0) {
+            return 0;
+        }
+        if (available < bits) {
+            refill();
+        }
+        long value = buffer >>> (64 - bits);
+        buffer <<= bits;
+        available -= bits;
+        return value;
+    }
+
+    boolean readBit() {
+        return read(1) != 0;
+    }
+
+    /**
+     * Reads a number in unary: ones closed by a zero.
+     *
+     * @param max the maximum number of ones (1-32), which is not closed by a zero
+     * @return the number of ones
+     */
+    int readUnary(int max) {
+        if (available <= max) {
+            refill();
+        }
+        int ones = Math.min(Math.min(Long.numberOfLeadingZeros(~buffer), max), available);
+        int used = Math.min((ones < max) ? ones + 1 : ones, available);
+        buffer <<= used;
+        available -= used;
+        return ones;
+    }
+
+}
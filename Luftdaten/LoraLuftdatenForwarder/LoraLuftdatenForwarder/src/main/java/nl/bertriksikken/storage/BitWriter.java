@@ -0,0 +1,53 @@
+package nl.bertriksikken.storage;
+
+import java.util.Arrays;
+
+/**
+ * Writes a stream of bits, most significant bit first, into a growing byte array.
+ */
+final class BitWriter {
+
+    private byte[] data;
+    private long bitCount;
+
+    BitWriter(int initialCapacity) {
+        this.data = new byte[Math.max(16, initialCapacity)];
+    }
+
+    /**
+     * Writes the lowest bits of a value.
+     *
+     * @param value the value
+     * @param bits the number of bits (0-64)
+     */
+    void write(long value, int bits) {
+        while (bits > 0) {
+            int index = (int) (bitCount >>> 3);
+            if (index >= data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            int available = 8 - (int) (bitCount & 7);
+            int take = Math.min(available, bits);
+            int b = (int) (value >>> (bits - take)) & ((1 << take) - 1);
+            data[index] |= (byte) (b << (available - take));
+            bitCount += take;
+            bits -= take;
+        }
+    }
+
+    void writeBit(boolean bit) {
+        write(bit ? 1 : 0, 1);
+    }
+
+    long getBitCount() {
+        return bitCount;
+    }
+
+    /**
+     * @return the bytes written so far, the last byte padded with zero bits
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(data, (int) ((bitCount + 7) >>> 3));
+    }
+
+}
@@ -0,0 +1,227 @@
+package nl.bertriksikken.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Archive of sealed, compressed blocks: one file per sensor per day (UTC), with the records of that day encoded by
+ * {@link RiceBlockEncoder}. Archiving is lossy: values are quantized to 0.01 and times are truncated to 1 s, a query
+ * on the archive returns the quantized readings rather than the raw ones in the store.
+ *
+ * <pre>
+ * header (40 bytes): magic, version, fields, count, min time, max time, payload length, CRC32 of the payload
+ * payload: the encoded records, in time order, with times truncated to seconds
+ * </pre>
+ *
+ * A day without records gets an empty block (count 0, no payload), so it counts as sealed as well.
+ *
+ * Blocks are written to a temporary file and moved into place, so a block is either complete or absent.
+ */
+public final class BlockArchive {
+
+    static final int MAGIC = 0x4C424C4B;
+    static final short VERSION = 2;
+    static final int HEADER_SIZE = 40;
+    private static final String BLOCK_EXT = ".blk";
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+
+    private final File dir;
+
+    /**
+     * A record to seal.
+     */
+    private static final class Record {
+        private final long time;
+        private final float[] values = new float[RiceBlockEncoder.FIELDS];
+
+        Record(long time) {
+            this.time = time;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param dir the directory of the archive
+     */
+    public BlockArchive(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Seals the records of one sensor and day from the store into a block, replacing an existing block.
+     *
+     * @param store the store
+     * @param sensorId the sensor id
+     * @param day the day (UTC)
+     * @return the number of records in the block, 0 if there were none and an empty block was written
+     * @throws IOException in case of a problem reading the store or writing the block
+     */
+    public int seal(TimeSeriesStore store, String sensorId, LocalDate day) throws IOException {
+        long from = day.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        long to = day.plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        return write(sensorId, day, store.query(sensorId, from, to));
+    }
+
+    /**
+     * Writes the records of a cursor as the block of one sensor and day.
+     *
+     * @return the number of records in the block, 0 if there were none and an empty block was written
+     */
+    int write(String sensorId, LocalDate day, ISeriesCursor cursor) throws IOException {
+        // time order gives the best compression and lets a scan stop early
+        List<Record> records = new ArrayList<>();
+        while (cursor.next()) {
+            Record record = new Record(cursor.getTime());
+            for (ESeriesField field : ESeriesField.values()) {
+                record.values[field.ordinal()] = cursor.getField(field);
+            }
+            records.add(record);
+        }
+        records.sort(Comparator.comparingLong(record -> record.time));
+        RiceBlockEncoder encoder = new RiceBlockEncoder(records.size());
+        for (Record record : records) {
+            encoder.append(record.time, record.values);
+        }
+        byte[] payload = encoder.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putShort(VERSION).putShort((short) RiceBlockEncoder.FIELDS).putInt(records.size());
+        if (records.isEmpty()) {
+            header.putLong(Long.MAX_VALUE).putLong(Long.MIN_VALUE);
+        } else {
+            header.putLong(records.get(0).time).putLong(records.get(records.size() - 1).time);
+        }
+        header.putInt(payload.length).putInt((int) crc.getValue());
+
+        File sensorDir = new File(dir, sensorId);
+        if (!sensorDir.isDirectory() && !sensorDir.mkdirs()) {
+            throw new IOException("Could not create directory " + sensorDir);
+        }
+        File file = new File(sensorDir, day.format(DAY_FORMAT) + BLOCK_EXT);
+        File tmp = new File(sensorDir, file.getName() + ".tmp");
+        byte[] bytes = Arrays.copyOf(header.array(), HEADER_SIZE + payload.length);
+        System.arraycopy(payload, 0, bytes, HEADER_SIZE, payload.length);
+        Files.write(tmp.toPath(), bytes);
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return records.size();
+    }
+
+    /**
+     * Opens a cursor over the archived records of a sensor.
+     *
+     * @param sensorId the sensor id
+     * @param from the start of the range (ms since epoch, inclusive)
+     * @param to the end of the range (ms since epoch, exclusive)
+     * @return the cursor, returning the records in time order
+     */
+    public ISeriesCursor query(String sensorId, long from, long to) {
+        List<File> files = new ArrayList<>();
+        for (LocalDate day : getDays(sensorId)) {
+            long dayStart = day.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+            if ((dayStart < to) && (dayStart + 86_400_000L > from)) {
+                files.add(blockFile(sensorId, day));
+            }
+        }
+        return new BlockCursor(files, from, to);
+    }
+
+    /**
+     * @param sensorId the sensor id
+     * @return the days with a block, in order
+     */
+    public List<LocalDate> getDays(String sensorId) {
+        List<LocalDate> days = new ArrayList<>();
+        String[] names = new File(dir, sensorId).list((d, name) -> name.endsWith(BLOCK_EXT));
+        if (names != null) {
+            Arrays.sort(names);
+            for (String name : names) {
+                days.add(LocalDate.parse(name.substring(0, name.length() - BLOCK_EXT.length()), DAY_FORMAT));
+            }
+        }
+        return days;
+    }
+
+    /**
+     * Deletes the blocks of a sensor before a day.
+     *
+     * @param sensorId the sensor id
+     * @param before the first day to keep
+     * @return the number of deleted blocks
+     * @throws IOException in case a block could not be deleted
+     */
+    public int purge(String sensorId, LocalDate before) throws IOException {
+        int deleted = 0;
+        for (LocalDate day : getDays(sensorId)) {
+            if (day.isBefore(before)) {
+                Files.delete(blockFile(sensorId, day).toPath());
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * @return the ids of all sensors in the archive, sorted
+     */
+    public List<String> getSensorIds() {
+        List<String> ids = new ArrayList<>();
+        File[] dirs = dir.listFiles(File::isDirectory);
+        if (dirs != null) {
+            for (File sensorDir : dirs) {
+                ids.add(sensorDir.getName());
+            }
+            Collections.sort(ids);
+        }
+        return ids;
+    }
+
+    File blockFile(String sensorId, LocalDate day) {
+        return new File(new File(dir, sensorId), day.format(DAY_FORMAT) + BLOCK_EXT);
+    }
+
+    /**
+     * Reads and verifies a block.
+     *
+     * @param file the block file
+     * @return a decoder over its records
+     * @throws IOException in case of a problem reading the file, or if it is corrupt
+     */
+    static RiceBlockDecoder readBlock(File file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        ByteBuffer header = ByteBuffer.wrap(bytes);
+        if ((bytes.length < HEADER_SIZE) || (header.getInt() != MAGIC) || (header.getShort() != VERSION)
+                || (header.getShort() != RiceBlockEncoder.FIELDS)) {
+            throw new IOException("Not a block file: " + file);
+        }
+        int count = header.getInt();
+        header.getLong();
+        header.getLong();
+        int length = header.getInt();
+        int expectedCrc = header.getInt();
+        if (bytes.length != HEADER_SIZE + length) {
+            throw new IOException("Truncated block file: " + file);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, HEADER_SIZE, length);
+        if ((int) crc.getValue() != expectedCrc) {
+            throw new IOException("Corrupt block file: " + file);
+        }
+        return new RiceBlockDecoder(bytes, HEADER_SIZE, count);
+    }
+
+}
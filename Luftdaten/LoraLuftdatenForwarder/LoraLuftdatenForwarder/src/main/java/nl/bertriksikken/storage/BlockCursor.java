@@ -0,0 +1,65 @@
+package nl.bertriksikken.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * Cursor over the records of a sequence of blocks in a time range, decoding one block at a time.
+ */
+final class BlockCursor implements ISeriesCursor {
+
+    private final List<File> files;
+    private final long from;
+    private final long to;
+    private int fileIndex;
+    private RiceBlockDecoder decoder;
+
+    BlockCursor(List<File> files, long from, long to) {
+        this.files = files;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws UncheckedIOException in case a block cannot be read
+     */
+    @Override
+    public boolean next() {
+        while (true) {
+            while ((decoder != null) && decoder.next()) {
+                long time = decoder.getTime();
+                if (time >= to) {
+                    // records in a block are in time order
+                    break;
+                }
+                if (time >= from) {
+                    return true;
+                }
+            }
+            if (fileIndex >= files.size()) {
+                decoder = null;
+                return false;
+            }
+            try {
+                decoder = BlockArchive.readBlock(files.get(fileIndex++));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @Override
+    public long getTime() {
+        return decoder.getTime();
+    }
+
+    @Override
+    public float getField(ESeriesField field) {
+        return decoder.getField(field);
+    }
+
+}
@@ -0,0 +1,227 @@
+package nl.bertriksikken.storage;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Background compaction of the store, running at a fixed interval:
+ * <ul>
+ * <li>finished days (UTC) are sealed into blocks, after writing their hourly and daily rollups
+ * <li>raw segments, blocks and rollups are deleted when they are older than the retention of their tier
+ * </ul>
+ *
+ * A day counts as sealed once its block exists (an empty one for a day without readings), a day that failed to seal
+ * is retried on the next run. Raw segments are only deleted up to the first day that is not sealed yet, and blocks are
+ * only deleted once the raw segments of their day are gone, otherwise the day would be sealed again on the next run.
+ * So the retention of the blocks is at least that of the raw segments. A retention of 0 days keeps a tier forever.
+ */
+public final class Compactor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Compactor.class);
+    // readings received just before midnight can still be on their way to the store
+    private static final long SEAL_DELAY_MS = 600_000L;
+
+    private final TimeSeriesStore store;
+    private final BlockArchive archive;
+    private final RollupArchive rollups;
+    private final int rawDays;
+    private final int blockDays;
+    private final int hourlyDays;
+    private final int dailyDays;
+    private final LongAdder runCount = new LongAdder();
+    private final LongAdder sealedCount = new LongAdder();
+    private final LongAdder sealedRecordCount = new LongAdder();
+    private final LongAdder purgedCount = new LongAdder();
+    private volatile long lastRunMillis;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * Constructor.
+     *
+     * @param store the store with the raw readings
+     * @param archive the archive for the sealed blocks
+     * @param rollups the archive for the rollups
+     * @param rawDays the retention of the raw segments (days, 0 to keep forever)
+     * @param blockDays the retention of the blocks (days, 0 to keep forever)
+     * @param hourlyDays the retention of the hourly rollups (days, 0 to keep forever)
+     * @param dailyDays the retention of the daily rollups (days, 0 to keep forever)
+     */
+    public Compactor(TimeSeriesStore store, BlockArchive archive, RollupArchive rollups, int rawDays, int blockDays,
+            int hourlyDays, int dailyDays) {
+        this.store = store;
+        this.archive = archive;
+        this.rollups = rollups;
+        this.rawDays = rawDays;
+        this.blockDays = blockDays;
+        this.hourlyDays = hourlyDays;
+        this.dailyDays = dailyDays;
+    }
+
+    /**
+     * Starts running the compaction, the first run starts immediately.
+     *
+     * @param interval the time between the end of a run and the start of the next
+     */
+    public void start(Duration interval) {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "compaction"));
+        executor.scheduleWithFixedDelay(this::run, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    // runs on the executor, in an exception safe manner
+    private void run() {
+        try {
+            runOnce(Instant.now());
+        } catch (Exception e) {
+            LOG.trace("Caught exception", e);
+            LOG.warn("Compaction failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Seals all finished days and applies the retention of every tier.
+     *
+     * @param now the current time
+     */
+    void runOnce(Instant now) {
+        long startNanos = System.nanoTime();
+        LocalDate today = now.atOffset(ZoneOffset.UTC).toLocalDate();
+        LocalDate finished = now.minusMillis(SEAL_DELAY_MS).atOffset(ZoneOffset.UTC).toLocalDate();
+        for (String sensorId : store.getSensorIds()) {
+            try {
+                LocalDate unsealed = seal(sensorId, finished);
+                if (rawDays > 0) {
+                    LocalDate before = today.minusDays(rawDays);
+                    if (unsealed.isBefore(before)) {
+                        before = unsealed;
+                    }
+                    purged(store.purge(sensorId, startOf(before)), "segment(s)", sensorId);
+                }
+            } catch (IOException e) {
+                LOG.warn("Failed to compact store of {}: {}", sensorId, e.getMessage());
+            }
+        }
+        for (String sensorId : archive.getSensorIds()) {
+            try {
+                if (blockDays > 0) {
+                    purged(archive.purge(sensorId, blockHorizon(sensorId, today)), "block(s)", sensorId);
+                }
+                if (hourlyDays > 0) {
+                    purged(rollups.purge(sensorId, ERollupTier.HOUR, today.minusDays(hourlyDays)),
+                            "hourly rollup file(s)", sensorId);
+                }
+                if (dailyDays > 0) {
+                    purged(rollups.purge(sensorId, ERollupTier.DAY, today.minusDays(dailyDays)),
+                            "daily rollup file(s)", sensorId);
+                }
+            } catch (IOException e) {
+                LOG.warn("Failed to apply retention to archive of {}: {}", sensorId, e.getMessage());
+            }
+        }
+        runCount.increment();
+        lastRunMillis = (System.nanoTime() - startNanos) / 1_000_000L;
+    }
+
+    // seals the days of a sensor before a day that have no block yet, returns the first day that is not sealed
+    private LocalDate seal(String sensorId, LocalDate end) throws IOException {
+        long minTime = store.getMinTime(sensorId);
+        if (minTime == Long.MAX_VALUE) {
+            return end;
+        }
+        LocalDate unsealed = end;
+        LocalDate first = Instant.ofEpochMilli(minTime).atOffset(ZoneOffset.UTC).toLocalDate();
+        for (LocalDate day = first; day.isBefore(end); day = day.plusDays(1)) {
+            if (archive.blockFile(sensorId, day).exists()) {
+                continue;
+            }
+            try {
+                // rollups first, the block marks the day as done
+                long from = startOf(day);
+                long to = startOf(day.plusDays(1));
+                rollups.write(sensorId, day, store.query(sensorId, from, to));
+                int count = archive.seal(store, sensorId, day);
+                if (count > 0) {
+                    LOG.info("Sealed {} readings of {} on {}", count, sensorId, day);
+                    sealedCount.increment();
+                    sealedRecordCount.add(count);
+                }
+            } catch (IOException e) {
+                LOG.warn("Failed to seal {} on {}: {}", sensorId, day, e.getMessage());
+                if (day.isBefore(unsealed)) {
+                    unsealed = day;
+                }
+            }
+        }
+        return unsealed;
+    }
+
+    // the first day of blocks to keep, not after the first day still in the store
+    private LocalDate blockHorizon(String sensorId, LocalDate today) throws IOException {
+        LocalDate before = today.minusDays(blockDays);
+        long minTime = store.getMinTime(sensorId);
+        if (minTime != Long.MAX_VALUE) {
+            LocalDate first = Instant.ofEpochMilli(minTime).atOffset(ZoneOffset.UTC).toLocalDate();
+            if (first.isBefore(before)) {
+                before = first;
+            }
+        }
+        return before;
+    }
+
+    private void purged(int count, String what, String sensorId) {
+        if (count > 0) {
+            LOG.info("Deleted {} {} of {}", count, what, sensorId);
+            purgedCount.add(count);
+        }
+    }
+
+    private static long startOf(LocalDate day) {
+        return day.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    }
+
+    public long getRunCount() {
+        return runCount.sum();
+    }
+
+    /**
+     * @return the number of sealed days
+     */
+    public long getSealedCount() {
+        return sealedCount.sum();
+    }
+
+    public long getSealedRecordCount() {
+        return sealedRecordCount.sum();
+    }
+
+    /**
+     * @return the number of files deleted by retention
+     */
+    public long getPurgedCount() {
+        return purgedCount.sum();
+    }
+
+    /**
+     * @return the duration of the last run (ms)
+     */
+    public long getLastRunMillis() {
+        return lastRunMillis;
+    }
+
+}
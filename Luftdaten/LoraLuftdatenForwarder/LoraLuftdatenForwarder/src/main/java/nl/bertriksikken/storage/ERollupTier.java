@@ -0,0 +1,43 @@
+package nl.bertriksikken.storage;
+
+/**
+ * A resolution of pre-computed rollups.
+ */
+public enum ERollupTier {
+
+	HOUR("hour", 3_600_000L),
+	DAY("day", 86_400_000L);
+
+	private final String id;
+	private final long millis;
+
+	ERollupTier(String id, long millis) {
+		this.id = id;
+		this.millis = millis;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @return the length of a rollup period (ms)
+	 */
+	public long getMillis() {
+		return millis;
+	}
+
+	/**
+	 * @param id the id, e.g. "hour"
+	 * @return the tier, null if unknown
+	 */
+	public static ERollupTier fromId(String id) {
+		for (ERollupTier tier : values()) {
+			if (tier.id.equals(id)) {
+				return tier;
+			}
+		}
+		return null;
+	}
+
+}
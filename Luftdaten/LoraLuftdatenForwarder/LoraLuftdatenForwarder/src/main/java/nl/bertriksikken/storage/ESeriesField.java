@@ -0,0 +1,44 @@
+package nl.bertriksikken.storage;
+
+/**
+ * A value field of the stored records.
+ */
+public enum ESeriesField {
+
+	PM1("pm1", Segment.FIELD_PM1),
+	PM2_5("pm2_5", Segment.FIELD_PM2_5),
+	PM10("pm10", Segment.FIELD_PM10),
+	TEMP("temp", Segment.FIELD_TEMP),
+	RH("rh", Segment.FIELD_RH),
+	PRESSURE("pressure", Segment.FIELD_PRESSURE);
+
+	private final String id;
+	private final int index;
+
+	ESeriesField(String id, int index) {
+		this.id = id;
+		this.index = index;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	int getIndex() {
+		return index;
+	}
+
+	/**
+	 * @param id the id, e.g. "pm2_5"
+	 * @return the field, null if unknown
+	 */
+	public static ESeriesField fromId(String id) {
+		for (ESeriesField field : values()) {
+			if (field.id.equals(id)) {
+				return field;
+			}
+		}
+		return null;
+	}
+
+}
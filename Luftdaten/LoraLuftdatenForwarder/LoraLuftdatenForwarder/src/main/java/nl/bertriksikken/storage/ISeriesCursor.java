@@ -0,0 +1,26 @@
+package nl.bertriksikken.storage;
+
+/**
+ * Cursor over stored records of one sensor. The getters return the fields of the current record.
+ */
+public interface ISeriesCursor {
+
+    /**
+     * Moves to the next record.
+     *
+     * @return false if there are no more records
+     */
+    boolean next();
+
+    /**
+     * @return the time of the current record (ms since epoch)
+     */
+    long getTime();
+
+    /**
+     * @param field the field
+     * @return the value of the field in the current record, NaN if absent
+     */
+    float getField(ESeriesField field);
+
+}
@@ -0,0 +1,82 @@
+package nl.bertriksikken.storage;
+
+/**
+ * Streaming decoder for records encoded by {@link RiceBlockEncoder}, a flyweight like {@link SeriesCursor}.
+ */
+final class RiceBlockDecoder implements ISeriesCursor {
+
+    private final BitReader reader;
+    private final int count;
+    private final int[] hundredths = new int[RiceBlockEncoder.FIELDS];
+    private final long[] sums = new long[RiceBlockEncoder.STREAMS];
+    private final int[] counts = new int[RiceBlockEncoder.STREAMS];
+    private final float[] values = new float[RiceBlockEncoder.FIELDS];
+    // in seconds
+    private long time;
+    private long delta;
+    private int index;
+
+    /**
+     * Constructor.
+     *
+     * @param data the encoded data
+     * @param offset the offset of the encoded records
+     * @param count the number of encoded records
+     */
+    RiceBlockDecoder(byte[] data, int offset, int count) {
+        this.reader = new BitReader(data, offset);
+        this.count = count;
+        RiceBlockEncoder.initStatistics(sums, counts);
+    }
+
+    @Override
+    public boolean next() {
+        if (index >= count) {
+            return false;
+        }
+        if (index == 0) {
+            time = reader.read(64);
+            for (int i = 0; i < hundredths.length; i++) {
+                hundredths[i] = (int) reader.read(32);
+                values[i] = RiceBlockEncoder.fromHundredths(hundredths[i]);
+            }
+        } else {
+            delta += readRice(0);
+            time += delta;
+            for (int i = 0; i < hundredths.length; i++) {
+                long difference = readRice(i + 1);
+                if (difference != 0) {
+                    hundredths[i] = (int) (hundredths[i] + difference);
+                    values[i] = RiceBlockEncoder.fromHundredths(hundredths[i]);
+                }
+            }
+        }
+        index++;
+        return true;
+    }
+
+    // reads an adaptive Rice code, see RiceBlockEncoder
+    private long readRice(int stream) {
+        int k = RiceBlockEncoder.riceParameter(sums[stream], counts[stream]);
+        int quotient = reader.readUnary(RiceBlockEncoder.ESCAPE);
+        long zigzag;
+        if (quotient < RiceBlockEncoder.ESCAPE) {
+            zigzag = ((long) quotient << k) | reader.read(k);
+            RiceBlockEncoder.updateStatistics(sums, counts, stream, zigzag);
+        } else {
+            zigzag = reader.read(64);
+        }
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    @Override
+    public long getTime() {
+        return time * 1000L;
+    }
+
+    @Override
+    public float getField(ESeriesField field) {
+        return values[field.ordinal()];
+    }
+
+}
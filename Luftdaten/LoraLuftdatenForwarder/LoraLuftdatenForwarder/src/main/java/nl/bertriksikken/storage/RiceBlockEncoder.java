@@ -0,0 +1,145 @@
+package nl.bertriksikken.storage;
+
+/**
+ * Encodes records as adaptive Rice codes of integer differences. Only the delta-of-delta timestamps follow the
+ * Gorilla time series database, the values are quantized and coded differently.
+ *
+ * <ul>
+ * <li>timestamps in seconds as delta-of-delta. Sub-second receive times are only jitter at intervals of minutes, so
+ * they are not kept.
+ * <li>values as whole hundredths, as the difference with the previous value of the same field. The sensors report
+ * hundredths, so the encoding is exact at that resolution. An absent value is a reserved integer.
+ * </ul>
+ *
+ * Every difference is zigzag encoded (0, -1, 1, -2, ... to 0, 1, 2, 3, ...) and written as an adaptive Rice code: the
+ * quotient by 2^k in unary, then the k low bits. The parameter k follows the mean of the recent values of the same
+ * stream, as in LOCO-I, so small steps cost a few bits and a quiet field costs one bit. A quotient of 16 or more is
+ * written as an escape followed by the 64-bit value, and is left out of the statistics.
+ *
+ * Values are differences rather than differences of differences: the readings of a sensor are close to a random walk,
+ * for which the second difference is twice as spread out as the first and costs a bit more per value.
+ */
+final class RiceBlockEncoder {
+
+    static final int FIELDS = ESeriesField.values().length;
+    /** the integer of an absent value */
+    static final int ABSENT = Integer.MIN_VALUE;
+    /** the quotients of this and above are escaped */
+    static final int ESCAPE = 16;
+    /** the number of values after which the statistics of a stream are halved */
+    static final int RESET = 32;
+    /** the streams with statistics: the time, then the fields */
+    static final int STREAMS = FIELDS + 1;
+
+    private final BitWriter writer;
+    private final int[] previous = new int[FIELDS];
+    private final long[] sums = new long[STREAMS];
+    private final int[] counts = new int[STREAMS];
+    private long previousTime;
+    private long previousDelta;
+    private int count;
+
+    RiceBlockEncoder(int expectedRecords) {
+        this.writer = new BitWriter(4 * expectedRecords);
+        initStatistics(sums, counts);
+    }
+
+    static void initStatistics(long[] sums, int[] counts) {
+        for (int i = 0; i < STREAMS; i++) {
+            sums[i] = 4;
+            counts[i] = 1;
+        }
+    }
+
+    /**
+     * Converts a value to whole hundredths.
+     */
+    static int toHundredths(float value) {
+        if (Float.isNaN(value)) {
+            return ABSENT;
+        }
+        return (int) Math.max(Integer.MIN_VALUE + 1, Math.min(Integer.MAX_VALUE, Math.round(value * 100.0)));
+    }
+
+    /**
+     * Converts whole hundredths back to a value.
+     */
+    static float fromHundredths(int hundredths) {
+        return (hundredths == ABSENT) ? Float.NaN : (float) (hundredths / 100.0);
+    }
+
+    /**
+     * Calculates the Rice parameter of a stream from its statistics.
+     */
+    static int riceParameter(long sum, int count) {
+        int k = 0;
+        while (((long) count << k) < sum) {
+            k++;
+        }
+        return k;
+    }
+
+    /**
+     * Encodes a record.
+     *
+     * @param time the time (ms since epoch), stored in seconds
+     * @param values the values, in the order of {@link ESeriesField}
+     */
+    void append(long timeMs, float[] values) {
+        long time = Math.floorDiv(timeMs, 1000L);
+        if (count == 0) {
+            writer.write(time, 64);
+            for (int i = 0; i < FIELDS; i++) {
+                previous[i] = toHundredths(values[i]);
+                writer.write(previous[i], 32);
+            }
+        } else {
+            long delta = time - previousTime;
+            writeRice(0, delta - previousDelta);
+            previousDelta = delta;
+            for (int i = 0; i < FIELDS; i++) {
+                int value = toHundredths(values[i]);
+                writeRice(i + 1, (long) value - previous[i]);
+                previous[i] = value;
+            }
+        }
+        previousTime = time;
+        count++;
+    }
+
+    private void writeRice(int stream, long value) {
+        long zigzag = (value << 1) ^ (value >> 63);
+        int k = riceParameter(sums[stream], counts[stream]);
+        long quotient = zigzag >>> k;
+        if (quotient < ESCAPE) {
+            // the quotient in unary: ones closed by a zero
+            writer.write(((1L << quotient) - 1) << 1, (int) quotient + 1);
+            writer.write(zigzag, k);
+            updateStatistics(sums, counts, stream, zigzag);
+        } else {
+            // an outlier, e.g. the first interval or a gap, which does not count for the statistics
+            writer.write((1L << ESCAPE) - 1, ESCAPE);
+            writer.write(zigzag, 64);
+        }
+    }
+
+    static void updateStatistics(long[] sums, int[] counts, int stream, long zigzag) {
+        sums[stream] += zigzag;
+        if (++counts[stream] == RESET) {
+            sums[stream] >>= 1;
+            counts[stream] >>= 1;
+        }
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the encoded records
+     */
+    byte[] toByteArray() {
+        return writer.toByteArray();
+    }
+
+}
@@ -0,0 +1,101 @@
+package nl.bertriksikken.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The aggregates of the records of one sensor in one rollup period: count, sum, minimum and maximum per field.
+ *
+ * Absent (NaN) values are left out, a field without values has a count of 0 and NaN aggregates.
+ */
+public final class Rollup {
+
+    static final int FIELDS = ESeriesField.values().length;
+    // start, then count, sum, min, max per field
+    static final int RECORD_SIZE = 8 + FIELDS * (4 + 8 + 4 + 4);
+
+    private final long start;
+    private final int[] counts = new int[FIELDS];
+    private final double[] sums = new double[FIELDS];
+    private final float[] mins = new float[FIELDS];
+    private final float[] maxs = new float[FIELDS];
+
+    Rollup(long start) {
+        this.start = start;
+        for (int i = 0; i < FIELDS; i++) {
+            mins[i] = Float.POSITIVE_INFINITY;
+            maxs[i] = Float.NEGATIVE_INFINITY;
+        }
+    }
+
+    /**
+     * Adds the current record of a cursor.
+     */
+    void add(ISeriesCursor cursor) {
+        for (ESeriesField field : ESeriesField.values()) {
+            float value = cursor.getField(field);
+            if (!Float.isNaN(value)) {
+                int i = field.getIndex();
+                counts[i]++;
+                sums[i] += value;
+                mins[i] = Math.min(mins[i], value);
+                maxs[i] = Math.max(maxs[i], value);
+            }
+        }
+    }
+
+    void write(ByteBuffer buffer) {
+        buffer.putLong(start);
+        for (int i = 0; i < FIELDS; i++) {
+            buffer.putInt(counts[i]).putDouble(sums[i]).putFloat(mins[i]).putFloat(maxs[i]);
+        }
+    }
+
+    static Rollup read(ByteBuffer buffer) {
+        Rollup rollup = new Rollup(buffer.getLong());
+        for (int i = 0; i < FIELDS; i++) {
+            rollup.counts[i] = buffer.getInt();
+            rollup.sums[i] = buffer.getDouble();
+            rollup.mins[i] = buffer.getFloat();
+            rollup.maxs[i] = buffer.getFloat();
+        }
+        return rollup;
+    }
+
+    /**
+     * @return the start of the period (ms since epoch)
+     */
+    public long getStart() {
+        return start;
+    }
+
+    public int getCount(ESeriesField field) {
+        return counts[field.getIndex()];
+    }
+
+    public double getSum(ESeriesField field) {
+        return sums[field.getIndex()];
+    }
+
+    /**
+     * @return the mean, NaN if there were no values
+     */
+    public double getMean(ESeriesField field) {
+        int count = counts[field.getIndex()];
+        return (count > 0) ? sums[field.getIndex()] / count : Double.NaN;
+    }
+
+    /**
+     * @return the minimum, NaN if there were no values
+     */
+    public float getMin(ESeriesField field) {
+        return (counts[field.getIndex()] > 0) ? mins[field.getIndex()] : Float.NaN;
+    }
+
+    /**
+     * @return the maximum, NaN if there were no values
+     */
+    public float getMax(ESeriesField field) {
+        return (counts[field.getIndex()] > 0) ? maxs[field.getIndex()] : Float.NaN;
+    }
+
+}
@@ -0,0 +1,216 @@
+package nl.bertriksikken.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Archive of pre-computed rollups: one file per sensor, tier and month (UTC), next to the blocks of the sensor.
+ *
+ * <pre>
+ * header (16 bytes): magic, version, fields, count, CRC32 of the records
+ * record (128 bytes): start time, then count, sum, min, max per field
+ * </pre>
+ *
+ * The rollups of a day are written when the day is sealed, replacing earlier rollups of that day. Files are rewritten
+ * to a temporary file and moved into place, so readers never see a partial file.
+ */
+public final class RollupArchive {
+
+    static final int MAGIC = 0x4C524C50;
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    private static final String ROLLUP_EXT = ".rlp";
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+
+    private final File dir;
+
+    /**
+     * Constructor.
+     *
+     * @param dir the directory of the archive, usually the same as for the {@link BlockArchive}
+     */
+    public RollupArchive(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Computes the rollups of all tiers for one sensor and day, replacing existing rollups of that day.
+     *
+     * @param sensorId the sensor id
+     * @param day the day (UTC)
+     * @param cursor the records of the day, in any order
+     * @return the number of hourly rollups, 0 if there were no records and nothing was written
+     * @throws IOException in case of a problem reading or writing the rollup files
+     */
+    public synchronized int write(String sensorId, LocalDate day, ISeriesCursor cursor) throws IOException {
+        long dayStart = day.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        long dayEnd = dayStart + ERollupTier.DAY.getMillis();
+        List<Map<Long, Rollup>> tiers = new ArrayList<>();
+        for (int i = 0; i < ERollupTier.values().length; i++) {
+            tiers.add(new TreeMap<>());
+        }
+        while (cursor.next()) {
+            long time = cursor.getTime();
+            if ((time < dayStart) || (time >= dayEnd)) {
+                continue;
+            }
+            for (ERollupTier tier : ERollupTier.values()) {
+                long start = Math.floorDiv(time, tier.getMillis()) * tier.getMillis();
+                tiers.get(tier.ordinal()).computeIfAbsent(start, Rollup::new).add(cursor);
+            }
+        }
+        if (tiers.get(ERollupTier.HOUR.ordinal()).isEmpty()) {
+            return 0;
+        }
+
+        File sensorDir = new File(dir, sensorId);
+        if (!sensorDir.isDirectory() && !sensorDir.mkdirs()) {
+            throw new IOException("Could not create directory " + sensorDir);
+        }
+        for (ERollupTier tier : ERollupTier.values()) {
+            File file = rollupFile(sensorId, tier, YearMonth.from(day));
+            List<Rollup> rollups = new ArrayList<>();
+            if (file.exists()) {
+                for (Rollup rollup : readFile(file)) {
+                    if ((rollup.getStart() < dayStart) || (rollup.getStart() >= dayEnd)) {
+                        rollups.add(rollup);
+                    }
+                }
+            }
+            rollups.addAll(tiers.get(tier.ordinal()).values());
+            rollups.sort(Comparator.comparingLong(Rollup::getStart));
+            writeFile(file, rollups);
+        }
+        return tiers.get(ERollupTier.HOUR.ordinal()).size();
+    }
+
+    /**
+     * Reads the rollups of a sensor in a time range.
+     *
+     * @param sensorId the sensor id
+     * @param tier the tier
+     * @param from the start of the range (ms since epoch, inclusive), compared to the start of the rollups
+     * @param to the end of the range (ms since epoch, exclusive), compared to the start of the rollups
+     * @return the rollups, in time order
+     * @throws IOException in case of a problem reading the rollup files, or if one is corrupt
+     */
+    public List<Rollup> query(String sensorId, ERollupTier tier, long from, long to) throws IOException {
+        List<Rollup> rollups = new ArrayList<>();
+        for (YearMonth month : getMonths(sensorId, tier)) {
+            long monthStart = month.atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+            long monthEnd = month.plusMonths(1).atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+            if ((monthStart >= to) || (monthEnd <= from)) {
+                continue;
+            }
+            for (Rollup rollup : readFile(rollupFile(sensorId, tier, month))) {
+                if ((rollup.getStart() >= from) && (rollup.getStart() < to)) {
+                    rollups.add(rollup);
+                }
+            }
+        }
+        return rollups;
+    }
+
+    /**
+     * Deletes the rollup files of a sensor that only cover days before a day.
+     *
+     * @param sensorId the sensor id
+     * @param tier the tier
+     * @param before the first day to keep
+     * @return the number of deleted files
+     * @throws IOException in case a file could not be deleted
+     */
+    public synchronized int purge(String sensorId, ERollupTier tier, LocalDate before) throws IOException {
+        int deleted = 0;
+        for (YearMonth month : getMonths(sensorId, tier)) {
+            if (!month.plusMonths(1).atDay(1).isAfter(before)) {
+                Files.delete(rollupFile(sensorId, tier, month).toPath());
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * @param sensorId the sensor id
+     * @param tier the tier
+     * @return the months with a rollup file, in order
+     */
+    public List<YearMonth> getMonths(String sensorId, ERollupTier tier) {
+        List<YearMonth> months = new ArrayList<>();
+        String prefix = tier.getId() + "-";
+        String[] names = new File(dir, sensorId)
+                .list((d, name) -> name.startsWith(prefix) && name.endsWith(ROLLUP_EXT));
+        if (names != null) {
+            Arrays.sort(names);
+            for (String name : names) {
+                try {
+                    months.add(YearMonth.parse(name.substring(prefix.length(), name.length() - ROLLUP_EXT.length()),
+                            MONTH_FORMAT));
+                } catch (DateTimeParseException e) {
+                    // not one of ours
+                }
+            }
+        }
+        return months;
+    }
+
+    File rollupFile(String sensorId, ERollupTier tier, YearMonth month) {
+        return new File(new File(dir, sensorId), tier.getId() + "-" + month.format(MONTH_FORMAT) + ROLLUP_EXT);
+    }
+
+    private static List<Rollup> readFile(File file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        if ((buffer.remaining() < HEADER_SIZE) || (buffer.getInt() != MAGIC) || (buffer.getShort() != VERSION)
+                || (buffer.getShort() != Rollup.FIELDS)) {
+            throw new IOException("Not a rollup file: " + file);
+        }
+        int count = buffer.getInt();
+        int expectedCrc = buffer.getInt();
+        if (buffer.remaining() != count * Rollup.RECORD_SIZE) {
+            throw new IOException("Truncated rollup file: " + file);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_SIZE, buffer.remaining());
+        if ((int) crc.getValue() != expectedCrc) {
+            throw new IOException("Corrupt rollup file: " + file);
+        }
+        List<Rollup> rollups = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            rollups.add(Rollup.read(buffer));
+        }
+        return rollups;
+    }
+
+    private static void writeFile(File file, List<Rollup> rollups) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + rollups.size() * Rollup.RECORD_SIZE);
+        buffer.position(HEADER_SIZE);
+        for (Rollup rollup : rollups) {
+            rollup.write(buffer);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_SIZE, buffer.capacity() - HEADER_SIZE);
+        buffer.putInt(0, MAGIC).putShort(4, VERSION).putShort(6, (short) Rollup.FIELDS).putInt(8, rollups.size())
+                .putInt(12, (int) crc.getValue());
+
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        Files.write(tmp.toPath(), buffer.array());
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+}
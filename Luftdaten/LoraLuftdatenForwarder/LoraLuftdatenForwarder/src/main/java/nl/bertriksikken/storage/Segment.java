@@ -0,0 +1,209 @@
+package nl.bertriksikken.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * One memory-mapped segment file with fixed-width records of one sensor.
+ *
+ * <pre>
+ * header (64 bytes): magic, version, record size, capacity, count, min time, max time, sorted flag
+ * record (32 bytes): time (ms since epoch), PM1, PM2.5, PM10, temperature, humidity, pressure (floats, NaN if absent)
+ * </pre>
+ *
+ * The header doubles as the time index of the segment: the min/max time allow skipping the segment in a range scan,
+ * and as long as the records were appended in time order, a binary search finds the start of the range. The count is
+ * written after the record, so an interrupted append is not visible.
+ *
+ * Appending is not thread-safe, reading by index is safe concurrently with appending beyond the index.
+ */
+final class Segment {
+
+    static final int MAGIC = 0x4C554654;
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 32;
+
+    private static final int OFFSET_CAPACITY = 8;
+    private static final int OFFSET_COUNT = 12;
+    private static final int OFFSET_MIN_TIME = 16;
+    private static final int OFFSET_MAX_TIME = 24;
+    private static final int OFFSET_SORTED = 32;
+
+    static final int FIELD_PM1 = 0;
+    static final int FIELD_PM2_5 = 1;
+    static final int FIELD_PM10 = 2;
+    static final int FIELD_TEMP = 3;
+    static final int FIELD_RH = 4;
+    static final int FIELD_PRESSURE = 5;
+
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private int count;
+    private long minTime;
+    private long maxTime;
+    private boolean sorted;
+
+    private Segment(File file, MappedByteBuffer buffer, int capacity) {
+        this.file = file;
+        this.buffer = buffer;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Creates a new, empty segment.
+     *
+     * @param file the file
+     * @param capacity the maximum number of records
+     * @return the segment
+     * @throws IOException in case of a problem creating the file
+     */
+    static Segment create(File file, int capacity) throws IOException {
+        Segment segment = new Segment(file, map(file, capacity), capacity);
+        MappedByteBuffer buffer = segment.buffer;
+        buffer.putInt(0, MAGIC);
+        buffer.putShort(4, VERSION);
+        buffer.putShort(6, (short) RECORD_SIZE);
+        buffer.putInt(OFFSET_CAPACITY, capacity);
+        buffer.putInt(OFFSET_COUNT, 0);
+        buffer.putLong(OFFSET_MIN_TIME, Long.MAX_VALUE);
+        buffer.putLong(OFFSET_MAX_TIME, Long.MIN_VALUE);
+        buffer.put(OFFSET_SORTED, (byte) 1);
+        segment.minTime = Long.MAX_VALUE;
+        segment.maxTime = Long.MIN_VALUE;
+        segment.sorted = true;
+        return segment;
+    }
+
+    /**
+     * Opens an existing segment.
+     *
+     * @param file the file
+     * @return the segment
+     * @throws IOException in case of a problem reading the file, or if it is not a valid segment
+     */
+    static Segment open(File file) throws IOException {
+        int capacity;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if ((raf.length() < HEADER_SIZE) || (raf.readInt() != MAGIC)) {
+                throw new IOException("Not a segment file: " + file);
+            }
+            if ((raf.readShort() != VERSION) || (raf.readShort() != RECORD_SIZE)) {
+                throw new IOException("Unsupported segment version: " + file);
+            }
+            capacity = raf.readInt();
+        }
+        Segment segment = new Segment(file, map(file, capacity), capacity);
+        MappedByteBuffer buffer = segment.buffer;
+        segment.count = buffer.getInt(OFFSET_COUNT);
+        segment.minTime = buffer.getLong(OFFSET_MIN_TIME);
+        segment.maxTime = buffer.getLong(OFFSET_MAX_TIME);
+        segment.sorted = buffer.get(OFFSET_SORTED) != 0;
+        return segment;
+    }
+
+    private static MappedByteBuffer map(File file, int capacity) throws IOException {
+        long size = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            if (raf.length() < size) {
+                raf.setLength(size);
+            }
+            // the mapping stays valid after closing the channel
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * Appends a record, the segment must not be full.
+     */
+    void append(long time, float pm1, float pm2_5, float pm10, float temp, float rh, float pressure) {
+        int offset = HEADER_SIZE + count * RECORD_SIZE;
+        buffer.putLong(offset, time);
+        buffer.putFloat(offset + 8, pm1);
+        buffer.putFloat(offset + 12, pm2_5);
+        buffer.putFloat(offset + 16, pm10);
+        buffer.putFloat(offset + 20, temp);
+        buffer.putFloat(offset + 24, rh);
+        buffer.putFloat(offset + 28, pressure);
+
+        if (time < maxTime) {
+            sorted = false;
+            buffer.put(OFFSET_SORTED, (byte) 0);
+        }
+        if (time < minTime) {
+            minTime = time;
+            buffer.putLong(OFFSET_MIN_TIME, time);
+        }
+        if (time > maxTime) {
+            maxTime = time;
+            buffer.putLong(OFFSET_MAX_TIME, time);
+        }
+        count++;
+        buffer.putInt(OFFSET_COUNT, count);
+    }
+
+    boolean isFull() {
+        return count >= capacity;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    long getMinTime() {
+        return minTime;
+    }
+
+    long getMaxTime() {
+        return maxTime;
+    }
+
+    boolean isSorted() {
+        return sorted;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    long getTime(int index) {
+        return buffer.getLong(HEADER_SIZE + index * RECORD_SIZE);
+    }
+
+    float getField(int index, int field) {
+        return buffer.getFloat(HEADER_SIZE + index * RECORD_SIZE + 8 + 4 * field);
+    }
+
+    /**
+     * Finds the first record at or after a time, for a sorted segment.
+     *
+     * @param time the time
+     * @param end the number of records to search
+     * @return the index of the record, or end if there is none
+     */
+    int lowerBound(long time, int end) {
+        int lo = 0;
+        int hi = end;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getTime(mid) < time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Writes the changes to disk.
+     */
+    void force() {
+        buffer.force();
+    }
+
+}
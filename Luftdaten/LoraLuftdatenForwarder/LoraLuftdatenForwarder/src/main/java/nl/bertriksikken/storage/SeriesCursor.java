@@ -0,0 +1,113 @@
+package nl.bertriksikken.storage;
+
+import java.util.List;
+
+/**
+ * Cursor over the records of one sensor in a time range, reading straight from the mapped segments.
+ *
+ * The cursor is a flyweight: the getters return the fields of the current record, no object is created per record.
+ * Records are returned per segment in order of appending, which is time order unless readings arrived out of order.
+ *
+ * A cursor sees the records that existed when it was created. It is not thread-safe.
+ */
+public final class SeriesCursor implements ISeriesCursor {
+
+    private final Segment[] segments;
+    private final int[] counts;
+    private final long from;
+    private final long to;
+
+    private int segmentIndex = -1;
+    private Segment segment;
+    private int index;
+    private int end;
+
+    SeriesCursor(List<Segment> segments, long from, long to) {
+        this.segments = segments.toArray(new Segment[0]);
+        this.counts = new int[this.segments.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = this.segments[i].getCount();
+        }
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    public boolean next() {
+        while (true) {
+            while (segment != null && ++index < end) {
+                long time = segment.getTime(index);
+                if ((time >= from) && (time < to)) {
+                    return true;
+                }
+                if ((time >= to) && segment.isSorted()) {
+                    break;
+                }
+            }
+            if (!nextSegment()) {
+                return false;
+            }
+        }
+    }
+
+    // moves to the next segment that overlaps the range
+    private boolean nextSegment() {
+        segment = null;
+        while (++segmentIndex < segments.length) {
+            Segment candidate = segments[segmentIndex];
+            int count = counts[segmentIndex];
+            if ((count == 0) || (candidate.getMaxTime() < from) || (candidate.getMinTime() >= to)) {
+                continue;
+            }
+            segment = candidate;
+            end = count;
+            index = (candidate.isSorted() ? candidate.lowerBound(from, count) : 0) - 1;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public long getTime() {
+        return segment.getTime(index);
+    }
+
+    @Override
+    public float getField(ESeriesField field) {
+        return segment.getField(index, field.getIndex());
+    }
+
+    public float getPm1() {
+        return segment.getField(index, Segment.FIELD_PM1);
+    }
+
+    public float getPm2_5() {
+        return segment.getField(index, Segment.FIELD_PM2_5);
+    }
+
+    public float getPm10() {
+        return segment.getField(index, Segment.FIELD_PM10);
+    }
+
+    /**
+     * @return the temperature (celcius), NaN if absent
+     */
+    public float getTemp() {
+        return segment.getField(index, Segment.FIELD_TEMP);
+    }
+
+    /**
+     * @return the relative humidity (percent), NaN if absent
+     */
+    public float getRh() {
+        return segment.getField(index, Segment.FIELD_RH);
+    }
+
+    /**
+     * @return the pressure (hPa), NaN if absent
+     */
+    public float getPressure() {
+        return segment.getField(index, Segment.FIELD_PRESSURE);
+    }
+
+}
@@ -0,0 +1,172 @@
+package nl.bertriksikken.storage;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Command line tool to migrate the CSV data files into the binary store, and to export from the store as CSV.
+ *
+ * <pre>
+ * import &lt;store dir&gt; &lt;csv file&gt;...               imports files named &lt;sensor id&gt;-&lt;date&gt;
+ * export &lt;store dir&gt; &lt;sensor id&gt; [&lt;from&gt; &lt;to&gt;]  writes CSV to stdout, times as ISO instants
+ * seal &lt;store dir&gt; &lt;archive dir&gt; &lt;day&gt;            seals the readings of a day (UTC) into compressed blocks
+ * </pre>
+ */
+public final class StorageTool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StorageTool.class);
+    private static final ZoneId ZONE = ZoneId.of("Europe/Paris");
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy:MM:dd:hh:mm");
+    private static final String HEADER = "yyyy:MM:dd:hh:mm,P0,P2,P1,Temp,Hum,Pressure\n";
+    private static final int SEGMENT_RECORDS = 4096;
+
+    private StorageTool() {
+        // command line tool
+    }
+
+    public static void main(String[] args) throws IOException {
+        if ((args.length >= 3) && args[0].equals("import")) {
+            TimeSeriesStore store = new TimeSeriesStore(new File(args[1]), SEGMENT_RECORDS);
+            for (int i = 2; i < args.length; i++) {
+                int count = importCsv(new File(args[i]), store);
+                LOG.info("Imported {} readings from {}", count, args[i]);
+            }
+            store.flush();
+        } else if (((args.length == 3) || (args.length == 5)) && args[0].equals("export")) {
+            TimeSeriesStore store = new TimeSeriesStore(new File(args[1]), SEGMENT_RECORDS);
+            long from = (args.length == 5) ? Instant.parse(args[3]).toEpochMilli() : Long.MIN_VALUE;
+            long to = (args.length == 5) ? Instant.parse(args[4]).toEpochMilli() : Long.MAX_VALUE;
+            Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.US_ASCII));
+            exportCsv(store, args[2], from, to, writer);
+            writer.flush();
+        } else if ((args.length == 4) && args[0].equals("seal")) {
+            TimeSeriesStore store = new TimeSeriesStore(new File(args[1]), SEGMENT_RECORDS);
+            BlockArchive archive = new BlockArchive(new File(args[2]));
+            LocalDate day = LocalDate.parse(args[3]);
+            for (String sensorId : store.getSensorIds()) {
+                int count = archive.seal(store, sensorId, day);
+                LOG.info("Sealed {} readings of {} on {}", count, sensorId, day);
+            }
+        } else {
+            System.err.println("Usage: import <store dir> <csv file>... | export <store dir> <sensor id> [<from> <to>]"
+                    + " | seal <store dir> <archive dir> <day>");
+        }
+    }
+
+    /**
+     * Imports one CSV data file.
+     *
+     * The timestamps in the files have a 12-hour clock without AM/PM marker, every timestamp is taken as the earliest
+     * of the two candidates that does not go back in time from the previous line.
+     *
+     * @param file the file, named after the sensor id and date extension
+     * @param store the store
+     * @return the number of imported readings
+     * @throws IOException in case of a problem reading the file
+     */
+    static int importCsv(File file, TimeSeriesStore store) throws IOException {
+        String name = file.getName();
+        int dash = name.lastIndexOf('-');
+        if (dash <= 0) {
+            throw new IOException("Cannot determine sensor id from file name " + name);
+        }
+        String sensorId = name.substring(0, dash);
+
+        int count = 0;
+        long previous = Long.MIN_VALUE;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.US_ASCII))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(",");
+                if ((fields.length != 7) || line.startsWith("yyyy")) {
+                    continue;
+                }
+                try {
+                    String[] date = fields[0].split(":");
+                    LocalDateTime am = LocalDateTime.of(Integer.parseInt(date[0]), Integer.parseInt(date[1]),
+                            Integer.parseInt(date[2]), Integer.parseInt(date[3]) % 12, Integer.parseInt(date[4]));
+                    long time = am.atZone(ZONE).toInstant().toEpochMilli();
+                    long pm = am.plusHours(12).atZone(ZONE).toInstant().toEpochMilli();
+                    if ((time < previous) && (pm >= previous)) {
+                        time = pm;
+                    }
+                    previous = time;
+
+                    double temp = Double.parseDouble(fields[4]);
+                    double rh = Double.parseDouble(fields[5]);
+                    double pressure = Double.parseDouble(fields[6]);
+                    if ((temp == 0) && (rh == 0) && (pressure == 0)) {
+                        // written for readings without BME data
+                        temp = Double.NaN;
+                        rh = Double.NaN;
+                        pressure = Double.NaN;
+                    }
+                    store.append(sensorId, time, Double.parseDouble(fields[1]), Double.parseDouble(fields[2]),
+                            Double.parseDouble(fields[3]), temp, rh, pressure);
+                    count++;
+                } catch (RuntimeException e) {
+                    LOG.warn("Skipping line '{}' of {}: {}", line, name, e.getMessage());
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Exports readings of a sensor in the format of the CSV data files.
+     *
+     * @param store the store
+     * @param sensorId the sensor id
+     * @param from the start of the range (ms since epoch, inclusive)
+     * @param to the end of the range (ms since epoch, exclusive)
+     * @param writer the destination
+     * @return the number of exported readings
+     * @throws IOException in case of a problem reading the store or writing the destination
+     */
+    static int exportCsv(TimeSeriesStore store, String sensorId, long from, long to, Writer writer)
+            throws IOException {
+        writer.append(HEADER);
+        StringBuilder sb = new StringBuilder(80);
+        long cachedMinute = Long.MIN_VALUE;
+        String timestamp = "";
+        int count = 0;
+        SeriesCursor cursor = store.query(sensorId, from, to);
+        while (cursor.next()) {
+            long minute = Math.floorDiv(cursor.getTime(), 60_000L);
+            if (minute != cachedMinute) {
+                timestamp = Instant.ofEpochMilli(cursor.getTime()).atZone(ZONE).format(TIMESTAMP_FORMAT);
+                cachedMinute = minute;
+            }
+            sb.setLength(0);
+            sb.append(timestamp);
+            sb.append(',').append(cursor.getPm1()).append(',').append(cursor.getPm2_5()).append(',')
+                    .append(cursor.getPm10());
+            if (Float.isNaN(cursor.getTemp())) {
+                sb.append(",0,0,0\n");
+            } else {
+                sb.append(',').append(cursor.getTemp()).append(',').append(cursor.getRh()).append(',')
+                        .append(cursor.getPressure()).append('\n');
+            }
+            writer.append(sb);
+            count++;
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,213 @@
+package nl.bertriksikken.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Binary time-series storage of sensor readings, in memory-mapped segment files.
+ *
+ * Every sensor has its own directory, with segments named after the time of their first record. A new segment is
+ * started when the current one is full, or at the first record of a later day (UTC), so retention can delete the raw
+ * readings day by day. Appends and range scans work on the mapped files directly, without creating objects per
+ * record.
+ *
+ * Changes reach the disk when the operating system writes back the mapped pages, or at {@link #flush()}.
+ *
+ * This class is thread-safe.
+ */
+public final class TimeSeriesStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimeSeriesStore.class);
+    private static final String SEGMENT_EXT = ".seg";
+    private static final long DAY_MS = 86_400_000L;
+
+    private final File dir;
+    private final int segmentRecords;
+
+    // guarded by this
+    private final Map<String, List<Segment>> series = new HashMap<>();
+    private final Set<Segment> dirty = Collections.newSetFromMap(new IdentityHashMap<>());
+    private long appendCount;
+
+    /**
+     * Constructor.
+     *
+     * @param dir the directory of the store
+     * @param segmentRecords the maximum number of records per segment
+     */
+    public TimeSeriesStore(File dir, int segmentRecords) {
+        this.dir = dir;
+        this.segmentRecords = Math.max(1, segmentRecords);
+    }
+
+    /**
+     * Appends a reading.
+     *
+     * @param sensorId the sensor id
+     * @param time the time of the reading (ms since epoch)
+     * @param pm1 the PM1 value
+     * @param pm2_5 the PM2.5 value
+     * @param pm10 the PM10 value
+     * @param temp the temperature (celcius), NaN if absent
+     * @param rh the relative humidity (percent), NaN if absent
+     * @param pressure the pressure (hPa), NaN if absent
+     * @throws IOException in case of a problem creating a new segment
+     */
+    public synchronized void append(String sensorId, long time, double pm1, double pm2_5, double pm10, double temp,
+            double rh, double pressure) throws IOException {
+        List<Segment> segments = segments(sensorId);
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        // late records of an earlier day stay in the current segment
+        if ((segment == null) || segment.isFull()
+                || (Math.floorDiv(time, DAY_MS) > Math.floorDiv(segment.getMinTime(), DAY_MS))) {
+            File sensorDir = new File(dir, sensorId);
+            if (!sensorDir.isDirectory() && !sensorDir.mkdirs()) {
+                throw new IOException("Could not create directory " + sensorDir);
+            }
+            // a segment with the same name can only be an older, full one
+            long name = Math.max(0, time);
+            File file;
+            do {
+                file = new File(sensorDir, String.format(Locale.ROOT, "%019d", name++) + SEGMENT_EXT);
+            } while (file.exists());
+            segment = Segment.create(file, segmentRecords);
+            segments.add(segment);
+        }
+        segment.append(time, (float) pm1, (float) pm2_5, (float) pm10, (float) temp, (float) rh, (float) pressure);
+        dirty.add(segment);
+        appendCount++;
+    }
+
+    /**
+     * Opens a cursor over the readings of a sensor.
+     *
+     * @param sensorId the sensor id
+     * @param from the start of the range (ms since epoch, inclusive)
+     * @param to the end of the range (ms since epoch, exclusive)
+     * @return the cursor
+     * @throws IOException in case of a problem opening the segments
+     */
+    public synchronized SeriesCursor query(String sensorId, long from, long to) throws IOException {
+        // do not remember unknown sensors
+        if (!series.containsKey(sensorId) && !new File(dir, sensorId).isDirectory()) {
+            return new SeriesCursor(Collections.emptyList(), from, to);
+        }
+        return new SeriesCursor(segments(sensorId), from, to);
+    }
+
+    /**
+     * @return the ids of all sensors in the store, sorted
+     */
+    public synchronized List<String> getSensorIds() {
+        TreeSet<String> ids = new TreeSet<>(series.keySet());
+        File[] dirs = dir.listFiles(File::isDirectory);
+        if (dirs != null) {
+            for (File sensorDir : dirs) {
+                ids.add(sensorDir.getName());
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * @param sensorId the sensor id
+     * @return the time of the oldest record of a sensor (ms since epoch), Long.MAX_VALUE if there are none
+     * @throws IOException in case of a problem opening the segments
+     */
+    public synchronized long getMinTime(String sensorId) throws IOException {
+        long minTime = Long.MAX_VALUE;
+        if (!series.containsKey(sensorId) && !new File(dir, sensorId).isDirectory()) {
+            return minTime;
+        }
+        for (Segment segment : segments(sensorId)) {
+            minTime = Math.min(minTime, segment.getMinTime());
+        }
+        return minTime;
+    }
+
+    // loads the segments of a sensor on first use
+    private List<Segment> segments(String sensorId) throws IOException {
+        List<Segment> segments = series.get(sensorId);
+        if (segments == null) {
+            segments = new ArrayList<>();
+            File[] files = new File(dir, sensorId).listFiles((d, name) -> name.endsWith(SEGMENT_EXT));
+            if (files != null) {
+                Arrays.sort(files);
+                for (File file : files) {
+                    segments.add(Segment.open(file));
+                }
+            }
+            LOG.debug("Opened {} segment(s) for {}", segments.size(), sensorId);
+            series.put(sensorId, segments);
+        }
+        return segments;
+    }
+
+    /**
+     * Deletes the segments of a sensor with only records before a time. This includes the last segment, a later append
+     * then starts a new one.
+     *
+     * Cursors opened before keep working on the deleted segments, their mapping stays valid.
+     *
+     * @param sensorId the sensor id
+     * @param before the time (ms since epoch)
+     * @return the number of deleted segments
+     * @throws IOException in case a segment could not be opened or deleted
+     */
+    public synchronized int purge(String sensorId, long before) throws IOException {
+        List<Segment> segments = segments(sensorId);
+        int deleted = 0;
+        Iterator<Segment> it = segments.iterator();
+        while (it.hasNext()) {
+            Segment segment = it.next();
+            if ((segment.getCount() > 0) && (segment.getMaxTime() < before)) {
+                it.remove();
+                dirty.remove(segment);
+                Files.delete(segment.getFile().toPath());
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Writes all changes to disk.
+     */
+    public synchronized void flush() {
+        for (Segment segment : dirty) {
+            segment.force();
+        }
+        dirty.clear();
+    }
+
+    /**
+     * @return the segment files of a sensor, in order
+     */
+    synchronized List<File> getSegmentFiles(String sensorId) throws IOException {
+        List<File> files = new ArrayList<>();
+        for (Segment segment : segments(sensorId)) {
+            files.add(segment.getFile());
+        }
+        return Collections.unmodifiableList(files);
+    }
+
+    public synchronized long getAppendCount() {
+        return appendCount;
+    }
+
+}
@@ -12,8 +12,8 @@ public interface IMessageReceived {
      * 
      * @param instant time stamp of message reception
      * @param topic   the topic
-     * @param message the message
+     * @param payload the raw message payload
      */
-    void messageReceived(Instant instant, String topic, String message) throws Exception;
+    void messageReceived(Instant instant, String topic, byte[] payload) throws Exception;
 
 }
@@ -1,50 +1,102 @@
 package nl.bertriksikken.ttn;
 
-import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.eclipse.paho.client.mqttv3.persist.MqttDefaultFilePersistence;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Listener process for receiving data from MQTT.
  *
- * Decouples the MQTT callback from listener using a single thread executor.
+ * The subscription topics are partitioned over one or more MQTT clients, each with its own callback thread. All
+ * clients feed the same listener. A topic is only ever handled by one client, so messages of a device (which always
+ * arrive on the same topic) keep their order.
+ *
+ * Messages are received with QoS 1 and acknowledged manually, only after the listener accepted them. A listener that
+ * blocks therefore also holds back the broker.
+ *
+ * When a fixed client id is configured, the clients use a durable session (clean session = false) with file based
+ * persistence, so the broker keeps queueing uplinks while we are disconnected. This is opt-in: the id must be unique
+ * per instance, two instances with the same id take over each other's session. A lost connection is re-established
+ * by the listener itself, with a short exponential back-off, instead of restarting the whole process.
  */
 public final class MqttListener {
 
     private static final Logger LOG = LoggerFactory.getLogger(MqttListener.class);
     private static final long DISCONNECT_TIMEOUT_MS = 3000;
+    private static final int QOS = 1;
+    private static final long RECONNECT_INITIAL_DELAY_MS = 100;
 
     private final IMessageReceived callback;
     private final String appId;
     private final String appKey;
+    private final boolean durableSession;
+    private final long maxReconnectDelayMs;
+    private final List<Partition> partitions = new ArrayList<>();
+    private final ScheduledExecutorService reconnectExecutor = Executors.newSingleThreadScheduledExecutor();
 
-    private MqttClient mqttClient;
+    private volatile boolean stopped;
 
     /**
      * Constructor.
      *
      * @param callback the interface for indicating a received message.
      * @param url the URL of the MQTT server
-     * @param topic the topic to listen to
+     * @param appId the application id (user name)
+     * @param appKey the application key (password)
+     * @param topics the topics to listen to
+     * @param numClients the number of MQTT clients to spread the topics over, capped at the number of topics
+     * @param clientId the base client id for a durable session, empty to use a random id and a clean session
+     * @param persistenceDir the directory for the MQTT client state, empty to keep it in memory
+     * @param maxReconnectDelay the maximum delay between reconnect attempts
      */
-    public MqttListener(IMessageReceived callback, String url, String appId, String appKey) {
+    public MqttListener(IMessageReceived callback, String url, String appId, String appKey, List<String> topics,
+            int numClients, String clientId, String persistenceDir, Duration maxReconnectDelay) {
         this.callback = callback;
         this.appId = appId;
         this.appKey = appKey;
+        this.durableSession = !clientId.isEmpty();
+        this.maxReconnectDelayMs = maxReconnectDelay.toMillis();
 
-        LOG.info("Creating client for MQTT server {}", url);
+        // more clients than topics makes no sense, a topic is only ever handled by one client
+        int count = Math.max(1, Math.min(numClients, topics.size()));
+        if (count < numClients) {
+            LOG.warn("Capping the number of MQTT clients from {} to {}, the number of topics", numClients, count);
+        }
+        LOG.info("Creating {} client(s) for MQTT server {}, durable session {}", count, url, durableSession);
         try {
-            this.mqttClient = new MqttClient(url, MqttClient.generateClientId(), new MemoryPersistence());
+            for (int i = 0; i < count; i++) {
+                String id = durableSession ? clientId + "-" + i : MqttClient.generateClientId();
+                MqttClientPersistence persistence = persistenceDir.isEmpty() ? new MemoryPersistence()
+                        : new MqttDefaultFilePersistence(persistenceDir);
+                MqttClient client = new MqttClient(url, id, persistence);
+                client.setManualAcks(true);
+                Partition partition = new Partition(i, client);
+                client.setCallback(partition);
+                partitions.add(partition);
+            }
         } catch (MqttException e) {
             throw new IllegalArgumentException(e);
         }
+        // distribute the topics round-robin over the clients
+        for (int i = 0; i < topics.size(); i++) {
+            partitions.get(i % count).topics.add(topics.get(i));
+        }
     }
 
     /**
@@ -55,41 +107,55 @@ public final class MqttListener {
     public void start() throws MqttException {
         LOG.info("Starting MQTT listener");
 
-        // connect
-        LOG.info("Connecting to MQTT server as user {}", appId);
-        MqttConnectOptions options = new MqttConnectOptions();
-        options.setUserName(appId);
-        options.setPassword(appKey.toCharArray());
-        // automatic reconnect does not work in practice, I prefer a hard exception over a silent hang
-        options.setAutomaticReconnect(false);
-        options.setKeepAliveInterval(10);
-        mqttClient.connect(options);
-
-        // subscribe to uplink messages only and call messageArrived when received
-        String topic = "+/devices/+/up";
-        LOG.info("Subscribing to topic '{}'", topic);
-        mqttClient.subscribe(topic, this::messageArrived);
+        // the initial connect fails hard, so a configuration problem is noticed immediately
+        for (Partition partition : partitions) {
+            partition.connect();
+        }
     }
 
     /**
-     * Handles an incoming message.
-     *
-     * @param topic the topic
-     * @param mqttMessage the message
-     * @throws Exception who knows?
+     * @return the number of messages received so far, per client
      */
-    private void messageArrived(String topic, MqttMessage mqttMessage) throws Exception {
-        Instant now = Instant.now();
-        final String message = new String(mqttMessage.getPayload(), StandardCharsets.US_ASCII);
-        LOG.info("Message arrived on topic '{}'", topic);
+    public List<Long> getMessageCounts() {
+        List<Long> counts = new ArrayList<>();
+        for (Partition partition : partitions) {
+            counts.add(partition.messageCount.sum());
+        }
+        return Collections.unmodifiableList(counts);
+    }
 
-        // notify our listener, in an exception safe manner
-        try {
-            callback.messageReceived(now, topic, message);
-        } catch (Exception e) {
-            LOG.trace("Caught exception", e);
-            LOG.error("Caught exception in MQTT listener: {}", e.getMessage());
+    /**
+     * @return the total number of successful reconnects
+     */
+    public long getReconnectCount() {
+        long count = 0;
+        for (Partition partition : partitions) {
+            count += partition.reconnectCount.sum();
+        }
+        return count;
+    }
+
+    /**
+     * @return the time (ms) between connection loss and resubscription of the slowest most recent reconnect
+     */
+    public long getLastReconnectLatency() {
+        long latency = 0;
+        for (Partition partition : partitions) {
+            latency = Math.max(latency, partition.lastReconnectLatencyMs);
         }
+        return latency;
+    }
+
+    /**
+     * @return the number of messages recovered after a reconnect: delivered while resubscribing or redelivered by the
+     *         broker
+     */
+    public long getRecoveredCount() {
+        long count = 0;
+        for (Partition partition : partitions) {
+            count += partition.recoveredCount.sum();
+        }
+        return count;
     }
 
     /**
@@ -97,17 +163,129 @@ public final class MqttListener {
      */
     public void stop() {
         LOG.info("Stopping MQTT listener");
-        try {
-            mqttClient.disconnect(DISCONNECT_TIMEOUT_MS);
-        } catch (MqttException e) {
-            // don't care, just log
-            LOG.warn("Caught exception on disconnect: {}", e.getMessage());
-        } finally {
+        stopped = true;
+        reconnectExecutor.shutdownNow();
+        for (Partition partition : partitions) {
+            MqttClient mqttClient = partition.client;
             try {
-                mqttClient.close();
+                mqttClient.disconnect(DISCONNECT_TIMEOUT_MS);
             } catch (MqttException e) {
                 // don't care, just log
-                LOG.warn("Caught exception on close: {}", e.getMessage());
+                LOG.warn("Caught exception on disconnect: {}", e.getMessage());
+            } finally {
+                try {
+                    mqttClient.close();
+                } catch (MqttException e) {
+                    // don't care, just log
+                    LOG.warn("Caught exception on close: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * One MQTT client with its subset of the topics.
+     */
+    private final class Partition extends MqttCallbackAdapter {
+
+        private final int index;
+        private final MqttClient client;
+        private final List<String> topics = new ArrayList<>();
+        private final LongAdder messageCount = new LongAdder();
+        private final LongAdder reconnectCount = new LongAdder();
+        private final LongAdder recoveredCount = new LongAdder();
+
+        private volatile boolean recovering;
+        private volatile long lastReconnectLatencyMs;
+        private volatile long lostNanos;
+
+        Partition(int index, MqttClient client) {
+            this.index = index;
+            this.client = client;
+        }
+
+        /**
+         * Connects and subscribes to all topics of this partition.
+         */
+        private void connect() throws MqttException {
+            LOG.info("Connecting client {} to MQTT server as user {}", index, appId);
+            MqttConnectOptions options = new MqttConnectOptions();
+            options.setUserName(appId);
+            options.setPassword(appKey.toCharArray());
+            options.setCleanSession(!durableSession);
+            // reconnect is handled by ourselves, paho's automatic reconnect does not work in practice
+            options.setAutomaticReconnect(false);
+            options.setKeepAliveInterval(10);
+            client.connect(options);
+
+            // subscribe to uplink messages only and call messageArrived when received
+            for (String topic : topics) {
+                LOG.info("Subscribing client {} to topic '{}'", index, topic);
+                client.subscribe(topic, QOS, this::messageArrived);
+            }
+        }
+
+        @Override
+        public void connectionLost(Throwable cause) {
+            LOG.warn("Client {} lost connection: {}", index, cause.getMessage());
+            lostNanos = System.nanoTime();
+            recovering = true;
+            scheduleReconnect(0, RECONNECT_INITIAL_DELAY_MS);
+        }
+
+        private void scheduleReconnect(long delayMs, long nextDelayMs) {
+            if (!stopped) {
+                reconnectExecutor.schedule(() -> reconnect(nextDelayMs), delayMs, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void reconnect(long nextDelayMs) {
+            if (stopped) {
+                return;
+            }
+            try {
+                if (client.isConnected()) {
+                    // half-way failure of a previous attempt
+                    client.disconnect(DISCONNECT_TIMEOUT_MS);
+                }
+                connect();
+                recovering = false;
+                lastReconnectLatencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lostNanos);
+                reconnectCount.increment();
+                LOG.info("Client {} reconnected after {} ms", index, lastReconnectLatencyMs);
+            } catch (Exception e) {
+                // anything that escapes here would silently end the reconnect loop
+                LOG.trace("Caught exception", e);
+                LOG.warn("Client {} reconnect failed ({}), retrying in {} ms", index, e.getMessage(), nextDelayMs);
+                scheduleReconnect(nextDelayMs, Math.min(2 * nextDelayMs, maxReconnectDelayMs));
+            }
+        }
+
+        /**
+         * Handles an incoming message.
+         *
+         * Also receives messages from a durable session that arrive before the topic subscriptions are restored.
+         *
+         * @param topic the topic
+         * @param mqttMessage the message
+         * @throws Exception who knows?
+         */
+        @Override
+        public void messageArrived(String topic, MqttMessage mqttMessage) throws Exception {
+            Instant now = Instant.now();
+            messageCount.increment();
+            if (recovering || mqttMessage.isDuplicate()) {
+                recoveredCount.increment();
+            }
+            LOG.info("Message arrived on topic '{}'", topic);
+
+            // notify our listener, in an exception safe manner, acknowledge only if it was accepted
+            try {
+                callback.messageReceived(now, topic, mqttMessage.getPayload());
+                client.messageArrivedComplete(mqttMessage.getId(), mqttMessage.getQos());
+            } catch (Exception e) {
+                LOG.trace("Caught exception", e);
+                LOG.error("Caught exception in MQTT listener: {}", e.getMessage());
             }
         }
     }
@@ -0,0 +1,148 @@
+package nl.bertriksikken.ttn.dto;
+
+import java.util.Locale;
+
+/**
+ * Mutable, primitive representation of the parts of a TTN uplink message that we actually use.
+ *
+ * Filled by {@link TtnUplinkDecoder}, can be re-used for the next message after {@link #reset()}.
+ */
+public final class TtnUplink {
+
+    // maximum LoRaWAN application payload size
+    static final int MAX_RAW_PAYLOAD = 256;
+
+    String devId;
+    String hardwareSerial;
+    int port;
+    long counter;
+    final byte[] rawPayload = new byte[MAX_RAW_PAYLOAD];
+    int rawLength;
+
+    // measurement values, from the rudzl payload fields or the decoded raw payload, NaN if absent
+    double pm10;
+    double pm2_5;
+    double pm1;
+    double temp;
+    double rh;
+    double pressure;
+    int spsId;
+
+    /**
+     * Constructor.
+     */
+    public TtnUplink() {
+        reset();
+    }
+
+    /**
+     * Clears all fields, so this object can be re-used.
+     */
+    public void reset() {
+        devId = null;
+        hardwareSerial = null;
+        port = 0;
+        counter = -1;
+        rawLength = 0;
+        pm10 = Double.NaN;
+        pm2_5 = Double.NaN;
+        pm1 = Double.NaN;
+        temp = Double.NaN;
+        rh = Double.NaN;
+        pressure = Double.NaN;
+        spsId = 0;
+    }
+
+    public String getDevId() {
+        return devId;
+    }
+
+    public String getHardwareSerial() {
+        return hardwareSerial;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return the frame counter (32 bits, unsigned), -1 if absent
+     */
+    public long getCounter() {
+        return counter;
+    }
+
+    /**
+     * @return the internal buffer with the decoded payload_raw, valid up to {@link #getRawLength()}
+     */
+    public byte[] getRawPayload() {
+        return rawPayload;
+    }
+
+    public int getRawLength() {
+        return rawLength;
+    }
+
+    /**
+     * Sets the measurement values, e.g. after decoding the raw payload.
+     *
+     * @param spsId    the SPS30 id
+     * @param pm10     the PM10 value
+     * @param pm2_5    the PM2.5 value
+     * @param pm1      the PM1 value
+     * @param temp     the temperature (celcius), NaN if absent
+     * @param rh       the relative humidity (percent), NaN if absent
+     * @param pressure the pressure (hPa), NaN if absent
+     */
+    public void setValues(int spsId, double pm10, double pm2_5, double pm1, double temp, double rh, double pressure) {
+        this.spsId = spsId;
+        this.pm10 = pm10;
+        this.pm2_5 = pm2_5;
+        this.pm1 = pm1;
+        this.temp = temp;
+        this.rh = rh;
+        this.pressure = pressure;
+    }
+
+    public double getPm10() {
+        return pm10;
+    }
+
+    public double getPm2_5() {
+        return pm2_5;
+    }
+
+    public double getPm1() {
+        return pm1;
+    }
+
+    public double getTemp() {
+        return temp;
+    }
+
+    public double getRh() {
+        return rh;
+    }
+
+    public double getPressure() {
+        return pressure;
+    }
+
+    /**
+     * @return true if at least one of the BME280 values is present
+     */
+    public boolean hasBme() {
+        return !Double.isNaN(temp) || !Double.isNaN(rh) || !Double.isNaN(pressure);
+    }
+
+    public int getSpsId() {
+        return spsId;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "{serial=%s,port=%d,counter=%d,PM10=%.1f,PM2.5=%.1f,PM1=%.1f,t=%.1f,rh=%.1f,p=%.1f}",
+                hardwareSerial, port, counter, pm10, pm2_5, pm1, temp, rh, pressure);
+    }
+
+}
@@ -0,0 +1,153 @@
+package nl.bertriksikken.ttn.dto;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Streaming decoder for TTN uplink messages.
+ *
+ * Works directly on the MQTT payload bytes with a token parser and only extracts the fields that we need into a
+ * {@link TtnUplink}, skipping everything else (metadata, gateways, etc.) without building a tree or map. The base64
+ * payload_raw is decoded into the re-usable buffer of the uplink.
+ *
+ * This class is thread-safe.
+ */
+public final class TtnUplinkDecoder {
+
+    private final JsonFactory factory = new JsonFactory();
+
+    /**
+     * Decodes a TTN uplink message.
+     *
+     * @param data   the JSON message bytes
+     * @param length the number of valid bytes in data
+     * @param uplink the uplink to fill, it is reset first
+     * @return true if the message could be decoded
+     * @throws IOException in case of a JSON syntax error
+     */
+    public boolean decode(byte[] data, int length, TtnUplink uplink) throws IOException {
+        uplink.reset();
+        try (JsonParser parser = factory.createParser(data, 0, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return false;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                switch (name) {
+                case "dev_id":
+                    uplink.devId = parser.getValueAsString();
+                    break;
+                case "hardware_serial":
+                    uplink.hardwareSerial = parser.getValueAsString();
+                    break;
+                case "port":
+                    uplink.port = parser.getValueAsInt();
+                    break;
+                case "counter":
+                    uplink.counter = parser.getValueAsLong();
+                    break;
+                case "payload_raw":
+                    if (token == JsonToken.VALUE_STRING) {
+                        uplink.rawLength = decodeBase64(parser.getTextCharacters(), parser.getTextOffset(),
+                                parser.getTextLength(), uplink.rawPayload);
+                    }
+                    break;
+                case "payload_fields":
+                    if (token == JsonToken.START_OBJECT) {
+                        decodePayloadFields(parser, uplink);
+                    }
+                    break;
+                default:
+                    break;
+                }
+                // skip any (unexpected) structured value, no-op for scalars
+                parser.skipChildren();
+            }
+        }
+        return uplink.hardwareSerial != null;
+    }
+
+    // decodes base64 text into the output buffer, returns the number of bytes or -1 if invalid / too long
+    private static int decodeBase64(char[] text, int offset, int length, byte[] out) {
+        int bits = 0;
+        int numBits = 0;
+        int n = 0;
+        for (int i = offset; i < offset + length; i++) {
+            char c = text[i];
+            if (c == '=') {
+                break;
+            }
+            int value = base64Value(c);
+            if (value < 0) {
+                return -1;
+            }
+            bits = (bits << 6) | value;
+            numBits += 6;
+            if (numBits >= 8) {
+                numBits -= 8;
+                if (n >= out.length) {
+                    return -1;
+                }
+                out[n++] = (byte) (bits >> numBits);
+            }
+        }
+        return n;
+    }
+
+    private static int base64Value(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return c - 'A';
+        } else if (c >= 'a' && c <= 'z') {
+            return c - 'a' + 26;
+        } else if (c >= '0' && c <= '9') {
+            return c - '0' + 52;
+        } else if (c == '+') {
+            return 62;
+        } else if (c == '/') {
+            return 63;
+        }
+        return -1;
+    }
+
+    // decodes the rudzl style payload fields, the parser is positioned at the start of the object
+    private void decodePayloadFields(JsonParser parser, TtnUplink uplink) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (!token.isNumeric()) {
+                parser.skipChildren();
+                continue;
+            }
+            switch (name) {
+            case "PM10_Avg":
+                uplink.pm10 = parser.getDoubleValue();
+                break;
+            case "PM25_Avg":
+                uplink.pm2_5 = parser.getDoubleValue();
+                break;
+            case "PM1_Avg":
+                uplink.pm1 = parser.getDoubleValue();
+                break;
+            case "T":
+                uplink.temp = parser.getDoubleValue();
+                break;
+            case "RH":
+                uplink.rh = parser.getDoubleValue();
+                break;
+            case "P":
+                uplink.pressure = parser.getDoubleValue();
+                break;
+            case "spsid":
+                uplink.spsId = parser.getIntValue() & 0xFFFF;
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+package nl.bertriksikken.aggregate;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Locale;
+
+/**
+ * Measures the heap used by the rolling aggregates of 10 000 devices, and the time per added reading and per read.
+ *
+ * Not a unit test, run it manually as a java application.
+ */
+public final class RollingAggregatorBenchmark {
+
+    private static final int DEVICES = 10_000;
+    private static final int READINGS = 200;
+    private static final long T0 = 1_575_367_200_000L;
+
+    public static void main(String[] args) {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        String[] ids = new String[DEVICES];
+        for (int i = 0; i < DEVICES; i++) {
+            ids[i] = String.format(Locale.ROOT, "TTN-%016X", 0x0004A30B00000000L + i);
+        }
+
+        System.gc();
+        long before = memory.getHeapMemoryUsage().getUsed();
+        RollingAggregator aggregator = new RollingAggregator(DEVICES);
+        for (String id : ids) {
+            aggregator.add(id, T0, 1.0, 1.0);
+        }
+        System.gc();
+        long after = memory.getHeapMemoryUsage().getUsed();
+        System.out.println(String.format(Locale.ROOT, "%d devices: %.1f MB heap, %d bytes/device (documented %d)",
+                DEVICES, (after - before) / 1E6, (after - before) / DEVICES, RollingAggregator.DEVICE_BYTES));
+
+        // one reading every 170 s per device
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int r = 0; r < READINGS; r++) {
+                long time = T0 + (round * READINGS + r) * 170_000L;
+                for (int i = 0; i < DEVICES; i++) {
+                    aggregator.add(ids[i], time, 5 + (i + r) % 50, 10 + (i + r) % 70);
+                }
+            }
+            long addNanos = System.nanoTime() - start;
+            long now = T0 + (round + 1) * READINGS * 170_000L;
+
+            start = System.nanoTime();
+            double sum = 0;
+            for (String id : ids) {
+                sum += aggregator.getStats(id, EWindow.DAY, now).getPm2_5Mean();
+            }
+            long statsNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (String id : ids) {
+                sum += aggregator.getPm2_5Percentile(id, 0.95, now);
+            }
+            long percentileNanos = System.nanoTime() - start;
+            System.out.println(String.format(Locale.ROOT,
+                    "add %.0f ns/reading, 24h stats %.0f ns/read, p95 %.0f ns/read (checksum %.1f)",
+                    (double) addNanos / (READINGS * DEVICES), (double) statsNanos / DEVICES,
+                    (double) percentileNanos / DEVICES, sum));
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+package nl.bertriksikken.aggregate;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public final class RollingAggregatorTest {
+
+    private static final long T0 = Instant.parse("2019-12-03T10:00:00Z").toEpochMilli();
+
+    @Test
+    public void testWindows() {
+        RollingAggregator aggregator = new RollingAggregator(10);
+        // one reading per minute for two days, PM2.5 is the hour of the day
+        for (int minute = 0; minute < 48 * 60; minute++) {
+            double pm2_5 = (minute / 60) % 24;
+            Assert.assertTrue(aggregator.add("TTN-1", T0 + minute * 60_000L, pm2_5, 2 * pm2_5));
+        }
+        long now = T0 + 48 * 3600_000L - 1;
+
+        WindowStats hour = aggregator.getStats("TTN-1", EWindow.HOUR, now);
+        Assert.assertEquals(60, hour.getCount());
+        Assert.assertEquals(23.0, hour.getPm2_5Mean(), 1E-9);
+        Assert.assertEquals(46.0, hour.getPm10Max(), 1E-9);
+
+        WindowStats day = aggregator.getStats("TTN-1", EWindow.DAY, now);
+        Assert.assertEquals(24 * 60, day.getCount());
+        Assert.assertEquals(11.5, day.getPm2_5Mean(), 1E-6);
+        Assert.assertEquals(0.0, day.getPm2_5Min(), 0.0);
+        Assert.assertEquals(23.0, day.getPm2_5Max(), 0.0);
+
+        WindowStats week = aggregator.getStats("TTN-1", EWindow.WEEK, now);
+        Assert.assertEquals(48 * 60, week.getCount());
+        Assert.assertEquals(0.0, week.getPm2_5Min(), 0.0);
+        Assert.assertEquals(46.0, week.getPm10Max(), 0.0);
+
+        // a day later the hour and day windows are empty, the week still has everything
+        now += 24 * 3600_000L;
+        Assert.assertEquals(0, aggregator.getStats("TTN-1", EWindow.HOUR, now).getCount());
+        Assert.assertTrue(Double.isNaN(aggregator.getStats("TTN-1", EWindow.DAY, now).getPm2_5Mean()));
+        Assert.assertEquals(48 * 60, aggregator.getStats("TTN-1", EWindow.WEEK, now).getCount());
+
+        Assert.assertNull(aggregator.getStats("TTN-2", EWindow.HOUR, now));
+        Assert.assertFalse(aggregator.add("TTN-1", now, Double.NaN, 1.0));
+    }
+
+    @Test
+    public void testPercentiles() {
+        RollingAggregator aggregator = new RollingAggregator(10);
+        Random random = new Random(1);
+        double[] values = new double[24 * 60];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Math.round(Math.exp(random.nextGaussian() + 2.5) * 100) / 100.0;
+            aggregator.add("TTN-1", T0 + i * 60_000L, values[i], values[i]);
+        }
+        Arrays.sort(values);
+        long now = T0 + 24 * 3600_000L - 1;
+        // the error of a t-digest is in the rank, not the value
+        for (double q : new double[] {0.01, 0.1, 0.5, 0.9, 0.99}) {
+            double estimate = aggregator.getPm2_5Percentile("TTN-1", q, now);
+            int rank = 0;
+            while ((rank < values.length) && (values[rank] <= estimate)) {
+                rank++;
+            }
+            Assert.assertEquals("q=" + q, q, (double) rank / values.length, 0.02);
+        }
+        Assert.assertTrue(Double.isNaN(aggregator.getPm2_5Percentile("TTN-2", 0.5, now)));
+    }
+
+    /**
+     * Verifies that minimums and maximums are kept in tenths.
+     */
+    @Test
+    public void testResolution() {
+        RollingAggregator aggregator = new RollingAggregator(10);
+        aggregator.add("TTN-1", T0, 12.34, 0.0);
+        aggregator.add("TTN-1", T0 + 60_000L, 56.78, 7000.0);
+        WindowStats stats = aggregator.getStats("TTN-1", EWindow.HOUR, T0 + 60_000L);
+        Assert.assertEquals(12.3, stats.getPm2_5Min(), 1E-6);
+        Assert.assertEquals(56.8, stats.getPm2_5Max(), 1E-6);
+        Assert.assertEquals(0.0, stats.getPm10Min(), 0.0);
+        Assert.assertEquals(6553.5, stats.getPm10Max(), 1E-3);
+        // the means are not rounded
+        Assert.assertEquals(34.56, stats.getPm2_5Mean(), 1E-4);
+    }
+
+    /**
+     * Verifies that the default maximum of 10 000 devices fits easily in the 64 MB heap of the service.
+     */
+    @Test
+    public void testFootprint() {
+        Assert.assertTrue(RollingAggregator.DEVICE_BYTES * 10_000L < (32L << 20));
+    }
+
+    @Test
+    public void testMaxDevices() {
+        RollingAggregator aggregator = new RollingAggregator(2);
+        Assert.assertTrue(aggregator.add("TTN-1", T0, 1.0, 1.0));
+        Assert.assertTrue(aggregator.add("TTN-2", T0, 1.0, 1.0));
+        Assert.assertFalse(aggregator.add("TTN-3", T0, 1.0, 1.0));
+        Assert.assertTrue(aggregator.add("TTN-1", T0, 1.0, 1.0));
+        Assert.assertEquals(Arrays.asList("TTN-1", "TTN-2"), aggregator.getDeviceIds());
+        Assert.assertEquals(1, aggregator.getRejectedCount());
+    }
+
+    /**
+     * Verifies that a reader never sees a reading half-written: PM10 is always twice PM2.5, both whole tenths so the
+     * minimums and maximums are exact.
+     */
+    @Test
+    public void testConsistentReads() throws InterruptedException {
+        RollingAggregator aggregator = new RollingAggregator(1);
+        aggregator.add("TTN-1", T0, 1.0, 2.0);
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            long time = T0;
+            int i = 0;
+            while (running.get()) {
+                double pm2_5 = 1 + (i++ % 1000) / 10.0;
+                aggregator.add("TTN-1", time, pm2_5, 2 * pm2_5);
+                time += 100;
+            }
+        });
+        writer.start();
+        try {
+            for (int i = 0; i < 20_000; i++) {
+                WindowStats stats = aggregator.getStats("TTN-1", EWindow.HOUR, T0 + i * 1000L);
+                if (stats.getCount() > 0) {
+                    Assert.assertEquals(2 * stats.getPm2_5Mean(), stats.getPm10Mean(), 0.0);
+                    Assert.assertEquals(2 * stats.getPm2_5Max(), stats.getPm10Max(), 0.0);
+                }
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+    }
+
+}
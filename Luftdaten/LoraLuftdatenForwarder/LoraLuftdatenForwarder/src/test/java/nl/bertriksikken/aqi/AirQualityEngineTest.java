@@ -0,0 +1,75 @@
+package nl.bertriksikken.aqi;
+
+import java.time.Instant;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the streaming index against the formulas applied to the hourly means.
+ */
+public final class AirQualityEngineTest {
+
+    private static final long T0 = Instant.parse("2019-12-03T00:00:00Z").toEpochMilli();
+    private static final long HOUR = 3600_000L;
+
+    @Test
+    public void testStreaming() {
+        AirQualityEngine engine = new AirQualityEngine(10);
+        // 14 hours of one reading every 10 minutes, the hourly means of PM2.5 go 5, 10, .. 70, PM10 twice that
+        AirQualityIndex index = null;
+        for (int hour = 0; hour < 14; hour++) {
+            for (int minute = 0; minute < 60; minute += 10) {
+                double pm2_5 = 5 * (hour + 1) + (minute - 25) / 10.0;
+                index = engine.update("TTN-1", T0 + hour * HOUR + minute * 60_000L, pm2_5, 2 * pm2_5);
+            }
+        }
+        Assert.assertEquals(T0 + 13 * HOUR, index.getHour());
+        Assert.assertEquals(70.0, index.getPm2_5(), 1E-9);
+        Assert.assertEquals(Math.round(AqiCalculator.caqi(70.0, 140.0)), index.getCaqi());
+
+        // only the last 12 hours count
+        double[] hourly = new double[12];
+        for (int i = 0; i < 12; i++) {
+            hourly[i] = 70 - 5 * i;
+        }
+        Assert.assertEquals(AqiCalculator.nowCast(hourly), index.getNowCastPm2_5(), 1E-9);
+        long expected = Math.max(Math.round(AqiCalculator.usAqiPm2_5(index.getNowCastPm2_5())),
+                Math.round(AqiCalculator.usAqiPm10(index.getNowCastPm10())));
+        Assert.assertEquals(expected, index.getAqi());
+        Assert.assertSame(index, engine.get("TTN-1", T0 + 15 * HOUR));
+        Assert.assertNull(engine.get("TTN-1", T0 + 16 * HOUR));
+
+        // a late reading within the ring counts for its own hour, one older than the ring is ignored
+        AirQualityIndex late = engine.update("TTN-1", T0 + 12 * HOUR, 1000.0, 2000.0);
+        Assert.assertTrue(late.getNowCastPm2_5() > index.getNowCastPm2_5());
+        Assert.assertEquals(70.0, late.getPm2_5(), 1E-9);
+        Assert.assertSame(late, engine.update("TTN-1", T0, 1000.0, 2000.0));
+    }
+
+    @Test
+    public void testGaps() {
+        AirQualityEngine engine = new AirQualityEngine(10);
+        AirQualityIndex index = engine.update("TTN-1", T0, 20.0, 40.0);
+        Assert.assertEquals(40, index.getCaqi());
+        Assert.assertEquals(AirQualityIndex.UNAVAILABLE, index.getAqi());
+
+        // two of the three most recent hours are enough
+        index = engine.update("TTN-1", T0 + 2 * HOUR, 20.0, Double.NaN);
+        Assert.assertEquals(20.0, index.getNowCastPm2_5(), 1E-9);
+        Assert.assertTrue(Double.isNaN(index.getNowCastPm10()));
+        Assert.assertEquals(Math.round(AqiCalculator.usAqiPm2_5(20.0)), index.getAqi());
+    }
+
+    @Test
+    public void testMaxSensors() {
+        AirQualityEngine engine = new AirQualityEngine(1);
+        Assert.assertNotNull(engine.update("TTN-1", T0, 1.0, 1.0));
+        Assert.assertNull(engine.update("TTN-2", T0, 1.0, 1.0));
+        Assert.assertNull(engine.get("TTN-2", T0));
+        Assert.assertEquals(1, engine.getSensorCount());
+        Assert.assertEquals(1, engine.getUpdateCount());
+        Assert.assertEquals(1, engine.getRejectedCount());
+    }
+
+}
@@ -0,0 +1,65 @@
+package nl.bertriksikken.aqi;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the index formulas against reference values calculated by hand from the published breakpoints.
+ */
+public final class AqiCalculatorTest {
+
+    private static final double NAN = Double.NaN;
+
+    @Test
+    public void testCaqi() {
+        Assert.assertEquals(25.0, AqiCalculator.caqi(15.0, NAN), 1E-9);
+        Assert.assertEquals(50.0, AqiCalculator.caqi(NAN, 50.0), 1E-9);
+        // the highest sub-index counts: PM2.5 33.3, PM10 40
+        Assert.assertEquals(40.0, AqiCalculator.caqi(20.0, 40.0), 1E-9);
+        Assert.assertEquals(81.818, AqiCalculator.caqi(70.0, 10.0), 1E-3);
+        // beyond the grid, the highest band is extended
+        Assert.assertEquals(150.0, AqiCalculator.caqi(220.0, NAN), 1E-9);
+        Assert.assertTrue(Double.isNaN(AqiCalculator.caqi(NAN, NAN)));
+    }
+
+    @Test
+    public void testUsAqiPm2_5() {
+        Assert.assertEquals(50.0, AqiCalculator.usAqiPm2_5(9.0), 1E-9);
+        Assert.assertEquals(50.0, AqiCalculator.usAqiPm2_5(9.04), 1E-9);
+        Assert.assertEquals(51.0, AqiCalculator.usAqiPm2_5(9.1), 1E-9);
+        // 50 with the breakpoints from before 2024
+        Assert.assertEquals(56.403, AqiCalculator.usAqiPm2_5(12.0), 1E-3);
+        Assert.assertEquals(100.0, AqiCalculator.usAqiPm2_5(35.4), 1E-9);
+        Assert.assertEquals(101.0, AqiCalculator.usAqiPm2_5(35.5), 1E-9);
+        Assert.assertEquals(150.0, AqiCalculator.usAqiPm2_5(55.4), 1E-9);
+        Assert.assertEquals(200.0, AqiCalculator.usAqiPm2_5(125.4), 1E-9);
+        Assert.assertEquals(300.0, AqiCalculator.usAqiPm2_5(225.4), 1E-9);
+        Assert.assertEquals(500.0, AqiCalculator.usAqiPm2_5(325.4), 1E-9);
+        Assert.assertTrue(Double.isNaN(AqiCalculator.usAqiPm2_5(NAN)));
+    }
+
+    @Test
+    public void testUsAqiPm10() {
+        Assert.assertEquals(50.0, AqiCalculator.usAqiPm10(54.0), 1E-9);
+        Assert.assertEquals(50.0, AqiCalculator.usAqiPm10(54.9), 1E-9);
+        Assert.assertEquals(51.0, AqiCalculator.usAqiPm10(55.0), 1E-9);
+        Assert.assertEquals(73.273, AqiCalculator.usAqiPm10(100.0), 1E-3);
+        Assert.assertEquals(100.0, AqiCalculator.usAqiPm10(154.0), 1E-9);
+        Assert.assertEquals(500.0, AqiCalculator.usAqiPm10(604.0), 1E-9);
+    }
+
+    @Test
+    public void testNowCast() {
+        // the weight factor is at least 0.5: (30 + 0.5 * 20 + 0.25 * 10) / 1.75
+        Assert.assertEquals(24.2857, AqiCalculator.nowCast(new double[] {30, 20, 10}), 1E-4);
+        // steady values weigh older hours more, factor 10 / 12
+        Assert.assertEquals(10.9341, AqiCalculator.nowCast(new double[] {10, 12, 11, NAN}), 1E-4);
+        // a missing hour is left out, but the next hour still gets its weight
+        Assert.assertEquals(18.0, AqiCalculator.nowCast(new double[] {20, NAN, 10}), 1E-9);
+        Assert.assertEquals(0.0, AqiCalculator.nowCast(new double[] {0, 0, 0}), 1E-9);
+        // at least two of the three most recent hours
+        Assert.assertTrue(Double.isNaN(AqiCalculator.nowCast(new double[] {NAN, NAN, 10, 10, 10})));
+        Assert.assertEquals(10.0, AqiCalculator.nowCast(new double[] {10, NAN, 10}), 1E-9);
+    }
+
+}
@@ -0,0 +1,106 @@
+package nl.bertriksikken.influx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import nl.bertriksikken.aqi.AirQualityEngine;
+import nl.bertriksikken.aqi.AirQualityIndex;
+import nl.bertriksikken.loraforwarder.sink.SensorReading;
+
+/**
+ * Tests the InfluxDB sink against a local stub server.
+ */
+public final class InfluxSinkTest {
+
+    private static final Instant TIME = Instant.ofEpochMilli(1575367200123L);
+
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    private HttpServer server;
+
+    @Before
+    public void before() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI() + " "
+                    + readAll(exchange.getRequestBody()));
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @After
+    public void after() {
+        server.stop(0);
+    }
+
+    private static String readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = is.read(buffer)) > 0) {
+            bos.write(buffer, 0, n);
+        }
+        return new String(bos.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testWrite() throws IOException {
+        String url = "http://localhost:" + server.getAddress().getPort();
+        InfluxSink sink = new InfluxSink(InfluxSink.newRestClient(url, Duration.ofSeconds(5)), "luftdaten");
+        sink.write(new SensorReading("TTN-0001", "0001", TIME, 12.0, 5.5, 3.0, 21.5, Double.NaN, 1013.25));
+
+        Assert.assertEquals(Collections.singletonList("POST /write?db=luftdaten&precision=ms particulates,"
+                + "sensor=TTN-0001 pm1=3.0,pm2_5=5.5,pm10=12.0,temperature=21.5,pressure=1013.25 1575367200123"),
+                requests);
+    }
+
+    @Test
+    public void testWriteBatch() throws IOException {
+        String url = "http://localhost:" + server.getAddress().getPort();
+        InfluxSink sink = new InfluxSink(InfluxSink.newRestClient(url, Duration.ofSeconds(5)), "luftdaten");
+        sink.writeBatch(Arrays.asList(
+                new SensorReading("TTN-0001", "0001", TIME, 12.0, Double.NaN, Double.NaN, Double.NaN, Double.NaN,
+                        Double.NaN),
+                new SensorReading("TTN-0002", "0002", TIME, 7.0, Double.NaN, Double.NaN, Double.NaN, Double.NaN,
+                        Double.NaN)));
+
+        Assert.assertEquals(Collections.singletonList("POST /write?db=luftdaten&precision=ms "
+                + "particulates,sensor=TTN-0001 pm10=12.0 1575367200123\n"
+                + "particulates,sensor=TTN-0002 pm10=7.0 1575367200123\n"), requests);
+    }
+
+    @Test
+    public void testAirQuality() {
+        // a single hour gives a CAQI, but too few hours for a NowCast
+        AirQualityIndex index = new AirQualityEngine(1).update("TTN-0001", TIME.toEpochMilli(), 20.0, 40.0);
+        SensorReading reading = new SensorReading("TTN-0001", "0001", TIME, 40.0, 20.0, Double.NaN, Double.NaN,
+                Double.NaN, Double.NaN, index);
+        Assert.assertEquals("particulates,sensor=TTN-0001 pm2_5=20.0,pm10=40.0,caqi=40.0 1575367200123",
+                InfluxSink.toLine(reading));
+    }
+
+    @Test
+    public void testEscape() {
+        SensorReading reading = new SensorReading("a b,c=d", "0001", TIME, 1.0, Double.NaN, Double.NaN, Double.NaN,
+                Double.NaN, Double.NaN);
+        Assert.assertEquals("particulates,sensor=a\\ b\\,c\\=d pm10=1.0 1575367200123", InfluxSink.toLine(reading));
+    }
+
+}
@@ -0,0 +1,74 @@
+package nl.bertriksikken.loraforwarder;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public final class BoundedExecutorTest {
+
+    @Test
+    public void testDropNewest() throws InterruptedException {
+        List<Integer> done = new CopyOnWriteArrayList<>();
+        BoundedExecutor executor = new BoundedExecutor(2, EOverflowPolicy.DROP_NEWEST);
+        CountDownLatch latch = blockWorker(executor);
+        for (int i = 0; i < 5; i++) {
+            int value = i;
+            executor.execute(() -> done.add(value));
+        }
+        Assert.assertEquals(2, executor.getQueueDepth());
+        Assert.assertEquals(3, executor.getDropCount());
+
+        latch.countDown();
+        drain(executor);
+        Assert.assertEquals(Arrays.asList(0, 1), done);
+    }
+
+    @Test
+    public void testDropOldest() throws InterruptedException {
+        List<Integer> done = new CopyOnWriteArrayList<>();
+        BoundedExecutor executor = new BoundedExecutor(2, EOverflowPolicy.DROP_OLDEST);
+        CountDownLatch latch = blockWorker(executor);
+        for (int i = 0; i < 5; i++) {
+            int value = i;
+            executor.execute(() -> done.add(value));
+        }
+        Assert.assertEquals(2, executor.getQueueDepth());
+        Assert.assertEquals(3, executor.getDropCount());
+
+        latch.countDown();
+        drain(executor);
+        Assert.assertEquals(Arrays.asList(3, 4), done);
+    }
+
+    // occupies the single worker thread until the returned latch is released
+    private CountDownLatch blockWorker(BoundedExecutor executor) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch latch = new CountDownLatch(1);
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Assert.assertTrue(started.await(1, TimeUnit.SECONDS));
+        return latch;
+    }
+
+    private void drain(BoundedExecutor executor) throws InterruptedException {
+        while (executor.getQueueDepth() > 0) {
+            Thread.sleep(1);
+        }
+        CountDownLatch drained = new CountDownLatch(1);
+        executor.execute(drained::countDown);
+        Assert.assertTrue(drained.await(1, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+}
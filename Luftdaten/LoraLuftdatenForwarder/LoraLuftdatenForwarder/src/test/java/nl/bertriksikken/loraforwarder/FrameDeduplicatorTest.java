@@ -0,0 +1,101 @@
+package nl.bertriksikken.loraforwarder;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public final class FrameDeduplicatorTest {
+
+    @Test
+    public void testDuplicate() {
+        FrameDeduplicator dedup = new FrameDeduplicator(64);
+        Assert.assertTrue(dedup.accept("0001", 10));
+        Assert.assertTrue(dedup.accept("0001", 11));
+        Assert.assertFalse(dedup.accept("0001", 11));
+        Assert.assertFalse(dedup.accept("0001", 10));
+        // other device, same counter
+        Assert.assertTrue(dedup.accept("0002", 11));
+        Assert.assertEquals(2, dedup.getSuppressedCount());
+    }
+
+    /**
+     * Verifies that frames arriving out of order, but within the window, are accepted once.
+     */
+    @Test
+    public void testOutOfOrder() {
+        FrameDeduplicator dedup = new FrameDeduplicator(64);
+        Assert.assertTrue(dedup.accept("0001", 100));
+        Assert.assertTrue(dedup.accept("0001", 103));
+        Assert.assertTrue(dedup.accept("0001", 101));
+        Assert.assertTrue(dedup.accept("0001", 102));
+        Assert.assertFalse(dedup.accept("0001", 101));
+        Assert.assertFalse(dedup.accept("0001", 103));
+
+        // slide the window, frames skipped over are not considered seen
+        Assert.assertTrue(dedup.accept("0001", 160));
+        Assert.assertTrue(dedup.accept("0001", 140));
+        Assert.assertFalse(dedup.accept("0001", 140));
+        Assert.assertEquals(0, dedup.getResetCount());
+    }
+
+    /**
+     * Verifies that a device reset restarts the window.
+     */
+    @Test
+    public void testCounterReset() {
+        FrameDeduplicator dedup = new FrameDeduplicator(64);
+        Assert.assertTrue(dedup.accept("0001", 5));
+        Assert.assertTrue(dedup.accept("0001", 6));
+        Assert.assertTrue(dedup.accept("0001", 0));
+        Assert.assertTrue(dedup.accept("0001", 1));
+        Assert.assertFalse(dedup.accept("0001", 1));
+
+        Assert.assertTrue(dedup.accept("0001", 1000));
+        Assert.assertTrue(dedup.accept("0001", 7));
+        Assert.assertTrue(dedup.accept("0001", 8));
+        Assert.assertEquals(2, dedup.getResetCount());
+        Assert.assertEquals(1, dedup.getSuppressedCount());
+    }
+
+    /**
+     * Verifies that a reset is detected when the first frame after it was lost, while late duplicates are still
+     * suppressed.
+     */
+    @Test
+    public void testResetWithoutFrameZero() {
+        FrameDeduplicator dedup = new FrameDeduplicator(64);
+        for (int counter = 10; counter <= 40; counter++) {
+            Assert.assertTrue(dedup.accept("0001", counter));
+        }
+        Assert.assertFalse(dedup.accept("0001", 11));
+
+        // reboot, frame 0 lost
+        Assert.assertTrue(dedup.accept("0001", 1));
+        Assert.assertTrue(dedup.accept("0001", 2));
+        Assert.assertFalse(dedup.accept("0001", 2));
+        Assert.assertTrue(dedup.accept("0001", 3));
+        Assert.assertEquals(1, dedup.getResetCount());
+        Assert.assertEquals(2, dedup.getSuppressedCount());
+    }
+
+    /**
+     * Verifies 32-bit frame counters beyond the range of an int.
+     */
+    @Test
+    public void testLargeCounter() {
+        FrameDeduplicator dedup = new FrameDeduplicator(64);
+        long counter = 0xFFFFFFF0L;
+        Assert.assertTrue(dedup.accept("0001", counter));
+        Assert.assertTrue(dedup.accept("0001", counter + 1));
+        Assert.assertFalse(dedup.accept("0001", counter));
+        Assert.assertEquals(0, dedup.getResetCount());
+    }
+
+    @Test
+    public void testUnknownCounter() {
+        FrameDeduplicator dedup = new FrameDeduplicator(64);
+        Assert.assertTrue(dedup.accept("0001", -1));
+        Assert.assertTrue(dedup.accept("0001", -1));
+        Assert.assertEquals(0, dedup.getDeviceCount());
+    }
+
+}
@@ -0,0 +1,58 @@
+package nl.bertriksikken.loraforwarder;
+
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import nl.bertriksikken.loraforwarder.filter.EFilterReason;
+import nl.bertriksikken.loraforwarder.filter.ReadingFilter;
+import nl.bertriksikken.loraforwarder.transform.TransformStage;
+import nl.bertriksikken.ttn.dto.TtnUplink;
+
+/**
+ * Tests the validation stage: the transforms, then the filter.
+ */
+public final class LoraLuftdatenForwarderTest {
+
+    /**
+     * Verifies that the filter checks the values after unit scaling, e.g. a pressure reported in Pa.
+     */
+    @Test
+    public void testScaleBeforeFilter() {
+        ReadingFilter filter = new ReadingFilter(1000, 0, 3, 10);
+        TransformStage transforms = new TransformStage(Collections.singletonMap("pressure", "0.01*x"), 0, 95,
+                Collections.emptyMap());
+
+        TtnUplink uplink = new TtnUplink();
+        uplink.setValues(1, 5.0, 5.0, 5.0, 21.5, 60.0, 101325.0);
+        Assert.assertNull(LoraLuftdatenForwarder.validate(filter, transforms, "TTN-1", uplink));
+        Assert.assertTrue(uplink.hasBme());
+        Assert.assertEquals(1013.25, uplink.getPressure(), 1E-9);
+        Assert.assertEquals(0, filter.getRejectedCount(EFilterReason.INVALID_PRESSURE));
+
+        // without the scaling, the pressure is out of range and the BME280 values are dropped
+        uplink.setValues(1, 5.0, 5.0, 5.0, 21.5, 60.0, 101325.0);
+        Assert.assertNull(LoraLuftdatenForwarder.validate(filter, null, "TTN-1", uplink));
+        Assert.assertFalse(uplink.hasBme());
+    }
+
+    /**
+     * Verifies that a calibration giving an invalid PM value is caught by the filter.
+     */
+    @Test
+    public void testCalibrationBeforeFilter() {
+        ReadingFilter filter = new ReadingFilter(1000, 0, 3, 10);
+        TransformStage transforms = new TransformStage(Collections.emptyMap(), 0, 95,
+                Collections.singletonMap("TTN-1/pm2_5", "0.8*x-2"));
+
+        TtnUplink uplink = new TtnUplink();
+        uplink.setValues(1, 1.0, 1.0, 1.0, Double.NaN, Double.NaN, Double.NaN);
+        Assert.assertEquals(EFilterReason.PM_RANGE, LoraLuftdatenForwarder.validate(filter, transforms, "TTN-1",
+                uplink));
+        uplink.setValues(1, 10.0, 10.0, 10.0, Double.NaN, Double.NaN, Double.NaN);
+        Assert.assertNull(LoraLuftdatenForwarder.validate(filter, transforms, "TTN-1", uplink));
+        Assert.assertEquals(6.0, uplink.getPm2_5(), 1E-9);
+    }
+
+}
@@ -0,0 +1,73 @@
+package nl.bertriksikken.loraforwarder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import nl.bertriksikken.ttn.dto.TtnUplink;
+import nl.bertriksikken.ttn.dto.TtnUplinkDecoder;
+
+public final class PayloadDecoderRegistryTest {
+
+    @Test
+    public void testSelection() throws IOException {
+        Map<String, String> ports = new HashMap<>();
+        ports.put("2", "sps30raw");
+        Map<String, String> devices = Collections.singletonMap("ttgo_.*", "sps30raw");
+        PayloadDecoderRegistry registry = new PayloadDecoderRegistry("rudzl", ports, devices);
+
+        Assert.assertEquals(EPayloadEncoding.RUDZL, registry.getEncoding(uplink("node1", 1)));
+        Assert.assertEquals(EPayloadEncoding.SPS30_RAW, registry.getEncoding(uplink("node1", 2)));
+        Assert.assertEquals(EPayloadEncoding.SPS30_RAW, registry.getEncoding(uplink("ttgo_mac", 1)));
+        // cached result
+        Assert.assertEquals(EPayloadEncoding.SPS30_RAW, registry.getEncoding(uplink("ttgo_mac", 1)));
+    }
+
+    /**
+     * Verifies that a device pattern mapping to the default encoding still takes precedence over a port mapping.
+     */
+    @Test
+    public void testDeviceToDefault() throws IOException {
+        Map<String, String> ports = Collections.singletonMap("1", "sps30raw");
+        Map<String, String> devices = Collections.singletonMap("old_.*", "rudzl");
+        PayloadDecoderRegistry registry = new PayloadDecoderRegistry("rudzl", ports, devices);
+
+        Assert.assertEquals(EPayloadEncoding.RUDZL, registry.getEncoding(uplink("old_x", 1)));
+        // cached result
+        Assert.assertEquals(EPayloadEncoding.RUDZL, registry.getEncoding(uplink("old_x", 1)));
+        Assert.assertEquals(EPayloadEncoding.SPS30_RAW, registry.getEncoding(uplink("new_x", 1)));
+        Assert.assertEquals(EPayloadEncoding.SPS30_RAW, registry.getEncoding(uplink("new_x", 1)));
+    }
+
+    @Test
+    public void testStatistics() throws IOException {
+        PayloadDecoderRegistry registry = new PayloadDecoderRegistry("sps30raw", Collections.emptyMap(),
+                Collections.emptyMap());
+        // no raw payload, so decoding fails
+        Assert.assertFalse(registry.decode(uplink("node1", 1)));
+
+        PayloadDecoderRegistry.Entry entry = registry.getEntries().iterator().next();
+        Assert.assertEquals("sps30raw", entry.getName());
+        Assert.assertEquals(1, entry.getCount());
+        Assert.assertEquals(1, entry.getFailures());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownEncoding() {
+        new PayloadDecoderRegistry("unknown", Collections.emptyMap(), Collections.emptyMap());
+    }
+
+    private TtnUplink uplink(String devId, int port) throws IOException {
+        String json = String.format("{\"dev_id\":\"%s\",\"hardware_serial\":\"0001\",\"port\":%d}", devId, port);
+        byte[] data = json.getBytes(StandardCharsets.US_ASCII);
+        TtnUplink uplink = new TtnUplink();
+        new TtnUplinkDecoder().decode(data, data.length, uplink);
+        return uplink;
+    }
+
+}
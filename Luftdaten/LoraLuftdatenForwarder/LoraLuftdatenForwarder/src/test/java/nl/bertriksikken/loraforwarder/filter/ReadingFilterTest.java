@@ -0,0 +1,71 @@
+package nl.bertriksikken.loraforwarder.filter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import nl.bertriksikken.ttn.dto.TtnUplink;
+
+/**
+ * Tests the range checks and the spike filter.
+ */
+public final class ReadingFilterTest {
+
+    private static final double NAN = Double.NaN;
+
+    private static TtnUplink uplink(double pm, double temp, double rh, double pressure) {
+        TtnUplink uplink = new TtnUplink();
+        uplink.setValues(1, pm, pm, pm, temp, rh, pressure);
+        return uplink;
+    }
+
+    @Test
+    public void testRanges() {
+        ReadingFilter filter = new ReadingFilter(1000, 0, 3, 10);
+        TtnUplink missing = new TtnUplink();
+        missing.setValues(1, 5.0, NAN, 5.0, NAN, NAN, NAN);
+        Assert.assertEquals(EFilterReason.MISSING_PM, filter.filter("TTN-1", missing));
+        Assert.assertEquals(EFilterReason.PM_RANGE, filter.filter("TTN-1", uplink(-1.0, NAN, NAN, NAN)));
+        Assert.assertEquals(EFilterReason.PM_RANGE, filter.filter("TTN-1", uplink(1500.0, NAN, NAN, NAN)));
+
+        // valid, without and with BME280 values
+        Assert.assertNull(filter.filter("TTN-1", uplink(5.0, NAN, NAN, NAN)));
+        TtnUplink valid = uplink(5.0, 21.5, 60.0, 1013.0);
+        Assert.assertNull(filter.filter("TTN-1", valid));
+        Assert.assertEquals(21.5, valid.getTemp(), 0.0);
+
+        // an invalid or missing BME280 value drops the set, but not the reading
+        TtnUplink hot = uplink(5.0, 150.0, 60.0, 1013.0);
+        Assert.assertNull(filter.filter("TTN-1", hot));
+        Assert.assertFalse(hot.hasBme());
+        Assert.assertEquals(5.0, hot.getPm2_5(), 0.0);
+        Assert.assertNull(filter.filter("TTN-1", uplink(5.0, 21.5, 60.0, NAN)));
+
+        Assert.assertEquals(1, filter.getRejectedCount(EFilterReason.MISSING_PM));
+        Assert.assertEquals(2, filter.getRejectedCount(EFilterReason.PM_RANGE));
+        Assert.assertEquals(1, filter.getRejectedCount(EFilterReason.INVALID_TEMP));
+        Assert.assertEquals(0, filter.getRejectedCount(EFilterReason.INVALID_RH));
+        Assert.assertEquals(1, filter.getRejectedCount(EFilterReason.INVALID_PRESSURE));
+        Assert.assertEquals(4, filter.getPassedCount());
+    }
+
+    @Test
+    public void testSpikes() {
+        ReadingFilter filter = new ReadingFilter(1000, 5, 3, 10);
+        for (double pm : new double[] {10, 14, 12, 11, 13}) {
+            Assert.assertNull(filter.filter("TTN-1", uplink(pm, NAN, NAN, NAN)));
+        }
+        Assert.assertEquals(EFilterReason.PM_SPIKE, filter.filter("TTN-1", uplink(100, NAN, NAN, NAN)));
+        Assert.assertNull(filter.filter("TTN-1", uplink(12, NAN, NAN, NAN)));
+        // within the minimum deviation
+        Assert.assertNull(filter.filter("TTN-1", uplink(21, NAN, NAN, NAN)));
+        // other sensors have their own window
+        Assert.assertNull(filter.filter("TTN-2", uplink(100, NAN, NAN, NAN)));
+
+        // a lasting change of level passes once it fills half of the window
+        Assert.assertEquals(EFilterReason.PM_SPIKE, filter.filter("TTN-1", uplink(80, NAN, NAN, NAN)));
+        Assert.assertEquals(EFilterReason.PM_SPIKE, filter.filter("TTN-1", uplink(80, NAN, NAN, NAN)));
+        Assert.assertNull(filter.filter("TTN-1", uplink(80, NAN, NAN, NAN)));
+        Assert.assertEquals(3, filter.getRejectedCount(EFilterReason.PM_SPIKE));
+    }
+
+}
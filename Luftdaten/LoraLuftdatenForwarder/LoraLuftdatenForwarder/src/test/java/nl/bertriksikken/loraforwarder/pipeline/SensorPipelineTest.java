@@ -0,0 +1,115 @@
+package nl.bertriksikken.loraforwarder.pipeline;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import nl.bertriksikken.loraforwarder.EOverflowPolicy;
+
+public final class SensorPipelineTest {
+
+    // uses the message text as sensor id
+    private static boolean decode(SensorEvent event) {
+        event.setSensorId(new String(event.getPayload(), 0, event.getLength(), StandardCharsets.US_ASCII));
+        return true;
+    }
+
+    @Test
+    public void testOrderAndStages() throws InterruptedException {
+        List<String> uploaded = Collections.synchronizedList(new ArrayList<>());
+        List<String> persisted = Collections.synchronizedList(new ArrayList<>());
+        SensorPipeline pipeline = new SensorPipeline(16, 2, 3, EOverflowPolicy.BLOCK, SensorPipelineTest::decode,
+                event -> !event.getSensorId().startsWith("invalid"), event -> uploaded.add(event.getSensorId()),
+                event -> persisted.add(event.getSensorId()));
+        pipeline.start();
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(pipeline.publish(Instant.now(), bytes("s" + i)));
+        }
+        pipeline.publish(Instant.now(), bytes("invalid"));
+        pipeline.stop(5, TimeUnit.SECONDS);
+
+        Assert.assertEquals(100, uploaded.size());
+        Assert.assertEquals(100, persisted.size());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals("s" + i, persisted.get(i));
+        }
+        Assert.assertEquals(0, pipeline.getDropCount());
+    }
+
+    /**
+     * Verifies that decoding is spread over the decode threads, while validation still sees all events in order.
+     */
+    @Test
+    public void testParallelDecode() throws InterruptedException {
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        List<String> validated = new ArrayList<>();
+        SensorPipeline pipeline = new SensorPipeline(16, 3, 1, EOverflowPolicy.BLOCK, event -> {
+            threads.add(Thread.currentThread().getName());
+            return decode(event);
+        }, event -> validated.add(event.getSensorId()), event -> true, event -> true);
+        pipeline.start();
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(pipeline.publish(Instant.now(), bytes("s" + i)));
+        }
+        pipeline.stop(5, TimeUnit.SECONDS);
+
+        Assert.assertEquals(3, threads.size());
+        Assert.assertEquals(100, validated.size());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals("s" + i, validated.get(i));
+        }
+    }
+
+    @Test
+    public void testSlowUploadDoesNotBlockPersist() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch persisted = new CountDownLatch(10);
+        SensorPipeline pipeline = new SensorPipeline(16, 1, 1, EOverflowPolicy.DROP_NEWEST,
+                SensorPipelineTest::decode, event -> true, event -> {
+                    release.await();
+                    return true;
+                }, event -> {
+                    persisted.countDown();
+                    return true;
+                });
+        pipeline.start();
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(pipeline.publish(Instant.now(), bytes("s" + i)));
+        }
+        Assert.assertTrue(persisted.await(5, TimeUnit.SECONDS));
+
+        // the ring fills up behind the blocked upload
+        int dropped = 0;
+        for (int i = 0; i < 10; i++) {
+            if (!pipeline.publish(Instant.now(), bytes("t" + i))) {
+                dropped++;
+            }
+        }
+        Assert.assertEquals(4, dropped);
+        Assert.assertEquals(4, pipeline.getDropCount());
+
+        release.countDown();
+        pipeline.stop(5, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPublishStopped() {
+        SensorPipeline pipeline = new SensorPipeline(4, 1, 1, EOverflowPolicy.BLOCK, event -> true, event -> true,
+                event -> true, event -> true);
+        pipeline.publish(Instant.now(), bytes("s"));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+}
@@ -0,0 +1,106 @@
+package nl.bertriksikken.loraforwarder.sink;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public final class BatchingSinkTest {
+
+    /**
+     * Test sink that records the sizes of the batches.
+     */
+    private static final class TestSink implements ISink {
+        private final List<Integer> batches = Collections.synchronizedList(new ArrayList<>());
+        private boolean fail;
+
+        @Override
+        public String getName() {
+            return "test";
+        }
+
+        @Override
+        public void write(SensorReading reading) {
+            throw new IllegalStateException("single write");
+        }
+
+        @Override
+        public void writeBatch(List<SensorReading> readings) throws IOException {
+            batches.add(readings.size());
+            if (fail) {
+                throw new IOException("broken");
+            }
+        }
+    }
+
+    private static SensorReading reading(int i) {
+        return new SensorReading("TTN-1", "0001", Instant.now(), i, 1.0, 0.5, Double.NaN, Double.NaN, Double.NaN);
+    }
+
+    /**
+     * Verifies that full batches are written right away and the rest at stop.
+     */
+    @Test
+    public void testSize() throws IOException {
+        TestSink sink = new TestSink();
+        BatchingSink batching = new BatchingSink(sink, 10, Duration.ofMinutes(1));
+        batching.start();
+        for (int i = 0; i < 25; i++) {
+            batching.write(reading(i));
+        }
+        Assert.assertEquals(2, sink.batches.size());
+        Assert.assertEquals(5, batching.getBuffered());
+
+        batching.stop();
+        Assert.assertEquals(Arrays.asList(10, 10, 5), sink.batches);
+        Assert.assertEquals(2, batching.getFlushCount(EFlushReason.SIZE));
+        Assert.assertEquals(1, batching.getFlushCount(EFlushReason.STOP));
+        Assert.assertEquals(25, batching.getReadingCount());
+        Assert.assertEquals(10, batching.getMaxBatchSize());
+    }
+
+    /**
+     * Verifies that a partial batch is written after the linger time.
+     */
+    @Test
+    public void testLinger() throws IOException, InterruptedException {
+        TestSink sink = new TestSink();
+        BatchingSink batching = new BatchingSink(sink, 10, Duration.ofMillis(50));
+        batching.start();
+        batching.write(reading(1));
+        batching.write(reading(2));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sink.batches.isEmpty() && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(Collections.singletonList(2), sink.batches);
+        Assert.assertEquals(1, batching.getFlushCount(EFlushReason.LINGER));
+
+        batching.stop();
+        Assert.assertEquals(0, batching.getFlushCount(EFlushReason.STOP));
+    }
+
+    /**
+     * Verifies that a failed batch is counted, and does not stop the sink.
+     */
+    @Test
+    public void testFailure() throws IOException {
+        TestSink sink = new TestSink();
+        sink.fail = true;
+        BatchingSink batching = new BatchingSink(sink, 2, Duration.ofMinutes(1));
+        batching.start();
+        for (int i = 0; i < 4; i++) {
+            batching.write(reading(i));
+        }
+        batching.stop();
+        Assert.assertEquals(2, batching.getBatchCount());
+        Assert.assertEquals(4, batching.getFailedCount());
+    }
+
+}
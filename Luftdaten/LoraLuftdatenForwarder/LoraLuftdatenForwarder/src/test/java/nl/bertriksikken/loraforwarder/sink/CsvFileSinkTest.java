@@ -0,0 +1,131 @@
+package nl.bertriksikken.loraforwarder.sink;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class CsvFileSinkTest {
+
+    // 2019-12-03 10:59:30 in Paris
+    private static final Instant TIME = Instant.parse("2019-12-03T09:59:30Z");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private CsvFileSink createSink(int maxOpen) {
+        CsvFileSink sink = new CsvFileSink(folder.getRoot().getPath() + "/", "YYMMdd", maxOpen,
+                Duration.ofMinutes(1), false, 0);
+        sink.start();
+        return sink;
+    }
+
+    private static SensorReading reading(String sensorId, Instant time, double pm10) {
+        return new SensorReading(sensorId, "0001", time, pm10, 2.5, 1.0, Double.NaN, Double.NaN, Double.NaN);
+    }
+
+    private List<String> readLines(String name) throws IOException {
+        return Files.readAllLines(new File(folder.getRoot(), name).toPath(), StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void testWrite() throws IOException {
+        CsvFileSink sink = createSink(4);
+        sink.write(reading("TTN-1", TIME, 10.0));
+        sink.write(new SensorReading("TTN-1", "0001", TIME, 11.0, 2.5, 1.0, 21.5, 60.0, 1013.25));
+        sink.stop();
+
+        Assert.assertEquals(Arrays.asList("yyyy:MM:dd:hh:mm,P0,P2,P1,Temp,Hum,Pressure",
+                "2019:12:03:10:59,1.0,2.5,10.0,0,0,0", "2019:12:03:10:59,1.0,2.5,11.0,21.5,60.0,1013.25"),
+                readLines("TTN-1-191203"));
+        Assert.assertEquals(1, sink.getOpenCount());
+    }
+
+    /**
+     * Verifies that a file rolls over at the date boundary, by time of reception.
+     */
+    @Test
+    public void testRollover() throws IOException {
+        CsvFileSink sink = createSink(4);
+        sink.write(reading("TTN-1", Instant.parse("2019-12-03T22:59:00Z"), 1.0));
+        sink.write(reading("TTN-1", Instant.parse("2019-12-03T23:00:00Z"), 2.0));
+        sink.stop();
+
+        Assert.assertEquals(2, readLines("TTN-1-191203").size());
+        Assert.assertEquals(2, readLines("TTN-1-191204").size());
+    }
+
+    /**
+     * Verifies that an evicted file is reopened for append, without a second header.
+     */
+    @Test
+    public void testEviction() throws IOException {
+        CsvFileSink sink = createSink(1);
+        sink.write(reading("TTN-1", TIME, 1.0));
+        sink.write(reading("TTN-2", TIME, 2.0));
+        sink.write(reading("TTN-1", TIME, 3.0));
+        Assert.assertEquals(1, sink.getOpenFiles());
+        sink.stop();
+
+        Assert.assertEquals(3, sink.getOpenCount());
+        Assert.assertEquals(Arrays.asList("yyyy:MM:dd:hh:mm,P0,P2,P1,Temp,Hum,Pressure",
+                "2019:12:03:10:59,1.0,2.5,1.0,0,0,0", "2019:12:03:10:59,1.0,2.5,3.0,0,0,0"),
+                readLines("TTN-1-191203"));
+        Assert.assertEquals(2, readLines("TTN-2-191203").size());
+    }
+
+    /**
+     * Verifies that retention only deletes old data files that are not open.
+     */
+    @Test
+    public void testPurge() throws IOException {
+        CsvFileSink sink = createSink(4);
+        sink.write(reading("TTN-1", TIME, 1.0));
+        long old = Instant.now().minus(Duration.ofDays(10)).toEpochMilli();
+        for (String name : Arrays.asList("TTN-1-191203", "TTN-2-191201", "notes.txt", "TTN-3-old")) {
+            File file = new File(folder.getRoot(), name);
+            Assert.assertTrue(file.exists() || file.createNewFile());
+            Assert.assertTrue(file.setLastModified(old));
+        }
+
+        Assert.assertEquals(1, sink.purge(Instant.now().minus(Duration.ofDays(1))));
+        Assert.assertFalse(new File(folder.getRoot(), "TTN-2-191201").exists());
+        Assert.assertTrue(new File(folder.getRoot(), "TTN-1-191203").exists());
+        Assert.assertTrue(new File(folder.getRoot(), "notes.txt").exists());
+        Assert.assertTrue(new File(folder.getRoot(), "TTN-3-old").exists());
+        Assert.assertEquals(1, sink.getPurgedCount());
+        sink.stop();
+    }
+
+    /**
+     * Verifies that retention leaves unrelated files alone that happen to end in a date, e.g. in a shared directory.
+     */
+    @Test
+    public void testPurgeOwnFilesOnly() throws IOException {
+        CsvFileSink sink = createSink(4);
+        long old = Instant.now().minus(Duration.ofDays(10)).toEpochMilli();
+        for (String name : Arrays.asList("TTN-0004A30B001F1234-191201", "backup-191201", "TTN-x-191201",
+                "my-TTN-1-191201")) {
+            File file = new File(folder.getRoot(), name);
+            Assert.assertTrue(file.createNewFile());
+            Assert.assertTrue(file.setLastModified(old));
+        }
+
+        Assert.assertEquals(1, sink.purge(Instant.now().minus(Duration.ofDays(1))));
+        Assert.assertFalse(new File(folder.getRoot(), "TTN-0004A30B001F1234-191201").exists());
+        Assert.assertTrue(new File(folder.getRoot(), "backup-191201").exists());
+        Assert.assertTrue(new File(folder.getRoot(), "TTN-x-191201").exists());
+        Assert.assertTrue(new File(folder.getRoot(), "my-TTN-1-191201").exists());
+        sink.stop();
+    }
+
+}
@@ -0,0 +1,121 @@
+package nl.bertriksikken.loraforwarder.sink;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import nl.bertriksikken.loraforwarder.EOverflowPolicy;
+
+public final class SinkRunnerTest {
+
+    private static SensorReading reading(String sensorId, double pm10) {
+        return new SensorReading(sensorId, "0001", Instant.now(), pm10, 1.0, 0.5, Double.NaN, Double.NaN,
+                Double.NaN);
+    }
+
+    /**
+     * Test sink that records the readings, optionally blocking until released.
+     */
+    private static final class TestSink implements ISink {
+        private final List<String> written = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch release;
+        private final boolean fail;
+
+        TestSink(CountDownLatch release, boolean fail) {
+            this.release = release;
+            this.fail = fail;
+        }
+
+        @Override
+        public String getName() {
+            return "test";
+        }
+
+        @Override
+        public void write(SensorReading reading) throws Exception {
+            release.await();
+            if (fail) {
+                throw new IllegalStateException("broken");
+            }
+            written.add(reading.getSensorId() + "/" + reading.getPm10());
+        }
+    }
+
+    /**
+     * Verifies that a stuck sink does not hold up another sink, and only drops its own readings.
+     */
+    @Test
+    public void testIsolation() throws InterruptedException {
+        CountDownLatch stuck = new CountDownLatch(1);
+        TestSink slowSink = new TestSink(stuck, false);
+        TestSink fastSink = new TestSink(new CountDownLatch(0), false);
+        SinkRunner slow = new SinkRunner(slowSink, 1, 2, EOverflowPolicy.DROP_NEWEST);
+        SinkRunner fast = new SinkRunner(fastSink, 2, 100, EOverflowPolicy.DROP_NEWEST);
+
+        for (int i = 0; i < 10; i++) {
+            SensorReading reading = reading("TTN-" + (i % 3), i);
+            slow.submit(reading);
+            fast.submit(reading);
+        }
+        fast.stop(1, TimeUnit.SECONDS);
+        Assert.assertEquals(10, fastSink.written.size());
+        Assert.assertEquals(0, fast.getDropCount());
+
+        // one in progress, two queued
+        Assert.assertEquals(7, slow.getDropCount());
+        stuck.countDown();
+        slow.stop(1, TimeUnit.SECONDS);
+        Assert.assertEquals(3, slow.getWrittenCount());
+    }
+
+    /**
+     * Verifies that readings of one sensor are written in order.
+     */
+    @Test
+    public void testOrderPerSensor() {
+        TestSink sink = new TestSink(new CountDownLatch(0), false);
+        SinkRunner runner = new SinkRunner(sink, 4, 1000, EOverflowPolicy.BLOCK);
+        for (int i = 0; i < 100; i++) {
+            runner.submit(reading("TTN-" + (i % 5), i));
+        }
+        runner.stop(1, TimeUnit.SECONDS);
+
+        List<String> expected = new ArrayList<>();
+        List<String> actual = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            if (i % 5 == 2) {
+                expected.add("TTN-2/" + (double) i);
+            }
+        }
+        for (String written : sink.written) {
+            if (written.startsWith("TTN-2/")) {
+                actual.add(written);
+            }
+        }
+        Assert.assertEquals(expected, actual);
+    }
+
+    /**
+     * Verifies that failures are counted and do not stop the sink.
+     */
+    @Test
+    public void testFailure() {
+        SinkRunner runner = new SinkRunner(new TestSink(new CountDownLatch(0), true), 1, 10, EOverflowPolicy.BLOCK);
+        runner.submit(reading("TTN-1", 1));
+        runner.submit(reading("TTN-1", 2));
+        runner.stop(1, TimeUnit.SECONDS);
+        Assert.assertEquals(2, runner.getFailedCount());
+        Assert.assertEquals(0, runner.getWrittenCount());
+
+        // after stopping
+        runner.submit(reading("TTN-1", 3));
+        Assert.assertEquals(1, runner.getDropCount());
+    }
+
+}
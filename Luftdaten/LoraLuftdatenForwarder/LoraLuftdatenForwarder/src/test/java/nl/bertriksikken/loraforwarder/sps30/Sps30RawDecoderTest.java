@@ -0,0 +1,60 @@
+package nl.bertriksikken.loraforwarder.sps30;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import nl.bertriksikken.ttn.dto.TtnUplink;
+import nl.bertriksikken.ttn.dto.TtnUplinkDecoder;
+
+public final class Sps30RawDecoderTest {
+
+    private final TtnUplinkDecoder decoder = new TtnUplinkDecoder();
+
+    @Test
+    public void testDecodeFull() throws IOException {
+        // spsid 0x1234, PM10 17.24, PM2.5 12.48, PM1 9.24, T -2.5, RH 43.50, P 1006
+        byte[] frame = new byte[] { 0x12, 0x34, 0x06, (byte) 0xBC, 0x04, (byte) 0xE0, 0x03, (byte) 0x9C,
+                (byte) 0xFF, 0x06, 0x10, (byte) 0xFE, 0x03, (byte) 0xEE };
+        TtnUplink uplink = decodeUplink(frame);
+
+        Assert.assertTrue(Sps30RawDecoder.decode(uplink));
+        Assert.assertEquals(0x1234, uplink.getSpsId());
+        Assert.assertEquals(17.24, uplink.getPm10(), 0.001);
+        Assert.assertEquals(12.48, uplink.getPm2_5(), 0.001);
+        Assert.assertEquals(9.24, uplink.getPm1(), 0.001);
+        Assert.assertEquals(-2.5, uplink.getTemp(), 0.001);
+        Assert.assertEquals(43.50, uplink.getRh(), 0.001);
+        Assert.assertEquals(1006, uplink.getPressure(), 0.001);
+    }
+
+    @Test
+    public void testDecodeWithoutBme() throws IOException {
+        byte[] frame = new byte[] { 0x12, 0x34, 0x06, (byte) 0xBC, 0x04, (byte) 0xE0, 0x03, (byte) 0x9C };
+        TtnUplink uplink = decodeUplink(frame);
+
+        Assert.assertTrue(Sps30RawDecoder.decode(uplink));
+        Assert.assertEquals(17.24, uplink.getPm10(), 0.001);
+        Assert.assertTrue(Double.isNaN(uplink.getTemp()));
+        Assert.assertTrue(Double.isNaN(uplink.getPressure()));
+    }
+
+    @Test
+    public void testDecodeTooShort() throws IOException {
+        TtnUplink uplink = decodeUplink(new byte[] { 0x12, 0x34, 0x06 });
+        Assert.assertFalse(Sps30RawDecoder.decode(uplink));
+    }
+
+    private TtnUplink decodeUplink(byte[] frame) throws IOException {
+        String json = "{\"hardware_serial\":\"0001\",\"port\":1,\"payload_raw\":\""
+                + Base64.getEncoder().encodeToString(frame) + "\"}";
+        byte[] data = json.getBytes(StandardCharsets.US_ASCII);
+        TtnUplink uplink = new TtnUplink();
+        Assert.assertTrue(decoder.decode(data, data.length, uplink));
+        return uplink;
+    }
+
+}
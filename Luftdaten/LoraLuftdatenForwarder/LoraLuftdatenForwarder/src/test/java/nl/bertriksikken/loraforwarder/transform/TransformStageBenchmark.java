@@ -0,0 +1,103 @@
+package nl.bertriksikken.loraforwarder.transform;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import nl.bertriksikken.ttn.dto.TtnUplink;
+import nl.bertriksikken.ttn.dto.TtnUplinkDecoder;
+
+/**
+ * Measures what the transform stage adds to the handling of an uplink: time and allocation of decoding alone, against
+ * decoding followed by unit scaling, humidity correction and a calibration looked up among 1000 sensors.
+ *
+ * Not a unit test, run it manually as a java application.
+ */
+public final class TransformStageBenchmark {
+
+    private static final int WARMUP = 200_000;
+    private static final int ITERATIONS = 1_000_000;
+    private static final int SENSORS = 1000;
+
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static double sink;
+
+    private interface Step {
+        void run() throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        byte[] data = readResource("/ttn_rudzl_message_2.json");
+        TtnUplinkDecoder decoder = new TtnUplinkDecoder();
+        TtnUplink uplink = new TtnUplink();
+
+        Map<String, String> scale = new HashMap<>();
+        scale.put("pressure", "0.01*x");
+        Map<String, String> calibration = new HashMap<>();
+        String[] sensorIds = new String[SENSORS];
+        for (int i = 0; i < SENSORS; i++) {
+            sensorIds[i] = String.format(Locale.ROOT, "TTN-%016X", 0x0004A30B00000000L + i);
+            calibration.put(sensorIds[i] + "/pm2_5", "0.82*x+1.1");
+            calibration.put(sensorIds[i] + "/pm10", "0.9*x-0.5");
+        }
+        TransformStage stage = new TransformStage(scale, 0.4, 95, calibration);
+
+        int[] next = new int[1];
+        Step decode = () -> {
+            decoder.decode(data, data.length, uplink);
+            sink += uplink.getPm2_5();
+        };
+        Step decodeAndTransform = () -> {
+            decoder.decode(data, data.length, uplink);
+            stage.apply(sensorIds[next[0]++ % SENSORS], uplink);
+            sink += uplink.getPm2_5();
+        };
+        Step transform = () -> {
+            uplink.setValues(1, 2.0, 1.9, 1.5, 25.36, 52.83, 102700.0);
+            stage.apply(sensorIds[next[0]++ % SENSORS], uplink);
+            sink += uplink.getPm2_5();
+        };
+
+        for (int round = 0; round < 3; round++) {
+            measure("decode", decode);
+            measure("decode + transforms", decodeAndTransform);
+            measure("transforms only", transform);
+        }
+        System.out.println("checksum " + sink);
+    }
+
+    private static void measure(String name, Step step) throws IOException {
+        for (int i = 0; i < WARMUP; i++) {
+            step.run();
+        }
+        long threadId = Thread.currentThread().getId();
+        long bytesBefore = THREAD_BEAN.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            step.run();
+        }
+        long nanos = System.nanoTime() - start;
+        long bytes = THREAD_BEAN.getThreadAllocatedBytes(threadId) - bytesBefore;
+        System.out.println(String.format(Locale.ROOT, "%-25s %6d bytes/op %8.1f ns/op", name, bytes / ITERATIONS,
+                (double) nanos / ITERATIONS));
+    }
+
+    private static byte[] readResource(String name) throws IOException {
+        try (InputStream is = TransformStageBenchmark.class.getResourceAsStream(name)) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = is.read(buffer)) > 0) {
+                bos.write(buffer, 0, n);
+            }
+            return bos.toByteArray();
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+package nl.bertriksikken.loraforwarder.transform;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import nl.bertriksikken.ttn.dto.TtnUplink;
+
+/**
+ * Tests the parsing and the application of the transforms.
+ */
+public final class TransformStageTest {
+
+    private static final double NAN = Double.NaN;
+
+    private static TtnUplink uplink(double pm, double temp, double rh, double pressure) {
+        TtnUplink uplink = new TtnUplink();
+        uplink.setValues(7, pm, pm, pm, temp, rh, pressure);
+        return uplink;
+    }
+
+    @Test
+    public void testScale() {
+        Map<String, String> scale = new LinkedHashMap<>();
+        scale.put("pressure", "0.01*x");
+        scale.put("temp", "x - 273.15");
+        TransformStage stage = new TransformStage(scale, 0, 95, Collections.emptyMap());
+        Assert.assertFalse(stage.isEmpty());
+
+        TtnUplink uplink = uplink(5.0, 293.15, 50.0, 101325.0);
+        stage.apply("TTN-1", uplink);
+        Assert.assertEquals(5.0, uplink.getPm2_5(), 1E-9);
+        Assert.assertEquals(20.0, uplink.getTemp(), 1E-9);
+        Assert.assertEquals(1013.25, uplink.getPressure(), 1E-9);
+        Assert.assertEquals(7, uplink.getSpsId());
+        Assert.assertEquals(1, stage.getTransformedCount());
+    }
+
+    @Test
+    public void testHumidity() {
+        TransformStage stage = new TransformStage(Collections.emptyMap(), 0.4, 95, Collections.emptyMap());
+
+        // at 50% RH the growth factor is 1 + 0.4 / 1.65
+        TtnUplink uplink = uplink(12.4242424, 20.0, 50.0, 1000.0);
+        stage.apply("TTN-1", uplink);
+        Assert.assertEquals(10.0, uplink.getPm10(), 1E-6);
+        Assert.assertEquals(10.0, uplink.getPm1(), 1E-6);
+        Assert.assertEquals(50.0, uplink.getRh(), 0.0);
+
+        // capped at 95%, the growth factor is 1 + (0.4 / 1.65) / (100 / 95 - 1)
+        uplink = uplink(56.06061, 20.0, 100.0, 1000.0);
+        stage.apply("TTN-1", uplink);
+        Assert.assertEquals(10.0, uplink.getPm2_5(), 1E-4);
+
+        // without RH, nothing to correct
+        uplink = uplink(12.0, NAN, NAN, NAN);
+        stage.apply("TTN-1", uplink);
+        Assert.assertEquals(12.0, uplink.getPm2_5(), 0.0);
+        Assert.assertTrue(Double.isNaN(uplink.getTemp()));
+        Assert.assertEquals(3, stage.getTransformedCount());
+        Assert.assertEquals(2, stage.getCorrectedCount());
+    }
+
+    @Test
+    public void testCalibration() {
+        Map<String, String> calibration = new LinkedHashMap<>();
+        calibration.put("TTN-1/pm2_5", "0.5*x+1");
+        calibration.put("TTN-1/pm10", "2");
+        TransformStage stage = new TransformStage(Collections.emptyMap(), 0.4, 95, calibration);
+
+        // the calibration applies after the humidity correction
+        TtnUplink uplink = uplink(12.4242424, 20.0, 50.0, 1000.0);
+        stage.apply("TTN-1", uplink);
+        Assert.assertEquals(6.0, uplink.getPm2_5(), 1E-6);
+        Assert.assertEquals(20.0, uplink.getPm10(), 1E-6);
+        Assert.assertEquals(10.0, uplink.getPm1(), 1E-6);
+
+        uplink = uplink(12.4242424, 20.0, 50.0, 1000.0);
+        stage.apply("TTN-2", uplink);
+        Assert.assertEquals(10.0, uplink.getPm2_5(), 1E-6);
+        Assert.assertEquals(1, stage.getCalibratedCount());
+    }
+
+    @Test
+    public void testParse() {
+        double[] gain = new double[1];
+        double[] offset = new double[1];
+        TransformStage.parseInto(0, "0.82*x+1.1", gain, offset);
+        Assert.assertArrayEquals(new double[] {0.82, 1.1}, new double[] {gain[0], offset[0]}, 0.0);
+        TransformStage.parseInto(0, "x - 273.15", gain, offset);
+        Assert.assertArrayEquals(new double[] {1.0, -273.15}, new double[] {gain[0], offset[0]}, 0.0);
+        TransformStage.parseInto(0, "-2.5e-1 * x", gain, offset);
+        Assert.assertArrayEquals(new double[] {-0.25, 0.0}, new double[] {gain[0], offset[0]}, 0.0);
+        TransformStage.parseInto(0, "1000", gain, offset);
+        Assert.assertArrayEquals(new double[] {1000.0, 0.0}, new double[] {gain[0], offset[0]}, 0.0);
+
+        Assert.assertTrue(new TransformStage(Collections.emptyMap(), 0, 95, Collections.emptyMap()).isEmpty());
+        assertInvalid(Collections.singletonMap("pm2_5", "2x"), 0, Collections.emptyMap());
+        assertInvalid(Collections.singletonMap("dust", "2*x"), 0, Collections.emptyMap());
+        assertInvalid(Collections.emptyMap(), 0, Collections.singletonMap("pm2_5", "2*x"));
+        assertInvalid(Collections.emptyMap(), -1, Collections.emptyMap());
+    }
+
+    private static void assertInvalid(Map<String, String> scale, double kappa, Map<String, String> calibration) {
+        try {
+            new TransformStage(scale, kappa, 100, calibration);
+            Assert.fail("expected an exception");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+package nl.bertriksikken.luftdaten;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public final class AdaptiveLimiterTest {
+
+    private static final long RTT = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * Verifies that the limit grows while it is used and the round trip time stays normal.
+     */
+    @Test
+    public void testIncrease() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(2, 4, null);
+        for (int i = 0; i < 20; i++) {
+            while (limiter.acquire(0, TimeUnit.MILLISECONDS)) {
+                // fill up to the limit
+            }
+            for (int j = limiter.getInFlight(); j > 0; j--) {
+                limiter.onSuccess(RTT);
+            }
+        }
+        Assert.assertEquals(4, limiter.getLimit());
+        Assert.assertTrue(limiter.getRejectedCount() > 0);
+        Assert.assertEquals(10.0, limiter.getMinRtt(), 0.01);
+    }
+
+    /**
+     * Verifies that the limit does not grow when it is not used.
+     */
+    @Test
+    public void testNoIncreaseWhenIdle() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(4, 8, null);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(limiter.acquire(0, TimeUnit.MILLISECONDS));
+            limiter.onSuccess(RTT);
+        }
+        Assert.assertEquals(4, limiter.getLimit());
+    }
+
+    /**
+     * Verifies that the limit decreases when the round trip time goes up.
+     */
+    @Test
+    public void testLatencyDecrease() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(8, 8, null);
+        Assert.assertTrue(limiter.acquire(0, TimeUnit.MILLISECONDS));
+        limiter.onSuccess(RTT);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(limiter.acquire(0, TimeUnit.MILLISECONDS));
+            limiter.onSuccess(10 * RTT);
+        }
+        Assert.assertEquals(7, limiter.getLimit());
+    }
+
+    /**
+     * Verifies that the limit halves on overload, but not below 1.
+     */
+    @Test
+    public void testOverload() throws InterruptedException {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(8, 8, null);
+        Assert.assertTrue(limiter.acquire(0, TimeUnit.MILLISECONDS));
+        limiter.onOverload();
+        Assert.assertEquals(4, limiter.getLimit());
+        Assert.assertEquals(0, limiter.getInFlight());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(limiter.acquire(0, TimeUnit.MILLISECONDS));
+            Thread.sleep(1);
+            limiter.onOverload();
+        }
+        Assert.assertEquals(1, limiter.getLimit());
+        Assert.assertTrue(limiter.awaitIdle(0, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Verifies that the token bucket limits the rate after the burst.
+     */
+    @Test
+    public void testTokenBucket() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(100, 3);
+        AdaptiveLimiter limiter = new AdaptiveLimiter(10, 10, bucket);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(limiter.acquire(0, TimeUnit.MILLISECONDS));
+        }
+        Assert.assertFalse(limiter.acquire(0, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(1, limiter.getRejectedCount());
+
+        // the next token is due within 10 ms
+        long start = System.nanoTime();
+        Assert.assertTrue(limiter.acquire(100, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+}
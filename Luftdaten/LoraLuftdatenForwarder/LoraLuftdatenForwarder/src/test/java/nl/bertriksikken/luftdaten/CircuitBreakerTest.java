@@ -0,0 +1,97 @@
+package nl.bertriksikken.luftdaten;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public final class CircuitBreakerTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final CircuitBreaker breaker = new CircuitBreaker("test", 3, Duration.ofSeconds(10), now::get);
+
+    private void advance(long seconds) {
+        now.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+    }
+
+    /**
+     * Verifies that consecutive failures open the circuit, and a success in between resets the count.
+     */
+    @Test
+    public void testOpen() {
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+        breaker.onFailure();
+        Assert.assertEquals(ECircuitState.CLOSED, breaker.getState());
+        Assert.assertTrue(breaker.allowRequest());
+
+        breaker.onFailure();
+        Assert.assertEquals(ECircuitState.OPEN, breaker.getState());
+        Assert.assertFalse(breaker.allowRequest());
+        Assert.assertEquals(1, breaker.getRejectedCount());
+        Assert.assertEquals(1, breaker.getOpenCount());
+    }
+
+    /**
+     * Verifies that a single probe passes after the open time, and its success closes the circuit.
+     */
+    @Test
+    public void testProbeSuccess() {
+        open();
+        advance(9);
+        Assert.assertFalse(breaker.allowRequest());
+        advance(1);
+        Assert.assertTrue(breaker.allowRequest());
+        Assert.assertEquals(ECircuitState.HALF_OPEN, breaker.getState());
+        Assert.assertFalse(breaker.allowRequest());
+
+        breaker.onSuccess();
+        Assert.assertEquals(ECircuitState.CLOSED, breaker.getState());
+        Assert.assertTrue(breaker.allowRequest());
+        Assert.assertEquals(3, breaker.getTransitionCount());
+        Assert.assertEquals(10000, breaker.getOpenMillis());
+
+        advance(5);
+        Assert.assertEquals(10000, breaker.getOpenMillis());
+    }
+
+    /**
+     * Verifies that a failed probe opens the circuit for another period.
+     */
+    @Test
+    public void testProbeFailure() {
+        open();
+        advance(10);
+        Assert.assertTrue(breaker.allowRequest());
+        breaker.onFailure();
+        Assert.assertEquals(ECircuitState.OPEN, breaker.getState());
+        advance(5);
+        Assert.assertFalse(breaker.allowRequest());
+        Assert.assertEquals(15000, breaker.getOpenMillis());
+        Assert.assertEquals(1, breaker.getOpenCount());
+    }
+
+    /**
+     * Verifies that a cancelled probe lets another request probe.
+     */
+    @Test
+    public void testProbeCancel() {
+        open();
+        advance(10);
+        Assert.assertTrue(breaker.allowRequest());
+        breaker.onCancel();
+        Assert.assertTrue(breaker.allowRequest());
+    }
+
+    private void open() {
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure();
+        }
+        Assert.assertEquals(ECircuitState.OPEN, breaker.getState());
+    }
+
+}
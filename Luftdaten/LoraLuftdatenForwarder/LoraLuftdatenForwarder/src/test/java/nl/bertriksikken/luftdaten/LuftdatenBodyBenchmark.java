@@ -0,0 +1,76 @@
+package nl.bertriksikken.luftdaten;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import nl.bertriksikken.luftdaten.dto.LuftdatenItem;
+import nl.bertriksikken.luftdaten.dto.LuftdatenMessage;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+
+/**
+ * Compares allocation and time per upload body of the template writer against the original LuftdatenMessage /
+ * Jackson converter path, including writing the body to the (re-used) network buffer.
+ *
+ * Not a unit test, run it manually as a java application.
+ */
+public final class LuftdatenBodyBenchmark {
+
+    private static final int WARMUP = 100_000;
+    private static final int ITERATIONS = 1_000_000;
+    private static final MediaType JSON = MediaType.parse("application/json; charset=UTF-8");
+
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private interface Upload {
+        void run(double value) throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Buffer sink = new Buffer();
+
+        // what Retrofit's JacksonConverterFactory does with the message
+        ObjectMapper mapper = new ObjectMapper();
+        Upload original = value -> {
+            LuftdatenMessage message = new LuftdatenMessage("SPS30_November_2019-1.0.1");
+            message.addItem(new LuftdatenItem("P0", value));
+            message.addItem(new LuftdatenItem("P1", value + 1));
+            message.addItem(new LuftdatenItem("P2", value + 2));
+            RequestBody body = RequestBody.create(JSON, mapper.writeValueAsBytes(message));
+            body.writeTo(sink);
+            sink.clear();
+        };
+        LuftdatenBodyWriter writer = new LuftdatenBodyWriter("SPS30_November_2019-1.0.1");
+        Upload template = value -> {
+            LuftdatenBody body = writer.writeSps(value, value + 1, value + 2);
+            body.writeTo(sink);
+            sink.clear();
+            writer.release(body);
+        };
+
+        measure("LuftdatenMessage + Jackson converter", original);
+        measure("template body writer", template);
+    }
+
+    private static void measure(String name, Upload upload) throws IOException {
+        for (int i = 0; i < WARMUP; i++) {
+            upload.run(i / 100.0);
+        }
+        long threadId = Thread.currentThread().getId();
+        long bytesBefore = THREAD_BEAN.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            upload.run(i / 100.0);
+        }
+        long nanos = System.nanoTime() - start;
+        long bytes = THREAD_BEAN.getThreadAllocatedBytes(threadId) - bytesBefore;
+        System.out.println(String.format(Locale.ROOT, "%-45s %10d bytes/op %10.0f ns/op", name,
+                bytes / ITERATIONS, (double) nanos / ITERATIONS));
+    }
+
+}
@@ -0,0 +1,67 @@
+package nl.bertriksikken.luftdaten;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import nl.bertriksikken.luftdaten.dto.LuftdatenItem;
+import nl.bertriksikken.luftdaten.dto.LuftdatenMessage;
+
+public final class LuftdatenBodyWriterTest {
+
+    private final LuftdatenBodyWriter writer = new LuftdatenBodyWriter("SPS30_November_2019-1.0.1");
+
+    /**
+     * Verifies that the body is the same as the Jackson serialized message.
+     */
+    @Test
+    public void testSameAsMessage() throws JsonProcessingException {
+        LuftdatenMessage message = new LuftdatenMessage("SPS30_November_2019-1.0.1");
+        message.addItem(new LuftdatenItem("P0", 3.5));
+        message.addItem(new LuftdatenItem("P1", 12.25));
+        message.addItem(new LuftdatenItem("P2", 7.0));
+        String expected = new ObjectMapper().writeValueAsString(message);
+
+        Assert.assertEquals(expected, writer.writeSps(3.5, 12.25, 7.0).toString());
+
+        message = new LuftdatenMessage("SPS30_November_2019-1.0.1");
+        message.addItem(new LuftdatenItem("temperature", -2.5));
+        message.addItem(new LuftdatenItem("humidity", 81.0));
+        message.addItem(new LuftdatenItem("pressure", 101325.0));
+        expected = new ObjectMapper().writeValueAsString(message);
+
+        Assert.assertEquals(expected, writer.writeBme(-2.5, 81.0, 101325.0).toString());
+    }
+
+    @Test
+    public void testNumbers() {
+        Assert.assertEquals("0.0", number(0.0));
+        Assert.assertEquals("0.0", number(-0.001));
+        Assert.assertEquals("1.01", number(1.005000001));
+        Assert.assertEquals("-12.3", number(-12.3));
+        Assert.assertEquals("1234567.89", number(1234567.891));
+        Assert.assertEquals("NaN", number(Double.NaN));
+        Assert.assertEquals("1.0E15", number(1E15));
+    }
+
+    private static String number(double value) {
+        LuftdatenBody body = new LuftdatenBody(1);
+        LuftdatenBodyWriter.writeNumber(body, value);
+        return body.toString();
+    }
+
+    /**
+     * Verifies that a released body is re-used.
+     */
+    @Test
+    public void testPool() {
+        LuftdatenBody body = writer.writeSps(1.0, 2.0, 3.0);
+        writer.release(body);
+        Assert.assertSame(body, writer.writeSps(4.0, 5.0, 6.0));
+        Assert.assertTrue(body.toString().contains("\"P2\",\"value\":\"6.0\""));
+        Assert.assertEquals(body.length(), body.contentLength());
+    }
+
+}
@@ -0,0 +1,68 @@
+package nl.bertriksikken.luftdaten;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes to drain the backlog of a 1 hour luftdaten outage, for several retry batch sizes,
+ * against a simulated server with a fixed response time.
+ *
+ * Not a unit test, run it manually as a java application, optionally with the number of sensors and the response
+ * time (ms) as arguments.
+ */
+public final class LuftdatenOutboxBenchmark {
+
+    // TTN fair use: one uplink per 2.5 minutes, SPS and BME message each
+    private static final int MESSAGES_PER_SENSOR_HOUR = 2 * 24;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int sensors = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+        long latencyMs = (args.length > 1) ? Long.parseLong(args[1]) : 20;
+        int messages = sensors * MESSAGES_PER_SENSOR_HOUR;
+
+        ScheduledExecutorService server = Executors.newScheduledThreadPool(8);
+        ILuftdatenSender sender = (sensorId, pin, body) -> {
+            CompletableFuture<EUploadResult> result = new CompletableFuture<>();
+            server.schedule(() -> result.complete(EUploadResult.ACCEPTED), latencyMs, TimeUnit.MILLISECONDS);
+            return result;
+        };
+
+        System.out.println(String.format(Locale.ROOT, "Backlog of %d messages, %d ms response time", messages,
+                latencyMs));
+        LuftdatenBodyWriter writer = new LuftdatenBodyWriter("benchmark");
+        for (int batch : new int[] { 1, 2, 4, 8 }) {
+            File dir = Files.createTempDirectory("outbox").toFile();
+            LuftdatenOutbox outbox = new LuftdatenOutbox(dir, 1024L * 1024 * 1024, 1000, batch, sender);
+            outbox.open();
+            long fillStart = System.nanoTime();
+            for (int i = 0; i < messages; i++) {
+                LuftdatenBody body = writer.writeSps(1.2, 12.3, 4.5);
+                outbox.add("TTN-" + (i % sensors), LuftdatenUploader.PIN_SPS, body);
+                writer.release(body);
+            }
+            long fillMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - fillStart);
+            outbox.close();
+
+            outbox.start();
+            while (outbox.getLastDrainMillis() < 0) {
+                Thread.sleep(100);
+            }
+            outbox.stop();
+            System.out.println(String.format(Locale.ROOT, "batch %d: filled in %d ms, drained %d in %d ms (%.0f msg/s)",
+                    batch, fillMs, outbox.getLastDrainCount(), outbox.getLastDrainMillis(),
+                    1000.0 * outbox.getLastDrainCount() / Math.max(1, outbox.getLastDrainMillis())));
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+        server.shutdown();
+    }
+
+}
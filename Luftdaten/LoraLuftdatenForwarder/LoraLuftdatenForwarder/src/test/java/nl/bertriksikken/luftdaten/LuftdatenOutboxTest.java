@@ -0,0 +1,251 @@
+package nl.bertriksikken.luftdaten;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class LuftdatenOutboxTest {
+
+    private static final Pattern P0 = Pattern.compile("\"P0\",\"value\":\"([^\"]*)\"");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final LuftdatenBodyWriter writer = new LuftdatenBodyWriter("test");
+    private final List<String> sent = new ArrayList<>();
+    private boolean online = true;
+    private String failingSensor = "";
+    private String rejectedSensor = "";
+    private boolean circuitOpen;
+
+    private CompletableFuture<EUploadResult> send(String sensorId, String pin, LuftdatenBody body) {
+        if (circuitOpen) {
+            return CompletableFuture.completedFuture(EUploadResult.DEFERRED);
+        }
+        if (sensorId.equals(failingSensor)) {
+            return CompletableFuture.completedFuture(EUploadResult.FAILED);
+        }
+        if (sensorId.equals(rejectedSensor)) {
+            return CompletableFuture.completedFuture(EUploadResult.REJECTED);
+        }
+        if (online) {
+            Matcher matcher = P0.matcher(body.toString());
+            Assert.assertTrue(matcher.find());
+            sent.add(sensorId + "/" + pin + "/" + matcher.group(1));
+        }
+        return CompletableFuture.completedFuture(online ? EUploadResult.ACCEPTED : EUploadResult.FAILED);
+    }
+
+    private LuftdatenOutbox newOutbox(long maxBytes) throws IOException {
+        LuftdatenOutbox outbox = new LuftdatenOutbox(folder.getRoot(), maxBytes, 10000, 2, this::send);
+        outbox.open();
+        return outbox;
+    }
+
+    private LuftdatenBody message(double value) {
+        return writer.writeSps(value, 0.0, 0.0);
+    }
+
+    private static void drainAll(LuftdatenOutbox outbox) throws IOException, InterruptedException {
+        while (outbox.getPending() > 0) {
+            Assert.assertEquals(0, outbox.drainBatch());
+        }
+    }
+
+    /**
+     * Verifies that messages are delivered in order and survive a restart.
+     */
+    @Test
+    public void testDeliverAfterRestart() throws IOException, InterruptedException {
+        LuftdatenOutbox outbox = newOutbox(1024 * 1024);
+        outbox.add("TTN-1", "1", message(1.0));
+        outbox.add("TTN-1", "11", message(2.0));
+        outbox.add("TTN-2", "1", message(3.0));
+        Assert.assertEquals(0, outbox.drainBatch());
+        outbox.close();
+
+        outbox = newOutbox(1024 * 1024);
+        Assert.assertEquals(1, outbox.getPending());
+        drainAll(outbox);
+        outbox.close();
+
+        Assert.assertEquals("[TTN-1/1/1.0, TTN-1/11/2.0, TTN-2/1/3.0]", sent.toString());
+        Assert.assertEquals(0, newOutbox(1024 * 1024).getPending());
+    }
+
+    /**
+     * Verifies that the position is retried with a single probe while the server is down.
+     */
+    @Test
+    public void testRetryWhileOffline() throws IOException, InterruptedException {
+        LuftdatenOutbox outbox = newOutbox(1024 * 1024);
+        outbox.add("TTN-1", "1", message(1.0));
+        outbox.add("TTN-1", "1", message(2.0));
+
+        online = false;
+        Assert.assertTrue(outbox.drainBatch() > 0);
+        Assert.assertTrue(outbox.drainBatch() > 0);
+        Assert.assertEquals(2, outbox.getPending());
+
+        online = true;
+        Assert.assertEquals(0, outbox.drainBatch());
+        Assert.assertEquals(1, outbox.getPending());
+        drainAll(outbox);
+        Assert.assertEquals("[TTN-1/1/1.0, TTN-1/1/2.0]", sent.toString());
+        Assert.assertEquals(2, outbox.getDeliveredCount());
+    }
+
+    /**
+     * Verifies that a message that keeps failing is parked, so it does not block the messages behind it.
+     */
+    @Test
+    public void testParkFailingProbe() throws IOException, InterruptedException {
+        LuftdatenOutbox outbox = newOutbox(1024 * 1024);
+        outbox.add("TTN-1", "1", message(1.0));
+        outbox.add("TTN-2", "1", message(2.0));
+        outbox.add("TTN-2", "1", message(3.0));
+
+        // the server goes down, then comes back but never accepts the first message
+        online = false;
+        Assert.assertTrue(outbox.drainBatch() > 0);
+        online = true;
+        failingSensor = "TTN-1";
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(outbox.drainBatch() > 0);
+        }
+        Assert.assertEquals(1, outbox.getRequeuedCount());
+        Assert.assertEquals(0, outbox.drainBatch());
+        Assert.assertEquals(0, outbox.drainBatch());
+        Assert.assertEquals("[TTN-2/1/2.0, TTN-2/1/3.0]", sent.toString());
+        Assert.assertEquals(1, outbox.getPending());
+
+        // parked again and again until it is dropped
+        for (int i = 0; (i < 100) && (outbox.getPending() > 0); i++) {
+            outbox.drainBatch();
+        }
+        Assert.assertEquals(0, outbox.getPending());
+        Assert.assertEquals(1, outbox.getDroppedCount());
+    }
+
+    /**
+     * Verifies that probes deferred by an open circuit breaker do not count as attempts, so they are never parked or
+     * dropped.
+     */
+    @Test
+    public void testDeferredProbe() throws IOException, InterruptedException {
+        LuftdatenOutbox outbox = newOutbox(1024 * 1024);
+        outbox.add("TTN-1", "1", message(1.0));
+        outbox.add("TTN-2", "1", message(2.0));
+
+        circuitOpen = true;
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(outbox.drainBatch() > 0);
+        }
+        Assert.assertEquals(2, outbox.getPending());
+        Assert.assertEquals(0, outbox.getRequeuedCount());
+        Assert.assertEquals(0, outbox.getDroppedCount());
+
+        circuitOpen = false;
+        drainAll(outbox);
+        Assert.assertEquals("[TTN-1/1/1.0, TTN-2/1/2.0]", sent.toString());
+        Assert.assertEquals(2, outbox.getDeliveredCount());
+    }
+
+    /**
+     * Verifies that a message rejected by the server is dropped at once.
+     */
+    @Test
+    public void testRejected() throws IOException, InterruptedException {
+        LuftdatenOutbox outbox = newOutbox(1024 * 1024);
+        outbox.add("TTN-1", "1", message(1.0));
+        outbox.add("TTN-2", "1", message(2.0));
+        outbox.add("TTN-1", "1", message(3.0));
+        outbox.add("TTN-1", "1", message(4.0));
+
+        rejectedSensor = "TTN-1";
+        drainAll(outbox);
+        Assert.assertEquals("[TTN-2/1/2.0]", sent.toString());
+        Assert.assertEquals(1, outbox.getDeliveredCount());
+        Assert.assertEquals(3, outbox.getDroppedCount());
+        Assert.assertEquals(0, outbox.getRequeuedCount());
+    }
+
+    /**
+     * Verifies that appended messages are synced to the disk.
+     */
+    @Test
+    public void testSync() throws IOException {
+        LuftdatenOutbox outbox = newOutbox(1024 * 1024);
+        outbox.add("TTN-1", "1", message(1.0));
+        outbox.sync();
+        outbox.sync();
+        outbox.close();
+        outbox.sync();
+        Assert.assertEquals(1, newOutbox(1024 * 1024).getPending());
+    }
+
+    /**
+     * Verifies that the oldest messages are dropped when the outbox is full.
+     */
+    @Test
+    public void testDropOldest() throws IOException, InterruptedException {
+        LuftdatenOutbox outbox = newOutbox(2000);
+        for (int i = 0; i < 100; i++) {
+            outbox.add("TTN-1", "1", message(i));
+        }
+        Assert.assertTrue(outbox.getDroppedCount() > 0);
+        Assert.assertEquals(100, outbox.getPending() + outbox.getDroppedCount());
+        drainAll(outbox);
+        Assert.assertEquals(100 - outbox.getDroppedCount(), sent.size());
+        Assert.assertEquals("TTN-1/1/99.0", sent.get(sent.size() - 1));
+    }
+
+    /**
+     * Verifies that a torn record at the end of the log is cut off on start-up.
+     */
+    @Test
+    public void testTornRecord() throws IOException, InterruptedException {
+        LuftdatenOutbox outbox = newOutbox(1024 * 1024);
+        outbox.add("TTN-1", "1", message(1.0));
+        outbox.add("TTN-1", "1", message(2.0));
+        outbox.close();
+
+        File[] segments = folder.getRoot().listFiles((dir, name) -> name.endsWith(".log"));
+        Assert.assertEquals(1, segments.length);
+        try (RandomAccessFile raf = new RandomAccessFile(segments[0], "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        outbox = newOutbox(1024 * 1024);
+        Assert.assertEquals(1, outbox.getPending());
+        drainAll(outbox);
+        Assert.assertEquals("[TTN-1/1/1.0]", sent.toString());
+    }
+
+    /**
+     * Verifies the jittered exponential back-off.
+     */
+    @Test
+    public void testRetryDelay() {
+        LuftdatenOutbox outbox = new LuftdatenOutbox(folder.getRoot(), 1024, 10000, 2, this::send);
+        for (int i = 0; i < 100; i++) {
+            long delay = outbox.retryDelay(1);
+            Assert.assertTrue((delay >= 500) && (delay <= 1000));
+            delay = outbox.retryDelay(3);
+            Assert.assertTrue((delay >= 2000) && (delay <= 4000));
+            delay = outbox.retryDelay(100);
+            Assert.assertTrue((delay >= 5000) && (delay <= 10000));
+        }
+    }
+
+}
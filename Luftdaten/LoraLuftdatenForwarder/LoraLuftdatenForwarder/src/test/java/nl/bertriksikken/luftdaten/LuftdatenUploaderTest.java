@@ -0,0 +1,92 @@
+package nl.bertriksikken.luftdaten;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import retrofit2.Response;
+import retrofit2.mock.Calls;
+
+public final class LuftdatenUploaderTest {
+
+    @Test
+    public void testUploadSuccess() throws InterruptedException, ExecutionException {
+        ILuftdatenApi api = (pin, sensor, body) -> Calls.response("ok");
+        LuftdatenUploader uploader = new LuftdatenUploader(api, breaker(), new AdaptiveLimiter(2, 2, null),
+                Duration.ofSeconds(1));
+
+        Assert.assertEquals(EUploadResult.ACCEPTED,
+                uploader.uploadMeasurement("TTN-0001", LuftdatenUploader.PIN_SPS, message(), 0).get());
+        Assert.assertEquals(1, uploader.getSuccessCount());
+        Assert.assertEquals(0, uploader.getLimiter().getInFlight());
+    }
+
+    @Test
+    public void testUploadFailure() throws InterruptedException, ExecutionException {
+        ILuftdatenApi api = (pin, sensor, body) -> Calls.failure(new IOException("timeout"));
+        LuftdatenUploader uploader = new LuftdatenUploader(api, breaker(), new AdaptiveLimiter(2, 2, null),
+                Duration.ofSeconds(1));
+
+        Assert.assertEquals(EUploadResult.FAILED,
+                uploader.uploadMeasurement("TTN-0001", LuftdatenUploader.PIN_SPS, message(), 0).get());
+        Assert.assertEquals(1, uploader.getFailureCount());
+        Assert.assertEquals(0, uploader.getLimiter().getInFlight());
+    }
+
+    /**
+     * Verifies that a client error is a rejection, which does not count against the server.
+     */
+    @Test
+    public void testUploadRejected() throws InterruptedException, ExecutionException {
+        ILuftdatenApi api = (pin, sensor, body) -> Calls.response(
+                Response.error(400, ResponseBody.create(MediaType.parse("text/plain"), "unknown sensor")));
+        LuftdatenUploader uploader = new LuftdatenUploader(api, breaker(), new AdaptiveLimiter(2, 2, null),
+                Duration.ofSeconds(1));
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(EUploadResult.REJECTED,
+                    uploader.uploadMeasurement("TTN-0001", LuftdatenUploader.PIN_SPS, message(), 0).get());
+        }
+        Assert.assertEquals(3, uploader.getRejectedCount());
+        Assert.assertEquals(0, uploader.getFailureCount());
+        Assert.assertEquals(ECircuitState.CLOSED, uploader.getBreaker().getState());
+    }
+
+    /**
+     * Verifies that an open circuit defers uploads without calling the server.
+     */
+    @Test
+    public void testOpenCircuit() throws InterruptedException, ExecutionException {
+        AtomicInteger calls = new AtomicInteger();
+        ILuftdatenApi api = (pin, sensor, body) -> {
+            calls.incrementAndGet();
+            return Calls.failure(new IOException("timeout"));
+        };
+        LuftdatenUploader uploader = new LuftdatenUploader(api, breaker(), new AdaptiveLimiter(2, 2, null),
+                Duration.ofSeconds(1));
+
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals((i < 2) ? EUploadResult.FAILED : EUploadResult.DEFERRED,
+                    uploader.uploadMeasurement("TTN-0001", LuftdatenUploader.PIN_SPS, message(), 0).get());
+        }
+        Assert.assertEquals(ECircuitState.OPEN, uploader.getBreaker().getState());
+        Assert.assertEquals(2, calls.get());
+        Assert.assertEquals(3, uploader.getBreaker().getRejectedCount());
+        Assert.assertEquals(5, uploader.getFailureCount());
+    }
+
+    private CircuitBreaker breaker() {
+        return new CircuitBreaker("test", 2, Duration.ofMinutes(1));
+    }
+
+    private LuftdatenBody message() {
+        return new LuftdatenBodyWriter("test").writeSps(1.0, 2.0, 3.0);
+    }
+
+}
@@ -0,0 +1,92 @@
+package nl.bertriksikken.opensensemap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import nl.bertriksikken.loraforwarder.sink.SensorReading;
+
+/**
+ * Tests the openSenseMap sink against a local stub server.
+ */
+public final class OpenSenseMapSinkTest {
+
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    private HttpServer server;
+    private int status = 201;
+
+    @Before
+    public void before() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI() + " "
+                    + readAll(exchange.getRequestBody()));
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @After
+    public void after() {
+        server.stop(0);
+    }
+
+    private static String readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = is.read(buffer)) > 0) {
+            bos.write(buffer, 0, n);
+        }
+        return new String(bos.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private OpenSenseMapSink createSink() {
+        String url = "http://localhost:" + server.getAddress().getPort();
+        IOpenSenseMapApi api = OpenSenseMapSink.newRestClient(url, Duration.ofSeconds(5));
+        return new OpenSenseMapSink(api, Collections.singletonMap("0001", "box1"), "test");
+    }
+
+    @Test
+    public void testUpload() throws IOException {
+        OpenSenseMapSink sink = createSink();
+        sink.write(new SensorReading("TTN-0001", "0001", Instant.now(), 12.0, 5.5, 3.0, 21.5, 60.0, 1013.25));
+
+        Assert.assertEquals(2, requests.size());
+        Assert.assertEquals("POST /boxes/box1/data?luftdaten=true {\"software_version\":\"test\",\"sensordatavalues\":["
+                + "{\"value_type\":\"P0\",\"value\":\"3.0\"},{\"value_type\":\"P1\",\"value\":\"12.0\"},"
+                + "{\"value_type\":\"P2\",\"value\":\"5.5\"}]}", requests.get(0));
+        Assert.assertTrue(requests.get(1).contains("{\"value_type\":\"pressure\",\"value\":\"101325.0\"}"));
+    }
+
+    @Test
+    public void testUnknownDevice() throws IOException {
+        OpenSenseMapSink sink = createSink();
+        sink.write(new SensorReading("TTN-0002", "0002", Instant.now(), 12.0, 5.5, 3.0, Double.NaN, Double.NaN,
+                Double.NaN));
+        Assert.assertTrue(requests.isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void testServerError() throws IOException {
+        status = 500;
+        createSink().write(new SensorReading("TTN-0001", "0001", Instant.now(), 12.0, 5.5, 3.0, Double.NaN,
+                Double.NaN, Double.NaN));
+    }
+
+}
@@ -0,0 +1,218 @@
+package nl.bertriksikken.query;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import nl.bertriksikken.aggregate.RollingAggregator;
+import nl.bertriksikken.aqi.AirQualityEngine;
+import nl.bertriksikken.storage.BlockArchive;
+import nl.bertriksikken.storage.RollupArchive;
+import nl.bertriksikken.storage.TimeSeriesStore;
+
+/**
+ * Tests the query API against a small store.
+ */
+public final class QueryServerTest {
+
+    private static final Instant T0 = Instant.parse("2019-12-03T10:00:00Z");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private QueryServer server;
+
+    @Before
+    public void before() throws IOException {
+        TimeSeriesStore store = new TimeSeriesStore(folder.getRoot(), 100);
+        // one reading every 15 minutes, for two hours
+        for (int i = 0; i < 8; i++) {
+            double temp = (i == 0) ? Double.NaN : 20.0;
+            store.append("TTN-1", T0.toEpochMilli() + i * 900_000L, 1.0, i, 10.0, temp, Double.NaN, Double.NaN);
+        }
+        server = newServer(store, null, null, null, null);
+        server.start();
+    }
+
+    private static QueryServer newServer(TimeSeriesStore store, BlockArchive archive, RollupArchive rollups,
+            RollingAggregator aggregator, AirQualityEngine airQuality) {
+        return new QueryServer(store, archive, rollups, aggregator, airQuality, "127.0.0.1", 0, Duration.ofDays(31),
+                1000, 1024 * 1024, Duration.ofMinutes(1));
+    }
+
+    @After
+    public void after() {
+        server.stop();
+    }
+
+    private String get(String path, int expectedStatus) throws IOException {
+        URL url = new URL("http://127.0.0.1:" + server.getPort() + path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        Assert.assertEquals(expectedStatus, connection.getResponseCode());
+        try (InputStream is = (expectedStatus == 200) ? connection.getInputStream() : connection.getErrorStream()) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = is.read(buffer)) > 0) {
+                bos.write(buffer, 0, n);
+            }
+            return new String(bos.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String readings(QueryServer server, String query) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        server.readings("TTN-1", QueryServer.parseQuery(query), Instant.now(), bos);
+        return new String(bos.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testSensors() throws IOException {
+        Assert.assertEquals("[\"TTN-1\"]", get("/sensors", 200));
+    }
+
+    @Test
+    public void testRawCsv() throws IOException {
+        String csv = get("/sensors/TTN-1/readings?from=2019-12-03T10:00:00Z&to=2019-12-03T10:30:00Z"
+                + "&fields=pm2_5,temp&format=csv", 200);
+        Assert.assertEquals("time,pm2_5,temp\n2019-12-03T10:00:00Z,0.0,\n2019-12-03T10:15:00Z,1.0,20.0\n", csv);
+    }
+
+    @Test
+    public void testDownsampleJson() throws IOException {
+        String json = get("/sensors/TTN-1/readings?from=PT2H&to=2019-12-03T12:00:00Z&fields=pm2_5,temp"
+                + "&bucket=PT1H&agg=mean,max", 200);
+        Assert.assertEquals("{\"sensor\":\"TTN-1\",\"from\":\"2019-12-03T10:00:00Z\",\"to\":\"2019-12-03T12:00:00Z\","
+                + "\"columns\":[\"time\",\"pm2_5_mean\",\"pm2_5_max\",\"temp_mean\",\"temp_max\"],"
+                + "\"rows\":[[\"2019-12-03T10:00:00Z\",1.5,3.0,20.0,20.0],"
+                + "[\"2019-12-03T11:00:00Z\",5.5,7.0,20.0,20.0]]}", json);
+
+        // the same query again comes from the cache
+        long hits = server.getCacheHitCount();
+        get("/sensors/TTN-1/readings?from=PT2H&to=2019-12-03T12:00:00Z&fields=pm2_5,temp&bucket=PT1H&agg=mean,max",
+                200);
+        Assert.assertEquals(hits + 1, server.getCacheHitCount());
+    }
+
+    /**
+     * Verifies that sealed days give the same answers from the blocks and rollups, after the raw records are gone.
+     */
+    @Test
+    public void testSealed() throws IOException {
+        TimeSeriesStore store = new TimeSeriesStore(folder.newFolder("store"), 4);
+        for (int i = 0; i < 8; i++) {
+            double temp = (i == 0) ? Double.NaN : 20.0;
+            store.append("TTN-1", T0.toEpochMilli() + i * 900_000L, 1.0, i, 10.0, temp, Double.NaN, Double.NaN);
+        }
+        store.append("TTN-1", T0.toEpochMilli() + 2 * 86_400_000L, 1.0, 1.0, 1.0, 20.0, Double.NaN, Double.NaN);
+        File archiveDir = folder.newFolder("archive");
+        BlockArchive archive = new BlockArchive(archiveDir);
+        RollupArchive rollups = new RollupArchive(archiveDir);
+        LocalDate day = LocalDate.of(2019, 12, 3);
+        rollups.write("TTN-1", day, store.query("TTN-1", Long.MIN_VALUE, Long.MAX_VALUE));
+        Assert.assertEquals(8, archive.seal(store, "TTN-1", day));
+        Assert.assertEquals(2, store.purge("TTN-1", Instant.parse("2019-12-04T00:00:00Z").toEpochMilli()));
+
+        QueryServer sealed = newServer(store, archive, rollups, null, null);
+        String json = readings(sealed, "from=PT2H&to=2019-12-03T12:00:00Z&fields=pm2_5,temp&bucket=PT1H&agg=mean,max");
+        Assert.assertTrue(json.endsWith("\"rows\":[[\"2019-12-03T10:00:00Z\",1.5,3.0,20.0,20.0],"
+                + "[\"2019-12-03T11:00:00Z\",5.5,7.0,20.0,20.0]]}"));
+
+        String csv = readings(sealed, "from=2019-12-03T10:00:00Z&to=2019-12-05T12:00:00Z&fields=pm2_5&format=csv");
+        Assert.assertEquals(10, csv.split("\n").length);
+        Assert.assertTrue(csv.endsWith("2019-12-03T11:45:00Z,7.0\n2019-12-05T10:00:00Z,1.0\n"));
+    }
+
+    @Test
+    public void testStats() throws IOException {
+        RollingAggregator aggregator = new RollingAggregator(10);
+        aggregator.add("TTN-1", T0.toEpochMilli(), 10.0, 20.0);
+        aggregator.add("TTN-1", T0.toEpochMilli() + 60_000L, 12.0, 22.0);
+        QueryServer stats = newServer(new TimeSeriesStore(folder.newFolder("store"), 100), null, null, aggregator,
+                null);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Assert.assertTrue(stats.stats("TTN-1", T0.plusSeconds(120), bos));
+        String json = new String(bos.toByteArray(), StandardCharsets.UTF_8);
+        Assert.assertTrue(json.startsWith("{\"sensor\":\"TTN-1\",\"time\":\"2019-12-03T10:02:00Z\","
+                + "\"1h\":{\"count\":2,\"pm2_5\":{\"mean\":11.0,\"min\":10.0,\"max\":12.0},"
+                + "\"pm10\":{\"mean\":21.0,\"min\":20.0,\"max\":22.0}},"));
+        Assert.assertTrue(json.contains("\"pm2_5_percentiles_24h\":{\"p50\":11.0,"));
+        bos.reset();
+        Assert.assertFalse(stats.stats("TTN-2", T0, bos));
+        Assert.assertEquals(0, bos.size());
+    }
+
+    @Test
+    public void testAirQuality() throws IOException {
+        AirQualityEngine airQuality = new AirQualityEngine(10);
+        airQuality.update("TTN-1", T0.toEpochMilli(), 20.0, 40.0);
+        airQuality.update("TTN-1", T0.toEpochMilli() + 3600_000L, 10.0, 30.0);
+        QueryServer aqi = newServer(new TimeSeriesStore(folder.newFolder("store"), 100), null, null, null,
+                airQuality);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Assert.assertTrue(aqi.airQuality("TTN-1", T0.plusSeconds(5400), bos));
+        String json = new String(bos.toByteArray(), StandardCharsets.UTF_8);
+        Assert.assertTrue(json.startsWith("{\"sensor\":\"TTN-1\",\"hour\":\"2019-12-03T11:00:00Z\","
+                + "\"caqi\":{\"index\":30,\"pm2_5\":10.0,\"pm10\":30.0},\"aqi\":{\"index\":59,"));
+        Assert.assertFalse(aqi.airQuality("TTN-2", T0, bos));
+        // no reading in the last three hours
+        Assert.assertFalse(aqi.airQuality("TTN-1", T0.plusSeconds(4 * 3600), bos));
+    }
+
+    @Test
+    public void testErrors() throws IOException {
+        get("/sensors/TTN-1/readings?fields=dust", 400);
+        get("/sensors/TTN-1/readings?bucket=soon", 400);
+        get("/sensors/TTN-1/other", 404);
+        Assert.assertTrue(get("/sensors/TTN-2/readings?to=2019-12-03T12:00:00Z", 200).contains("\"rows\":[]"));
+    }
+
+    /**
+     * Verifies that queries beyond the limits are rejected before anything is read.
+     */
+    @Test
+    public void testLimits() throws IOException {
+        get("/sensors/TTN-1/readings?from=P3650D", 400);
+        get("/sensors/TTN-1/readings?from=P3650D&bucket=PT1S", 400);
+        get("/sensors/TTN-1/readings?from=P3650000000D", 400);
+        get("/sensors/TTN-1/readings?from=2019-12-04T00:00:00Z&to=2019-12-03T00:00:00Z", 400);
+        Assert.assertTrue(get("/sensors/TTN-1/readings?from=P3650D&bucket=P7D", 200).contains("\"rows\":[["));
+        Assert.assertTrue(get("/sensors/TTN-1/readings?from=P31D", 200).startsWith("{\"sensor\":\"TTN-1\""));
+    }
+
+    /**
+     * Verifies that the cache stays within its size, evicting the least recently used responses.
+     */
+    @Test
+    public void testCacheSize() {
+        ResponseCache cache = new ResponseCache(1000, 60_000, () -> 0L);
+        cache.put("a", new byte[200]);
+        cache.put("b", new byte[200]);
+        cache.put("too large", new byte[300]);
+        Assert.assertNull(cache.get("too large"));
+        Assert.assertNotNull(cache.get("a"));
+        for (int i = 0; i < 4; i++) {
+            cache.put("c" + i, new byte[200]);
+        }
+        Assert.assertEquals(1000, cache.getBytes());
+        Assert.assertNotNull(cache.get("a"));
+        Assert.assertNull(cache.get("b"));
+    }
+
+}
@@ -0,0 +1,133 @@
+package nl.bertriksikken.storage;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares the disk footprint and scan time of a day of readings of a fleet of sensors in the CSV data files, the
+ * memory-mapped store and the compressed blocks. Both scans read their files from disk (or rather the page cache).
+ *
+ * Not a unit test, run it manually as a java application.
+ */
+public final class BlockArchiveBenchmark {
+
+    private static final int SENSORS = 100;
+    private static final int INTERVAL_MS = 170_000;
+    private static final LocalDate DAY = LocalDate.of(2019, 12, 3);
+    private static final int ROUNDS = 20;
+    private static final ESeriesField[] FIELDS = ESeriesField.values();
+
+    public static void main(String[] args) throws IOException {
+        File dir = Files.createTempDirectory("blocks").toFile();
+        TimeSeriesStore store = new TimeSeriesStore(new File(dir, "store"), 1000);
+        BlockArchive archive = new BlockArchive(new File(dir, "archive"));
+
+        // slowly changing readings, with jitter on the receive time
+        Random random = new Random(1);
+        long t0 = Instant.parse("2019-12-03T00:00:00Z").toEpochMilli();
+        for (int s = 0; s < SENSORS; s++) {
+            double pm = 10 + random.nextInt(20);
+            double temp = 5 + random.nextInt(15);
+            double rh = 50 + random.nextInt(30);
+            double pressure = 1000 + random.nextInt(30);
+            for (long time = t0 + random.nextInt(INTERVAL_MS); time < t0 + 86_400_000L; time += INTERVAL_MS) {
+                pm = Math.max(0, pm + (random.nextInt(41) - 20) / 100.0);
+                temp += (random.nextInt(5) - 2) / 100.0;
+                rh += (random.nextInt(11) - 5) / 100.0;
+                pressure += (random.nextInt(5) - 2) / 100.0;
+                long jittered = time + random.nextInt(2000);
+                store.append("TTN-" + s, jittered, round(pm * 0.6), round(pm * 0.9), round(pm), round(temp),
+                        round(rh), round(pressure));
+            }
+        }
+
+        File csvDir = new File(dir, "csv");
+        csvDir.mkdirs();
+        long csvBytes = 0;
+        File[] csv = new File[SENSORS];
+        long blockBytes = 0;
+        long storeBytes = 0;
+        int records = 0;
+        for (int s = 0; s < SENSORS; s++) {
+            StringWriter writer = new StringWriter();
+            records += StorageTool.exportCsv(store, "TTN-" + s, Long.MIN_VALUE, Long.MAX_VALUE, writer);
+            csv[s] = new File(csvDir, "TTN-" + s + "-191203");
+            Files.write(csv[s].toPath(), writer.toString().getBytes(StandardCharsets.US_ASCII));
+            csvBytes += csv[s].length();
+            archive.seal(store, "TTN-" + s, DAY);
+            blockBytes += archive.blockFile("TTN-" + s, DAY).length();
+        }
+        // the used part of the segments
+        storeBytes += (long) records * Segment.RECORD_SIZE + SENSORS * Segment.HEADER_SIZE;
+        System.out.println(String.format(Locale.ROOT, "%d readings: CSV %d bytes (%.1f/reading), "
+                + "store %d bytes (%.1f/reading), blocks %d bytes (%.1f/reading), %.1fx smaller than CSV", records,
+                csvBytes, (double) csvBytes / records, storeBytes, (double) storeBytes / records, blockBytes,
+                (double) blockBytes / records, (double) csvBytes / blockBytes));
+
+        double sum = 0;
+        for (int round = 0; round < ROUNDS + 5; round++) {
+            if (round == 5) {
+                long start = System.nanoTime();
+                for (int r = 0; r < ROUNDS; r++) {
+                    sum += parseCsv(csv);
+                }
+                report("parse CSV", start, records);
+                start = System.nanoTime();
+                for (int r = 0; r < ROUNDS; r++) {
+                    sum += scanBlocks(archive);
+                }
+                report("decode blocks", start, records);
+            }
+            sum += parseCsv(csv) + scanBlocks(archive);
+        }
+        System.out.println("(checksum " + sum + ")");
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    private static void report(String name, long start, int records) {
+        double nanos = (double) (System.nanoTime() - start) / ROUNDS / records;
+        System.out.println(String.format(Locale.ROOT, "%-15s %8.1f ns/reading", name, nanos));
+    }
+
+    private static double parseCsv(File[] csv) throws IOException {
+        double sum = 0;
+        for (File file : csv) {
+            try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.US_ASCII)) {
+                reader.readLine();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split(",");
+                    for (int i = 1; i < fields.length; i++) {
+                        sum += Double.parseDouble(fields[i]);
+                    }
+                }
+            }
+        }
+        return sum;
+    }
+
+    private static double scanBlocks(BlockArchive archive) {
+        double sum = 0;
+        for (int s = 0; s < SENSORS; s++) {
+            ISeriesCursor cursor = archive.query("TTN-" + s, Long.MIN_VALUE, Long.MAX_VALUE);
+            while (cursor.next()) {
+                for (ESeriesField field : FIELDS) {
+                    sum += cursor.getField(field);
+                }
+            }
+        }
+        return sum;
+    }
+
+}
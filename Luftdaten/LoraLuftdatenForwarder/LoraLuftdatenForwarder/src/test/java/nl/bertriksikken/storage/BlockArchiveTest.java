@@ -0,0 +1,67 @@
+package nl.bertriksikken.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class BlockArchiveTest {
+
+    private static final LocalDate DAY = LocalDate.of(2019, 12, 3);
+    private static final long T0 = Instant.parse("2019-12-03T00:00:00Z").toEpochMilli();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private BlockArchive sealDay() throws IOException {
+        TimeSeriesStore store = new TimeSeriesStore(folder.newFolder("store"), 1000);
+        // the day before, the whole day every 170 s and the day after
+        store.append("TTN-1", T0 - 1000, 1.0, 1.0, 1.0, Double.NaN, Double.NaN, Double.NaN);
+        for (long time = T0; time < T0 + 86_400_000L; time += 170_000L) {
+            store.append("TTN-1", time, 1.5, 2.5, 3.5, 21.25, 60.5, 1013.25);
+        }
+        store.append("TTN-1", T0 + 86_400_000L, 1.0, 1.0, 1.0, Double.NaN, Double.NaN, Double.NaN);
+
+        BlockArchive archive = new BlockArchive(folder.newFolder("archive"));
+        Assert.assertEquals(509, archive.seal(store, "TTN-1", DAY));
+        Assert.assertEquals(0, archive.seal(store, "TTN-1", DAY.plusDays(5)));
+        return archive;
+    }
+
+    @Test
+    public void testSealAndQuery() throws IOException {
+        BlockArchive archive = sealDay();
+        // a day without records gets an empty block
+        Assert.assertEquals(Arrays.asList(DAY, DAY.plusDays(5)), archive.getDays("TTN-1"));
+
+        ISeriesCursor cursor = archive.query("TTN-1", T0 + 3600_000L, T0 + 7200_000L);
+        int count = 0;
+        while (cursor.next()) {
+            Assert.assertTrue(cursor.getTime() >= T0 + 3600_000L);
+            Assert.assertEquals(1013.25f, cursor.getField(ESeriesField.PRESSURE), 0.0f);
+            count++;
+        }
+        Assert.assertEquals(21, count);
+        Assert.assertFalse(archive.query("TTN-1", T0 + 86_400_000L, Long.MAX_VALUE).next());
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void testCorrupt() throws IOException {
+        BlockArchive archive = sealDay();
+        File file = archive.blockFile("TTN-1", DAY);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(BlockArchive.HEADER_SIZE + 10);
+            raf.write(0x55);
+        }
+        archive.query("TTN-1", Long.MIN_VALUE, Long.MAX_VALUE).next();
+    }
+
+}
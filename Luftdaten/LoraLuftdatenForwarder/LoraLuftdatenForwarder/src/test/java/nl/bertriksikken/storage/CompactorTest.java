@@ -0,0 +1,138 @@
+package nl.bertriksikken.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class CompactorTest {
+
+    private static final LocalDate DAY = LocalDate.of(2019, 12, 3);
+    private static final long T0 = Instant.parse("2019-12-03T00:00:00Z").toEpochMilli();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCompaction() throws IOException {
+        // three days with a reading every 10 minutes, one segment per day
+        TimeSeriesStore store = new TimeSeriesStore(folder.newFolder("store"), 144);
+        for (int i = 0; i < 3 * 144; i++) {
+            double temp = (i % 2 == 0) ? Double.NaN : 20.0 + (i % 144) / 6;
+            store.append("TTN-1", T0 + i * 600_000L, 1.0, i % 144, 10.0, temp, Double.NaN, Double.NaN);
+        }
+        File archiveDir = folder.newFolder("archive");
+        BlockArchive archive = new BlockArchive(archiveDir);
+        RollupArchive rollups = new RollupArchive(archiveDir);
+        Compactor compactor = new Compactor(store, archive, rollups, 1, 1, 1, 0);
+
+        // the third day is not finished
+        compactor.runOnce(Instant.parse("2019-12-05T12:00:00Z"));
+        Assert.assertEquals(Collections.singletonList(DAY.plusDays(1)), archive.getDays("TTN-1"));
+        Assert.assertEquals(2, compactor.getSealedCount());
+        Assert.assertEquals(288, compactor.getSealedRecordCount());
+        Assert.assertEquals(T0 + 86_400_000L, store.getMinTime("TTN-1"));
+        // one segment and one block deleted
+        Assert.assertEquals(2, compactor.getPurgedCount());
+
+        List<Rollup> hours = rollups.query("TTN-1", ERollupTier.HOUR, T0, T0 + 86_400_000L);
+        Assert.assertEquals(24, hours.size());
+        Rollup hour = hours.get(1);
+        Assert.assertEquals(T0 + 3600_000L, hour.getStart());
+        Assert.assertEquals(6, hour.getCount(ESeriesField.PM2_5));
+        Assert.assertEquals(8.5, hour.getMean(ESeriesField.PM2_5), 1E-9);
+        Assert.assertEquals(6.0f, hour.getMin(ESeriesField.PM2_5), 0.0f);
+        Assert.assertEquals(11.0f, hour.getMax(ESeriesField.PM2_5), 0.0f);
+        Assert.assertEquals(3, hour.getCount(ESeriesField.TEMP));
+        Assert.assertEquals(21.0, hour.getMean(ESeriesField.TEMP), 1E-9);
+        Assert.assertEquals(0, hour.getCount(ESeriesField.RH));
+        Assert.assertTrue(Float.isNaN(hour.getMax(ESeriesField.RH)));
+
+        List<Rollup> days = rollups.query("TTN-1", ERollupTier.DAY, Long.MIN_VALUE, Long.MAX_VALUE);
+        Assert.assertEquals(2, days.size());
+        Assert.assertEquals(144, days.get(0).getCount(ESeriesField.PM2_5));
+        Assert.assertEquals(71.5, days.get(0).getMean(ESeriesField.PM2_5), 1E-9);
+
+        // nothing new to seal
+        compactor.runOnce(Instant.parse("2019-12-05T13:00:00Z"));
+        Assert.assertEquals(2, compactor.getSealedCount());
+
+        // months later, only the daily rollups are left
+        compactor.runOnce(Instant.parse("2020-02-15T00:00:00Z"));
+        Assert.assertEquals(3, compactor.getSealedCount());
+        Assert.assertEquals(Collections.emptyList(), archive.getDays("TTN-1"));
+        Assert.assertEquals(Collections.emptyList(), rollups.getMonths("TTN-1", ERollupTier.HOUR));
+        Assert.assertEquals(Arrays.asList(YearMonth.of(2019, 12)), rollups.getMonths("TTN-1", ERollupTier.DAY));
+        Assert.assertEquals(Collections.emptyList(), store.getSegmentFiles("TTN-1"));
+        Assert.assertEquals(3, rollups.query("TTN-1", ERollupTier.DAY, Long.MIN_VALUE, Long.MAX_VALUE).size());
+    }
+
+    /**
+     * Verifies that a block retention shorter than the raw retention keeps the blocks of the raw days, instead of
+     * deleting them and sealing the same days again on every run.
+     */
+    @Test
+    public void testShortBlockRetention() throws IOException {
+        TimeSeriesStore store = new TimeSeriesStore(folder.newFolder("store"), 144);
+        for (int i = 0; i < 3 * 144; i++) {
+            store.append("TTN-1", T0 + i * 600_000L, 1.0, 2.0, 3.0, Double.NaN, Double.NaN, Double.NaN);
+        }
+        File archiveDir = folder.newFolder("archive");
+        BlockArchive archive = new BlockArchive(archiveDir);
+        RollupArchive rollups = new RollupArchive(archiveDir);
+        Compactor compactor = new Compactor(store, archive, rollups, 7, 1, 0, 0);
+
+        compactor.runOnce(Instant.parse("2019-12-06T12:00:00Z"));
+        compactor.runOnce(Instant.parse("2019-12-06T13:00:00Z"));
+        Assert.assertEquals(3, compactor.getSealedCount());
+        Assert.assertEquals(Arrays.asList(DAY, DAY.plusDays(1), DAY.plusDays(2)), archive.getDays("TTN-1"));
+        Assert.assertEquals(0, compactor.getPurgedCount());
+
+        // once the raw segments are gone, so are the blocks
+        compactor.runOnce(Instant.parse("2019-12-12T12:00:00Z"));
+        Assert.assertEquals(3, compactor.getSealedCount());
+        Assert.assertEquals(DAY.plusDays(2), archive.getDays("TTN-1").get(0));
+        Assert.assertEquals(T0 + 2 * 86_400_000L, store.getMinTime("TTN-1"));
+    }
+
+    @Test
+    public void testEmptyDays() throws IOException {
+        // a reading on the first and on the fourth day
+        TimeSeriesStore store = new TimeSeriesStore(folder.newFolder("store"), 144);
+        store.append("TTN-1", T0, 1.0, 2.0, 3.0, Double.NaN, Double.NaN, Double.NaN);
+        store.append("TTN-1", T0 + 3 * 86_400_000L, 1.0, 2.0, 3.0, Double.NaN, Double.NaN, Double.NaN);
+        File archiveDir = folder.newFolder("archive");
+        BlockArchive archive = new BlockArchive(archiveDir);
+        RollupArchive rollups = new RollupArchive(archiveDir);
+        Compactor compactor = new Compactor(store, archive, rollups, 0, 0, 0, 0);
+
+        // the days in between get an empty block, so they are sealed
+        compactor.runOnce(Instant.parse("2019-12-06T12:00:00Z"));
+        Assert.assertEquals(Arrays.asList(DAY, DAY.plusDays(1), DAY.plusDays(2)), archive.getDays("TTN-1"));
+        Assert.assertEquals(1, compactor.getSealedCount());
+        File empty = archive.blockFile("TTN-1", DAY.plusDays(1));
+        Assert.assertEquals(BlockArchive.HEADER_SIZE, empty.length());
+        Assert.assertFalse(BlockArchive.readBlock(empty).next());
+        ISeriesCursor cursor = archive.query("TTN-1", Long.MIN_VALUE, Long.MAX_VALUE);
+        Assert.assertTrue(cursor.next());
+        Assert.assertEquals(T0, cursor.getTime());
+        Assert.assertFalse(cursor.next());
+
+        // they are not written again
+        long modified = empty.lastModified();
+        Assert.assertTrue(empty.setLastModified(modified - 60_000L));
+        compactor.runOnce(Instant.parse("2019-12-06T13:00:00Z"));
+        Assert.assertEquals(modified - 60_000L, empty.lastModified());
+        Assert.assertEquals(1, compactor.getSealedCount());
+    }
+
+}
@@ -0,0 +1,85 @@
+package nl.bertriksikken.storage;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public final class RiceBlockEncoderTest {
+
+    /**
+     * Verifies that records survive encoding at hundredths resolution, including absent values and irregular times.
+     */
+    @Test
+    public void testRoundTrip() {
+        Random random = new Random(1);
+        int count = 1000;
+        long[] times = new long[count];
+        float[][] values = new float[count][RiceBlockEncoder.FIELDS];
+        long time = 1575367200000L;
+        for (int i = 0; i < count; i++) {
+            // mostly regular with jitter, sometimes a gap of days or a step back
+            time += (i % 100 == 50) ? 3 * 86_400_000L : 1000 * (170 + random.nextInt(4) - 2);
+            if (i % 100 == 70) {
+                time -= 1_000_000;
+            }
+            times[i] = time;
+            for (int f = 0; f < RiceBlockEncoder.FIELDS; f++) {
+                boolean absent = (f >= 3) && (i % 10 < 3);
+                values[i][f] = absent ? Float.NaN : (float) ((random.nextInt(200000) - 50000) / 100.0);
+            }
+            values[i][1] = (i % 2 == 0) ? 5.23f : values[i][1];
+        }
+
+        RiceBlockEncoder encoder = new RiceBlockEncoder(count);
+        for (int i = 0; i < count; i++) {
+            encoder.append(times[i], values[i]);
+        }
+        RiceBlockDecoder decoder = new RiceBlockDecoder(encoder.toByteArray(), 0, count);
+        for (int i = 0; i < count; i++) {
+            Assert.assertTrue(decoder.next());
+            Assert.assertEquals(times[i], decoder.getTime());
+            for (ESeriesField field : ESeriesField.values()) {
+                Assert.assertEquals(values[i][field.ordinal()], decoder.getField(field), 0.0f);
+            }
+        }
+        Assert.assertFalse(decoder.next());
+    }
+
+    /**
+     * Verifies that extreme values and changes between absent and present values survive encoding.
+     */
+    @Test
+    public void testExtremes() {
+        float[][] values = {
+            { 0.0f, Float.NaN, 1e7f, -1e7f, 0.01f, -0.01f },
+            { 1e7f, 0.0f, -1e7f, Float.NaN, Float.NaN, 0.0f },
+            { Float.NaN, 5.0f, 1e7f, 1e7f, 0.01f, Float.NaN } };
+        RiceBlockEncoder encoder = new RiceBlockEncoder(values.length);
+        for (int i = 0; i < values.length; i++) {
+            encoder.append(i * 170_000L, values[i]);
+        }
+        RiceBlockDecoder decoder = new RiceBlockDecoder(encoder.toByteArray(), 0, values.length);
+        for (float[] expected : values) {
+            Assert.assertTrue(decoder.next());
+            for (ESeriesField field : ESeriesField.values()) {
+                Assert.assertEquals(expected[field.ordinal()], decoder.getField(field), 0.0f);
+            }
+        }
+    }
+
+    /**
+     * Verifies that a constant series at a fixed interval costs about one bit per value.
+     */
+    @Test
+    public void testConstant() {
+        RiceBlockEncoder encoder = new RiceBlockEncoder(100);
+        float[] values = { 1.0f, 2.0f, 3.0f, Float.NaN, Float.NaN, Float.NaN };
+        for (int i = 0; i < 101; i++) {
+            encoder.append(i * 170_000L, values);
+        }
+        // header of the first record, the escaped first interval, then 7 bits per record once adapted
+        Assert.assertTrue(encoder.toByteArray().length < (64 + 6 * 32 + 16 + 64 + 100 * 7) / 8 + 8);
+    }
+
+}
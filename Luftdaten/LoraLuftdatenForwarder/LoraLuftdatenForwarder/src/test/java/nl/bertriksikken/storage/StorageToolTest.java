@@ -0,0 +1,51 @@
+package nl.bertriksikken.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class StorageToolTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Verifies an import of a CSV file with a 12-hour clock, and the export back to CSV.
+     */
+    @Test
+    public void testImportExport() throws IOException {
+        File csv = new File(folder.getRoot(), "TTN-0001-191203");
+        String content = "yyyy:MM:dd:hh:mm,P0,P2,P1,Temp,Hum,Pressure\n"
+                + "2019:12:03:11:59,1.0,2.5,10.0,0,0,0\n"
+                + "2019:12:03:12:00,1.5,3.0,11.0,21.5,60.0,1013.25\n"
+                + "2019:12:03:01:30,2.0,3.5,12.0,0,0,0\n"
+                + "garbage\n";
+        Files.write(csv.toPath(), content.getBytes(StandardCharsets.US_ASCII));
+
+        TimeSeriesStore store = new TimeSeriesStore(folder.newFolder("store"), 100);
+        Assert.assertEquals(3, StorageTool.importCsv(csv, store));
+
+        SeriesCursor cursor = store.query("TTN-0001", Long.MIN_VALUE, Long.MAX_VALUE);
+        Assert.assertTrue(cursor.next());
+        Assert.assertEquals(Instant.parse("2019-12-03T10:59:00Z").toEpochMilli(), cursor.getTime());
+        Assert.assertTrue(Float.isNaN(cursor.getTemp()));
+        Assert.assertTrue(cursor.next());
+        Assert.assertEquals(Instant.parse("2019-12-03T11:00:00Z").toEpochMilli(), cursor.getTime());
+        Assert.assertTrue(cursor.next());
+        // 1:30 after noon is in the afternoon
+        Assert.assertEquals(Instant.parse("2019-12-03T12:30:00Z").toEpochMilli(), cursor.getTime());
+
+        StringWriter writer = new StringWriter();
+        Assert.assertEquals(3, StorageTool.exportCsv(store, "TTN-0001", Long.MIN_VALUE, Long.MAX_VALUE, writer));
+        Assert.assertEquals(content.replace("garbage\n", ""), writer.toString());
+    }
+
+}
@@ -0,0 +1,119 @@
+package nl.bertriksikken.storage;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public final class TimeSeriesStoreTest {
+
+    private static final long T0 = 1575367200000L;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static void append(TimeSeriesStore store, String sensorId, long time, double pm10) throws IOException {
+        store.append(sensorId, time, 1.0, 2.5, pm10, Double.NaN, Double.NaN, Double.NaN);
+    }
+
+    private static int count(SeriesCursor cursor) {
+        int count = 0;
+        while (cursor.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Verifies that readings survive re-opening the store, spread over several segments.
+     */
+    @Test
+    public void testAppendAndReopen() throws IOException {
+        TimeSeriesStore store = new TimeSeriesStore(folder.getRoot(), 10);
+        for (int i = 0; i < 25; i++) {
+            append(store, "TTN-1", T0 + i * 60_000L, i);
+        }
+        store.append("TTN-2", T0, 1.0, 2.0, 3.0, 21.5, 60.0, 1013.25);
+        store.flush();
+        Assert.assertEquals(3, store.getSegmentFiles("TTN-1").size());
+
+        TimeSeriesStore reopened = new TimeSeriesStore(folder.getRoot(), 10);
+        SeriesCursor cursor = reopened.query("TTN-1", Long.MIN_VALUE, Long.MAX_VALUE);
+        for (int i = 0; i < 25; i++) {
+            Assert.assertTrue(cursor.next());
+            Assert.assertEquals(T0 + i * 60_000L, cursor.getTime());
+            Assert.assertEquals(i, cursor.getPm10(), 0.0);
+            Assert.assertTrue(Float.isNaN(cursor.getTemp()));
+        }
+        Assert.assertFalse(cursor.next());
+
+        cursor = reopened.query("TTN-2", Long.MIN_VALUE, Long.MAX_VALUE);
+        Assert.assertTrue(cursor.next());
+        Assert.assertEquals(1013.25, cursor.getPressure(), 0.001);
+        Assert.assertEquals(Arrays.asList("TTN-1", "TTN-2"), reopened.getSensorIds());
+
+        // appending continues in the last segment
+        append(reopened, "TTN-1", T0 + 25 * 60_000L, 25);
+        Assert.assertEquals(3, reopened.getSegmentFiles("TTN-1").size());
+    }
+
+    /**
+     * Verifies range scans, with the end of the range exclusive.
+     */
+    @Test
+    public void testRange() throws IOException {
+        TimeSeriesStore store = new TimeSeriesStore(folder.getRoot(), 10);
+        for (int i = 0; i < 25; i++) {
+            append(store, "TTN-1", T0 + i * 1000L, i);
+        }
+        SeriesCursor cursor = store.query("TTN-1", T0 + 8000, T0 + 12000);
+        Assert.assertTrue(cursor.next());
+        Assert.assertEquals(8.0, cursor.getPm10(), 0.0);
+        Assert.assertEquals(4, 1 + count(cursor));
+
+        Assert.assertEquals(0, count(store.query("TTN-1", T0 + 30000, T0 + 40000)));
+        Assert.assertEquals(0, count(store.query("TTN-9", Long.MIN_VALUE, Long.MAX_VALUE)));
+    }
+
+    /**
+     * Verifies that a new segment starts every day, and that purging deletes whole days including the last one.
+     */
+    @Test
+    public void testDailySegments() throws IOException {
+        TimeSeriesStore store = new TimeSeriesStore(folder.getRoot(), 1000);
+        long day = 86_400_000L;
+        long start = T0 - T0 % day;
+        for (int i = 0; i < 3; i++) {
+            append(store, "TTN-1", start + i * day + 3600_000L, i);
+            append(store, "TTN-1", start + i * day + 7200_000L, i);
+        }
+        // a late reading of the previous day stays in the current segment
+        append(store, "TTN-1", start + 2 * day - 1000L, 1);
+        Assert.assertEquals(3, store.getSegmentFiles("TTN-1").size());
+
+        Assert.assertEquals(1, store.purge("TTN-1", start + day));
+        Assert.assertEquals(start + day + 3600_000L, store.getMinTime("TTN-1"));
+        Assert.assertEquals(2, store.purge("TTN-1", start + 3 * day));
+        Assert.assertEquals(Long.MAX_VALUE, store.getMinTime("TTN-1"));
+
+        append(store, "TTN-1", start + 3 * day, 3);
+        Assert.assertEquals(1, count(store.query("TTN-1", Long.MIN_VALUE, Long.MAX_VALUE)));
+    }
+
+    /**
+     * Verifies that readings appended out of order are still found.
+     */
+    @Test
+    public void testOutOfOrder() throws IOException {
+        TimeSeriesStore store = new TimeSeriesStore(folder.getRoot(), 100);
+        append(store, "TTN-1", T0 + 2000, 2);
+        append(store, "TTN-1", T0 + 1000, 1);
+        append(store, "TTN-1", T0 + 3000, 3);
+        SeriesCursor cursor = store.query("TTN-1", T0 + 1000, T0 + 2001);
+        Assert.assertEquals(2, count(cursor));
+    }
+
+}
@@ -0,0 +1,77 @@
+package nl.bertriksikken.ttn.dto;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import nl.bertriksikken.loraforwarder.rudzl.dto.RudzlMessage;
+
+/**
+ * Compares allocation and time per uplink of the streaming decoder against the original
+ * String / ObjectMapper / Map based path.
+ *
+ * Not a unit test, run it manually as a java application.
+ */
+public final class TtnUplinkDecoderBenchmark {
+
+    private static final int WARMUP = 50_000;
+    private static final int ITERATIONS = 200_000;
+
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static double sink;
+
+    private interface Decode {
+        void run(byte[] data) throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        byte[] data = TtnUplinkDecoderTest.readResource("/ttn_rudzl_message_2.json");
+
+        Decode original = payload -> {
+            String message = new String(payload, StandardCharsets.US_ASCII);
+            ObjectMapper mapper = new ObjectMapper();
+            TtnUplinkMessage uplink = mapper.readValue(message, TtnUplinkMessage.class);
+            RudzlMessage rudzl = new RudzlMessage(uplink.getPayloadFields());
+            sink += rudzl.getPM10() + rudzl.getT() + uplink.getCounter();
+        };
+        ObjectMapper sharedMapper = new ObjectMapper();
+        Decode sharedMapperPath = payload -> {
+            TtnUplinkMessage uplink = sharedMapper.readValue(payload, TtnUplinkMessage.class);
+            RudzlMessage rudzl = new RudzlMessage(uplink.getPayloadFields());
+            sink += rudzl.getPM10() + rudzl.getT() + uplink.getCounter();
+        };
+        TtnUplinkDecoder decoder = new TtnUplinkDecoder();
+        TtnUplink uplink = new TtnUplink();
+        Decode streaming = payload -> {
+            decoder.decode(payload, payload.length, uplink);
+            sink += uplink.getPm10() + uplink.getTemp() + uplink.getCounter();
+        };
+
+        measure("original (String + new ObjectMapper + Map)", original, data, WARMUP / 10, ITERATIONS / 10);
+        measure("shared ObjectMapper + Map", sharedMapperPath, data, WARMUP, ITERATIONS);
+        measure("streaming byte[] decoder", streaming, data, WARMUP, ITERATIONS);
+    }
+
+    private static void measure(String name, Decode decode, byte[] data, int warmup, int iterations)
+            throws IOException {
+        for (int i = 0; i < warmup; i++) {
+            decode.run(data);
+        }
+        long threadId = Thread.currentThread().getId();
+        long bytesBefore = THREAD_BEAN.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            decode.run(data);
+        }
+        long nanos = System.nanoTime() - start;
+        long bytes = THREAD_BEAN.getThreadAllocatedBytes(threadId) - bytesBefore;
+        System.out.println(String.format(Locale.ROOT, "%-45s %10d bytes/op %10.0f ns/op", name,
+                bytes / iterations, (double) nanos / iterations));
+    }
+
+}
@@ -0,0 +1,96 @@
+package nl.bertriksikken.ttn.dto;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for the streaming TTN uplink decoder.
+ */
+public final class TtnUplinkDecoderTest {
+
+    private final TtnUplinkDecoder decoder = new TtnUplinkDecoder();
+
+    @Test
+    public void testDecodeRudzl() throws IOException {
+        byte[] data = readResource("/ttn_rudzl_message_2.json");
+        TtnUplink uplink = new TtnUplink();
+        Assert.assertTrue(decoder.decode(data, data.length, uplink));
+
+        Assert.assertEquals("00878E9A6221870B", uplink.getHardwareSerial());
+        Assert.assertEquals(1, uplink.getPort());
+        Assert.assertEquals(1439, uplink.getCounter());
+        Assert.assertEquals(2.0, uplink.getPm10(), 0.01);
+        Assert.assertEquals(1.9, uplink.getPm2_5(), 0.01);
+        Assert.assertEquals(25.36, uplink.getTemp(), 0.01);
+        Assert.assertEquals(52.83, uplink.getRh(), 0.01);
+        Assert.assertEquals(1027.0, uplink.getPressure(), 0.1);
+        // not in the message
+        Assert.assertTrue(Double.isNaN(uplink.getPm1()));
+    }
+
+    @Test
+    public void testDecodeNoPayloadFields() throws IOException {
+        byte[] data = readResource("/ttn_mqtt_message.json");
+        TtnUplink uplink = new TtnUplink();
+        Assert.assertTrue(decoder.decode(data, data.length, uplink));
+
+        Assert.assertEquals("000084B14CA4AE30", uplink.getHardwareSerial());
+        Assert.assertEquals(33, uplink.getCounter());
+        Assert.assertTrue(Double.isNaN(uplink.getPm10()));
+
+        // "AMYAj/////8="
+        byte[] expected = new byte[] { 0x00, (byte) 0xC6, 0x00, (byte) 0x8F, -1, -1, -1, -1 };
+        Assert.assertEquals(expected.length, uplink.getRawLength());
+        Assert.assertArrayEquals(expected, Arrays.copyOf(uplink.getRawPayload(), uplink.getRawLength()));
+    }
+
+    @Test
+    public void testReuse() throws IOException {
+        TtnUplink uplink = new TtnUplink();
+        byte[] first = readResource("/ttn_rudzl_message.json");
+        Assert.assertTrue(decoder.decode(first, first.length, uplink));
+        Assert.assertEquals(23.55, uplink.getTemp(), 0.01);
+
+        byte[] second = "{\"hardware_serial\":\"0102\",\"payload_fields\":{\"T\":\"x\"}}"
+                .getBytes(StandardCharsets.US_ASCII);
+        Assert.assertTrue(decoder.decode(second, second.length, uplink));
+        Assert.assertEquals("0102", uplink.getHardwareSerial());
+        Assert.assertTrue(Double.isNaN(uplink.getTemp()));
+    }
+
+    /**
+     * Verifies that a 32-bit frame counter above 2^31 stays positive.
+     */
+    @Test
+    public void testLargeCounter() throws IOException {
+        byte[] data = "{\"hardware_serial\":\"0001\",\"counter\":3000000000}".getBytes(StandardCharsets.US_ASCII);
+        TtnUplink uplink = new TtnUplink();
+        Assert.assertTrue(decoder.decode(data, data.length, uplink));
+        Assert.assertEquals(3000000000L, uplink.getCounter());
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecodeInvalid() throws IOException {
+        byte[] data = "{\"hardware_serial\":".getBytes(StandardCharsets.US_ASCII);
+        decoder.decode(data, data.length, new TtnUplink());
+    }
+
+    static byte[] readResource(String name) throws IOException {
+        try (InputStream is = TtnUplinkDecoderTest.class.getResourceAsStream(name)) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = is.read(buffer)) > 0) {
+                bos.write(buffer, 0, n);
+            }
+            return bos.toByteArray();
+        }
+    }
+
+}